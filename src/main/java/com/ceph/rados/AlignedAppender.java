@@ -0,0 +1,251 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.RadosException;
+
+import java.util.Arrays;
+
+/**
+ * Appends to an object in whole stripes of its pool.
+ *
+ * Erasure coded pools without overwrite support only accept appends which
+ * start at a multiple of the stripe width, otherwise they fail or, with
+ * overwrites enabled, turn into a read-modify-write of the last stripe. The
+ * appender buffers data and appends whole stripes only, several of them at a
+ * time; the remainder is carried over to the next append. On close() the
+ * remainder is either appended as the final, unaligned part of the object or
+ * padded with zeros to a whole stripe.
+ *
+ * Only one append is in flight at a time: appends submitted through an
+ * ASYNC-mode limiter may reach librados in any order, and appends which
+ * overtake each other would swap data in the object. The next buffer is
+ * filled while the previous append is in flight.
+ *
+ * Once an append failed the object has a hole, so the appender fails every
+ * later append(), flush() and close() with the same exception.
+ *
+ * On pools which do not require alignment data is still batched into large
+ * appends. An appender is not thread safe.
+ */
+public class AlignedAppender implements AutoCloseable {
+
+    private static final int TARGET_APPEND_SIZE = 4 << 20;
+
+    private final IoCTX io;
+    private final ObjectId oid;
+    private final int alignment;
+    private final byte[] buffer;
+    private RadosFuture<Integer> inFlight;
+    private RadosException failure;
+    private int used;
+    private long appended;
+    private boolean padTail;
+    private boolean closed;
+
+    /**
+     * Create a new appender, the alignment is discovered from the pool
+     *
+     * The object should not exist yet or have a size which is a multiple of
+     * the alignment.
+     *
+     * @param io
+     *          The context of the object
+     * @param oid
+     *          The object to append to
+     * @throws RadosException
+     */
+    public AlignedAppender(IoCTX io, String oid) throws RadosException {
+        this(io, oid, io.isAlignmentRequired() ? io.getRequiredAlignment() : 1);
+    }
+
+    /**
+     * Create a new appender with a given alignment
+     *
+     * @param io
+     *          The context of the object
+     * @param oid
+     *          The object to append to
+     * @param alignment
+     *          The stripe width in bytes
+     */
+    public AlignedAppender(IoCTX io, String oid, long alignment) {
+        if (alignment < 1 || alignment > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The alignment should be between 1 and " + Integer.MAX_VALUE);
+        }
+        this.io = io;
+        this.oid = new ObjectId(oid);
+        this.alignment = (int) alignment;
+        this.buffer = new byte[bufferSize(this.alignment)];
+    }
+
+    /**
+     * @return the largest multiple of the alignment up to TARGET_APPEND_SIZE, at least one stripe
+     */
+    static int bufferSize(int alignment) {
+        return alignment >= TARGET_APPEND_SIZE ? alignment : TARGET_APPEND_SIZE / alignment * alignment;
+    }
+
+    /**
+     * @param padTail
+     *          Pad the remainder with zeros to a whole stripe on close(), so the
+     *          object can be appended to again later. Off by default, then the
+     *          remainder is appended as is and ends the object.
+     */
+    public void setPadTail(boolean padTail) {
+        this.padTail = padTail;
+    }
+
+    /**
+     * @return the alignment appends are made with
+     */
+    public int getAlignment() {
+        return alignment;
+    }
+
+    /**
+     * Append data, whole stripes are appended once the buffer is full
+     *
+     * @param buf
+     *          The data to append
+     * @throws RadosException
+     *          if an earlier append failed
+     */
+    public void append(byte[] buf) throws RadosException {
+        append(buf, 0, buf.length);
+    }
+
+    /**
+     * Append data, whole stripes are appended once the buffer is full
+     *
+     * @param buf
+     *          The data to append
+     * @param offset
+     *          The offset of the data in buf
+     * @param len
+     *          The number of bytes to append
+     * @throws RadosException
+     *          if an earlier append failed
+     */
+    public void append(byte[] buf, int offset, int len) throws RadosException {
+        if (closed) {
+            throw new IllegalStateException("The appender is closed");
+        }
+        checkFailure();
+        if (offset < 0 || len < 0 || offset + len > buf.length) {
+            throw new IndexOutOfBoundsException("Invalid offset or length");
+        }
+        while (len > 0) {
+            final int n = Math.min(len, buffer.length - used);
+            System.arraycopy(buf, offset, buffer, used, n);
+            used += n;
+            offset += n;
+            len -= n;
+            if (used == buffer.length) {
+                submit(used);
+            }
+        }
+    }
+
+    /**
+     * Append all whole stripes in the buffer and wait for all appends, the
+     * remainder stays in the buffer
+     *
+     * @throws RadosException
+     *          if this or an earlier append failed
+     */
+    public void flush() throws RadosException {
+        checkFailure();
+        final int whole = used / alignment * alignment;
+        if (whole > 0) {
+            submit(whole);
+        }
+        awaitInFlight();
+    }
+
+    /**
+     * Append the buffered data including the remainder and wait for all appends
+     *
+     * @throws RadosException
+     *          if this or an earlier append failed
+     */
+    @Override
+    public void close() throws RadosException {
+        if (closed) {
+            return;
+        }
+        flush();
+        if (used > 0) {
+            if (padTail) {
+                final int padded = (used + alignment - 1) / alignment * alignment;
+                Arrays.fill(buffer, used, padded, (byte) 0);
+                used = padded;
+            }
+            submit(used);
+            awaitInFlight();
+        }
+        closed = true;
+    }
+
+    private void submit(int len) throws RadosException {
+        awaitInFlight();
+        // the data is copied on submission, so the buffer can be reused right away
+        try {
+            inFlight = io.aioAppend(oid, buffer, len);
+        } catch (RadosException e) {
+            failure = e;
+            throw e;
+        }
+        appended += len;
+        used -= len;
+        System.arraycopy(buffer, len, buffer, 0, used);
+    }
+
+    private void awaitInFlight() throws RadosException {
+        final RadosFuture<Integer> previous = inFlight;
+        if (previous == null) {
+            return;
+        }
+        inFlight = null;
+        try {
+            previous.await();
+        } catch (RadosException e) {
+            failure = e;
+            throw e;
+        }
+    }
+
+    private void checkFailure() throws RadosException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return the number of bytes carried over to the next append
+     */
+    public int getBufferedBytes() {
+        return used;
+    }
+
+    /**
+     * @return the number of bytes submitted to the object, including padding
+     */
+    public long getAppendedBytes() {
+        return appended;
+    }
+}
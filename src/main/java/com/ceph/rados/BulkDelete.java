@@ -0,0 +1,554 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.ErrorCode;
+import com.ceph.rados.exceptions.RadosException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/**
+ * Removes the objects of a pool which match a filter.
+ *
+ * The pool is listed placement group by placement group, several placement
+ * groups at the same time, and matching objects are removed asynchronously
+ * while the listing goes on. The number of removals in flight and the rate at
+ * which they are submitted are bounded.
+ *
+ * A placement group is complete once every matching object in it was removed.
+ * Completed placement groups are recorded in the checkpoint, so an interrupted
+ * run resumes with the remaining ones. Objects which are already gone count as
+ * removed, which makes repeating a placement group harmless. If the number of
+ * placement groups changed in between, the checkpoint is ignored.
+ *
+ * Objects stored with a locator key are not removed, they are counted as
+ * skipped.
+ */
+public class BulkDelete {
+
+    /**
+     * Selects the objects to remove
+     */
+    public interface Filter {
+        boolean accept(String namespace, String oid);
+    }
+
+    /**
+     * Records the completed placement groups of a run
+     */
+    public interface Checkpoint {
+        /**
+         * @param pgNum
+         *          The number of placement groups of the pool
+         * @return the placement groups completed earlier with the same number of placement groups
+         * @throws IOException
+         */
+        Set<Integer> load(int pgNum) throws IOException;
+
+        /**
+         * @param pgNum
+         *          The number of placement groups of the pool
+         * @param pg
+         *          The placement group which is complete
+         * @throws IOException
+         */
+        void completed(int pgNum, int pg) throws IOException;
+    }
+
+    /**
+     * @param prefix
+     *          The prefix of the names of the objects to remove
+     * @return a filter which accepts objects in any namespace whose name starts with the prefix
+     */
+    public static Filter prefix(final String prefix) {
+        return new Filter() {
+            @Override
+            public boolean accept(String namespace, String oid) {
+                return oid.startsWith(prefix);
+            }
+        };
+    }
+
+    /**
+     * @param regex
+     *          The regular expression the whole name of the objects to remove should match
+     * @return a filter which accepts objects in any namespace whose name matches
+     */
+    public static Filter regex(String regex) {
+        final Pattern pattern = Pattern.compile(regex);
+        return new Filter() {
+            @Override
+            public boolean accept(String namespace, String oid) {
+                return pattern.matcher(oid).matches();
+            }
+        };
+    }
+
+    /**
+     * A checkpoint in a local file, one line per completed placement group.
+     *
+     * Lines are appended as placement groups complete; a line torn by a crash
+     * is ignored on load.
+     */
+    public static class FileCheckpoint implements Checkpoint {
+        private static final Charset ASCII = Charset.forName("US-ASCII");
+
+        private final File file;
+
+        public FileCheckpoint(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public Set<Integer> load(int pgNum) throws IOException {
+            final Set<Integer> pgs = new HashSet<Integer>();
+            if (!file.exists()) {
+                return pgs;
+            }
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            final InputStream in = new FileInputStream(file);
+            try {
+                final byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    content.write(buf, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+            final String[] lines = new String(content.toByteArray(), ASCII).split("\n", -1);
+            // the last element follows the last newline, it is empty or torn
+            for (int i = 0; i < lines.length - 1; i++) {
+                final String[] fields = lines[i].split(" ");
+                if (fields.length == 2 && Integer.parseInt(fields[0]) == pgNum) {
+                    pgs.add(Integer.parseInt(fields[1]));
+                }
+            }
+            return pgs;
+        }
+
+        @Override
+        public synchronized void completed(int pgNum, int pg) throws IOException {
+            final OutputStream out = new FileOutputStream(file, true);
+            try {
+                out.write((pgNum + " " + pg + "\n").getBytes(ASCII));
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * The removals of a placement group, it is complete when the listing and
+     * all removals finished without a failure
+     */
+    private final class PgState {
+        private final int pg;
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private volatile boolean incomplete;
+
+        private PgState(int pg) {
+            this.pg = pg;
+        }
+
+        private void done() {
+            if (pending.decrementAndGet() > 0 || incomplete) {
+                return;
+            }
+            // usually called from a completion callback, the checkpoint is recorded by a worker
+            finishedPgs.add(pg);
+        }
+    }
+
+    private final IoCTX io;
+    private final int pgNum;
+    private final Filter filter;
+    private int concurrency = 4;
+    private int maxInFlight = 64;
+    private Pacer pacer;
+    private boolean dryRun;
+    private Checkpoint checkpoint;
+
+    private final AtomicLong listed = new AtomicLong();
+    private final AtomicLong matched = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicInteger completedPgs = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Integer> finishedPgs = new ConcurrentLinkedQueue<Integer>();
+    private final AtomicReference<RadosException> error = new AtomicReference<RadosException>();
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private volatile boolean running;
+    private volatile boolean stopped;
+
+    /**
+     * Create a new bulk delete of the objects in the namespace of a context,
+     * or of all namespaces if it is set to IoCTX.ALL_NAMESPACES
+     *
+     * @param cluster
+     *          The connected cluster, to look up the number of placement groups
+     * @param io
+     *          The context of the pool
+     * @param filter
+     *          Selects the objects to remove
+     * @throws RadosException
+     */
+    public BulkDelete(Rados cluster, IoCTX io, Filter filter) throws RadosException {
+        this(io, PlacementMap.loadPgNum(cluster, io), filter);
+    }
+
+    BulkDelete(IoCTX io, int pgNum, Filter filter) {
+        this.io = io;
+        this.pgNum = pgNum;
+        this.filter = filter;
+    }
+
+    /**
+     * @param concurrency
+     *          The number of placement groups listed at the same time, 4 by default
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("The concurrency should be at least 1");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @param maxInFlight
+     *          The maximum number of removals in flight, 64 by default
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("At least one removal should be in flight");
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @param opsPerSecond
+     *          The maximum number of removals submitted per second, 0 for no limit
+     */
+    public void setRateLimit(double opsPerSecond) {
+        this.pacer = opsPerSecond > 0 ? new Pacer(opsPerSecond) : null;
+    }
+
+    /**
+     * @param dryRun
+     *          Only list and count the matching objects, without removing them
+     *          or recording the checkpoint
+     */
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * @param checkpoint
+     *          Where to load completed placement groups from and record them
+     */
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Remove the matching objects, blocks until every placement group was
+     * listed and every removal finished
+     *
+     * Removals which failed are counted and leave their placement group
+     * incomplete, so a resumed run tries them again.
+     *
+     * @throws RadosException
+     *          if listing failed, the checkpoint could not be used or when interrupted
+     */
+    public void run() throws RadosException {
+        synchronized (this) {
+            if (running) {
+                throw new IllegalStateException("The bulk delete is already running");
+            }
+            running = true;
+            stopped = false;
+        }
+        error.set(null);
+        listed.set(0);
+        matched.set(0);
+        removed.set(0);
+        failed.set(0);
+        skipped.set(0);
+        finishedPgs.clear();
+        try {
+            Set<Integer> done = Collections.emptySet();
+            if (checkpoint != null && !dryRun) {
+                try {
+                    done = checkpoint.load(pgNum);
+                } catch (IOException e) {
+                    throw new RadosException("Failed to load the checkpoint", e);
+                }
+            }
+            final ConcurrentLinkedQueue<Integer> pgs = new ConcurrentLinkedQueue<Integer>();
+            for (int pg = 0; pg < pgNum; pg++) {
+                if (!done.contains(pg)) {
+                    pgs.add(pg);
+                }
+            }
+            completedPgs.set(pgNum - pgs.size());
+            startNanos = System.nanoTime();
+            endNanos = 0;
+            execute(pgs);
+        } finally {
+            endNanos = System.nanoTime();
+            running = false;
+        }
+        final RadosException e = error.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    private void execute(final ConcurrentLinkedQueue<Integer> pgs) throws RadosException {
+        final boolean allNamespaces = IoCTX.ALL_NAMESPACES.equals(io.getNamespace());
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "rados-bulk-delete");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (int i = 0; i < concurrency; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Integer pg;
+                    while (!stopped && error.get() == null && (pg = pgs.poll()) != null) {
+                        try {
+                            deletePg(pg, allNamespaces, inFlight);
+                        } catch (RadosException e) {
+                            error.compareAndSet(null, e);
+                        }
+                        recordFinished();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            // all permits are back once the last removal finished
+            inFlight.acquire(maxInFlight);
+        } catch (InterruptedException e) {
+            stopped = true;
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RadosException("Interrupted while removing objects", ErrorCode.EINTR.getErrorCode());
+        } finally {
+            recordFinished();
+        }
+    }
+
+    /**
+     * Record the placement groups whose last removal finished in the checkpoint
+     */
+    private void recordFinished() {
+        Integer pg;
+        while ((pg = finishedPgs.poll()) != null) {
+            if (checkpoint != null && !dryRun) {
+                try {
+                    checkpoint.completed(pgNum, pg);
+                } catch (IOException e) {
+                    error.compareAndSet(null, new RadosException("Failed to record placement group " + pg
+                                                                 + " in the checkpoint", e));
+                }
+            }
+            completedPgs.incrementAndGet();
+        }
+    }
+
+    private void deletePg(int pg, final boolean allNamespaces, final Semaphore inFlight) throws RadosException {
+        final PgState state = new PgState(pg);
+        try {
+            final boolean listedAll = PgListing.list(io, pg, new PgListing.Visitor() {
+                @Override
+                public boolean visit(String namespace, String oid, String key) throws RadosException {
+                    if (stopped) {
+                        return false;
+                    }
+                    listed.incrementAndGet();
+                    if (!filter.accept(namespace, oid)) {
+                        return true;
+                    }
+                    matched.incrementAndGet();
+                    if (key != null) {
+                        skipped.incrementAndGet();
+                    } else if (!dryRun) {
+                        remove(state, allNamespaces ? io.withNamespace(namespace) : io, oid, inFlight);
+                    }
+                    return true;
+                }
+            });
+            if (!listedAll) {
+                state.incomplete = true;
+            }
+        } catch (RadosException e) {
+            state.incomplete = true;
+            throw e;
+        } finally {
+            state.done();
+        }
+    }
+
+    private void remove(final PgState state, IoCTX target, String oid, final Semaphore inFlight)
+            throws RadosException {
+        try {
+            inFlight.acquire();
+            if (pacer != null) {
+                pacer.acquire(1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            state.incomplete = true;
+            throw new RadosException("Interrupted while removing objects", ErrorCode.EINTR.getErrorCode());
+        }
+        state.pending.incrementAndGet();
+        final RadosFuture<Integer> future;
+        try {
+            future = target.aioRemove(oid);
+        } catch (RadosException e) {
+            failed.incrementAndGet();
+            state.incomplete = true;
+            state.done();
+            inFlight.release();
+            return;
+        }
+        future.addCallback(new RadosFuture.Callback<Integer>() {
+            @Override
+            public void onSuccess(Integer rv) {
+                removed.incrementAndGet();
+                state.done();
+                inFlight.release();
+            }
+
+            @Override
+            public void onFailure(RadosException e) {
+                if (e.getReturnValue() == ErrorCode.ENOENT.getErrorCode()) {
+                    removed.incrementAndGet();
+                } else {
+                    failed.incrementAndGet();
+                    state.incomplete = true;
+                }
+                state.done();
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * Stop listing, removals in flight still finish and run() returns afterwards
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @return true while run() is in progress
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the number of placement groups of the pool
+     */
+    public int getPgNum() {
+        return pgNum;
+    }
+
+    /**
+     * @return the number of completed placement groups, including those of the checkpoint
+     */
+    public int getCompletedPgCount() {
+        return completedPgs.get();
+    }
+
+    /**
+     * @return the number of listed objects
+     */
+    public long getListedCount() {
+        return listed.get();
+    }
+
+    /**
+     * @return the number of objects accepted by the filter
+     */
+    public long getMatchedCount() {
+        return matched.get();
+    }
+
+    /**
+     * @return the number of removed objects, including those which were already gone
+     */
+    public long getRemovedCount() {
+        return removed.get();
+    }
+
+    /**
+     * @return the number of failed removals
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of matching objects with a locator key which were not removed
+     */
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * @return the average number of removals per second of the current or last run
+     */
+    public double getRemovedPerSecond() {
+        final long start = startNanos;
+        if (start == 0) {
+            return 0;
+        }
+        final long elapsed = (endNanos != 0 ? endNanos : System.nanoTime()) - start;
+        return elapsed <= 0 ? 0 : removed.get() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+}
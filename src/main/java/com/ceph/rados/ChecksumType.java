@@ -0,0 +1,46 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+/**
+ * Checksum algorithms which the OSDs can compute (LIBRADOS_CHECKSUM_TYPE_*)
+ */
+public enum ChecksumType {
+
+    XXHASH32(0, 4),
+    XXHASH64(1, 8),
+    CRC32C(2, 4);
+
+    private final int value;
+    private final int size;
+
+    private ChecksumType(int value, int size) {
+        this.value = value;
+        this.size = size;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * @return the size of a single checksum in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+}
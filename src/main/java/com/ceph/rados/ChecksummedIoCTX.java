@@ -0,0 +1,468 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.ErrorCode;
+import com.ceph.rados.exceptions.RadosException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Protects whole objects with client-side CRC-32C checksums.
+ *
+ * writeFull() computes one checksum per chunk of the data and stores them in
+ * the extended attribute CHECKSUM_XATTR with the same compound write as the
+ * data. Reads fetch the checksums together with the data, verify every chunk
+ * they cover while the data streams in and fail with EIO on a mismatch.
+ * verify() lets the OSDs checksum the object and compares the result with the
+ * stored checksums, without transferring the data.
+ *
+ * Objects have to be written through writeFull(); writing at an offset or
+ * appending through the IoCTX leaves stale checksums behind, which reads
+ * report as a mismatch.
+ */
+public class ChecksummedIoCTX {
+
+    /**
+     * The extended attribute holding the chunk size, the length and the checksums of an object
+     */
+    public static final String CHECKSUM_XATTR = "rados-java.crc32c";
+
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    private static final int READ_RANGE = 4 << 20;
+
+    /**
+     * The stored checksums of an object
+     */
+    static final class Checksums {
+        private static final int HEADER = 12;
+
+        final int chunkSize;
+        final long length;
+        final long[] crcs;
+
+        Checksums(int chunkSize, long length, long[] crcs) {
+            this.chunkSize = chunkSize;
+            this.length = length;
+            this.crcs = crcs;
+        }
+
+        static Checksums compute(byte[] buf, int len, int chunkSize) {
+            final long[] crcs = new long[(len + chunkSize - 1) / chunkSize];
+            for (int i = 0; i < crcs.length; i++) {
+                final int start = i * chunkSize;
+                crcs[i] = Crc32c.compute(buf, start, Math.min(chunkSize, len - start));
+            }
+            return new Checksums(chunkSize, len, crcs);
+        }
+
+        byte[] encode() {
+            final ByteBuffer buf = ByteBuffer.allocate(HEADER + 4 * crcs.length).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(chunkSize);
+            buf.putLong(length);
+            for (long crc : crcs) {
+                buf.putInt((int) crc);
+            }
+            return buf.array();
+        }
+
+        /**
+         * @return the checksums or null if the value is malformed
+         */
+        static Checksums decode(byte[] value) {
+            if (value.length < HEADER) {
+                return null;
+            }
+            final ByteBuffer buf = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN);
+            final int chunkSize = buf.getInt();
+            final long length = buf.getLong();
+            if (chunkSize < 1 || length < 0 || (length + chunkSize - 1) / chunkSize != (value.length - HEADER) / 4
+                    || (value.length - HEADER) % 4 != 0) {
+                return null;
+            }
+            final long[] crcs = new long[(value.length - HEADER) / 4];
+            for (int i = 0; i < crcs.length; i++) {
+                crcs[i] = buf.getInt() & 0xffffffffL;
+            }
+            return new Checksums(chunkSize, length, crcs);
+        }
+
+        /**
+         * Verify the chunks in a range of the object
+         *
+         * @param data
+         *          The buffer holding the range, which ends at a chunk boundary or the end of the object
+         * @param dataOffset
+         *          The position of the range in data
+         * @param offset
+         *          The offset of the data in the object, at a chunk boundary
+         * @param len
+         *          The length of the data
+         * @return the offset of the first chunk which does not match, -1 if all match
+         */
+        long verify(byte[] data, int dataOffset, long offset, int len) {
+            for (int pos = 0; pos < len; pos += chunkSize) {
+                final int n = Math.min(chunkSize, len - pos);
+                final int chunk = (int) ((offset + pos) / chunkSize);
+                if (chunk >= crcs.length || Crc32c.compute(data, dataOffset + pos, n) != crcs[chunk]) {
+                    return offset + pos;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return the length of the whole chunks, the rest is the partial last chunk
+         */
+        long alignedLength() {
+            return length / chunkSize * chunkSize;
+        }
+
+        /**
+         * Compare with the checksums computed by the OSDs, which neither
+         * complement the initial value nor the result
+         *
+         * @param chunks
+         *          The checksums of the whole chunks
+         * @param tail
+         *          The checksum of the partial last chunk, ignored if the length is chunk aligned
+         * @return the index of the first chunk which does not match, -1 if all match
+         */
+        int compareOsd(long[] chunks, long tail) {
+            final int whole = (int) (alignedLength() / chunkSize);
+            for (int i = 0; i < whole; i++) {
+                if (i >= chunks.length || (~chunks[i] & 0xffffffffL) != crcs[i]) {
+                    return i;
+                }
+            }
+            if (whole < crcs.length && (~tail & 0xffffffffL) != crcs[whole]) {
+                return whole;
+            }
+            return -1;
+        }
+    }
+
+    private final IoCTX io;
+    private final int chunkSize;
+    private final AtomicLong verifiedBytes = new AtomicLong();
+    private final AtomicLong mismatches = new AtomicLong();
+
+    /**
+     * Create a new checksumming view of a context with 1 MiB chunks
+     *
+     * @param io
+     *          The context to store the objects in
+     */
+    public ChecksummedIoCTX(IoCTX io) {
+        this(io, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create a new checksumming view of a context
+     *
+     * @param io
+     *          The context to store the objects in
+     * @param chunkSize
+     *          The length of data covered by one checksum, reads are widened to whole chunks
+     */
+    public ChecksummedIoCTX(IoCTX io, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size should be at least 1 byte");
+        }
+        this.io = io;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return the underlying context
+     */
+    public IoCTX getIoCTX() {
+        return io;
+    }
+
+    /**
+     * Write an entire object together with its checksums
+     *
+     * @param oid
+     *          The object to write to
+     * @param buf
+     *          The content to write
+     * @param len
+     *          The length of the data to write
+     * @throws RadosException
+     */
+    public void writeFull(String oid, byte[] buf, int len) throws RadosException {
+        if (len < 0 || len > buf.length) {
+            throw new IllegalArgumentException("Length should be between 0 and " + buf.length);
+        }
+        final WriteOp op = io.writeOpCreate();
+        try {
+            op.queueWriteFull(buf, len);
+            op.queueSetXattr(CHECKSUM_XATTR, Checksums.compute(buf, len, chunkSize).encode());
+            op.operateAsync(oid, 0).await();
+        } finally {
+            io.writeOpRelease(op);
+        }
+    }
+
+    private Checksums checksums(String oid, byte[] value, long size) throws RadosException {
+        if (value == null) {
+            throw new RadosException("Object " + oid + " has no checksums", ErrorCode.ENODATA.getErrorCode());
+        }
+        final Checksums sums = Checksums.decode(value);
+        if (sums == null) {
+            throw new RadosException("Invalid checksums of object " + oid, ErrorCode.EIO.getErrorCode());
+        }
+        if (sums.length != size) {
+            mismatches.incrementAndGet();
+            throw new RadosException("Object " + oid + " has " + size + " bytes but checksums of " + sums.length,
+                                     ErrorCode.EIO.getErrorCode());
+        }
+        return sums;
+    }
+
+    private void verifyRange(String oid, Checksums sums, byte[] data, int dataOffset, long offset, int len)
+            throws RadosException {
+        final long bad = sums.verify(data, dataOffset, offset, len);
+        if (bad >= 0) {
+            mismatches.incrementAndGet();
+            throw new RadosException("Checksum mismatch in object " + oid + " at offset " + bad,
+                                     ErrorCode.EIO.getErrorCode());
+        }
+        verifiedBytes.addAndGet(len);
+    }
+
+    /**
+     * Read data from an object, verifying the chunks the range touches
+     *
+     * @param oid
+     *          The object's name
+     * @param length
+     *          Amount of bytes to read
+     * @param offset
+     *          The offset where to start reading
+     * @param buf
+     *          The buffer to store the result
+     * @return the number of bytes read
+     * @throws RadosException
+     *          with EIO if the data does not match its checksums
+     */
+    public int read(String oid, int length, long offset, byte[] buf) throws RadosException {
+        if (length < 0 || length > buf.length) {
+            throw new IllegalArgumentException("Length should be between 0 and " + buf.length);
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset shouldn't be a negative value");
+        }
+        final ReadOp op = io.readOpCreate();
+        try {
+            final ReadOp.StatResult stat = op.queueStat();
+            final ReadOp.XattrResult xattr = op.queueGetXattr(CHECKSUM_XATTR);
+            // the chunk size of the object is not known yet, so the range is widened to chunks of this view
+            final long start = offset / chunkSize * chunkSize;
+            final long end = (offset + length + chunkSize - 1) / chunkSize * chunkSize;
+            final ReadOp.ReadResult data = op.queueRead(start, end - start);
+            op.operateAsync(oid, 0).await();
+
+            final Checksums sums = checksums(oid, xattr.getValue(), stat.getSize());
+            final int n = (int) data.getBytesRead();
+            final byte[] range = new byte[n];
+            final ByteBuffer src = data.getBuffer().duplicate();
+            src.clear();
+            src.get(range);
+            if (sums.chunkSize != chunkSize) {
+                return readWithChunkSize(oid, sums, length, offset, buf);
+            }
+            verifyRange(oid, sums, range, 0, start, n);
+            final int copied = (int) Math.max(0, Math.min(length, n - (offset - start)));
+            System.arraycopy(range, (int) (offset - start), buf, 0, copied);
+            return copied;
+        } finally {
+            io.readOpRelease(op);
+        }
+    }
+
+    private int readWithChunkSize(String oid, Checksums sums, int length, long offset, byte[] buf)
+            throws RadosException {
+        // written with another chunk size, read again with the chunks of the object
+        return new ChecksummedIoCTX(io, sums.chunkSize).read(oid, length, offset, buf);
+    }
+
+    /**
+     * Read an entire object in ranges, verifying each range as it arrives
+     *
+     * @param oid
+     *          The object to read
+     * @return the content of the object
+     * @throws RadosException
+     *          with EIO if the data does not match its checksums
+     */
+    public byte[] read(String oid) throws RadosException {
+        while (true) {
+            final Checksums sums;
+            final long version;
+            final byte[] content;
+            int pos;
+            final ReadOp op = io.readOpCreate();
+            try {
+                final ReadOp.StatResult stat = op.queueStat();
+                final ReadOp.XattrResult xattr = op.queueGetXattr(CHECKSUM_XATTR);
+                final ReadOp.ReadResult head = op.queueRead(0, READ_RANGE);
+                op.operateAsync(oid, 0).await();
+                sums = checksums(oid, xattr.getValue(), stat.getSize());
+                version = op.getVersion();
+                if (sums.length > Integer.MAX_VALUE) {
+                    throw new RadosException("Object " + oid + " is too large to be read into a byte[]");
+                }
+                content = new byte[(int) sums.length];
+                pos = (int) Math.min(content.length, head.getBytesRead());
+                final ByteBuffer src = head.getBuffer().duplicate();
+                src.clear();
+                src.get(content, 0, pos);
+            } finally {
+                io.readOpRelease(op);
+            }
+
+            final int range = Math.max(1, READ_RANGE / sums.chunkSize) * sums.chunkSize;
+            // verify whole chunks of the first range, a partial chunk is verified with the next range
+            int verified = pos == content.length ? pos : pos / sums.chunkSize * sums.chunkSize;
+            verifyRange(oid, sums, content, 0, 0, verified);
+            boolean changed = false;
+            while (verified < content.length) {
+                final int n = Math.min(range, content.length - verified);
+                if (pos < verified + n && !readRange(oid, version, content, pos, verified + n - pos)) {
+                    changed = true;
+                    break;
+                }
+                pos = verified + n;
+                verifyRange(oid, sums, content, verified, verified, n);
+                verified += n;
+            }
+            if (!changed) {
+                return content;
+            }
+        }
+    }
+
+    /**
+     * @return false if the object is no longer the given version
+     */
+    private boolean readRange(String oid, long version, byte[] content, int offset, int len) throws RadosException {
+        final ReadOp op = io.readOpCreate();
+        try {
+            op.queueAssertVersion(version);
+            final ReadOp.ReadResult data = op.queueRead(offset, len);
+            try {
+                op.operateAsync(oid, 0).await();
+            } catch (RadosException e) {
+                if (e.getReturnValue() == ErrorCode.ERANGE.getErrorCode()
+                        || e.getReturnValue() == ErrorCode.EOVERFLOW.getErrorCode()) {
+                    return false;
+                }
+                throw e;
+            }
+            final ByteBuffer src = data.getBuffer().duplicate();
+            src.clear();
+            src.get(content, offset, len);
+            return true;
+        } finally {
+            io.readOpRelease(op);
+        }
+    }
+
+    /**
+     * Let the OSDs checksum the object and compare the result with the stored
+     * checksums, without transferring the data
+     *
+     * @param oid
+     *          The object to verify
+     * @return true if the data matches its checksums
+     * @throws RadosException
+     */
+    public boolean verify(String oid) throws RadosException {
+        while (true) {
+            final Checksums sums;
+            final long version;
+            final ReadOp op = io.readOpCreate();
+            try {
+                final ReadOp.StatResult stat = op.queueStat();
+                final ReadOp.XattrResult xattr = op.queueGetXattr(CHECKSUM_XATTR);
+                op.operateAsync(oid, 0).await();
+                try {
+                    sums = checksums(oid, xattr.getValue(), stat.getSize());
+                } catch (RadosException e) {
+                    if (e.getReturnValue() == ErrorCode.EIO.getErrorCode()) {
+                        return false;
+                    }
+                    throw e;
+                }
+                version = op.getVersion();
+            } finally {
+                io.readOpRelease(op);
+            }
+            if (sums.length == 0) {
+                return true;
+            }
+
+            final ReadOp check = io.readOpCreate();
+            try {
+                check.queueAssertVersion(version);
+                // the OSDs reject chunked checksums of a length which is not a multiple of the chunk size,
+                // so the partial last chunk is checksummed by a sub-operation of its own
+                final long aligned = sums.alignedLength();
+                final ReadOp.ChecksumResult chunks = aligned > 0
+                        ? check.queueChecksum(ChecksumType.CRC32C, -1, 0, aligned, sums.chunkSize) : null;
+                final ReadOp.ChecksumResult tail = aligned < sums.length
+                        ? check.queueChecksum(ChecksumType.CRC32C, -1, aligned, sums.length - aligned, 0) : null;
+                try {
+                    check.operateAsync(oid, 0).await();
+                } catch (RadosException e) {
+                    if (e.getReturnValue() == ErrorCode.ERANGE.getErrorCode()
+                            || e.getReturnValue() == ErrorCode.EOVERFLOW.getErrorCode()) {
+                        continue;
+                    }
+                    throw e;
+                }
+                if (sums.compareOsd(chunks == null ? new long[0] : chunks.getChecksums(),
+                                    tail == null ? 0 : tail.getChecksums()[0]) >= 0) {
+                    mismatches.incrementAndGet();
+                    return false;
+                }
+                verifiedBytes.addAndGet(sums.length);
+                return true;
+            } finally {
+                io.readOpRelease(check);
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes verified by reads and verify()
+     */
+    public long getVerifiedBytes() {
+        return verifiedBytes.get();
+    }
+
+    /**
+     * @return the number of detected mismatches
+     */
+    public long getMismatchCount() {
+        return mismatches.get();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import com.sun.jna.Pointer;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static com.ceph.rados.Library.rados;
+
+/**
+ * Output of a monitor, OSD or PG command.
+ *
+ * The output stays in the buffer allocated by librados and is exposed as a
+ * read-only ByteBuffer without copying it. The buffer is released by close(),
+ * the ByteBuffer must not be used afterwards.
+ */
+public class CommandResult implements Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private Pointer outbuf;
+    private final long length;
+    private final String status;
+
+    CommandResult(Pointer outbuf, long length, String status) {
+        this.outbuf = outbuf;
+        this.length = length;
+        this.status = status;
+    }
+
+    /**
+     * @return the status message of the command
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the length of the output in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return a read-only view of the native output buffer
+     */
+    public ByteBuffer getOutput() {
+        if (length == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        if (outbuf == null) {
+            throw new IllegalStateException("The command result has already been closed");
+        }
+        return outbuf.getByteBuffer(0, length).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the output decoded as UTF-8, which copies it
+     */
+    public String getOutputString() {
+        return UTF8.decode(getOutput()).toString();
+    }
+
+    /**
+     * @return a streaming JSON parser reading the output in place
+     */
+    public JsonStreamReader getJsonReader() {
+        return new JsonStreamReader(getOutput());
+    }
+
+    /**
+     * Release the native output buffer
+     */
+    @Override
+    public void close() {
+        if (outbuf != null) {
+            rados.rados_buffer_free(outbuf);
+            outbuf = null;
+        }
+    }
+}
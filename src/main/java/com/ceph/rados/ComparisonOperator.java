@@ -0,0 +1,40 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+/**
+ * Comparison operators of compound operations (LIBRADOS_CMPXATTR_OP_*)
+ */
+public enum ComparisonOperator {
+
+    EQ(1),
+    NE(2),
+    GT(3),
+    GTE(4),
+    LT(5),
+    LTE(6);
+
+    private final byte value;
+
+    private ComparisonOperator(int value) {
+        this.value = (byte) value;
+    }
+
+    public byte getValue() {
+        return value;
+    }
+}
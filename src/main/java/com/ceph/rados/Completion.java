@@ -0,0 +1,120 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.RadosException;
+import com.ceph.rados.jna.Rados;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.PointerByReference;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.ceph.rados.Library.rados;
+
+/**
+ * Lifecycle of a native rados_completion_t.
+ *
+ * All completions share a single native callback. The handler of every
+ * completion in flight is kept reachable here, together with everything it
+ * references (e.g. the native buffers of the operation), until librados
+ * reports the operation as complete.
+ */
+final class Completion {
+
+    /**
+     * Invoked on a librados thread with the return value of the operation
+     * and the version of the object it was performed on.
+     */
+    interface Handler {
+        void onComplete(int returnValue, long version);
+    }
+
+    private static final ConcurrentMap<Long, Handler> pending = new ConcurrentHashMap<Long, Handler>();
+
+    private static final Rados.rados_callback_t onComplete = new Rados.rados_callback_t() {
+        @Override
+        public void callback(Pointer completion, Pointer arg) {
+            final long key = Pointer.nativeValue(completion);
+            final Handler handler = pending.get(key);
+            final int returnValue = rados.rados_aio_get_return_value(completion);
+            final long version = rados.rados_aio_get_version(completion);
+            if (handler == null) {
+                rados.rados_aio_release(completion);
+                return;
+            }
+            // not released while cancel() passes it to librados
+            synchronized (handler) {
+                pending.remove(key);
+                rados.rados_aio_release(completion);
+            }
+            handler.onComplete(returnValue, version);
+        }
+    };
+
+    private Completion() {}
+
+    /**
+     * Create a native completion which invokes the handler when complete
+     *
+     * @param handler the handler to invoke
+     * @return the rados_completion_t to pass to a rados_aio_* call
+     * @throws RadosException
+     */
+    static Pointer create(Handler handler) throws RadosException {
+        final PointerByReference completion = new PointerByReference();
+        final int r = rados.rados_aio_create_completion(null, onComplete, null, completion);
+        if (r < 0) {
+            throw RadosBase.newException(r, "Failed to create an aio completion");
+        }
+        pending.put(Pointer.nativeValue(completion.getValue()), handler);
+        return completion.getValue();
+    }
+
+    /**
+     * Release a completion whose operation could not be submitted
+     *
+     * @param completion the rados_completion_t returned by create()
+     */
+    static void abort(Pointer completion) {
+        pending.remove(Pointer.nativeValue(completion));
+        rados.rados_aio_release(completion);
+    }
+
+    /**
+     * Ask librados to cancel an operation in flight, its handler is invoked
+     * with ECANCELED unless the operation completed before
+     *
+     * @param ioctx the rados_ioctx_t the operation was submitted to
+     * @param completion the rados_completion_t of the operation
+     * @param handler the handler the completion was created with
+     */
+    static void cancel(Pointer ioctx, Pointer completion, Handler handler) {
+        synchronized (handler) {
+            if (pending.get(Pointer.nativeValue(completion)) == handler) {
+                rados.rados_aio_cancel(ioctx, completion);
+            }
+        }
+    }
+
+    /**
+     * @return the number of operations which are still in flight
+     */
+    static int inFlight() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.ErrorCode;
+import com.ceph.rados.exceptions.RadosException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compresses whole objects on the client before they are written.
+ *
+ * Objects are written with write_full together with an extended attribute
+ * CODEC_XATTR which holds the name of the codec and the uncompressed length.
+ * Data shorter than the threshold, or which does not get smaller, is stored
+ * raw. Reading picks the codec by the stored name, objects without the
+ * attribute are returned as they are.
+ *
+ * Compressed objects can only be written and read as a whole; writing at an
+ * offset or appending to them through the IoCTX corrupts them. The buffers
+ * holding compressed data are kept per thread and reused.
+ *
+ * The uncompressed length is limited, see setMaxLength(), so a damaged or
+ * foreign attribute can not make read() allocate an arbitrarily large array.
+ */
+public class CompressedIoCTX {
+
+    /**
+     * The extended attribute holding "&lt;codec&gt; &lt;uncompressed length&gt;"
+     */
+    public static final String CODEC_XATTR = "rados-java.codec";
+
+    private static final String RAW = "raw";
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int READ_PROBE_LEN = 64 << 10;
+    private static final int MAX_POOLED_BUFFER = 16 << 20;
+    private static final int DEFAULT_MAX_LENGTH = 1 << 30;
+
+    private final IoCTX io;
+    private final CompressionCodec codec;
+    private final int threshold;
+    private final Map<String, CompressionCodec> codecs = new ConcurrentHashMap<String, CompressionCodec>();
+    private final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>();
+    private final ThreadLocal<ReadOp.ReadResult> probes = new ThreadLocal<ReadOp.ReadResult>();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private volatile int maxLength = DEFAULT_MAX_LENGTH;
+
+    /**
+     * Create a new compressing view of a context
+     *
+     * @param io
+     *          The context to store the objects in
+     * @param codec
+     *          The codec new objects are compressed with
+     * @param threshold
+     *          The length from which data is compressed
+     */
+    public CompressedIoCTX(IoCTX io, CompressionCodec codec, int threshold) {
+        if (RAW.equals(codec.getName())) {
+            throw new IllegalArgumentException("The codec name " + RAW + " is reserved");
+        }
+        this.io = io;
+        this.codec = codec;
+        this.threshold = threshold;
+        this.codecs.put(codec.getName(), codec);
+    }
+
+    /**
+     * Add a codec to read objects which were written with it
+     *
+     * @param codec
+     *          The codec
+     */
+    public void addCodec(CompressionCodec codec) {
+        codecs.put(codec.getName(), codec);
+    }
+
+    /**
+     * Set the largest uncompressed length of an object, 1 GB by default
+     *
+     * writeFull() rejects longer data, read() fails with EIO on objects whose
+     * codec attribute claims a longer uncompressed length.
+     *
+     * @param maxLength
+     *          The maximum length in bytes
+     */
+    public void setMaxLength(int maxLength) {
+        if (maxLength < 0) {
+            throw new IllegalArgumentException("The maximum length shouldn't be negative");
+        }
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return the largest uncompressed length of an object
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @return the underlying context
+     */
+    public IoCTX getIoCTX() {
+        return io;
+    }
+
+    private byte[] buffer(int size) {
+        byte[] buf = buffers.get();
+        if (buf == null || buf.length < size) {
+            buf = new byte[size];
+            if (size <= MAX_POOLED_BUFFER) {
+                buffers.set(buf);
+            }
+        }
+        return buf;
+    }
+
+    private ReadOp.ReadResult probe() {
+        ReadOp.ReadResult probe = probes.get();
+        if (probe == null) {
+            probe = new ReadOp.ReadResult(ByteBuffer.allocateDirect(READ_PROBE_LEN));
+            probes.set(probe);
+        }
+        return probe;
+    }
+
+    /**
+     * Write an entire object, compressed if that makes it smaller
+     *
+     * @param oid
+     *          The object to write to
+     * @param buf
+     *          The content to write
+     * @throws RadosException
+     */
+    public void writeFull(String oid, byte[] buf) throws RadosException {
+        writeFull(oid, buf, buf.length);
+    }
+
+    /**
+     * Write an entire object, compressed if that makes it smaller
+     *
+     * @param oid
+     *          The object to write to
+     * @param buf
+     *          The content to write
+     * @param len
+     *          The length of the data to write
+     * @throws RadosException
+     */
+    public void writeFull(String oid, byte[] buf, int len) throws RadosException {
+        if (len < 0 || len > buf.length) {
+            throw new IllegalArgumentException("Length should be between 0 and " + buf.length);
+        }
+        if (len > maxLength) {
+            throw new IllegalArgumentException("Length should be at most " + maxLength);
+        }
+        final WriteOp op = io.writeOpCreate();
+        try {
+            String name = RAW;
+            int stored = len;
+            boolean compressed = false;
+            if (len >= threshold) {
+                final byte[] dst = buffer(codec.maxCompressedLength(len));
+                final int n = codec.compress(buf, len, dst);
+                if (n < len) {
+                    // the data is copied when it is queued, so the buffer can be reused right away
+                    op.queueWriteFull(dst, n);
+                    name = codec.getName();
+                    stored = n;
+                    compressed = true;
+                }
+            }
+            if (!compressed) {
+                op.queueWriteFull(buf, len);
+            }
+            op.queueSetXattr(CODEC_XATTR, (name + " " + len).getBytes(ASCII));
+            op.operateAsync(oid, 0).await();
+            rawBytes.addAndGet(len);
+            storedBytes.addAndGet(stored);
+        } finally {
+            io.writeOpRelease(op);
+        }
+    }
+
+    /**
+     * Read an entire object and decompress it
+     *
+     * @param oid
+     *          The object to read
+     * @return the uncompressed content
+     * @throws RadosException
+     */
+    public byte[] read(String oid) throws RadosException {
+        while (true) {
+            final ReadOp.ReadResult head = probe();
+            final long size;
+            final long version;
+            final byte[] meta;
+            final ReadOp op = io.readOpCreate();
+            try {
+                final ReadOp.StatResult stat = op.queueStat();
+                final ReadOp.XattrResult xattr = op.queueGetXattr(CODEC_XATTR);
+                op.queueRead(0, head);
+                op.operateAsync(oid, 0).await();
+                size = stat.getSize();
+                version = op.getVersion();
+                meta = xattr.getValue();
+            } finally {
+                io.readOpRelease(op);
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new RadosException("Object " + oid + " is too large to be read into a byte[]");
+            }
+
+            final byte[] stored = buffer((int) size);
+            final int headLen = (int) Math.min(size, head.getBytesRead());
+            final ByteBuffer data = head.getBuffer().duplicate();
+            data.clear();
+            data.get(stored, 0, headLen);
+            if (headLen < size && !readRest(oid, version, stored, headLen, (int) size)) {
+                // updated in between, start over
+                continue;
+            }
+            return decode(oid, meta, stored, (int) size);
+        }
+    }
+
+    /**
+     * @return false if the object is no longer the given version
+     */
+    private boolean readRest(String oid, long version, byte[] stored, int offset, int size) throws RadosException {
+        final ReadOp op = io.readOpCreate();
+        try {
+            op.queueAssertVersion(version);
+            final ReadOp.ReadResult rest = op.queueRead(offset, size - offset);
+            try {
+                op.operateAsync(oid, 0).await();
+            } catch (RadosException e) {
+                if (e.getReturnValue() == ErrorCode.ERANGE.getErrorCode()
+                        || e.getReturnValue() == ErrorCode.EOVERFLOW.getErrorCode()) {
+                    return false;
+                }
+                throw e;
+            }
+            final ByteBuffer data = rest.getBuffer().duplicate();
+            data.clear();
+            data.get(stored, offset, size - offset);
+            return true;
+        } finally {
+            io.readOpRelease(op);
+        }
+    }
+
+    byte[] decode(String oid, byte[] meta, byte[] stored, int size) throws RadosException {
+        if (meta == null) {
+            return Arrays.copyOf(stored, size);
+        }
+        final String[] fields = new String(meta, ASCII).split(" ");
+        final long length = parseLength(oid, fields);
+        if (length > maxLength) {
+            throw new RadosException("Object " + oid + " claims an uncompressed length of " + length
+                                     + " bytes, more than the maximum of " + maxLength, ErrorCode.EIO.getErrorCode());
+        }
+        if (RAW.equals(fields[0])) {
+            return Arrays.copyOf(stored, size);
+        }
+        final CompressionCodec decoder = codecs.get(fields[0]);
+        if (decoder == null) {
+            throw new RadosException("Object " + oid + " was compressed with the unknown codec " + fields[0],
+                                     ErrorCode.EINVAL.getErrorCode());
+        }
+        final byte[] result = new byte[(int) length];
+        try {
+            decoder.decompress(stored, size, result, result.length);
+        } catch (IOException e) {
+            throw new RadosException("Failed to decompress object " + oid + ": " + e.getMessage(),
+                                     ErrorCode.EIO.getErrorCode());
+        }
+        return result;
+    }
+
+    /**
+     * Get the uncompressed length of an object
+     *
+     * @param oid
+     *          The object
+     * @return the length of the content read() returns
+     * @throws RadosException
+     */
+    public long getSize(String oid) throws RadosException {
+        final ReadOp op = io.readOpCreate();
+        try {
+            final ReadOp.StatResult stat = op.queueStat();
+            final ReadOp.XattrResult xattr = op.queueGetXattr(CODEC_XATTR);
+            op.operateAsync(oid, 0).await();
+            final byte[] meta = xattr.getValue();
+            if (meta == null) {
+                return stat.getSize();
+            }
+            return parseLength(oid, new String(meta, ASCII).split(" "));
+        } finally {
+            io.readOpRelease(op);
+        }
+    }
+
+    private static long parseLength(String oid, String[] fields) throws RadosException {
+        long length = -1;
+        if (fields.length == 2) {
+            try {
+                length = Long.parseLong(fields[1]);
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+        }
+        if (length < 0) {
+            throw new RadosException("Invalid codec attribute of object " + oid, ErrorCode.EIO.getErrorCode());
+        }
+        return length;
+    }
+
+    /**
+     * Remove an object
+     *
+     * @param oid
+     *          The object to remove
+     * @throws RadosException
+     */
+    public void remove(String oid) throws RadosException {
+        io.remove(oid);
+    }
+
+    /**
+     * @return the number of bytes passed to writeFull()
+     */
+    public long getRawBytes() {
+        return rawBytes.get();
+    }
+
+    /**
+     * @return the number of bytes actually written by writeFull()
+     */
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+}
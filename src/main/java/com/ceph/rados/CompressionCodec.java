@@ -0,0 +1,70 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import java.io.IOException;
+
+/**
+ * A compression algorithm used by CompressedIoCTX.
+ *
+ * The name of the codec is stored with every object it compressed and picks
+ * the codec again when the object is read, so it must not change once data
+ * was written with it. Implementations should be thread safe.
+ */
+public interface CompressionCodec {
+
+    /**
+     * @return the name stored with the compressed objects
+     */
+    String getName();
+
+    /**
+     * @param length
+     *          The length of uncompressed data
+     * @return the largest possible compressed length of the data
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * Compress data
+     *
+     * @param src
+     *          The data to compress
+     * @param srcLen
+     *          The number of bytes to compress from src
+     * @param dst
+     *          The buffer for the compressed data, at least maxCompressedLength(srcLen) bytes
+     * @return the compressed length
+     */
+    int compress(byte[] src, int srcLen, byte[] dst);
+
+    /**
+     * Decompress data
+     *
+     * @param src
+     *          The compressed data
+     * @param srcLen
+     *          The number of compressed bytes in src
+     * @param dst
+     *          The buffer for the uncompressed data
+     * @param dstLen
+     *          The uncompressed length
+     * @throws IOException
+     *          if the data is corrupt
+     */
+    void decompress(byte[] src, int srcLen, byte[] dst, int dstLen) throws IOException;
+}
@@ -0,0 +1,163 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import java.lang.reflect.Constructor;
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli), the checksum the OSDs compute for
+ * ChecksumType.CRC32C, in the common form with an initial value and a final
+ * complement of 0xffffffff.
+ *
+ * On Java 9 and later this delegates to java.util.zip.CRC32C, which is looked
+ * up reflectively and uses the CPU's CRC instructions. On Java 7 and 8 it
+ * falls back to a table driven implementation processing eight bytes per step.
+ */
+public final class Crc32c implements Checksum {
+
+    private static final int POLY = 0x82f63b78;
+    private static final int[][] TABLE = new int[8][256];
+    private static final Constructor<? extends Checksum> JDK_CRC32C = findJdkCrc32c();
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int c = i;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? (c >>> 1) ^ POLY : c >>> 1;
+            }
+            TABLE[0][i] = c;
+        }
+        for (int i = 0; i < 256; i++) {
+            for (int t = 1; t < 8; t++) {
+                TABLE[t][i] = (TABLE[t - 1][i] >>> 8) ^ TABLE[0][TABLE[t - 1][i] & 0xff];
+            }
+        }
+    }
+
+    private static Constructor<? extends Checksum> findJdkCrc32c() {
+        try {
+            return Class.forName("java.util.zip.CRC32C").asSubclass(Checksum.class).getConstructor();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Checksum newJdkCrc32c() {
+        if (JDK_CRC32C == null) {
+            return null;
+        }
+        try {
+            return JDK_CRC32C.newInstance();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private final Checksum jdk;
+    private int crc = 0xffffffff;
+
+    /**
+     * Create a new checksum, backed by java.util.zip.CRC32C when the JDK has it
+     */
+    public Crc32c() {
+        this(true);
+    }
+
+    /**
+     * @param useJdk
+     *          Whether to use java.util.zip.CRC32C if the JDK has it
+     */
+    Crc32c(boolean useJdk) {
+        jdk = useJdk ? newJdkCrc32c() : null;
+    }
+
+    /**
+     * @return whether checksums are computed by java.util.zip.CRC32C
+     */
+    public static boolean isJdkBacked() {
+        return JDK_CRC32C != null;
+    }
+
+    /**
+     * @param buf
+     *          The data
+     * @param off
+     *          The offset of the data in buf
+     * @param len
+     *          The length of the data
+     * @return the CRC-32C of the data
+     */
+    public static long compute(byte[] buf, int off, int len) {
+        final Crc32c crc = new Crc32c();
+        crc.update(buf, off, len);
+        return crc.getValue();
+    }
+
+    @Override
+    public void update(int b) {
+        if (jdk != null) {
+            jdk.update(b);
+            return;
+        }
+        crc = (crc >>> 8) ^ TABLE[0][(crc ^ b) & 0xff];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        if (jdk != null) {
+            jdk.update(b, off, len);
+            return;
+        }
+        final int[] t0 = TABLE[0], t1 = TABLE[1], t2 = TABLE[2], t3 = TABLE[3];
+        final int[] t4 = TABLE[4], t5 = TABLE[5], t6 = TABLE[6], t7 = TABLE[7];
+        int c = crc;
+        while (len >= 8) {
+            c ^= (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+            final int hi = (b[off + 4] & 0xff) | (b[off + 5] & 0xff) << 8
+                    | (b[off + 6] & 0xff) << 16 | (b[off + 7] & 0xff) << 24;
+            c = t7[c & 0xff] ^ t6[(c >>> 8) & 0xff] ^ t5[(c >>> 16) & 0xff] ^ t4[c >>> 24]
+                    ^ t3[hi & 0xff] ^ t2[(hi >>> 8) & 0xff] ^ t1[(hi >>> 16) & 0xff] ^ t0[hi >>> 24];
+            off += 8;
+            len -= 8;
+        }
+        while (len-- > 0) {
+            c = (c >>> 8) ^ t0[(c ^ b[off++]) & 0xff];
+        }
+        crc = c;
+    }
+
+    @Override
+    public long getValue() {
+        if (jdk != null) {
+            return jdk.getValue();
+        }
+        return ~crc & 0xffffffffL;
+    }
+
+    @Override
+    public void reset() {
+        if (jdk != null) {
+            jdk.reset();
+            return;
+        }
+        crc = 0xffffffff;
+    }
+}
@@ -0,0 +1,623 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.ErrorCode;
+import com.ceph.rados.exceptions.RadosException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A content-addressed store which keeps every distinct chunk of data once.
+ *
+ * put() splits a stream into chunks with FastCdc and names every chunk after
+ * its SHA-256. For each chunk a write op first tries to add a reference to
+ * an existing chunk object, which transfers no data; only if the chunk does
+ * not exist yet it is created exclusively together with its data. Chunks are
+ * hashed and stored on a thread pool while the stream is being chunked. The
+ * list of chunks of a blob is kept in its manifest object.
+ *
+ * References are the omap keys of a chunk object, one per blob name, so
+ * adding and dropping them is idempotent. A chunk without references is
+ * removed with an assertion on the version at which it was seen without
+ * references, so a reference added in between keeps it alive.
+ *
+ * Objects of a store with the prefix "prefix":
+ * - prefix.manifest.&lt;name&gt;, the manifests
+ * - prefix.chunk.&lt;sha256&gt;, the chunks
+ *
+ * Chunk objects need omap support, so the pool should not be erasure coded.
+ * Concurrent puts of the same name are not supported.
+ */
+public class DedupStore implements Closeable {
+
+    static final int MANIFEST_MAGIC = 0x43444d31;
+    static final int HASH_LENGTH = 32;
+    private static final int STORE_ATTEMPTS = 3;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The chunks of a blob in order
+     */
+    static final class Manifest {
+        final List<byte[]> hashes;
+        final int[] lengths;
+
+        Manifest(List<byte[]> hashes, int[] lengths) {
+            this.hashes = hashes;
+            this.lengths = lengths;
+        }
+
+        long getSize() {
+            long size = 0;
+            for (int length : lengths) {
+                size += length;
+            }
+            return size;
+        }
+
+        byte[] encode() {
+            final ByteBuffer buf = ByteBuffer.allocate(8 + lengths.length * (HASH_LENGTH + 4));
+            buf.putInt(MANIFEST_MAGIC).putInt(lengths.length);
+            for (int i = 0; i < lengths.length; i++) {
+                buf.put(hashes.get(i)).putInt(lengths[i]);
+            }
+            return buf.array();
+        }
+
+        /**
+         * @return the manifest, null if it is malformed
+         */
+        static Manifest decode(byte[] data, int len) {
+            if (len < 8) {
+                return null;
+            }
+            final ByteBuffer buf = ByteBuffer.wrap(data, 0, len);
+            final int count = buf.getInt() == MANIFEST_MAGIC ? buf.getInt() : -1;
+            if (count < 0 || (long) count * (HASH_LENGTH + 4) != len - 8) {
+                return null;
+            }
+            final List<byte[]> hashes = new ArrayList<byte[]>(count);
+            final int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                final byte[] hash = new byte[HASH_LENGTH];
+                buf.get(hash);
+                hashes.add(hash);
+                lengths[i] = buf.getInt();
+                if (lengths[i] < 0) {
+                    return null;
+                }
+            }
+            return new Manifest(hashes, lengths);
+        }
+    }
+
+    private final IoCTX io;
+    private final String prefix;
+    private final FastCdc chunker;
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    private final AtomicLong logicalBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong storedChunks = new AtomicLong();
+    private final AtomicLong dedupedBytes = new AtomicLong();
+    private final AtomicLong dedupedChunks = new AtomicLong();
+
+    /**
+     * Create a store with chunks of 16 KiB to 256 KiB, 64 KiB on average,
+     * and a thread per processor
+     *
+     * @param io
+     *          The context holding the objects of the store
+     * @param prefix
+     *          The prefix of the objects of the store
+     */
+    public DedupStore(IoCTX io, String prefix) {
+        this(io, prefix, new FastCdc(16 << 10, 64 << 10, 256 << 10), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a store
+     *
+     * @param io
+     *          The context holding the objects of the store
+     * @param prefix
+     *          The prefix of the objects of the store
+     * @param chunker
+     *          The chunking of the data, which should stay the same for a store
+     * @param parallelism
+     *          The number of chunks hashed and transferred at the same time
+     */
+    public DedupStore(IoCTX io, String prefix, FastCdc chunker, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("The parallelism should be positive");
+        }
+        this.io = io;
+        this.prefix = prefix;
+        this.chunker = chunker;
+        this.parallelism = parallelism;
+        this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "rados-dedup");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private String manifestOid(String name) {
+        return prefix + ".manifest." + name;
+    }
+
+    String chunkOid(byte[] hash) {
+        final char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[hash[i] & 0xf];
+        }
+        return prefix + ".chunk." + new String(hex);
+    }
+
+    static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Store a stream under a name, replacing the previous blob of the name
+     *
+     * @param name
+     *          The name of the blob
+     * @param in
+     *          The data, read until its end
+     * @return the size of the blob
+     * @throws RadosException
+     *          if storing a chunk or the manifest failed
+     * @throws IOException
+     *          if reading the stream failed
+     */
+    public long put(final String name, InputStream in) throws RadosException, IOException {
+        final Manifest previous = readManifest(name);
+        final List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+        final List<Integer> lengths = new ArrayList<Integer>();
+        final Semaphore window = new Semaphore(2 * parallelism);
+        final byte[] buf = new byte[chunker.getMaxSize()];
+        int filled = 0;
+        boolean eof = false;
+        try {
+            while (true) {
+                while (!eof && filled < buf.length) {
+                    final int n = in.read(buf, filled, buf.length - filled);
+                    if (n < 0) {
+                        eof = true;
+                    } else {
+                        filled += n;
+                    }
+                }
+                if (filled == 0) {
+                    break;
+                }
+                final int cut = chunker.cut(buf, 0, filled);
+                final byte[] chunk = Arrays.copyOf(buf, cut);
+                System.arraycopy(buf, cut, buf, 0, filled - cut);
+                filled -= cut;
+
+                try {
+                    window.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while storing " + name);
+                }
+                lengths.add(chunk.length);
+                futures.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws RadosException {
+                        try {
+                            return storeChunk(name, chunk);
+                        } finally {
+                            window.release();
+                        }
+                    }
+                }));
+            }
+        } catch (IOException e) {
+            abort(name, futures, previous);
+            throw e;
+        } catch (RuntimeException e) {
+            abort(name, futures, previous);
+            throw e;
+        }
+
+        final List<byte[]> hashes = new ArrayList<byte[]>(futures.size());
+        for (Future<byte[]> future : futures) {
+            try {
+                hashes.add(get(future));
+            } catch (RadosException e) {
+                abort(name, futures, previous);
+                throw e;
+            }
+        }
+        final int[] sizes = new int[lengths.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = lengths.get(i);
+        }
+        final Manifest manifest = new Manifest(hashes, sizes);
+        final byte[] encoded = manifest.encode();
+        io.writeFull(manifestOid(name), encoded, encoded.length);
+
+        if (previous != null) {
+            final Set<String> current = new HashSet<String>();
+            for (byte[] hash : hashes) {
+                current.add(chunkOid(hash));
+            }
+            release(name, previous, current);
+        }
+        logicalBytes.addAndGet(manifest.getSize());
+        return manifest.getSize();
+    }
+
+    private static <T> T get(Future<T> future) throws RadosException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RadosException("Interrupted while waiting for a chunk", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RadosException) {
+                throw (RadosException) e.getCause();
+            }
+            throw new RadosException("Failed to process a chunk", e.getCause());
+        }
+    }
+
+    /**
+     * Drop the references a failed put added to chunks the previous blob did not use
+     */
+    private void abort(String name, List<Future<byte[]>> futures, Manifest previous) {
+        final Set<String> keep = new HashSet<String>();
+        if (previous != null) {
+            for (byte[] hash : previous.hashes) {
+                keep.add(chunkOid(hash));
+            }
+        }
+        final List<byte[]> added = new ArrayList<byte[]>();
+        for (Future<byte[]> future : futures) {
+            try {
+                added.add(get(future));
+            } catch (RadosException e) {
+                // the chunk was not referenced
+            }
+        }
+        try {
+            release(name, new Manifest(added, new int[added.size()]), keep);
+        } catch (RadosException e) {
+            // the chunks stay referenced until the name is deleted
+        }
+    }
+
+    /**
+     * Reference a chunk, storing it if it does not exist yet
+     *
+     * @return the hash of the chunk
+     */
+    private byte[] storeChunk(String name, byte[] chunk) throws RadosException {
+        final byte[] hash = sha256(chunk);
+        final String oid = chunkOid(hash);
+        for (int attempt = 0; ; attempt++) {
+            final WriteOp ref = io.writeOpCreate();
+            try {
+                ref.queueAssertExists();
+                ref.queueOmapSet(Collections.singletonMap(name, new byte[0]));
+                ref.operateAsync(oid, 0).await();
+                dedupedChunks.incrementAndGet();
+                dedupedBytes.addAndGet(chunk.length);
+                return hash;
+            } catch (RadosException e) {
+                if (e.getReturnValue() != ErrorCode.ENOENT.getErrorCode()) {
+                    throw e;
+                }
+            } finally {
+                io.writeOpRelease(ref);
+            }
+
+            final WriteOp create = io.writeOpCreate();
+            try {
+                create.queueCreate(true);
+                create.queueWriteFull(chunk);
+                create.queueOmapSet(Collections.singletonMap(name, new byte[0]));
+                create.operateAsync(oid, 0).await();
+                storedChunks.incrementAndGet();
+                storedBytes.addAndGet(chunk.length);
+                return hash;
+            } catch (RadosException e) {
+                // created concurrently, reference it then
+                if (e.getReturnValue() != ErrorCode.EEXIST.getErrorCode() || attempt + 1 >= STORE_ATTEMPTS) {
+                    throw e;
+                }
+            } finally {
+                io.writeOpRelease(create);
+            }
+        }
+    }
+
+    /**
+     * Drop the references of a name to the chunks of a manifest, except for
+     * the given chunks, and remove the chunks left without references
+     */
+    private void release(final String name, Manifest manifest, Set<String> keep) throws RadosException {
+        final Set<String> oids = new HashSet<String>();
+        for (byte[] hash : manifest.hashes) {
+            final String oid = chunkOid(hash);
+            if (!keep.contains(oid)) {
+                oids.add(oid);
+            }
+        }
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (final String oid : oids) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws RadosException {
+                    releaseChunk(name, oid);
+                    return null;
+                }
+            }));
+        }
+        RadosException failure = null;
+        for (Future<Void> future : futures) {
+            try {
+                get(future);
+            } catch (RadosException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void releaseChunk(String name, String oid) throws RadosException {
+        final WriteOp unref = io.writeOpCreate();
+        try {
+            unref.queueOmapRmKeys(name);
+            unref.operateAsync(oid, 0).await();
+        } catch (RadosException e) {
+            if (e.getReturnValue() == ErrorCode.ENOENT.getErrorCode()) {
+                return;
+            }
+            throw e;
+        } finally {
+            io.writeOpRelease(unref);
+        }
+
+        final long version;
+        final ReadOp refs = io.readOpCreate();
+        try {
+            final ReadOp.OmapResult keys = refs.queueOmapGetKeys(null, 1);
+            refs.operateAsync(oid, 0).await();
+            if (!keys.getKeys().isEmpty()) {
+                return;
+            }
+            version = refs.getVersion();
+        } catch (RadosException e) {
+            if (e.getReturnValue() == ErrorCode.ENOENT.getErrorCode()) {
+                return;
+            }
+            throw e;
+        } finally {
+            io.readOpRelease(refs);
+        }
+
+        final WriteOp remove = io.writeOpCreate();
+        try {
+            remove.queueAssertVersion(version);
+            remove.queueRemove();
+            remove.operateAsync(oid, 0).await();
+        } catch (RadosException e) {
+            // referenced again or removed in the meantime
+            if (e.getReturnValue() != ErrorCode.ERANGE.getErrorCode()
+                    && e.getReturnValue() != ErrorCode.EOVERFLOW.getErrorCode()
+                    && e.getReturnValue() != ErrorCode.ENOENT.getErrorCode()) {
+                throw e;
+            }
+        } finally {
+            io.writeOpRelease(remove);
+        }
+    }
+
+    /**
+     * @return the manifest of a name, null if there is none
+     */
+    private Manifest readManifest(String name) throws RadosException {
+        final String oid = manifestOid(name);
+        final byte[] data;
+        try {
+            final long size = io.stat(oid).getSize();
+            if (size > Integer.MAX_VALUE) {
+                throw new RadosException("Manifest of " + name + " is too large", ErrorCode.EIO.getErrorCode());
+            }
+            data = new byte[(int) size];
+            int read = 0;
+            while (read < data.length) {
+                final byte[] part = new byte[data.length - read];
+                final int n = io.read(oid, part.length, read, part);
+                if (n <= 0) {
+                    break;
+                }
+                System.arraycopy(part, 0, data, read, n);
+                read += n;
+            }
+        } catch (RadosException e) {
+            if (e.getReturnValue() == ErrorCode.ENOENT.getErrorCode()) {
+                return null;
+            }
+            throw e;
+        }
+        final Manifest manifest = Manifest.decode(data, data.length);
+        if (manifest == null) {
+            throw new RadosException("Invalid manifest of " + name, ErrorCode.EIO.getErrorCode());
+        }
+        return manifest;
+    }
+
+    /**
+     * @param name
+     *          The name of the blob
+     * @return the size of the blob, -1 if there is none
+     * @throws RadosException
+     */
+    public long getSize(String name) throws RadosException {
+        final Manifest manifest = readManifest(name);
+        return manifest == null ? -1 : manifest.getSize();
+    }
+
+    /**
+     * Write a blob to a stream, reading its chunks ahead in parallel and
+     * verifying them against their hashes
+     *
+     * @param name
+     *          The name of the blob
+     * @param out
+     *          The stream to write to
+     * @throws RadosException
+     *          with ENOENT if there is no such blob, EIO if a chunk is corrupt
+     * @throws IOException
+     *          if writing the stream failed
+     */
+    public void get(String name, OutputStream out) throws RadosException, IOException {
+        final Manifest manifest = readManifest(name);
+        if (manifest == null) {
+            throw new RadosException("No blob named " + name, ErrorCode.ENOENT.getErrorCode());
+        }
+        final Deque<Future<byte[]>> ahead = new ArrayDeque<Future<byte[]>>();
+        int next = 0;
+        try {
+            while (next < manifest.lengths.length || !ahead.isEmpty()) {
+                while (next < manifest.lengths.length && ahead.size() < 2 * parallelism) {
+                    final byte[] hash = manifest.hashes.get(next);
+                    final int length = manifest.lengths[next];
+                    ahead.add(executor.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws RadosException {
+                            return readChunk(hash, length);
+                        }
+                    }));
+                    next++;
+                }
+                out.write(get(ahead.poll()));
+            }
+        } finally {
+            for (Future<byte[]> future : ahead) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private byte[] readChunk(byte[] hash, int length) throws RadosException {
+        final String oid = chunkOid(hash);
+        final byte[] data = new byte[length];
+        final int n = length == 0 ? 0 : io.read(oid, length, 0, data);
+        if (n != length || !Arrays.equals(hash, sha256(data))) {
+            throw new RadosException("Chunk " + oid + " is corrupt", ErrorCode.EIO.getErrorCode());
+        }
+        return data;
+    }
+
+    /**
+     * Delete a blob, removing the chunks no other blob refers to
+     *
+     * @param name
+     *          The name of the blob
+     * @return false if there was no such blob
+     * @throws RadosException
+     */
+    public boolean delete(String name) throws RadosException {
+        final Manifest manifest = readManifest(name);
+        if (manifest == null) {
+            return false;
+        }
+        // without the manifest first, a failure could leave it pointing to removed chunks
+        io.remove(manifestOid(name));
+        release(name, manifest, Collections.<String>emptySet());
+        return true;
+    }
+
+    /**
+     * @return the number of bytes put
+     */
+    public long getLogicalBytes() {
+        return logicalBytes.get();
+    }
+
+    /**
+     * @return the number of bytes of chunks which were transferred because they did not exist
+     */
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    public long getStoredChunks() {
+        return storedChunks.get();
+    }
+
+    /**
+     * @return the number of bytes of chunks which existed already and were only referenced
+     */
+    public long getDedupedBytes() {
+        return dedupedBytes.get();
+    }
+
+    public long getDedupedChunks() {
+        return dedupedChunks.get();
+    }
+
+    /**
+     * Stop the threads of the store
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
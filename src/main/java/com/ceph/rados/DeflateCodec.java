@@ -0,0 +1,116 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The zlib format of java.util.zip, which needs no native library besides
+ * the JDK. Deflaters and inflaters hold native memory and are expensive to
+ * create, so they are pooled.
+ */
+public class DeflateCodec implements CompressionCodec {
+
+    private final int level;
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+
+    /**
+     * Create a codec which favours speed over ratio
+     */
+    public DeflateCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    /**
+     * @param level
+     *          The compression level from 1 (fastest) to 9 (best compression)
+     */
+    public DeflateCodec(int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("The level should be between 1 and 9");
+        }
+        this.level = level;
+    }
+
+    @Override
+    public String getName() {
+        return "deflate";
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        // compressBound() of zlib
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 13;
+    }
+
+    @Override
+    public int compress(byte[] src, int srcLen, byte[] dst) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level);
+        }
+        try {
+            deflater.setInput(src, 0, srcLen);
+            deflater.finish();
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == dst.length) {
+                    throw new IllegalArgumentException("The buffer is too small for the compressed data");
+                }
+                n += deflater.deflate(dst, n, dst.length - n);
+            }
+            return n;
+        } finally {
+            deflater.reset();
+            deflaters.offer(deflater);
+        }
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcLen, byte[] dst, int dstLen) throws IOException {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        try {
+            inflater.setInput(src, 0, srcLen);
+            int n = 0;
+            while (n < dstLen) {
+                final int k = inflater.inflate(dst, n, dstLen - n);
+                if (k == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("The compressed data is truncated");
+                }
+                n += k;
+            }
+            // the trailer may still be pending once the output is complete
+            if (!inflater.finished() && (inflater.inflate(new byte[1]) > 0 || !inflater.finished())) {
+                throw new IOException("The compressed data is longer than expected");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("The compressed data is corrupt", e);
+        } finally {
+            inflater.reset();
+            inflaters.offer(inflater);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How blocking calls of IoCTX and RbdImage wait for librados.
+ *
+ * A thread which is blocked inside a native call can not be unmounted from its
+ * carrier, so with virtual threads every blocking call pins a carrier thread.
+ * In AIO and OFFLOAD mode the calling thread waits on a java.util.concurrent
+ * primitive instead, which lets a virtual thread park.
+ */
+public final class ExecutionMode {
+
+    private enum Kind {
+        DIRECT, AIO, OFFLOAD
+    }
+
+    /**
+     * Call librados directly on the calling thread
+     */
+    public static final ExecutionMode DIRECT = new ExecutionMode(Kind.DIRECT, null);
+
+    /**
+     * Submit asynchronous operations and wait for their completion, operations
+     * without an asynchronous counterpart are called directly
+     */
+    public static final ExecutionMode AIO = new ExecutionMode(Kind.AIO, null);
+
+    private final Kind kind;
+    private final ExecutorService executor;
+
+    private ExecutionMode(Kind kind, ExecutorService executor) {
+        this.kind = kind;
+        this.executor = executor;
+    }
+
+    /**
+     * Run blocking calls on the given executor and wait for their result
+     *
+     * @param executor
+     *          The executor, should be backed by platform threads
+     * @return ExecutionMode
+     */
+    public static ExecutionMode offload(ExecutorService executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("The executor shouldn't be null");
+        }
+        return new ExecutionMode(Kind.OFFLOAD, executor);
+    }
+
+    /**
+     * Run blocking calls on a new pool of daemon platform threads
+     *
+     * @param threads
+     *          The number of threads, which bounds the blocking calls in flight
+     * @return ExecutionMode
+     */
+    public static ExecutionMode offload(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("There should be at least one thread");
+        }
+        return offload(Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "rados-offload-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+    }
+
+    /**
+     * @return true if blocking calls are served by asynchronous operations
+     */
+    public boolean isAio() {
+        return kind == Kind.AIO;
+    }
+
+    /**
+     * @return true if blocking calls are run on an executor
+     */
+    public boolean isOffload() {
+        return kind == Kind.OFFLOAD;
+    }
+
+    /**
+     * Shut down the executor of an OFFLOAD mode, a no-op otherwise
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Wrap a blocking native call according to this mode
+     *
+     * @param callable the native call
+     * @return a callable which runs the native call in this mode
+     */
+    public <T> Callable<T> wrap(final Callable<T> callable) {
+        if (kind != Kind.OFFLOAD) {
+            return callable;
+        }
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    return executor.submit(callable).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return kind.name();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+/**
+ * Content-defined chunking with FastCDC.
+ *
+ * A gear rolling hash runs over the data after the minimum chunk size and a
+ * chunk ends where the top bits of the hash are zero. Up to the average size
+ * a stricter mask is used and after it a looser one, which keeps the chunk
+ * sizes close to the average. As boundaries depend on the last 64 bytes
+ * only, an insertion or deletion moves the boundaries next to it, but not
+ * those further away, so unchanged regions of similar data yield the same
+ * chunks.
+ *
+ * The gear table is fixed: changing it would change every boundary and
+ * defeat the deduplication against chunks stored before.
+ */
+public final class FastCdc {
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // splitmix64 from a fixed seed
+        long state = 0;
+        for (int i = 0; i < GEAR.length; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+    private final long strictMask;
+    private final long looseMask;
+
+    /**
+     * @param minSize
+     *          The minimum chunk size, except for the last chunk
+     * @param avgSize
+     *          The average chunk size, a power of two
+     * @param maxSize
+     *          The maximum chunk size
+     */
+    public FastCdc(int minSize, int avgSize, int maxSize) {
+        if (Integer.bitCount(avgSize) != 1 || avgSize < 256) {
+            throw new IllegalArgumentException("The average size should be a power of two of at least 256");
+        }
+        if (minSize < 0 || minSize > avgSize || maxSize < avgSize) {
+            throw new IllegalArgumentException("The sizes should satisfy 0 <= min <= avg <= max");
+        }
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+        final int bits = Integer.numberOfTrailingZeros(avgSize);
+        this.strictMask = -1L << (64 - bits - 2);
+        this.looseMask = -1L << (64 - bits + 2);
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getAvgSize() {
+        return avgSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Find the end of the chunk at the start of the data
+     *
+     * @param buf
+     *          The buffer holding the data
+     * @param off
+     *          The start of the data
+     * @param len
+     *          The length of the data, which should be at least the maximum
+     *          chunk size unless the data ends
+     * @return the length of the chunk
+     */
+    public int cut(byte[] buf, int off, int len) {
+        if (len <= minSize) {
+            return len;
+        }
+        final int end = Math.min(len, maxSize);
+        final int normal = Math.min(avgSize, end);
+        long hash = 0;
+        int i = minSize;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[buf[off + i] & 0xff];
+            if ((hash & strictMask) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i++) {
+            hash = (hash << 1) + GEAR[buf[off + i] & 0xff];
+            if ((hash & looseMask) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.RadosException;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads objects with a hedge against slow primaries.
+ *
+ * A read is sent to the primary OSD as usual. If it did not complete after
+ * the hedge delay, a second read with OPERATION_BALANCE_READS and
+ * OPERATION_LOCALIZE_READS is sent, which any replica may serve, and the
+ * first one to succeed wins. The delay follows a percentile of the recent
+ * read latencies of the primary, so only the slowest reads are hedged.
+ *
+ * Replicas may serve a read before a concurrent write to the object is
+ * applied on them, so hedged reads suit data which is not updated in place.
+ */
+public class HedgedReader implements Closeable {
+
+    private static final int HEDGE_FLAGS = ReadOp.OPERATION_BALANCE_READS | ReadOp.OPERATION_LOCALIZE_READS;
+    private static final int LATENCY_SAMPLES = 1024;
+    private static final int RECOMPUTE_EVERY = 64;
+
+    private final IoCTX io;
+    private final double percentile;
+    private final long minDelayMicros;
+    private final long maxDelayMicros;
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int nextLatency;
+    private int latencyCount;
+    private int sinceRecompute;
+    private volatile long delayMicros;
+
+    private long reads;
+    private long hedges;
+    private long hedgeWins;
+    private long wastedBytes;
+
+    /**
+     * Create a new hedged reader
+     *
+     * @param io
+     *          The context to read from
+     * @param percentile
+     *          The latency percentile after which a read is hedged, e.g. 0.95
+     * @param minDelay
+     *          The lower bound of the hedge delay
+     * @param maxDelay
+     *          The upper bound of the hedge delay, also used until enough latencies were seen
+     * @param unit
+     *          The unit of the delays
+     */
+    public HedgedReader(IoCTX io, double percentile, long minDelay, long maxDelay, TimeUnit unit) {
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("The percentile should be between 0 and 1");
+        }
+        if (minDelay < 0 || maxDelay < minDelay) {
+            throw new IllegalArgumentException("The delays should satisfy 0 <= minDelay <= maxDelay");
+        }
+        this.io = io;
+        this.percentile = percentile;
+        this.minDelayMicros = unit.toMicros(minDelay);
+        this.maxDelayMicros = unit.toMicros(maxDelay);
+        this.delayMicros = this.maxDelayMicros;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "rados-hedged-reads");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // most reads complete before their hedge is due, don't keep the cancelled hedges queued
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * A read and its attempts, the first successful attempt wins
+     */
+    private final class Read {
+        private final String oid;
+        private final int length;
+        private final long offset;
+        private final byte[] buf;
+        private final RadosFuture<Integer> result = new RadosFuture<Integer>();
+        private int running;
+        private boolean hedged;
+        private boolean won;
+        private ScheduledFuture<?> hedgeTask;
+
+        private Read(String oid, int length, long offset, byte[] buf) {
+            this.oid = oid;
+            this.length = length;
+            this.offset = offset;
+            this.buf = buf;
+        }
+
+        private void attempt(final boolean hedge) throws RadosException {
+            final ReadOp op = io.readOpCreate();
+            final ReadOp.ReadResult data = new ReadOp.ReadResult(ByteBuffer.allocateDirect(length));
+            op.queueRead(offset, data);
+            final long start = System.nanoTime();
+            synchronized (this) {
+                running++;
+            }
+            final RadosFuture<Integer> future;
+            try {
+                future = op.operateAsync(oid, hedge ? HEDGE_FLAGS : 0);
+            } catch (RadosException e) {
+                io.readOpRelease(op);
+                synchronized (this) {
+                    running--;
+                }
+                throw e;
+            }
+            future.addCallback(new RadosFuture.Callback<Integer>() {
+                @Override
+                public void onSuccess(Integer rv) {
+                    try {
+                        if (data.getRVal() < 0) {
+                            failed(RadosBase.newException(data.getRVal(), "Failed to read object " + oid));
+                        } else {
+                            succeeded(hedge, data, System.nanoTime() - start);
+                        }
+                    } finally {
+                        io.readOpRelease(op);
+                    }
+                }
+
+                @Override
+                public void onFailure(RadosException e) {
+                    io.readOpRelease(op);
+                    failed(e);
+                }
+            });
+        }
+
+        private void succeeded(boolean hedge, ReadOp.ReadResult data, long latencyNanos) {
+            final int n = (int) data.getBytesRead();
+            if (!hedge) {
+                // the latency of the primary from its own start, also when the hedge won, so the delay
+                // follows the primary and not the faster of both
+                synchronized (HedgedReader.this) {
+                    recordLatency(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+                }
+            }
+            synchronized (this) {
+                running--;
+                if (won || result.isDone()) {
+                    synchronized (HedgedReader.this) {
+                        wastedBytes += n;
+                    }
+                    return;
+                }
+                final ByteBuffer src = data.getBuffer().duplicate();
+                src.clear();
+                src.get(buf, 0, n);
+                won = true;
+            }
+            if (hedge) {
+                synchronized (HedgedReader.this) {
+                    hedgeWins++;
+                }
+            }
+            cancelHedge();
+            result.set(n);
+        }
+
+        /**
+         * @param task
+         *          The scheduled hedge, cancelled right away if the read already completed
+         */
+        private void setHedgeTask(ScheduledFuture<?> task) {
+            synchronized (this) {
+                if (!won && !result.isDone()) {
+                    hedgeTask = task;
+                    return;
+                }
+            }
+            task.cancel(false);
+        }
+
+        private void cancelHedge() {
+            final ScheduledFuture<?> task;
+            synchronized (this) {
+                task = hedgeTask;
+                hedgeTask = null;
+            }
+            if (task != null) {
+                task.cancel(false);
+            }
+        }
+
+        private void failed(RadosException e) {
+            boolean last;
+            synchronized (this) {
+                running--;
+                // without a pending or upcoming attempt the read failed
+                last = running == 0 && hedged;
+                if (!hedged) {
+                    hedged = true;
+                    last = true;
+                }
+            }
+            if (last) {
+                cancelHedge();
+                result.setException(e);
+            }
+        }
+
+        private void hedge() {
+            synchronized (this) {
+                if (hedged || result.isDone()) {
+                    return;
+                }
+                hedged = true;
+            }
+            synchronized (HedgedReader.this) {
+                hedges++;
+            }
+            try {
+                attempt(true);
+            } catch (RadosException e) {
+                synchronized (this) {
+                    if (running > 0) {
+                        return;
+                    }
+                }
+                result.setException(e);
+            }
+        }
+    }
+
+    /**
+     * Read data from an object, hedging the read if it is slow
+     *
+     * The buffer is only written by the winning attempt, before the future completes.
+     *
+     * @param oid
+     *          The object's name
+     * @param length
+     *          Amount of bytes to read
+     * @param offset
+     *          The offset where to start reading
+     * @param buf
+     *          The buffer to store the result
+     * @return RadosFuture with the number of bytes read
+     * @throws RadosException
+     *          if the read could not be submitted
+     */
+    public RadosFuture<Integer> read(String oid, int length, long offset, byte[] buf) throws RadosException {
+        if (length < 0 || length > buf.length) {
+            throw new IllegalArgumentException("Length should be between 0 and " + buf.length);
+        }
+        final Read read = new Read(oid, length, offset, buf);
+        synchronized (this) {
+            reads++;
+        }
+        read.attempt(false);
+        try {
+            read.setHedgeTask(scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    read.hedge();
+                }
+            }, delayMicros, TimeUnit.MICROSECONDS));
+        } catch (RejectedExecutionException e) {
+            // closed, the read goes without a hedge
+        }
+        return read.result;
+    }
+
+    void recordLatency(long micros) {
+        latencies[nextLatency] = micros;
+        nextLatency = (nextLatency + 1) % LATENCY_SAMPLES;
+        latencyCount = Math.min(latencyCount + 1, LATENCY_SAMPLES);
+        if (++sinceRecompute >= RECOMPUTE_EVERY) {
+            sinceRecompute = 0;
+            final long[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            final int index = Math.max(0, (int) Math.ceil(percentile * sorted.length) - 1);
+            delayMicros = Math.max(minDelayMicros, Math.min(maxDelayMicros, sorted[index]));
+        }
+    }
+
+    /**
+     * @return the current hedge delay in microseconds
+     */
+    public long getHedgeDelayMicros() {
+        return delayMicros;
+    }
+
+    /**
+     * @return the number of reads
+     */
+    public synchronized long getReadCount() {
+        return reads;
+    }
+
+    /**
+     * @return the number of reads for which a hedge was sent
+     */
+    public synchronized long getHedgeCount() {
+        return hedges;
+    }
+
+    /**
+     * @return the number of reads which were won by the hedge
+     */
+    public synchronized long getHedgeWinCount() {
+        return hedgeWins;
+    }
+
+    /**
+     * @return the number of bytes read by attempts which lost
+     */
+    public synchronized long getWastedBytes() {
+        return wastedBytes;
+    }
+
+    /**
+     * Stop hedging, reads in flight complete without a hedge
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -19,25 +19,63 @@
 
 package com.ceph.rados;
 
+import com.ceph.rados.exceptions.ErrorCode;
 import com.ceph.rados.exceptions.RadosException;
+import com.ceph.rados.exceptions.RadosTimeoutException;
+import com.ceph.rados.jna.RadosListEntry;
+import com.ceph.rados.jna.RadosLockInfo;
 import com.ceph.rados.jna.RadosObjectInfo;
 import com.ceph.rados.jna.RadosPoolInfo;
+import com.ceph.rados.jna.TimeVal;
 import com.sun.jna.Pointer;
 import com.sun.jna.Native;
 import com.sun.jna.Memory;
+import com.sun.jna.ptr.IntByReference;
 import com.sun.jna.ptr.LongByReference;
+import com.sun.jna.ptr.PointerByReference;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.ceph.rados.Library.rados;
 
 public class IoCTX extends RadosBase {
 
-    private static final int    EXT_ATTR_MAX_LEN = 4096;
+    /**
+     * Namespace which makes listing return the objects of all namespaces (LIBRADOS_ALL_NSPACES)
+     */
+    public static final String ALL_NAMESPACES = "\001";
+
+    /**
+     * Snapshot ID of the current state of the objects (LIBRADOS_SNAP_HEAD)
+     */
+    public static final long SNAP_HEAD = -2;
+
+    private static final int    EXT_ATTR_PROBE_LEN = 4096;
+    private static final int    SNAP_LIST_PROBE_LEN = 64;
+    private static final int    NAMESPACE_PROBE_LEN = 256;
+    private static final int    CHUNKED_WRITE_SIZE = 16 << 20;
+    private static final int    CHUNKED_WRITES_IN_FLIGHT = 4;
+    private static final long   DEFAULT_MAX_WRITE_SIZE = 90L << 20;
 
     private Pointer ioCtxPtr;
+    private volatile OperationLimiter limiter;
+    private volatile ExecutionMode executionMode = ExecutionMode.DIRECT;
+    private volatile long timeoutNanos;
+    private volatile long maxWriteSize;
+    private final ConcurrentMap<String, IoCTX> namespaces = new ConcurrentHashMap<String, IoCTX>();
 
     /**
      * Create a new IO Context object
@@ -62,6 +100,77 @@ public class IoCTX extends RadosBase {
         return this.ioCtxPtr.getPointer(0);
     }
 
+    /**
+     * Set the limiter which admits asynchronous operations on this context
+     *
+     * @param limiter
+     *          The limiter or null to not limit operations
+     */
+    public void setOperationLimiter(OperationLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * Get the limiter which admits asynchronous operations on this context
+     *
+     * @return OperationLimiter or null
+     */
+    public OperationLimiter getOperationLimiter() {
+        return this.limiter;
+    }
+
+    /**
+     * Set how the blocking read, write, append and remove calls wait for librados
+     *
+     * @param mode
+     *          The execution mode
+     */
+    public void setExecutionMode(ExecutionMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("The execution mode shouldn't be null");
+        }
+        this.executionMode = mode;
+    }
+
+    /**
+     * Get how the blocking calls wait for librados
+     *
+     * @return ExecutionMode
+     */
+    public ExecutionMode getExecutionMode() {
+        return this.executionMode;
+    }
+
+    /**
+     * Set the timeout of the blocking read, write, append and remove calls
+     *
+     * With a timeout these calls are served by asynchronous operations. When
+     * the timeout passes a RadosTimeoutException is thrown and the operation
+     * is abandoned; it still completes in the background, its result is dropped.
+     *
+     * @param timeout
+     *          The timeout, 0 to wait indefinitely
+     * @param unit
+     *          The unit of timeout
+     */
+    public void setOperationTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("The timeout shouldn't be negative");
+        }
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Get the timeout of the blocking calls
+     *
+     * @param unit
+     *          The unit of the result
+     * @return the timeout, 0 if calls wait indefinitely
+     */
+    public long getOperationTimeout(TimeUnit unit) {
+        return unit.convert(this.timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
     /**
      * Get the pool ID of this context
      *
@@ -106,6 +215,46 @@ public class IoCTX extends RadosBase {
         return auid.getValue();
     }
 
+    /**
+     * Check whether writes to the pool of this context have to be aligned,
+     * which is the case for erasure coded pools without overwrite support
+     *
+     * @return true if appends have to be a multiple of getRequiredAlignment()
+     * @throws RadosException
+     */
+    public boolean isAlignmentRequired() throws RadosException {
+        final IntByReference requires = new IntByReference();
+
+        handleReturnCode(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return rados.rados_ioctx_pool_requires_alignment2(getPointer(), requires);
+            }
+        }, "Failed to check whether the pool requires alignment");
+
+        return requires.getValue() != 0;
+    }
+
+    /**
+     * Get the alignment of writes to the pool of this context, the stripe
+     * width of an erasure coded pool
+     *
+     * @return the alignment in bytes, 0 if the pool does not require alignment
+     * @throws RadosException
+     */
+    public long getRequiredAlignment() throws RadosException {
+        final LongByReference alignment = new LongByReference();
+
+        handleReturnCode(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return rados.rados_ioctx_pool_required_alignment2(getPointer(), alignment);
+            }
+        }, "Failed to get the required alignment of the pool");
+
+        return alignment.getValue();
+    }
+
     /**
      * Get the pool name of the context
      *
@@ -133,6 +282,131 @@ public class IoCTX extends RadosBase {
         rados.rados_ioctx_locator_set_key(this.getPointer(), key);
     }
 
+    /**
+     * Set the namespace for objects within this context
+     *
+     * @param namespace
+     *          The namespace, null or empty for the default namespace
+     *          or ALL_NAMESPACES to list the objects of all namespaces
+     */
+    public void setNamespace(String namespace) {
+        rados.rados_ioctx_set_namespace(this.getPointer(), namespace);
+    }
+
+    /**
+     * Get the namespace for objects within this context
+     *
+     * @return String
+     *          The namespace, empty for the default namespace
+     * @throws RadosException
+     */
+    public String getNamespace() throws RadosException {
+        byte[] buf = new byte[NAMESPACE_PROBE_LEN];
+        while (true) {
+            final int r = rados.rados_ioctx_get_namespace(getPointer(), buf, buf.length);
+            if (r == ErrorCode.ERANGE.getErrorCode() /* the namespace does not fit into the buffer */) {
+                buf = new byte[buf.length * 2];
+                continue;
+            }
+            if (r < 0) {
+                throw newException(r, "Failed to get the namespace");
+            }
+            return Native.toString(buf);
+        }
+    }
+
+    /**
+     * Get a context for another namespace of the same pool
+     *
+     * The context is created once by pool id and cached, so deriving it again is
+     * cheap. Derived contexts share the limiter and execution mode of this context
+     * at creation time and are destroyed together with this context; they must not
+     * be destroyed on their own.
+     *
+     * @param nspace
+     *          The namespace, null or empty for the default namespace
+     * @return IoCTX
+     * @throws RadosException
+     */
+    public IoCTX withNamespace(String nspace) throws RadosException {
+        final String namespace = nspace == null ? "" : nspace;
+        IoCTX derived = namespaces.get(namespace);
+        if (derived != null) {
+            return derived;
+        }
+
+        final Pointer cluster = rados.rados_ioctx_get_cluster(getPointer());
+        final long poolId = getId();
+        final Pointer p = new Memory(Pointer.SIZE);
+        handleReturnCode(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return rados.rados_ioctx_create2(cluster, poolId, p);
+            }
+        }, "Failed to create the IoCTX for namespace %s of pool %s", namespace, poolId);
+
+        derived = new IoCTX(p);
+        derived.setNamespace(namespace);
+        derived.setOperationLimiter(this.limiter);
+        derived.setExecutionMode(this.executionMode);
+
+        final IoCTX existing = namespaces.putIfAbsent(namespace, derived);
+        if (existing != null) {
+            rados.rados_ioctx_destroy(derived.getPointer());
+            return existing;
+        }
+        return derived;
+    }
+
+    /**
+     * Destroy the contexts derived by withNamespace()
+     */
+    void destroyDerived() {
+        for (IoCTX derived : namespaces.values()) {
+            rados.rados_ioctx_destroy(derived.getPointer());
+        }
+        namespaces.clear();
+    }
+
+    /**
+     * List all objects in the namespace of this context including their
+     * namespace and locator key
+     *
+     * Set the namespace to ALL_NAMESPACES to list the objects of all namespaces.
+     *
+     * @return RadosListEntry[]
+     * @throws RadosException
+     */
+    public RadosListEntry[] listObjectEntries() throws RadosException {
+        final PointerByReference list = new PointerByReference();
+        handleReturnCode(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return rados.rados_nobjects_list_open(getPointer(), list);
+            }
+        }, "Failed starting to list all objects");
+
+        final List<RadosListEntry> entries = new ArrayList<RadosListEntry>();
+        final PointerByReference entry = new PointerByReference();
+        final PointerByReference key = new PointerByReference();
+        final PointerByReference nspace = new PointerByReference();
+        try {
+            int r;
+            while ((r = rados.rados_nobjects_list_next(list.getValue(), entry, key, nspace)) == 0) {
+                entries.add(new RadosListEntry(
+                        nspace.getValue() == null ? "" : nspace.getValue().getString(0),
+                        entry.getValue().getString(0),
+                        key.getValue() == null ? null : key.getValue().getString(0)));
+            }
+            if (r != -2 /* ENOENT marks the end of the list */) {
+                throw newException(r, "Failed listing all objects");
+            }
+        } finally {
+            rados.rados_nobjects_list_close(list.getValue());
+        }
+        return entries.toArray(new RadosListEntry[entries.size()]);
+    }
+
     /**
      * List all objects in a pool
      *
@@ -177,8 +451,26 @@ public class IoCTX extends RadosBase {
         return new ListCtx(limit, list);
     }
 
+    /**
+     * Prepare the removal of all objects in the namespace of this context
+     * which match a filter, listing and removing in parallel
+     *
+     * @param cluster
+     *          The connected cluster, to look up the number of placement groups
+     * @param filter
+     *          Selects the objects to remove, see BulkDelete.prefix() and BulkDelete.regex()
+     * @return a BulkDelete which is configured and then started with run()
+     * @throws RadosException
+     */
+    public BulkDelete bulkDelete(Rados cluster, BulkDelete.Filter filter) throws RadosException {
+        return new BulkDelete(cluster, this, filter);
+    }
+
     /**
      * Write to an object
+     * Data larger than getMaxWriteSize() is written in chunks. If one of them
+     * fails, the chunks written before stay, so the object is left partially
+     * written.
      *
      * @param oid
      *          The object to write to
@@ -189,15 +481,48 @@ public class IoCTX extends RadosBase {
      * @throws RadosException
      */
     public void write(final String oid, final byte[] buf, final long offset) throws RadosException, IllegalArgumentException {
+        this.write(new ObjectId(oid), buf, offset);
+    }
+
+    /**
+     * Write to an object
+     * Data larger than getMaxWriteSize() is written in chunks. If one of them
+     * fails, the chunks written before stay, so the object is left partially
+     * written.
+     *
+     * @param oid
+     *          The object to write to, pre-encoded
+     * @param buf
+     *          The content to write
+     * @param offset
+     *          The offset when writing
+     * @throws RadosException
+     */
+    public void write(final ObjectId oid, final byte[] buf, final long offset) throws RadosException, IllegalArgumentException {
         if (offset < 0) {
             throw new IllegalArgumentException("Offset shouldn't be a negative value");
         }
-        handleReturnCode(new Callable<Integer>() {
+        final ExecutionMode mode = this.executionMode;
+        final long timeout = this.timeoutNanos;
+        if (buf.length > getMaxWriteSize()) {
+            writeChunked(oid, buf, buf.length, offset, false, defaultChunkSize(),
+                         timeout > 0 ? Deadline.after(timeout, TimeUnit.NANOSECONDS) : null);
+            return;
+        }
+        if (timeout > 0) {
+            write(oid, buf, offset, Deadline.after(timeout, TimeUnit.NANOSECONDS));
+            return;
+        }
+        if (mode.isAio()) {
+            aioWrite(oid, buf, offset).await();
+            return;
+        }
+        handleReturnCode(mode.wrap(new Callable<Integer>() {
             @Override
             public Integer call() throws Exception {
-                return rados.rados_write(getPointer(), oid, buf, buf.length, offset);
+                return rados.rados_write(getPointer(), oid.getPointer(), buf, buf.length, offset);
             }
-        }, "Failed writing %s bytes with offset %s to %s", buf.length, offset, oid);
+        }), "Failed writing %s bytes with offset %s to %s", buf.length, offset, oid);
     }
 
     /**
@@ -216,6 +541,8 @@ public class IoCTX extends RadosBase {
     /**
      * Write an entire object
      * The object is filled with the provided data. If the object exists, it is atomically truncated and then written.
+     * Data larger than getMaxWriteSize() is written in chunks, see writeFullChunked(). A failed chunked write
+     * leaves the object with partial content.
      *
      * @param oid
      *          The object to write to
@@ -226,12 +553,45 @@ public class IoCTX extends RadosBase {
      * @throws RadosException
      */
     public void writeFull(final String oid, final byte[] buf, final int len) throws RadosException {
-        handleReturnCode(new Callable<Integer>() {
+        this.writeFull(new ObjectId(oid), buf, len);
+    }
+
+    /**
+     * Write an entire object
+     * The object is filled with the provided data. If the object exists, it is atomically truncated and then written.
+     * Data larger than getMaxWriteSize() is written in chunks, see writeFullChunked(). A failed chunked write
+     * leaves the object with partial content.
+     *
+     * @param oid
+     *          The object to write to, pre-encoded
+     * @param buf
+     *          The content to write
+     * @param len
+     *          The length of the data to write
+     * @throws RadosException
+     */
+    public void writeFull(final ObjectId oid, final byte[] buf, final int len) throws RadosException {
+        final ExecutionMode mode = this.executionMode;
+        final long timeout = this.timeoutNanos;
+        if (len > getMaxWriteSize()) {
+            writeChunked(oid, buf, len, 0, true, defaultChunkSize(),
+                         timeout > 0 ? Deadline.after(timeout, TimeUnit.NANOSECONDS) : null);
+            return;
+        }
+        if (timeout > 0) {
+            writeFull(oid, buf, len, Deadline.after(timeout, TimeUnit.NANOSECONDS));
+            return;
+        }
+        if (mode.isAio()) {
+            aioWriteFull(oid, buf, len).await();
+            return;
+        }
+        handleReturnCode(mode.wrap(new Callable<Integer>() {
             @Override
             public Integer call() throws Exception {
-                return rados.rados_write_full(getPointer(), oid, buf, len);
+                return rados.rados_write_full(getPointer(), oid.getPointer(), buf, len);
             }
-        }, "Failed to write %s bytes to %s", len, oid);
+        }), "Failed to write %s bytes to %s", len, oid);
     }
 
     /**
@@ -270,12 +630,33 @@ public class IoCTX extends RadosBase {
      * @throws RadosException
      */
     public void remove(final String oid) throws RadosException {
-        handleReturnCode(new Callable<Integer>() {
+        this.remove(new ObjectId(oid));
+    }
+
+    /**
+     * Remove an object
+     *
+     * @param oid
+     *          The object to remove, pre-encoded
+     * @throws RadosException
+     */
+    public void remove(final ObjectId oid) throws RadosException {
+        final ExecutionMode mode = this.executionMode;
+        final long timeout = this.timeoutNanos;
+        if (timeout > 0) {
+            remove(oid, Deadline.after(timeout, TimeUnit.NANOSECONDS));
+            return;
+        }
+        if (mode.isAio()) {
+            aioRemove(oid).await();
+            return;
+        }
+        handleReturnCode(mode.wrap(new Callable<Integer>() {
             @Override
             public Integer call() throws Exception {
-                return rados.rados_remove(getPointer(), oid);
+                return rados.rados_remove(getPointer(), oid.getPointer());
             }
-        }, "Failed removing object %s", oid);
+        }), "Failed removing object %s", oid);
     }
 
     /**
@@ -294,6 +675,25 @@ public class IoCTX extends RadosBase {
      */
     public int read(final String oid, final int length, final long offset, final byte[] buf)
             throws RadosException {
+        return this.read(new ObjectId(oid), length, offset, buf);
+    }
+
+    /**
+     * Read data from an object
+     *
+     * @param oid
+     *          The object's name, pre-encoded
+     * @param length
+     *          Amount of bytes to read
+     * @param offset
+     *          The offset where to start reading
+     * @param buf
+     *          The buffer to store the result
+     * @return Number of bytes read or negative on error
+     * @throws RadosException
+     */
+    public int read(final ObjectId oid, final int length, final long offset, final byte[] buf)
+            throws RadosException {
         if (length < 0) {
             throw new IllegalArgumentException("Length shouldn't be a negative value");
         }
@@ -301,12 +701,20 @@ public class IoCTX extends RadosBase {
             throw new IllegalArgumentException("Offset shouldn't be a negative value");
         }
 
-        return handleReturnCode(new Callable<Integer>() {
+        final ExecutionMode mode = this.executionMode;
+        final long timeout = this.timeoutNanos;
+        if (timeout > 0) {
+            return read(oid, length, offset, buf, Deadline.after(timeout, TimeUnit.NANOSECONDS));
+        }
+        if (mode.isAio()) {
+            return aioRead(oid, length, offset, buf).await();
+        }
+        return handleReturnCode(mode.wrap(new Callable<Integer>() {
             @Override
             public Integer call() throws Exception {
-                return rados.rados_read(getPointer(), oid, buf, length, offset);
+                return rados.rados_read(getPointer(), oid.getPointer(), buf, length, offset);
             }
-        }, "Failed to read object %s using offset %s and length %s", oid, offset, length);
+        }), "Failed to read object %s using offset %s and length %s", oid, offset, length);
     }
 
     /**
@@ -335,6 +743,10 @@ public class IoCTX extends RadosBase {
     /**
      * Append data to an object
      *
+     * Pools which require alignment (see isAlignmentRequired()) only accept
+     * appends of whole stripes, except for the last one; an AlignedAppender
+     * buffers data accordingly.
+     *
      * @param oid
      *           The name to append to
      * @param buf
@@ -356,12 +768,37 @@ public class IoCTX extends RadosBase {
      * @throws RadosException
      */
     public void append(final String oid, final byte[] buf, final int len) throws RadosException {
-        handleReturnCode(new Callable<Integer>() {
+        this.append(new ObjectId(oid), buf, len);
+    }
+
+    /**
+     * Append data to an object
+     *
+     * @param oid
+     *           The name to append to, pre-encoded
+     * @param buf
+     *           The data to append
+     * @param len
+     *           The number of bytes to write from buf
+     * @throws RadosException
+     */
+    public void append(final ObjectId oid, final byte[] buf, final int len) throws RadosException {
+        final ExecutionMode mode = this.executionMode;
+        final long timeout = this.timeoutNanos;
+        if (timeout > 0) {
+            append(oid, buf, len, Deadline.after(timeout, TimeUnit.NANOSECONDS));
+            return;
+        }
+        if (mode.isAio()) {
+            aioAppend(oid, buf, len).await();
+            return;
+        }
+        handleReturnCode(mode.wrap(new Callable<Integer>() {
             @Override
             public Integer call() throws Exception {
-                return rados.rados_append(getPointer(), oid, buf, len);
+                return rados.rados_append(getPointer(), oid.getPointer(), buf, len);
             }
-        }, "Failed appending %s bytes to object %s", len, oid);
+        }), "Failed appending %s bytes to object %s", len, oid);
     }
 
     /**
@@ -417,15 +854,28 @@ public class IoCTX extends RadosBase {
      * @throws RadosException
      */
     public RadosObjectInfo stat(final String oid) throws RadosException {
+        return this.stat(new ObjectId(oid));
+    }
+
+    /**
+     * Stat an object
+     *
+     * @param oid
+     *          The name of the object, pre-encoded
+     * @return RadosObjectInfo
+     *           The size and mtime of the object
+     * @throws RadosException
+     */
+    public RadosObjectInfo stat(final ObjectId oid) throws RadosException {
         final LongByReference size = new LongByReference();
         final LongByReference mtime = new LongByReference();
         handleReturnCode(new Callable<Integer>() {
             @Override
             public Integer call() throws Exception {
-                return rados.rados_stat(getPointer(), oid, size, mtime);
+                return rados.rados_stat(getPointer(), oid.getPointer(), size, mtime);
             }
         }, "Failed performing a stat on object %s", oid);
-        return new RadosObjectInfo(oid, size.getValue(), mtime.getValue());
+        return new RadosObjectInfo(oid.getName(), size.getValue(), mtime.getValue());
     }
 
     /**
@@ -541,83 +991,404 @@ public class IoCTX extends RadosBase {
      * @throws RadosException
      */
     public Long[] snapList() throws RadosException {
-        final byte[] buf = new byte[512];
-
-        final Integer result = handleReturnCode(new Callable<Integer>() {
-            @Override
-            public Integer call() throws Exception {
-                return rados.rados_ioctx_snap_list(getPointer(), buf, buf.length);
+        long[] buf = new long[SNAP_LIST_PROBE_LEN];
+        while (true) {
+            final long[] snaps = buf;
+            final int r = rados.rados_ioctx_snap_list(getPointer(), snaps, snaps.length);
+            if (r == ErrorCode.ERANGE.getErrorCode() /* more snapshots than fit into the array */) {
+                buf = new long[buf.length * 2];
+                continue;
+            }
+            if (r < 0) {
+                throw newException(r, "Failed to list all snapshots");
             }
-        }, "Failed to list all snapshots");
 
-        Long[] snaps = new Long[result];
-        for (int i = 0; i < result; i++) {
-            snaps[i] = (long) buf[i];
+            Long[] result = new Long[r];
+            for (int i = 0; i < r; i++) {
+                result[i] = snaps[i];
+            }
+            return result;
         }
-        return snaps;
     }
 
-    public ReadOp readOpCreate() {
-        return new ReadOp(getPointer(), rados.rados_create_read_op());
+    /**
+     * Set the snapshot reads on this context are served from
+     *
+     * @param snapId
+     *          The ID of a pool or self-managed snapshot, or SNAP_HEAD to
+     *          read the current state of the objects again
+     */
+    public void snapSetRead(long snapId) {
+        rados.rados_ioctx_snap_set_read(getPointer(), snapId);
     }
 
-    public void readOpRelease(ReadOp read_op) {
-        rados.rados_release_read_op(read_op.getPointer());
+    /**
+     * Allocate a self-managed snapshot
+     *
+     * The snapshot only takes effect for writes once it is part of the write
+     * context set with selfManagedSnapSetWriteCtx(). Self-managed snapshots and
+     * pool snapshots can not be mixed in one pool.
+     *
+     * @return the ID of the new snapshot
+     * @throws RadosException
+     */
+    public long selfManagedSnapCreate() throws RadosException {
+        final LongByReference id = new LongByReference();
+        handleReturnCode(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return rados.rados_ioctx_selfmanaged_snap_create(getPointer(), id);
+            }
+        }, "Failed to create a self-managed snapshot");
+        return id.getValue();
     }
 
-
     /**
-     * Get the value of an extended attribute on an object.
-     * 
-     * @param oid
-     *          The name of the object
-     * @param xattrName
-     *          The name of the extended attribute
-     * @return
-     * 		The value of the extended attribute
+     * Remove a self-managed snapshot
+     *
+     * @param snapId
+     *          The ID of the snapshot
      * @throws RadosException
-     * 		on failure -- common error codes:
-     * 		-34 (ERANGE)  :	value exceeds buffer
-     * 		-61 (ENODATA) :	no such attribute
      */
-    public String getExtentedAttribute(final String oid, final String xattrName) throws RadosException {
-        final byte[] buf = new byte[EXT_ATTR_MAX_LEN];
+    public void selfManagedSnapRemove(final long snapId) throws RadosException {
         handleReturnCode(new Callable<Integer>() {
             @Override
             public Integer call() throws Exception {
-                return rados.rados_getxattr(getPointer(), oid, xattrName, buf, buf.length);
+                return rados.rados_ioctx_selfmanaged_snap_remove(getPointer(), snapId);
             }
-        }, "Failed to get extended attribute %s on %s", xattrName, oid);
-        // else...
-        return  Native.toString(buf);
+        }, "Failed to remove self-managed snapshot %s", snapId);
     }
 
     /**
-     * Set an extended attribute on an object.
-     * 
+     * Roll an object back to a self-managed snapshot
+     *
      * @param oid
      *          The name of the object
-     * @param xattrName
+     * @param snapId
+     *          The ID of the snapshot
+     * @throws RadosException
+     */
+    public void selfManagedSnapRollback(final String oid, final long snapId) throws RadosException {
+        handleReturnCode(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return rados.rados_ioctx_selfmanaged_snap_rollback(getPointer(), oid, snapId);
+            }
+        }, "Failed to roll back %s to self-managed snapshot %s", oid, snapId);
+    }
+
+    /**
+     * Set the snapshot context of writes on this context
+     *
+     * Writes preserve the state of an object for every snapshot in the
+     * context which the object was not yet cloned for.
+     *
+     * @param seq
+     *          The newest snapshot sequence number, usually the highest snapshot ID
+     * @param snaps
+     *          The IDs of the existing snapshots in any order
+     * @throws RadosException
+     */
+    public void selfManagedSnapSetWriteCtx(final long seq, long[] snaps) throws RadosException {
+        // librados expects the snapshots sorted from newest to oldest
+        final long[] sorted = snaps.clone();
+        Arrays.sort(sorted);
+        for (int i = 0, j = sorted.length - 1; i < j; i++, j--) {
+            final long tmp = sorted[i];
+            sorted[i] = sorted[j];
+            sorted[j] = tmp;
+        }
+        if (sorted.length > 0 && sorted[0] > seq) {
+            throw new IllegalArgumentException("The sequence number should not be lower than snapshot " + sorted[0]);
+        }
+        handleReturnCode(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return rados.rados_ioctx_selfmanaged_snap_set_write_ctx(getPointer(), seq, sorted, sorted.length);
+            }
+        }, "Failed to set the snapshot context with sequence number %s", seq);
+    }
+
+    public ReadOp readOpCreate() {
+        return new ReadOp(this, rados.rados_create_read_op());
+    }
+
+    public void readOpRelease(ReadOp read_op) {
+        rados.rados_release_read_op(read_op.getPointer());
+        read_op.release();
+    }
+
+    public WriteOp writeOpCreate() {
+        return new WriteOp(this, rados.rados_create_write_op());
+    }
+
+    public void writeOpRelease(WriteOp write_op) {
+        rados.rados_release_write_op(write_op.getPointer());
+    }
+
+    /**
+     * Get the version of the object the last operation on this context was performed on
+     *
+     * The version is tracked per context, so it is only exact if no other
+     * thread uses this context at the same time. The version of a ReadOp or
+     * WriteOp executed asynchronously is exact in any case.
+     *
+     * @return long
+     */
+    public long getLastVersion() {
+        return rados.rados_get_last_version(getPointer());
+    }
+
+    /**
+     * Replace the content of an object if it still has the given version
+     *
+     * This is a compare-and-swap on the whole object: read it together with
+     * its version, e.g. through a ReadOp, and write the update back with the
+     * version read. The write fails if the object changed in between.
+     *
+     * @param oid
+     *          The object to write to
+     * @param expectedVersion
+     *          The version the object should have
+     * @param buf
+     *          The new content
+     * @return the version of the object after the write
+     * @throws RadosException
+     *          with ERANGE if the object is newer and EOVERFLOW if it is older
+     *          than the expected version
+     */
+    public long writeFullIfVersion(String oid, long expectedVersion, byte[] buf) throws RadosException {
+        final WriteOp op = writeOpCreate();
+        try {
+            op.queueAssertVersion(expectedVersion);
+            op.queueWriteFull(buf);
+            op.operateAsync(oid, 0).await();
+            return op.getVersion();
+        } finally {
+            writeOpRelease(op);
+        }
+    }
+
+
+    /**
+     * Get the value of an extended attribute on an object.
+     * 
+     * @param oid
+     *          The name of the object
+     * @param xattrName
+     *          The name of the extended attribute
+     * @return
+     * 		The value of the extended attribute
+     * @throws RadosException
+     * 		on failure -- common error codes:
+     * 		-61 (ENODATA) :	no such attribute
+     */
+    public String getExtentedAttribute(final String oid, final String xattrName) throws RadosException {
+        return Native.toString(getXattr(oid, xattrName));
+    }
+
+    /**
+     * Set an extended attribute on an object.
+     * 
+     * @param oid
+     *          The name of the object
+     * @param xattrName
      *          The name of the extended attribute
      * @param val
      * 		The value of the extended attribute
-     * @throws IllegalArgumentException
-     * 		attribute value is too long
      * @throws RadosException
      * 		on failure
      */
     public void setExtentedAttribute(final String oid, final String xattrName, String val) throws IllegalArgumentException, RadosException {
-        final byte[] buf = Native.toByteArray(val);
-        if (buf.length > EXT_ATTR_MAX_LEN) {
-            throw new IllegalArgumentException( "Length of attribute value must not exceed " + EXT_ATTR_MAX_LEN);
+        setXattr(oid, xattrName, Native.toByteArray(val));
+    }
+
+    /**
+     * Get the binary value of an extended attribute on an object.
+     *
+     * Values of up to 4 KB are fetched with a single call. Larger values are
+     * fetched in a second round trip together with the other attributes of the
+     * object, so there is no limit on the size of a value.
+     *
+     * @param oid
+     *          The name of the object
+     * @param xattrName
+     *          The name of the extended attribute
+     * @return
+     * 		The value of the extended attribute
+     * @throws RadosException
+     * 		on failure -- common error codes:
+     * 		-61 (ENODATA) :	no such attribute
+     */
+    public byte[] getXattr(final String oid, final String xattrName) throws RadosException {
+        return this.getXattr(new ObjectId(oid), xattrName);
+    }
+
+    /**
+     * Get the binary value of an extended attribute on an object.
+     *
+     * Values of up to 4 KB are fetched with a single call. Larger values are
+     * fetched in a second round trip together with the other attributes of the
+     * object, so there is no limit on the size of a value.
+     *
+     * @param oid
+     *          The name of the object, pre-encoded
+     * @param xattrName
+     *          The name of the extended attribute
+     * @return
+     * 		The value of the extended attribute
+     * @throws RadosException
+     * 		on failure -- common error codes:
+     * 		-61 (ENODATA) :	no such attribute
+     */
+    public byte[] getXattr(final ObjectId oid, final String xattrName) throws RadosException {
+        final byte[] buf = new byte[EXT_ATTR_PROBE_LEN];
+        final int r = rados.rados_getxattr(getPointer(), oid.getPointer(), xattrName, buf, buf.length);
+        if (r >= 0) {
+            final byte[] value = new byte[r];
+            System.arraycopy(buf, 0, value, 0, r);
+            return value;
+        }
+        if (r != ErrorCode.ERANGE.getErrorCode() /* the value is larger than the buffer */) {
+            throw newException(r, String.format("Failed to get extended attribute %s on %s", xattrName, oid));
         }
-        // else...
+
+        final byte[] value = getXattrs(oid.getName()).get(xattrName);
+        if (value == null) {
+            throw newException(-61 /* ENODATA */, String.format("Failed to get extended attribute %s on %s", xattrName, oid));
+        }
+        return value;
+    }
+
+    /**
+     * Read the binary value of an extended attribute into a buffer.
+     *
+     * The value is stored at the position of the buffer, which is advanced by
+     * the length of the value. Direct buffers are filled without an extra copy.
+     *
+     * @param oid
+     *          The name of the object
+     * @param xattrName
+     *          The name of the extended attribute
+     * @param buf
+     *          The buffer to store the value in
+     * @return the length of the value
+     * @throws RadosException
+     * 		on failure -- common error codes:
+     * 		-34 (ERANGE)  :	value exceeds the remaining buffer
+     * 		-61 (ENODATA) :	no such attribute
+     */
+    public int getXattr(final String oid, final String xattrName, final ByteBuffer buf) throws RadosException {
+        final int len = handleReturnCode(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                if (buf.isDirect()) {
+                    return rados.rados_getxattr(getPointer(), oid, xattrName,
+                            Native.getDirectBufferPointer(buf).share(buf.position()), buf.remaining());
+                }
+                final byte[] tmp = new byte[buf.remaining()];
+                final int r = rados.rados_getxattr(getPointer(), oid, xattrName, tmp, tmp.length);
+                if (r > 0) {
+                    buf.duplicate().put(tmp, 0, r);
+                }
+                return r;
+            }
+        }, "Failed to get extended attribute %s on %s", xattrName, oid);
+        buf.position(buf.position() + len);
+        return len;
+    }
+
+    /**
+     * Set the binary value of an extended attribute on an object.
+     *
+     * @param oid
+     *          The name of the object
+     * @param xattrName
+     *          The name of the extended attribute
+     * @param val
+     *          The value of the extended attribute
+     * @throws RadosException
+     * 		on failure
+     */
+    public void setXattr(final String oid, final String xattrName, final byte[] val) throws RadosException {
+        handleReturnCode(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return rados.rados_setxattr(getPointer(), oid, xattrName, val, val.length);
+            }
+        }, "Failed to set extended attribute %s on %s", xattrName, oid);
+    }
+
+    /**
+     * Set the value of an extended attribute from the remaining bytes of a buffer.
+     *
+     * The position of the buffer is advanced to its limit. Direct buffers are
+     * passed on without an extra copy.
+     *
+     * @param oid
+     *          The name of the object
+     * @param xattrName
+     *          The name of the extended attribute
+     * @param val
+     *          The value of the extended attribute
+     * @throws RadosException
+     * 		on failure
+     */
+    public void setXattr(final String oid, final String xattrName, final ByteBuffer val) throws RadosException {
         handleReturnCode(new Callable<Integer>() {
             @Override
             public Integer call() throws Exception {
-                return rados.rados_setxattr(getPointer(), oid, xattrName, buf, buf.length);
+                if (val.isDirect()) {
+                    return rados.rados_setxattr(getPointer(), oid, xattrName,
+                            Native.getDirectBufferPointer(val).share(val.position()), val.remaining());
+                }
+                final byte[] tmp = new byte[val.remaining()];
+                val.duplicate().get(tmp);
+                return rados.rados_setxattr(getPointer(), oid, xattrName, tmp, tmp.length);
             }
         }, "Failed to set extended attribute %s on %s", xattrName, oid);
+        val.position(val.limit());
+    }
+
+    /**
+     * Get all extended attributes of an object with a single round trip.
+     *
+     * @param oid
+     *          The name of the object
+     * @return the values of the attributes by name
+     * @throws RadosException
+     * 		on failure
+     */
+    public Map<String, byte[]> getXattrs(final String oid) throws RadosException {
+        final PointerByReference iter = new PointerByReference();
+        handleReturnCode(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return rados.rados_getxattrs(getPointer(), oid, iter);
+            }
+        }, "Failed to get the extended attributes of %s", oid);
+
+        final Map<String, byte[]> xattrs = new LinkedHashMap<String, byte[]>();
+        final PointerByReference name = new PointerByReference();
+        final PointerByReference val = new PointerByReference();
+        final LongByReference len = new LongByReference();
+        try {
+            while (true) {
+                final int r = rados.rados_getxattrs_next(iter.getValue(), name, val, len);
+                if (r < 0) {
+                    throw newException(r, String.format("Failed to get the extended attributes of %s", oid));
+                }
+                if (name.getValue() == null) {
+                    break;
+                }
+                final int length = (int) len.getValue();
+                xattrs.put(name.getValue().getString(0),
+                           length == 0 ? new byte[0] : val.getValue().getByteArray(0, length));
+            }
+        } finally {
+            rados.rados_getxattrs_end(iter.getValue());
+        }
+        return xattrs;
     }
 
     /**
@@ -639,4 +1410,1033 @@ public class IoCTX extends RadosBase {
         }, "Failed to remove extended attribute %s from %s", xattrName, oid);
    }
 
+    /**
+     * Take an exclusive advisory lock on an object
+     *
+     * @param oid
+     *          The name of the object
+     * @param name
+     *          The name of the lock
+     * @param cookie
+     *          A string identifying this instance of the lock holder
+     * @param desc
+     *          A description of the lock, may be null
+     * @param durationMillis
+     *          The time after which the lock expires, 0 to never expire
+     * @param renew
+     *          Renew a lock held with the same cookie instead of failing with EEXIST
+     * @throws RadosException
+     *          on failure -- common error codes:
+     *          -16 (EBUSY) : the lock is held by another client
+     */
+    public void lockExclusive(final String oid, final String name, final String cookie, final String desc,
+                              final long durationMillis, final boolean renew) throws RadosException {
+        handleReturnCode(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return rados.rados_lock_exclusive(getPointer(), oid, name, cookie, desc,
+                        durationMillis > 0 ? new TimeVal(durationMillis) : null, lockFlags(renew));
+            }
+        }, "Failed to take exclusive lock %s on %s", name, oid);
+    }
+
+    /**
+     * Take a shared advisory lock on an object
+     *
+     * @param oid
+     *          The name of the object
+     * @param name
+     *          The name of the lock
+     * @param cookie
+     *          A string identifying this instance of the lock holder
+     * @param tag
+     *          All holders of the shared lock must use the same tag
+     * @param desc
+     *          A description of the lock, may be null
+     * @param durationMillis
+     *          The time after which the lock expires, 0 to never expire
+     * @param renew
+     *          Renew a lock held with the same cookie instead of failing with EEXIST
+     * @throws RadosException
+     *          on failure -- common error codes:
+     *          -16 (EBUSY) : the lock is held exclusively or with another tag
+     */
+    public void lockShared(final String oid, final String name, final String cookie, final String tag,
+                           final String desc, final long durationMillis, final boolean renew) throws RadosException {
+        handleReturnCode(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return rados.rados_lock_shared(getPointer(), oid, name, cookie, tag, desc,
+                        durationMillis > 0 ? new TimeVal(durationMillis) : null, lockFlags(renew));
+            }
+        }, "Failed to take shared lock %s on %s", name, oid);
+    }
+
+    private static byte lockFlags(boolean renew) {
+        return (byte) (renew ? 1 /* LIBRADOS_LOCK_FLAG_RENEW */ : 0);
+    }
+
+    /**
+     * Release an advisory lock held by this client
+     *
+     * @param oid
+     *          The name of the object
+     * @param name
+     *          The name of the lock
+     * @param cookie
+     *          The cookie the lock was taken with
+     * @throws RadosException
+     */
+    public void unlock(final String oid, final String name, final String cookie) throws RadosException {
+        handleReturnCode(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return rados.rados_unlock(getPointer(), oid, name, cookie);
+            }
+        }, "Failed to release lock %s on %s", name, oid);
+    }
+
+    /**
+     * Release an advisory lock held by another client
+     *
+     * @param oid
+     *          The name of the object
+     * @param name
+     *          The name of the lock
+     * @param client
+     *          The client holding the lock, as returned by listLockers()
+     * @param cookie
+     *          The cookie the lock was taken with
+     * @throws RadosException
+     */
+    public void breakLock(final String oid, final String name, final String client, final String cookie)
+            throws RadosException {
+        handleReturnCode(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return rados.rados_break_lock(getPointer(), oid, name, client, cookie);
+            }
+        }, "Failed to break lock %s of %s on %s", name, client, oid);
+    }
+
+    /**
+     * List the holders of an advisory lock
+     *
+     * @param oid
+     *          The name of the object
+     * @param name
+     *          The name of the lock
+     * @return RadosLockInfo
+     * @throws RadosException
+     */
+    public RadosLockInfo listLockers(final String oid, final String name) throws RadosException {
+        final IntByReference exclusive = new IntByReference();
+        final LongByReference tagLen = new LongByReference(256);
+        final LongByReference clientsLen = new LongByReference(1024);
+        final LongByReference cookiesLen = new LongByReference(1024);
+        final LongByReference addrsLen = new LongByReference(1024);
+        while (true) {
+            final byte[] tag = new byte[(int) tagLen.getValue()];
+            final byte[] clients = new byte[(int) clientsLen.getValue()];
+            final byte[] cookies = new byte[(int) cookiesLen.getValue()];
+            final byte[] addrs = new byte[(int) addrsLen.getValue()];
+            final int r = rados.rados_list_lockers(getPointer(), oid, name, exclusive, tag, tagLen,
+                    clients, clientsLen, cookies, cookiesLen, addrs, addrsLen);
+            if (r == ErrorCode.ERANGE.getErrorCode() /* the lengths have been updated */) {
+                continue;
+            }
+            if (r < 0) {
+                throw newException(r, String.format("Failed to list the lockers of lock %s on %s", name, oid));
+            }
+
+            final String[] clientNames = splitStrings(clients, r);
+            final String[] cookieNames = splitStrings(cookies, r);
+            final String[] addresses = splitStrings(addrs, r);
+            final List<RadosLockInfo.Locker> lockers = new ArrayList<RadosLockInfo.Locker>(r);
+            for (int i = 0; i < r; i++) {
+                lockers.add(new RadosLockInfo.Locker(clientNames[i], cookieNames[i], addresses[i]));
+            }
+            return new RadosLockInfo(exclusive.getValue() != 0, Native.toString(tag), lockers);
+        }
+    }
+
+    /**
+     * Split a buffer holding count consecutive \0 terminated strings
+     */
+    private static String[] splitStrings(byte[] buf, int count) {
+        final String[] result = new String[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = start;
+            while (end < buf.length && buf[end] != 0) {
+                end++;
+            }
+            result[i] = new String(buf, start, end - start);
+            start = end + 1;
+        }
+        return result;
+    }
+
+    /**
+     * Write to an object, waiting at most until the deadline
+     *
+     * @param oid
+     *          The object to write to
+     * @param buf
+     *          The content to write
+     * @param offset
+     *          The offset when writing
+     * @param deadline
+     *          The deadline of the call
+     * @throws RadosTimeoutException
+     *          if the write was not acknowledged in time
+     * @throws RadosException
+     */
+    public void write(String oid, byte[] buf, long offset, Deadline deadline) throws RadosException {
+        this.write(new ObjectId(oid), buf, offset, deadline);
+    }
+
+    /**
+     * Write to an object, waiting at most until the deadline
+     *
+     * @param oid
+     *          The object to write to, pre-encoded
+     * @param buf
+     *          The content to write
+     * @param offset
+     *          The offset when writing
+     * @param deadline
+     *          The deadline of the call
+     * @throws RadosTimeoutException
+     *          if the write was not acknowledged in time
+     * @throws RadosException
+     */
+    public void write(ObjectId oid, byte[] buf, long offset, Deadline deadline) throws RadosException {
+        if (buf.length > getMaxWriteSize()) {
+            writeChunked(oid, buf, buf.length, offset, false, defaultChunkSize(), deadline);
+            return;
+        }
+        aioWrite(oid, buf, offset, deadline).await(deadline);
+    }
+
+    /**
+     * Write an entire object, waiting at most until the deadline
+     *
+     * @param oid
+     *          The object to write to
+     * @param buf
+     *          The content to write
+     * @param len
+     *          The length of the data to write
+     * @param deadline
+     *          The deadline of the call
+     * @throws RadosTimeoutException
+     *          if the write was not acknowledged in time
+     * @throws RadosException
+     */
+    public void writeFull(String oid, byte[] buf, int len, Deadline deadline) throws RadosException {
+        this.writeFull(new ObjectId(oid), buf, len, deadline);
+    }
+
+    /**
+     * Write an entire object, waiting at most until the deadline
+     *
+     * @param oid
+     *          The object to write to, pre-encoded
+     * @param buf
+     *          The content to write
+     * @param len
+     *          The length of the data to write
+     * @param deadline
+     *          The deadline of the call
+     * @throws RadosTimeoutException
+     *          if the write was not acknowledged in time
+     * @throws RadosException
+     */
+    public void writeFull(ObjectId oid, byte[] buf, int len, Deadline deadline) throws RadosException {
+        if (len > getMaxWriteSize()) {
+            writeChunked(oid, buf, len, 0, true, defaultChunkSize(), deadline);
+            return;
+        }
+        aioWriteFull(oid, buf, len, deadline).await(deadline);
+    }
+
+    /**
+     * Append data to an object, waiting at most until the deadline
+     *
+     * @param oid
+     *          The name to append to
+     * @param buf
+     *          The data to append
+     * @param len
+     *          The number of bytes to write from buf
+     * @param deadline
+     *          The deadline of the call
+     * @throws RadosTimeoutException
+     *          if the append was not acknowledged in time
+     * @throws RadosException
+     */
+    public void append(String oid, byte[] buf, int len, Deadline deadline) throws RadosException {
+        this.append(new ObjectId(oid), buf, len, deadline);
+    }
+
+    /**
+     * Append data to an object, waiting at most until the deadline
+     *
+     * @param oid
+     *          The name to append to, pre-encoded
+     * @param buf
+     *          The data to append
+     * @param len
+     *          The number of bytes to write from buf
+     * @param deadline
+     *          The deadline of the call
+     * @throws RadosTimeoutException
+     *          if the append was not acknowledged in time
+     * @throws RadosException
+     */
+    public void append(ObjectId oid, byte[] buf, int len, Deadline deadline) throws RadosException {
+        aioAppend(oid, buf, len, deadline).await(deadline);
+    }
+
+    /**
+     * Remove an object, waiting at most until the deadline
+     *
+     * @param oid
+     *          The object to remove
+     * @param deadline
+     *          The deadline of the call
+     * @throws RadosTimeoutException
+     *          if the removal was not acknowledged in time
+     * @throws RadosException
+     */
+    public void remove(String oid, Deadline deadline) throws RadosException {
+        this.remove(new ObjectId(oid), deadline);
+    }
+
+    /**
+     * Remove an object, waiting at most until the deadline
+     *
+     * @param oid
+     *          The object to remove, pre-encoded
+     * @param deadline
+     *          The deadline of the call
+     * @throws RadosTimeoutException
+     *          if the removal was not acknowledged in time
+     * @throws RadosException
+     */
+    public void remove(ObjectId oid, Deadline deadline) throws RadosException {
+        aioRemove(oid, deadline).await(deadline);
+    }
+
+    /**
+     * Read data from an object, waiting at most until the deadline
+     *
+     * @param oid
+     *          The object's name
+     * @param length
+     *          Amount of bytes to read
+     * @param offset
+     *          The offset where to start reading
+     * @param buf
+     *          The buffer to store the result
+     * @param deadline
+     *          The deadline of the call
+     * @return Number of bytes read
+     * @throws RadosTimeoutException
+     *          if the read did not finish in time
+     * @throws RadosException
+     */
+    public int read(String oid, int length, long offset, byte[] buf, Deadline deadline) throws RadosException {
+        return this.read(new ObjectId(oid), length, offset, buf, deadline);
+    }
+
+    /**
+     * Read data from an object, waiting at most until the deadline
+     *
+     * A read which is abandoned on the deadline is cancelled and never writes
+     * to the buffer.
+     *
+     * @param oid
+     *          The object's name, pre-encoded
+     * @param length
+     *          Amount of bytes to read
+     * @param offset
+     *          The offset where to start reading
+     * @param buf
+     *          The buffer to store the result
+     * @param deadline
+     *          The deadline of the call
+     * @return Number of bytes read
+     * @throws RadosTimeoutException
+     *          if the read did not finish in time
+     * @throws RadosException
+     */
+    public int read(ObjectId oid, int length, long offset, byte[] buf, Deadline deadline) throws RadosException {
+        if (length > buf.length) {
+            throw new IllegalArgumentException("Length shouldn't exceed the buffer");
+        }
+        final AtomicBoolean claim = new AtomicBoolean();
+        final RadosFuture<Integer> read = aioRead(oid, length, offset, buf, deadline, claim);
+        try {
+            return read.await(deadline);
+        } catch (RadosTimeoutException e) {
+            if (claim.compareAndSet(false, true)) {
+                // the completion no longer copies into the buffer
+                read.cancel(false);
+                throw e;
+            }
+            // the data arrived just in time and is being copied
+            return read.await();
+        }
+    }
+
+    /**
+     * Asynchronously write to an object
+     *
+     * @param oid
+     *          The object to write to
+     * @param buf
+     *          The content to write
+     * @param offset
+     *          The offset when writing
+     * @return RadosFuture which completes once the write is acknowledged
+     * @throws RadosException
+     *          if the operation could not be submitted
+     */
+    public RadosFuture<Integer> aioWrite(final String oid, final byte[] buf, final long offset) throws RadosException {
+        return aioWrite(new ObjectId(oid), buf, offset);
+    }
+
+    /**
+     * Asynchronously write to an object
+     *
+     * @param oid
+     *          The object to write to, pre-encoded
+     * @param buf
+     *          The content to write
+     * @param offset
+     *          The offset when writing
+     * @return RadosFuture which completes once the write is acknowledged
+     * @throws RadosException
+     *          if the operation could not be submitted
+     */
+    public RadosFuture<Integer> aioWrite(final ObjectId oid, final byte[] buf, final long offset) throws RadosException {
+        return aioWrite(oid, buf, offset, null);
+    }
+
+    private RadosFuture<Integer> aioWrite(final ObjectId oid, final byte[] buf, final long offset,
+                                          final Deadline deadline) throws RadosException {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset shouldn't be a negative value");
+        }
+        final Pointer data = toNative(buf, buf.length);
+        return submitAio(buf.length, deadline, new AioCall<Integer>() {
+            @Override
+            int submit(Pointer completion) {
+                return rados.rados_aio_write(getPointer(), oid.getPointer(), completion, data, buf.length, offset);
+            }
+            @Override
+            Integer onSuccess(int returnValue) {
+                return returnValue;
+            }
+        }, "Failed writing %s bytes with offset %s to %s", buf.length, offset, oid);
+    }
+
+    /**
+     * Asynchronously write an entire object
+     *
+     * @param oid
+     *          The object to write to
+     * @param buf
+     *          The content to write
+     * @param len
+     *          The length of the data to write
+     * @return RadosFuture which completes once the write is acknowledged
+     * @throws RadosException
+     *          if the operation could not be submitted
+     */
+    public RadosFuture<Integer> aioWriteFull(final String oid, final byte[] buf, final int len) throws RadosException {
+        return aioWriteFull(new ObjectId(oid), buf, len);
+    }
+
+    /**
+     * Asynchronously write an entire object
+     *
+     * @param oid
+     *          The object to write to, pre-encoded
+     * @param buf
+     *          The content to write
+     * @param len
+     *          The length of the data to write
+     * @return RadosFuture which completes once the write is acknowledged
+     * @throws RadosException
+     *          if the operation could not be submitted
+     */
+    public RadosFuture<Integer> aioWriteFull(final ObjectId oid, final byte[] buf, final int len) throws RadosException {
+        return aioWriteFull(oid, buf, len, null);
+    }
+
+    private RadosFuture<Integer> aioWriteFull(final ObjectId oid, final byte[] buf, final int len,
+                                              final Deadline deadline) throws RadosException {
+        final Pointer data = toNative(buf, len);
+        return submitAio(len, deadline, new AioCall<Integer>() {
+            @Override
+            int submit(Pointer completion) {
+                return rados.rados_aio_write_full(getPointer(), oid.getPointer(), completion, data, len);
+            }
+            @Override
+            Integer onSuccess(int returnValue) {
+                return returnValue;
+            }
+        }, "Failed to write %s bytes to %s", len, oid);
+    }
+
+    /**
+     * Asynchronously append data to an object
+     *
+     * @param oid
+     *          The name to append to
+     * @param buf
+     *          The data to append
+     * @param len
+     *          The number of bytes to write from buf
+     * @return RadosFuture which completes once the append is acknowledged
+     * @throws RadosException
+     *          if the operation could not be submitted
+     */
+    public RadosFuture<Integer> aioAppend(final String oid, final byte[] buf, final int len) throws RadosException {
+        return aioAppend(new ObjectId(oid), buf, len);
+    }
+
+    /**
+     * Asynchronously append data to an object
+     *
+     * @param oid
+     *          The name to append to, pre-encoded
+     * @param buf
+     *          The data to append
+     * @param len
+     *          The number of bytes to write from buf
+     * @return RadosFuture which completes once the append is acknowledged
+     * @throws RadosException
+     *          if the operation could not be submitted
+     */
+    public RadosFuture<Integer> aioAppend(final ObjectId oid, final byte[] buf, final int len) throws RadosException {
+        return aioAppend(oid, buf, len, null);
+    }
+
+    private RadosFuture<Integer> aioAppend(final ObjectId oid, final byte[] buf, final int len,
+                                           final Deadline deadline) throws RadosException {
+        final Pointer data = toNative(buf, len);
+        return submitAio(len, deadline, new AioCall<Integer>() {
+            @Override
+            int submit(Pointer completion) {
+                return rados.rados_aio_append(getPointer(), oid.getPointer(), completion, data, len);
+            }
+            @Override
+            Integer onSuccess(int returnValue) {
+                return returnValue;
+            }
+        }, "Failed appending %s bytes to object %s", len, oid);
+    }
+
+    /**
+     * Asynchronously read data from an object
+     *
+     * The buffer must not be touched until the returned future is done.
+     *
+     * @param oid
+     *          The object's name
+     * @param length
+     *          Amount of bytes to read
+     * @param offset
+     *          The offset where to start reading
+     * @param buf
+     *          The buffer to store the result
+     * @return RadosFuture with the number of bytes read
+     * @throws RadosException
+     *          if the operation could not be submitted
+     */
+    public RadosFuture<Integer> aioRead(final String oid, final int length, final long offset, final byte[] buf)
+            throws RadosException {
+        return aioRead(new ObjectId(oid), length, offset, buf);
+    }
+
+    /**
+     * Asynchronously read data from an object
+     *
+     * The buffer must not be touched until the returned future is done.
+     *
+     * @param oid
+     *          The object's name, pre-encoded
+     * @param length
+     *          Amount of bytes to read
+     * @param offset
+     *          The offset where to start reading
+     * @param buf
+     *          The buffer to store the result
+     * @return RadosFuture with the number of bytes read
+     * @throws RadosException
+     *          if the operation could not be submitted
+     */
+    public RadosFuture<Integer> aioRead(final ObjectId oid, final int length, final long offset, final byte[] buf)
+            throws RadosException {
+        return aioRead(oid, length, offset, buf, null, null);
+    }
+
+    /**
+     * @param deadline the deadline of the admission by the limiter, null to wait as long as it takes
+     * @param claim set by whoever owns the buffer, the completion only copies the data after setting it
+     */
+    private RadosFuture<Integer> aioRead(final ObjectId oid, final int length, final long offset, final byte[] buf,
+                                         final Deadline deadline, final AtomicBoolean claim) throws RadosException {
+        if (length < 0 || length > buf.length) {
+            throw new IllegalArgumentException("Length should be between 0 and " + buf.length);
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset shouldn't be a negative value");
+        }
+        final Pointer data = length == 0 ? null : new Memory(length);
+        return submitAio(length, deadline, new AioCall<Integer>() {
+            @Override
+            int submit(Pointer completion) {
+                return rados.rados_aio_read(getPointer(), oid.getPointer(), completion, data, length, offset);
+            }
+            @Override
+            Integer onSuccess(int returnValue) {
+                if (returnValue > 0 && (claim == null || claim.compareAndSet(false, true))) {
+                    data.read(0, buf, 0, returnValue);
+                }
+                return returnValue;
+            }
+        }, "Failed to read object %s using offset %s and length %s", oid, offset, length);
+    }
+
+    /**
+     * Asynchronously remove an object
+     *
+     * @param oid
+     *          The object to remove
+     * @return RadosFuture which completes once the object is removed
+     * @throws RadosException
+     *          if the operation could not be submitted
+     */
+    public RadosFuture<Integer> aioRemove(final String oid) throws RadosException {
+        return aioRemove(new ObjectId(oid));
+    }
+
+    /**
+     * Asynchronously remove an object
+     *
+     * @param oid
+     *          The object to remove, pre-encoded
+     * @return RadosFuture which completes once the object is removed
+     * @throws RadosException
+     *          if the operation could not be submitted
+     */
+    public RadosFuture<Integer> aioRemove(final ObjectId oid) throws RadosException {
+        return aioRemove(oid, null);
+    }
+
+    private RadosFuture<Integer> aioRemove(final ObjectId oid, final Deadline deadline) throws RadosException {
+        return submitAio(0, deadline, new AioCall<Integer>() {
+            @Override
+            int submit(Pointer completion) {
+                return rados.rados_aio_remove(getPointer(), oid.getPointer(), completion);
+            }
+            @Override
+            Integer onSuccess(int returnValue) {
+                return returnValue;
+            }
+        }, "Failed removing object %s", oid);
+    }
+
+    /**
+     * Block until all pending asynchronous writes on this context are safe
+     *
+     * @throws RadosException
+     */
+    public void aioFlush() throws RadosException {
+        handleReturnCode(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return rados.rados_aio_flush(getPointer());
+            }
+        }, "Failed to flush asynchronous operations");
+    }
+
+    /**
+     * Get the largest write the OSDs accept
+     *
+     * Unless set with setMaxWriteSize(), this is osd_max_write_size of the
+     * configuration of the client, which should match the one of the OSDs.
+     *
+     * @return the size in bytes
+     * @throws RadosException
+     */
+    public long getMaxWriteSize() throws RadosException {
+        long size = this.maxWriteSize;
+        if (size == 0) {
+            final Pointer cluster = rados.rados_ioctx_get_cluster(getPointer());
+            final byte[] buf = new byte[64];
+            handleReturnCode(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return rados.rados_conf_get(cluster, "osd_max_write_size", buf, buf.length);
+                }
+            }, "Unable to retrieve the value of configuration option osd_max_write_size");
+            try {
+                // the option is in MiB
+                size = Long.parseLong(Native.toString(buf).trim()) << 20;
+            } catch (NumberFormatException e) {
+                size = DEFAULT_MAX_WRITE_SIZE;
+            }
+            this.maxWriteSize = size;
+        }
+        return size;
+    }
+
+    /**
+     * Set the largest write the OSDs accept, larger writes are split into chunks
+     *
+     * @param bytes
+     *          The size in bytes
+     */
+    public void setMaxWriteSize(long bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("The maximum write size should be at least 1 byte");
+        }
+        this.maxWriteSize = bytes;
+    }
+
+    /**
+     * Write an entire object in chunks, with several chunks in flight
+     *
+     * The first chunk replaces the content of the object with a write_full, the
+     * others follow as writes at their offset. Once the call returns the object
+     * is the same as after a single write_full, but other clients may observe
+     * it partially written in between. On pools which require alignment the
+     * chunks are aligned and written one after another.
+     *
+     * If a chunk fails or the timeout expires, the call waits for the chunks
+     * still in flight before it throws, but does not undo the chunks already
+     * written: the object is left with partial content.
+     *
+     * @param oid
+     *          The object to write to
+     * @param buf
+     *          The content to write
+     * @param len
+     *          The length of the data to write
+     * @param chunkSize
+     *          The size of a chunk, at most getMaxWriteSize()
+     * @throws RadosException
+     */
+    public void writeFullChunked(String oid, byte[] buf, int len, int chunkSize) throws RadosException {
+        writeFullChunked(new ObjectId(oid), buf, len, chunkSize);
+    }
+
+    /**
+     * Write an entire object in chunks, with several chunks in flight
+     *
+     * @param oid
+     *          The object to write to, pre-encoded
+     * @param buf
+     *          The content to write
+     * @param len
+     *          The length of the data to write
+     * @param chunkSize
+     *          The size of a chunk, at most getMaxWriteSize()
+     * @throws RadosException
+     * @see #writeFullChunked(String, byte[], int, int)
+     */
+    public void writeFullChunked(ObjectId oid, byte[] buf, int len, int chunkSize) throws RadosException {
+        if (chunkSize < 1 || chunkSize > getMaxWriteSize()) {
+            throw new IllegalArgumentException("The chunk size should be between 1 and " + getMaxWriteSize());
+        }
+        if (len < 0 || len > buf.length) {
+            throw new IllegalArgumentException("Length should be between 0 and " + buf.length);
+        }
+        final long timeout = this.timeoutNanos;
+        writeChunked(oid, buf, len, 0, true, alignChunkSize(chunkSize),
+                     timeout > 0 ? Deadline.after(timeout, TimeUnit.NANOSECONDS) : null);
+    }
+
+    private int defaultChunkSize() throws RadosException {
+        return alignChunkSize((int) Math.min(getMaxWriteSize(), CHUNKED_WRITE_SIZE));
+    }
+
+    private int alignChunkSize(int chunkSize) throws RadosException {
+        return isAlignmentRequired() ? alignChunkSize(chunkSize, getRequiredAlignment()) : chunkSize;
+    }
+
+    /**
+     * @return the chunk size rounded down to a multiple of the alignment, at least one alignment
+     */
+    static int alignChunkSize(int chunkSize, long alignment) {
+        return (int) Math.max(alignment, chunkSize / alignment * alignment);
+    }
+
+    private void writeChunked(final ObjectId oid, final byte[] buf, final int len, final long offset,
+                              final boolean full, final int chunkSize, final Deadline deadline)
+            throws RadosException {
+        // appends to pools which require alignment have to arrive in order
+        final int maxInFlight = isAlignmentRequired() ? 1 : CHUNKED_WRITES_IN_FLIGHT;
+        final Deque<RadosFuture<Integer>> inFlight = new ArrayDeque<RadosFuture<Integer>>();
+        boolean written = false;
+        try {
+            int pos = 0;
+            do {
+                final int n = Math.min(chunkSize, len - pos);
+                inFlight.add(aioWriteChunk(oid, buf, pos, n, offset + pos, full && pos == 0, deadline));
+                // the other chunks must not be truncated by the write_full
+                final int limit = full && pos == 0 ? 1 : maxInFlight;
+                pos += n;
+                while (inFlight.size() >= limit) {
+                    await(inFlight.peek(), deadline);
+                    inFlight.poll();
+                }
+            } while (pos < len);
+            while (!inFlight.isEmpty()) {
+                await(inFlight.peek(), deadline);
+                inFlight.poll();
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                drain(inFlight);
+            }
+        }
+    }
+
+    /**
+     * Wait for the chunks of a failed write which are still in flight, so
+     * none of them lands after the caller gave up on the write
+     */
+    private static void drain(Deque<RadosFuture<Integer>> inFlight) {
+        boolean interrupted = false;
+        for (RadosFuture<Integer> chunk : inFlight) {
+            while (true) {
+                try {
+                    chunk.await();
+                    break;
+                } catch (RadosException e) {
+                    // the results are ignored, the caller rethrows the first failure
+                    if (e.getReturnValue() == ErrorCode.EINTR.getErrorCode() && Thread.interrupted()) {
+                        interrupted = true;
+                        continue;
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(RadosFuture<Integer> future, Deadline deadline) throws RadosException {
+        if (deadline == null) {
+            future.await();
+        } else {
+            future.await(deadline);
+        }
+    }
+
+    private RadosFuture<Integer> aioWriteChunk(final ObjectId oid, final byte[] buf, final int from, final int len,
+                                               final long offset, final boolean full, final Deadline deadline)
+            throws RadosException {
+        final Pointer data = toNative(buf, from, len);
+        return submitAio(len, deadline, new AioCall<Integer>() {
+            @Override
+            int submit(Pointer completion) {
+                return full
+                        ? rados.rados_aio_write_full(getPointer(), oid.getPointer(), completion, data, len)
+                        : rados.rados_aio_write(getPointer(), oid.getPointer(), completion, data, len, offset);
+            }
+            @Override
+            Integer onSuccess(int returnValue) {
+                return returnValue;
+            }
+        }, "Failed writing %s bytes with offset %s to %s", len, offset, oid);
+    }
+
+    /**
+     * A rados_aio_* call together with the conversion of its return value
+     */
+    abstract static class AioCall<T> {
+        abstract int submit(Pointer completion);
+        abstract T onSuccess(int returnValue);
+
+        T onSuccess(int returnValue, long version) {
+            return onSuccess(returnValue);
+        }
+    }
+
+    /**
+     * Submit an asynchronous operation, honoring the operation limiter
+     *
+     * @param bytes the payload size used for admission control
+     * @param call the operation to submit
+     * @param errorMsg the error message to be used if the operation fails
+     * @param errorMsgArgs the arguments for the error message
+     * @return RadosFuture with the converted result of the operation
+     * @throws RadosException if the operation could not be submitted
+     */
+    <T> RadosFuture<T> submitAio(final long bytes, final AioCall<T> call, final String errorMsg,
+                                 final Object... errorMsgArgs) throws RadosException {
+        return submitAio(bytes, null, call, errorMsg, errorMsgArgs);
+    }
+
+    /**
+     * Submit an asynchronous operation, honoring the operation limiter
+     *
+     * @param bytes the payload size used for admission control
+     * @param deadline how long a blocking limiter may wait for capacity, null to wait as long as it takes
+     * @param call the operation to submit
+     * @param errorMsg the error message to be used if the operation fails
+     * @param errorMsgArgs the arguments for the error message
+     * @return RadosFuture with the converted result of the operation
+     * @throws RadosException if the operation could not be submitted
+     */
+    <T> RadosFuture<T> submitAio(final long bytes, final Deadline deadline, final AioCall<T> call,
+                                 final String errorMsg, final Object... errorMsgArgs) throws RadosException {
+        final OperationLimiter current = this.limiter;
+        if (current == null) {
+            return doSubmitAio(null, call, errorMsg, errorMsgArgs);
+        }
+        if (current.getMode() != OperationLimiter.Mode.ASYNC) {
+            return doSubmitAio(current.acquire(bytes, deadline), call, errorMsg, errorMsgArgs);
+        }
+
+        final RadosFuture<OperationLimiter.Permit> admission = current.acquireAsync(bytes);
+        if (admission.isDone()) {
+            // admitted right away, submit on the calling thread
+            return doSubmitAio(admission.await(), call, errorMsg, errorMsgArgs);
+        }
+        final RadosFuture<T> result = new RadosFuture<T>();
+        admission.addCallback(new RadosFuture.Callback<OperationLimiter.Permit>() {
+            @Override
+            public void onSuccess(final OperationLimiter.Permit permit) {
+                // runs on the thread which released the capacity, usually a completion callback which must
+                // not block, so the native submit is handed to the executor of the limiter
+                try {
+                    current.getExecutor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            submitAdmitted(permit, call, result, errorMsg, errorMsgArgs);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    permit.release();
+                    result.setException(new RadosException("Unable to submit a queued operation: " + e.getMessage(),
+                                                           ErrorCode.EAGAIN.getErrorCode()));
+                }
+            }
+            @Override
+            public void onFailure(RadosException e) {
+                result.setException(e);
+            }
+        });
+        return result;
+    }
+
+    private <T> void submitAdmitted(OperationLimiter.Permit permit, AioCall<T> call, final RadosFuture<T> result,
+                                    String errorMsg, Object... errorMsgArgs) {
+        if (result.isDone()) {
+            // cancelled while it was queued
+            permit.release();
+            return;
+        }
+        try {
+            final RadosFuture<T> submitted = doSubmitAio(permit, call, errorMsg, errorMsgArgs);
+            result.setOnCancel(new Runnable() {
+                @Override
+                public void run() {
+                    submitted.cancel(false);
+                }
+            });
+            submitted.addCallback(new RadosFuture.Callback<T>() {
+                @Override
+                public void onSuccess(T value) {
+                    result.set(value);
+                }
+                @Override
+                public void onFailure(RadosException e) {
+                    result.setException(e);
+                }
+            });
+        } catch (RadosException e) {
+            result.setException(e);
+        }
+    }
+
+    private <T> RadosFuture<T> doSubmitAio(final OperationLimiter.Permit permit, final AioCall<T> call,
+                                           final String errorMsg, final Object... errorMsgArgs) throws RadosException {
+        final RadosFuture<T> future = new RadosFuture<T>();
+        final Completion.Handler handler = new Completion.Handler() {
+            @Override
+            public void onComplete(int returnValue, long version) {
+                if (permit != null) {
+                    permit.release();
+                }
+                if (returnValue < 0) {
+                    future.setException(newException(returnValue, String.format(errorMsg, errorMsgArgs)));
+                    return;
+                }
+                try {
+                    future.set(call.onSuccess(returnValue, version));
+                } catch (RuntimeException e) {
+                    // never leave the future pending, nor throw into librados
+                    future.setException(new RadosException(String.format(errorMsg, errorMsgArgs)
+                                                           + ": " + e.getMessage(), e));
+                }
+            }
+        };
+        final Pointer completion;
+        try {
+            completion = Completion.create(handler);
+        } catch (RadosException e) {
+            if (permit != null) {
+                permit.release();
+            }
+            throw e;
+        }
+
+        final int r = call.submit(completion);
+        if (r < 0) {
+            Completion.abort(completion);
+            if (permit != null) {
+                permit.release();
+            }
+            throw newException(r, String.format(errorMsg, errorMsgArgs));
+        }
+        future.setOnCancel(new Runnable() {
+            @Override
+            public void run() {
+                Completion.cancel(getPointer(), completion, handler);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Copy data to native memory which stays valid until the operation completes
+     */
+    static Pointer toNative(byte[] buf, int len) {
+        return toNative(buf, 0, len);
+    }
+
+    static Pointer toNative(byte[] buf, int off, int len) {
+        if (len < 0 || off < 0 || off + len > buf.length) {
+            throw new IllegalArgumentException("Length should be between 0 and " + (buf.length - off));
+        }
+        if (len == 0) {
+            return null;
+        }
+        final Memory data = new Memory(len);
+        data.write(0, buf, off, len);
+        return data;
+    }
 }
@@ -0,0 +1,358 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Pull parser for the JSON output of monitor, OSD and PG commands.
+ *
+ * The input is read in place, token by token, so even the output of a large
+ * "pg dump" is never materialized as a String or object tree. Only names and
+ * scalar values are decoded, on request.
+ *
+ * Malformed input results in an IllegalStateException.
+ */
+public class JsonStreamReader {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte ARRAY = 0;
+    private static final byte OBJECT_NAME = 1;
+    private static final byte OBJECT_VALUE = 2;
+
+    private final ByteBuffer in;
+    private byte[] stack = new byte[32];
+    private int depth;
+    private byte[] scratch = new byte[64];
+    private int scratchLength;
+    private Token token;
+    private boolean booleanValue;
+
+    /**
+     * @param in the JSON text encoded as UTF-8, read from its position to its limit
+     */
+    public JsonStreamReader(ByteBuffer in) {
+        this.in = in.duplicate();
+    }
+
+    /**
+     * @return the nesting depth of objects and arrays at the current token
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the current token
+     */
+    public Token getToken() {
+        return token;
+    }
+
+    /**
+     * Advance to the next token
+     *
+     * @return Token
+     */
+    public Token next() {
+        while (in.hasRemaining()) {
+            final byte c = in.get();
+            switch (c) {
+                case ' ': case '\t': case '\n': case '\r': case ':':
+                    continue;
+                case ',':
+                    if (depth > 0 && stack[depth - 1] == OBJECT_VALUE) {
+                        stack[depth - 1] = OBJECT_NAME;
+                    }
+                    continue;
+                case '{':
+                    push(OBJECT_NAME);
+                    return token = Token.BEGIN_OBJECT;
+                case '}':
+                    pop(OBJECT_NAME, OBJECT_VALUE);
+                    return token = Token.END_OBJECT;
+                case '[':
+                    push(ARRAY);
+                    return token = Token.BEGIN_ARRAY;
+                case ']':
+                    pop(ARRAY, ARRAY);
+                    return token = Token.END_ARRAY;
+                case '"':
+                    readString();
+                    if (depth > 0 && stack[depth - 1] == OBJECT_NAME) {
+                        stack[depth - 1] = OBJECT_VALUE;
+                        return token = Token.NAME;
+                    }
+                    return token = Token.STRING;
+                case 't':
+                    expectValue();
+                    expectLiteral("rue");
+                    booleanValue = true;
+                    return token = Token.BOOLEAN;
+                case 'f':
+                    expectValue();
+                    expectLiteral("alse");
+                    booleanValue = false;
+                    return token = Token.BOOLEAN;
+                case 'n':
+                    expectValue();
+                    expectLiteral("ull");
+                    return token = Token.NULL;
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        expectValue();
+                        readNumber(c);
+                        return token = Token.NUMBER;
+                    }
+                    throw malformed("Unexpected character '" + (char) c + "'");
+            }
+        }
+        if (depth != 0) {
+            throw malformed("Unexpected end of input");
+        }
+        return token = Token.END_DOCUMENT;
+    }
+
+    /**
+     * Skip the next value including all values nested in it
+     */
+    public void skipValue() {
+        final Token t = next();
+        if (t == Token.NAME) {
+            skipValue();
+            return;
+        }
+        if (t != Token.BEGIN_OBJECT && t != Token.BEGIN_ARRAY) {
+            return;
+        }
+        final int target = depth - 1;
+        while (depth > target) {
+            if (next() == Token.END_DOCUMENT) {
+                throw malformed("Unexpected end of input");
+            }
+        }
+    }
+
+    /**
+     * @return the current NAME or STRING, the text of a NUMBER
+     */
+    public String getString() {
+        if (token != Token.NAME && token != Token.STRING && token != Token.NUMBER) {
+            throw new IllegalStateException("The current token is " + token);
+        }
+        return new String(scratch, 0, scratchLength, UTF8);
+    }
+
+    /**
+     * @param name the name to compare with
+     * @return true if the current token is the NAME or STRING given, without decoding it
+     */
+    public boolean nameEquals(String name) {
+        if (token != Token.NAME && token != Token.STRING) {
+            return false;
+        }
+        final byte[] bytes = name.getBytes(UTF8);
+        if (bytes.length != scratchLength) {
+            return false;
+        }
+        for (int i = 0; i < scratchLength; i++) {
+            if (bytes[i] != scratch[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the current NUMBER as long
+     */
+    public long getLong() {
+        if (token != Token.NUMBER) {
+            throw new IllegalStateException("The current token is " + token);
+        }
+        long value = 0;
+        boolean negative = false;
+        for (int i = 0; i < scratchLength; i++) {
+            final byte c = scratch[i];
+            if (c == '-' && i == 0) {
+                negative = true;
+            } else if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+            } else {
+                return (long) getDouble();
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return the current NUMBER as double
+     */
+    public double getDouble() {
+        if (token != Token.NUMBER) {
+            throw new IllegalStateException("The current token is " + token);
+        }
+        return Double.parseDouble(getString());
+    }
+
+    /**
+     * @return the current BOOLEAN
+     */
+    public boolean getBoolean() {
+        if (token != Token.BOOLEAN) {
+            throw new IllegalStateException("The current token is " + token);
+        }
+        return booleanValue;
+    }
+
+    private void expectValue() {
+        if (depth > 0 && stack[depth - 1] == OBJECT_NAME) {
+            throw malformed("Expected a name");
+        }
+    }
+
+    private void push(byte context) {
+        expectValue();
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = context;
+    }
+
+    private void pop(byte expected, byte alternative) {
+        if (depth == 0 || (stack[depth - 1] != expected && stack[depth - 1] != alternative)) {
+            throw malformed("Unbalanced brackets");
+        }
+        depth--;
+    }
+
+    private void expectLiteral(String rest) {
+        for (int i = 0; i < rest.length(); i++) {
+            if (!in.hasRemaining() || in.get() != rest.charAt(i)) {
+                throw malformed("Invalid literal");
+            }
+        }
+    }
+
+    private void readNumber(byte first) {
+        scratchLength = 0;
+        append(first);
+        while (in.hasRemaining()) {
+            final byte c = in.get(in.position());
+            if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                append(c);
+                in.get();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void readString() {
+        scratchLength = 0;
+        while (true) {
+            if (!in.hasRemaining()) {
+                throw malformed("Unterminated string");
+            }
+            final byte c = in.get();
+            if (c == '"') {
+                return;
+            }
+            if (c != '\\') {
+                append(c);
+                continue;
+            }
+            if (!in.hasRemaining()) {
+                throw malformed("Unterminated string");
+            }
+            final byte e = in.get();
+            switch (e) {
+                case 'b': append((byte) '\b'); break;
+                case 'f': append((byte) '\f'); break;
+                case 'n': append((byte) '\n'); break;
+                case 'r': append((byte) '\r'); break;
+                case 't': append((byte) '\t'); break;
+                case 'u': appendCodePoint(readEscapedCodePoint()); break;
+                default: append(e);
+            }
+        }
+    }
+
+    private int readEscapedCodePoint() {
+        final char high = readHex();
+        if (!Character.isHighSurrogate(high)) {
+            return high;
+        }
+        if (in.remaining() < 6 || in.get(in.position()) != '\\' || in.get(in.position() + 1) != 'u') {
+            return '?';
+        }
+        in.position(in.position() + 2);
+        final char low = readHex();
+        return Character.isLowSurrogate(low) ? Character.toCodePoint(high, low) : '?';
+    }
+
+    private char readHex() {
+        if (in.remaining() < 4) {
+            throw malformed("Invalid unicode escape");
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            final int digit = Character.digit(in.get(), 16);
+            if (digit < 0) {
+                throw malformed("Invalid unicode escape");
+            }
+            value = value * 16 + digit;
+        }
+        return (char) value;
+    }
+
+    private void appendCodePoint(int cp) {
+        if (cp < 0x80) {
+            append((byte) cp);
+        } else if (cp < 0x800) {
+            append((byte) (0xc0 | (cp >> 6)));
+            append((byte) (0x80 | (cp & 0x3f)));
+        } else if (cp < 0x10000) {
+            append((byte) (0xe0 | (cp >> 12)));
+            append((byte) (0x80 | ((cp >> 6) & 0x3f)));
+            append((byte) (0x80 | (cp & 0x3f)));
+        } else {
+            append((byte) (0xf0 | (cp >> 18)));
+            append((byte) (0x80 | ((cp >> 12) & 0x3f)));
+            append((byte) (0x80 | ((cp >> 6) & 0x3f)));
+            append((byte) (0x80 | (cp & 0x3f)));
+        }
+    }
+
+    private void append(byte b) {
+        if (scratchLength == scratch.length) {
+            scratch = Arrays.copyOf(scratch, scratchLength * 2);
+        }
+        scratch[scratchLength++] = b;
+    }
+
+    private IllegalStateException malformed(String reason) {
+        return new IllegalStateException("Malformed JSON at offset " + in.position() + ": " + reason);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The name of an object, encoded once into a NUL-terminated native string.
+ *
+ * Passing a String to librados makes JNA encode it into a new native string
+ * on every call. An ObjectId is encoded when it is created and can be passed
+ * any number of times, which saves that work for objects accessed often.
+ * The name is encoded the same way JNA encodes String arguments.
+ *
+ * intern() returns a shared instance for frequently used names.
+ */
+public final class ObjectId {
+
+    private static final int INTERN_CAPACITY = 4096;
+    private static final int INTERN_SEGMENTS = 16;
+
+    /**
+     * One LRU segment of the intern cache, guarded by its own monitor
+     */
+    private static final class Segment extends LinkedHashMap<String, ObjectId> {
+        private static final long serialVersionUID = 1L;
+
+        Segment() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ObjectId> eldest) {
+            return size() > INTERN_CAPACITY / INTERN_SEGMENTS;
+        }
+    }
+
+    private static final Segment[] INTERNED = new Segment[INTERN_SEGMENTS];
+
+    static {
+        for (int i = 0; i < INTERNED.length; i++) {
+            INTERNED[i] = new Segment();
+        }
+    }
+
+    private final String name;
+    private final Memory encoded;
+
+    /**
+     * Encode an object name
+     *
+     * @param name
+     *          The name of the object
+     */
+    public ObjectId(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("The object name shouldn't be null");
+        }
+        this.name = name;
+        final byte[] bytes = Native.toByteArray(name);
+        this.encoded = new Memory(bytes.length);
+        this.encoded.write(0, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Get a shared instance for an object name
+     *
+     * The most recently used names are kept, so the name of a hot object is
+     * only encoded once. The cache is split into segments by the hash of the
+     * name, each with its own lock, so threads interning different names
+     * rarely contend.
+     *
+     * @param name
+     *          The name of the object
+     * @return ObjectId
+     */
+    public static ObjectId intern(String name) {
+        final int h = name.hashCode();
+        final Segment segment = INTERNED[(h ^ (h >>> 16)) & (INTERN_SEGMENTS - 1)];
+        synchronized (segment) {
+            ObjectId id = segment.get(name);
+            if (id == null) {
+                id = new ObjectId(name);
+                segment.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * @return the name of the object
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the native string passed to librados
+     */
+    Pointer getPointer() {
+        return encoded;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ObjectId && name.equals(((ObjectId) o).name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
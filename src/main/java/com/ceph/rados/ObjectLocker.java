@@ -0,0 +1,339 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.ErrorCode;
+import com.ceph.rados.exceptions.RadosException;
+import com.ceph.rados.exceptions.RadosTimeoutException;
+
+import java.io.Closeable;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Takes advisory object locks (rados_lock_*) with a lease that is renewed in
+ * the background.
+ *
+ * A lock expires on the OSD if its lease is not renewed in time, e.g. because
+ * the holder died. While the holder is alive the lease is renewed every half
+ * lease duration. If a renewal fails the lock is considered lost, which is
+ * visible through Lock.isValid().
+ */
+public class ObjectLocker implements Closeable {
+
+    private static final long MIN_BACKOFF_MILLIS = 5;
+    private static final long MAX_BACKOFF_MILLIS = 500;
+
+    /**
+     * A held lock, release it with close()
+     */
+    public final class Lock implements Closeable {
+        private final String oid;
+        private final String name;
+        private final String cookie;
+        private final String tag;
+        // serializes renewals with release(), so no renewal takes the lock again after it was released
+        private final ReentrantLock state = new ReentrantLock();
+        private volatile boolean valid = true;
+        private ScheduledFuture<?> renewal;
+
+        private Lock(String oid, String name, String cookie, String tag) {
+            this.oid = oid;
+            this.name = name;
+            this.cookie = cookie;
+            this.tag = tag;
+        }
+
+        public String getOid() {
+            return oid;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getCookie() {
+            return cookie;
+        }
+
+        /**
+         * @return false once a renewal failed or the lock was released
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        private void renew() {
+            state.lock();
+            try {
+                if (!valid) {
+                    return;
+                }
+                take(oid, name, cookie, tag, true);
+                synchronized (ObjectLocker.this) {
+                    renewals++;
+                }
+            } catch (RadosException e) {
+                valid = false;
+                renewal.cancel(false);
+                synchronized (ObjectLocker.this) {
+                    renewalFailures++;
+                }
+            } finally {
+                state.unlock();
+            }
+        }
+
+        /**
+         * Stop renewing and release the lock
+         *
+         * @throws RadosException
+         */
+        public void release() throws RadosException {
+            state.lock();
+            try {
+                renewal.cancel(false);
+                if (valid) {
+                    valid = false;
+                    io.unlock(oid, name, cookie);
+                }
+            } finally {
+                state.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                release();
+            } catch (RadosException e) {
+                // the lease expires on its own
+            }
+        }
+    }
+
+    private final IoCTX io;
+    private final long leaseMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private long acquired;
+    private long contended;
+    private long timeouts;
+    private long totalAcquireNanos;
+    private long maxAcquireNanos;
+    private long renewals;
+    private long renewalFailures;
+
+    /**
+     * Create a new locker
+     *
+     * @param io
+     *          The context of the objects to lock
+     * @param lease
+     *          The lease duration of the locks
+     * @param unit
+     *          The unit of the lease
+     */
+    public ObjectLocker(IoCTX io, long lease, TimeUnit unit) {
+        if (unit.toMillis(lease) < 2) {
+            throw new IllegalArgumentException("The lease should be at least 2 ms");
+        }
+        this.io = io;
+        this.leaseMillis = unit.toMillis(lease);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "rados-lock-renewal");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Take an exclusive lock, retrying while it is held by another client
+     *
+     * @param oid
+     *          The name of the object
+     * @param name
+     *          The name of the lock
+     * @param timeout
+     *          The maximum time to wait for the lock
+     * @param unit
+     *          The unit of timeout
+     * @return Lock
+     * @throws RadosTimeoutException
+     *          if the lock could not be taken in time
+     * @throws RadosException
+     */
+    public Lock lockExclusive(String oid, String name, long timeout, TimeUnit unit) throws RadosException {
+        return acquire(oid, name, null, unit.toNanos(timeout));
+    }
+
+    /**
+     * Take a shared lock, retrying while it is held exclusively or with another tag
+     *
+     * @param oid
+     *          The name of the object
+     * @param name
+     *          The name of the lock
+     * @param tag
+     *          All holders of the shared lock must use the same tag
+     * @param timeout
+     *          The maximum time to wait for the lock
+     * @param unit
+     *          The unit of timeout
+     * @return Lock
+     * @throws RadosTimeoutException
+     *          if the lock could not be taken in time
+     * @throws RadosException
+     */
+    public Lock lockShared(String oid, String name, String tag, long timeout, TimeUnit unit) throws RadosException {
+        if (tag == null) {
+            throw new IllegalArgumentException("The tag of a shared lock shouldn't be null");
+        }
+        return acquire(oid, name, tag, unit.toNanos(timeout));
+    }
+
+    private Lock acquire(String oid, String name, String tag, long timeoutNanos) throws RadosException {
+        final String cookie = UUID.randomUUID().toString();
+        final long start = System.nanoTime();
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (true) {
+            try {
+                take(oid, name, cookie, tag, false);
+                break;
+            } catch (RadosException e) {
+                if (e.getReturnValue() != ErrorCode.EBUSY.getErrorCode()) {
+                    throw e;
+                }
+            }
+
+            final long elapsed = System.nanoTime() - start;
+            synchronized (this) {
+                contended++;
+                if (elapsed >= timeoutNanos) {
+                    timeouts++;
+                }
+            }
+            if (elapsed >= timeoutNanos) {
+                throw new RadosTimeoutException(String.format("Failed to take lock %s on %s within %s ms", name, oid,
+                        TimeUnit.NANOSECONDS.toMillis(timeoutNanos)), ErrorCode.ETIMEDOUT.getErrorCode());
+            }
+            try {
+                Thread.sleep(Math.min(backoff, Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos - elapsed))));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new RadosException("Interrupted while waiting for lock " + name, ErrorCode.EINTR.getErrorCode());
+            }
+            backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+        }
+
+        final long latency = System.nanoTime() - start;
+        synchronized (this) {
+            acquired++;
+            totalAcquireNanos += latency;
+            maxAcquireNanos = Math.max(maxAcquireNanos, latency);
+        }
+
+        final Lock lock = new Lock(oid, name, cookie, tag);
+        final long interval = leaseMillis / 2;
+        // the first renewal waits for the lock state, so it always sees its own future
+        lock.state.lock();
+        try {
+            lock.renewal = scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    lock.renew();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        } finally {
+            lock.state.unlock();
+        }
+        return lock;
+    }
+
+    private void take(String oid, String name, String cookie, String tag, boolean renew) throws RadosException {
+        if (tag == null) {
+            io.lockExclusive(oid, name, cookie, "rados-java", leaseMillis, renew);
+        } else {
+            io.lockShared(oid, name, cookie, tag, "rados-java", leaseMillis, renew);
+        }
+    }
+
+    /**
+     * Stop renewing all locks, they expire after their lease
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * @return the number of locks taken
+     */
+    public synchronized long getAcquiredCount() {
+        return acquired;
+    }
+
+    /**
+     * @return the number of attempts which found the lock held by another client
+     */
+    public synchronized long getContendedCount() {
+        return contended;
+    }
+
+    /**
+     * @return the number of lock attempts which timed out
+     */
+    public synchronized long getTimeoutCount() {
+        return timeouts;
+    }
+
+    /**
+     * @return the mean time to take a lock in microseconds, including retries
+     */
+    public synchronized long getAverageAcquireMicros() {
+        return acquired == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalAcquireNanos / acquired);
+    }
+
+    /**
+     * @return the longest time to take a lock in microseconds, including retries
+     */
+    public synchronized long getMaxAcquireMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxAcquireNanos);
+    }
+
+    /**
+     * @return the number of successful lease renewals
+     */
+    public synchronized long getRenewalCount() {
+        return renewals;
+    }
+
+    /**
+     * @return the number of failed lease renewals, each one lost a lock
+     */
+    public synchronized long getRenewalFailureCount() {
+        return renewalFailures;
+    }
+}
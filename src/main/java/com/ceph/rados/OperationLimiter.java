@@ -0,0 +1,457 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.ErrorCode;
+import com.ceph.rados.exceptions.RadosException;
+import com.ceph.rados.exceptions.RadosTimeoutException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for asynchronous operations.
+ *
+ * Limits the number of operations and the number of payload bytes which are
+ * in flight at the same time. A limiter can be set on a Rados object, from
+ * where it is inherited by every IoCTX created afterwards, or on a single
+ * IoCTX.
+ *
+ * Optionally the operation limit adapts to the observed latency: it grows
+ * additively while operations finish within the target latency and shrinks
+ * multiplicatively as soon as they do not (AIMD).
+ *
+ * Blocked threads wait on a ReentrantLock condition rather than a monitor,
+ * so virtual threads unmount while they wait for capacity.
+ */
+public class OperationLimiter {
+
+    /**
+     * What to do with an operation which exceeds the limits
+     */
+    public enum Mode {
+        /** Block the submitting thread until capacity is available */
+        BLOCK,
+        /** Reject the operation with EAGAIN */
+        FAIL_FAST,
+        /** Queue the operation and submit it once capacity is available */
+        ASYNC
+    }
+
+    /**
+     * Capacity granted to a single operation, must be released exactly once.
+     */
+    public final class Permit {
+        private final long bytes;
+        private final long startNanos;
+        private boolean released;
+
+        private Permit(long bytes) {
+            this.bytes = bytes;
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * @return the number of bytes held by this permit
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Return the capacity to the limiter, subsequent calls are ignored
+         */
+        public void release() {
+            lock.lock();
+            try {
+                if (released) {
+                    return;
+                }
+                released = true;
+            } finally {
+                lock.unlock();
+            }
+            OperationLimiter.this.release(this);
+        }
+    }
+
+    private static final class Waiter {
+        final long bytes;
+        final RadosFuture<Permit> future;
+
+        Waiter(long bytes, RadosFuture<Permit> future) {
+            this.bytes = bytes;
+            this.future = future;
+        }
+    }
+
+    /**
+     * The executor which submits queued operations unless another one is set,
+     * created on first use
+     */
+    private static final class DefaultExecutor {
+        static final Executor INSTANCE = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "rados-submit-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static final double DECREASE_FACTOR = 0.9;
+
+    private final int maxOps;
+    private final long maxBytes;
+    private final Mode mode;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition capacity = lock.newCondition();
+    private final Deque<Waiter> waiters = new ArrayDeque<Waiter>();
+    private volatile Executor executor;
+
+    private int inFlightOps;
+    private long inFlightBytes;
+    private int blockedThreads;
+    private long completed;
+    private long rejected;
+    private long totalLatencyNanos;
+
+    private double limit;
+    private int minOps;
+    private long targetLatencyNanos;
+
+    /**
+     * Create a new limiter
+     *
+     * @param maxOps
+     *          The maximum number of operations in flight
+     * @param maxBytes
+     *          The maximum number of payload bytes in flight
+     * @param mode
+     *          How to treat operations which exceed the limits
+     */
+    public OperationLimiter(int maxOps, long maxBytes, Mode mode) {
+        if (maxOps < 1) {
+            throw new IllegalArgumentException("The operation limit should be at least 1");
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("The byte limit should be at least 1");
+        }
+        this.maxOps = maxOps;
+        this.maxBytes = maxBytes;
+        this.mode = mode;
+        this.limit = maxOps;
+    }
+
+    /**
+     * Adapt the operation limit to the observed latency
+     *
+     * @param targetLatency
+     *          The latency above which the limit is decreased
+     * @param unit
+     *          The unit of targetLatency
+     * @param minOps
+     *          The lower bound for the operation limit
+     */
+    public void setAdaptive(long targetLatency, TimeUnit unit, int minOps) {
+        if (minOps < 1 || minOps > maxOps) {
+            throw new IllegalArgumentException("The minimum operation limit should be between 1 and " + maxOps);
+        }
+        lock.lock();
+        try {
+            this.targetLatencyNanos = unit.toNanos(targetLatency);
+            this.minOps = minOps;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Set the executor which submits operations queued in ASYNC mode
+     *
+     * Capacity is usually returned by completion callbacks, which must not
+     * block, so an operation which had to wait is submitted on this executor
+     * instead of the thread which released the capacity. Operations admitted
+     * right away are submitted by the calling thread.
+     *
+     * @param executor
+     *          The executor or null for a shared pool of daemon threads
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the executor which submits operations queued in ASYNC mode
+     */
+    public Executor getExecutor() {
+        final Executor current = this.executor;
+        return current != null ? current : DefaultExecutor.INSTANCE;
+    }
+
+    /**
+     * @return the mode of this limiter
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Acquire capacity for an operation
+     *
+     * Blocks in BLOCK and ASYNC mode, fails right away in FAIL_FAST mode.
+     *
+     * @param bytes
+     *          The payload size of the operation
+     * @return Permit
+     * @throws RadosException
+     *          with EAGAIN if rejected, with EINTR if interrupted while waiting
+     */
+    public Permit acquire(long bytes) throws RadosException {
+        return acquire(bytes, null);
+    }
+
+    /**
+     * Acquire capacity for an operation, waiting at most until the deadline
+     *
+     * @param bytes
+     *          The payload size of the operation
+     * @param deadline
+     *          The deadline of the call or null to wait as long as it takes
+     * @return Permit
+     * @throws RadosTimeoutException
+     *          if no capacity became available in time
+     * @throws RadosException
+     *          with EAGAIN if rejected, with EINTR if interrupted while waiting
+     */
+    public Permit acquire(long bytes, Deadline deadline) throws RadosException {
+        lock.lock();
+        try {
+            if (mode == Mode.FAIL_FAST) {
+                if (!fits(bytes)) {
+                    rejected++;
+                    throw new RadosException("Too many operations in flight: " + inFlightOps + " operations, "
+                                             + inFlightBytes + " bytes", ErrorCode.EAGAIN.getErrorCode());
+                }
+                return grant(bytes);
+            }
+            blockedThreads++;
+            try {
+                while (!waiters.isEmpty() || !fits(bytes)) {
+                    if (deadline == null) {
+                        capacity.await();
+                    } else if (deadline.isExpired()) {
+                        throw new RadosTimeoutException("Timed out waiting for capacity: " + inFlightOps
+                                + " operations, " + inFlightBytes + " bytes in flight", ErrorCode.ETIMEDOUT.getErrorCode());
+                    } else {
+                        capacity.awaitNanos(deadline.remaining(TimeUnit.NANOSECONDS));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RadosException("Interrupted while waiting for capacity", ErrorCode.EINTR.getErrorCode());
+            } finally {
+                blockedThreads--;
+            }
+            return grant(bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Acquire capacity for an operation without blocking
+     *
+     * The returned future completes once the capacity is granted, waiting
+     * operations are granted in FIFO order.
+     *
+     * @param bytes
+     *          The payload size of the operation
+     * @return RadosFuture
+     */
+    public RadosFuture<Permit> acquireAsync(long bytes) {
+        final RadosFuture<Permit> future = new RadosFuture<Permit>();
+        final Permit permit;
+        lock.lock();
+        try {
+            if (!waiters.isEmpty() || !fits(bytes)) {
+                if (mode == Mode.FAIL_FAST) {
+                    rejected++;
+                    future.setException(new RadosException("Too many operations in flight: " + inFlightOps
+                                        + " operations, " + inFlightBytes + " bytes", ErrorCode.EAGAIN.getErrorCode()));
+                    return future;
+                }
+                waiters.addLast(new Waiter(bytes, future));
+                return future;
+            }
+            permit = grant(bytes);
+        } finally {
+            lock.unlock();
+        }
+        future.set(permit);
+        return future;
+    }
+
+    private void release(Permit permit) {
+        final List<Waiter> granted = new ArrayList<Waiter>();
+        final List<Permit> permits = new ArrayList<Permit>();
+        lock.lock();
+        try {
+            inFlightOps--;
+            inFlightBytes -= permit.bytes;
+            completed++;
+            final long latency = System.nanoTime() - permit.startNanos;
+            totalLatencyNanos += latency;
+            adapt(latency);
+
+            while (!waiters.isEmpty() && fits(waiters.peekFirst().bytes)) {
+                final Waiter waiter = waiters.pollFirst();
+                granted.add(waiter);
+                permits.add(grant(waiter.bytes));
+            }
+            capacity.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (int i = 0; i < granted.size(); i++) {
+            if (!granted.get(i).future.set(permits.get(i))) {
+                permits.get(i).release();
+            }
+        }
+    }
+
+    private void adapt(long latencyNanos) {
+        if (targetLatencyNanos <= 0) {
+            return;
+        }
+        if (latencyNanos > targetLatencyNanos) {
+            limit = Math.max(minOps, limit * DECREASE_FACTOR);
+        } else {
+            limit = Math.min(maxOps, limit + 1.0 / limit);
+        }
+    }
+
+    private boolean fits(long bytes) {
+        if (inFlightOps == 0) {
+            // never starve a single operation which is larger than the byte limit
+            return true;
+        }
+        return inFlightOps < (int) limit && inFlightBytes + bytes <= maxBytes;
+    }
+
+    private Permit grant(long bytes) {
+        inFlightOps++;
+        inFlightBytes += bytes;
+        return new Permit(bytes);
+    }
+
+    /**
+     * @return the current operation limit, lower than the maximum when adapted
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of operations in flight
+     */
+    public int getInFlightOps() {
+        lock.lock();
+        try {
+            return inFlightOps;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of payload bytes in flight
+     */
+    public long getInFlightBytes() {
+        lock.lock();
+        try {
+            return inFlightBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of operations waiting for capacity
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return waiters.size() + blockedThreads;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of operations which released their permit
+     */
+    public long getCompletedCount() {
+        lock.lock();
+        try {
+            return completed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of operations rejected in FAIL_FAST mode
+     */
+    public long getRejectedCount() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the mean time between acquiring and releasing a permit in microseconds
+     */
+    public long getAverageLatencyMicros() {
+        lock.lock();
+        try {
+            return completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalLatencyNanos / completed);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
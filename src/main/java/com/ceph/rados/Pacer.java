@@ -0,0 +1,56 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces operations evenly to stay below a rate of operations or bytes per second
+ */
+final class Pacer {
+    private final double nanosPerUnit;
+    private boolean started;
+    private long next;
+
+    Pacer(double unitsPerSecond) {
+        this.nanosPerUnit = TimeUnit.SECONDS.toNanos(1) / unitsPerSecond;
+    }
+
+    /**
+     * @param now
+     *          The current System.nanoTime()
+     * @param units
+     *          The operations or bytes to spend
+     * @return the nanoseconds to wait before the operation may start
+     */
+    synchronized long reserve(long now, long units) {
+        if (!started || next - now < 0) {
+            started = true;
+            next = now;
+        }
+        final long wait = next - now;
+        next += (long) (units * nanosPerUnit);
+        return wait;
+    }
+
+    void acquire(long units) throws InterruptedException {
+        final long wait = reserve(System.nanoTime(), units);
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
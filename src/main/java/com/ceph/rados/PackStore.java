@@ -0,0 +1,899 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.ErrorCode;
+import com.ceph.rados.exceptions.RadosException;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores many small blobs in a few large pack objects.
+ *
+ * Blobs are appended to the pack object currently open by this store and
+ * an omap index object maps every key to the pack, offset and length of its
+ * blob, so a read is an index lookup plus a range read. Batches of blobs are
+ * appended with a single operation and indexed with a single omap update, and
+ * getAll() reads the blobs of each pack with a single compound read.
+ *
+ * Every store instance appends to packs of its own. An append asserts the
+ * version of the pack after the previous append, which both pins the offset
+ * of the blob and lets a compactor seal a pack which was abandoned: the
+ * sealing bumps the version, so a writer which is still alive moves on to a
+ * new pack. A pack is sealed by its writer once it is full and all of its
+ * blobs are indexed.
+ *
+ * Overwritten and deleted blobs stay in their pack until compact() copies
+ * the live blobs of sparse sealed packs into the current pack and removes
+ * the old packs. The index entries are moved with an omap comparison, so a
+ * blob written concurrently is never replaced by its older copy.
+ *
+ * Objects of a store named "name":
+ * - name.index, the omap index
+ * - name.packs, an omap registry of all pack objects
+ * - name.pack.&lt;id&gt;, the pack objects
+ */
+public class PackStore implements Closeable {
+
+    static final String SEALED_XATTR = "rados-java.sealed";
+    public static final long DEFAULT_PACK_SIZE = 16 << 20;
+    private static final int MAX_BATCH_BYTES = 4 << 20;
+    private static final int INDEX_PAGE = 1000;
+    private static final int READ_ROUNDS = 3;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The place of a blob, the value of its index entry
+     */
+    static final class Location {
+        final String pack;
+        final long offset;
+        final int length;
+
+        Location(String pack, long offset, int length) {
+            this.pack = pack;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        byte[] encode() {
+            final byte[] name = pack.getBytes(UTF8);
+            final ByteBuffer buf = ByteBuffer.allocate(12 + name.length);
+            buf.putLong(offset).putInt(length).put(name);
+            return buf.array();
+        }
+
+        /**
+         * @return the location, null if the value is malformed
+         */
+        static Location decode(byte[] value) {
+            if (value == null || value.length <= 12) {
+                return null;
+            }
+            final ByteBuffer buf = ByteBuffer.wrap(value);
+            final long offset = buf.getLong();
+            final int length = buf.getInt();
+            if (offset < 0 || length < 0) {
+                return null;
+            }
+            return new Location(new String(value, 12, value.length - 12, UTF8), offset, length);
+        }
+    }
+
+    /**
+     * A pack object written by this store
+     */
+    private static final class Pack {
+        private final String oid;
+        private long size;
+        private long version;
+        private boolean created;
+        private boolean full;
+        // appended batches which are not indexed yet
+        private int pending;
+
+        private Pack(String oid) {
+            this.oid = oid;
+        }
+    }
+
+    /**
+     * Pack state seen by compact()
+     */
+    private static final class PackInfo {
+        private final long size;
+        private final boolean sealed;
+        private long live;
+
+        private PackInfo(long size, boolean sealed) {
+            this.size = size;
+            this.sealed = sealed;
+        }
+    }
+
+    private final IoCTX io;
+    private final String name;
+    private final String indexOid;
+    private final String registryOid;
+    private final long packSize;
+    private final Random random = new Random();
+    private long staleMillis = TimeUnit.HOURS.toMillis(1);
+
+    private Pack current;
+    private final Set<String> ownPacks = new HashSet<String>();
+    private ScheduledExecutorService scheduler;
+
+    private final AtomicLong putBytes = new AtomicLong();
+    private final AtomicLong compactedPacks = new AtomicLong();
+    private final AtomicLong movedBytes = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Create a store with packs of DEFAULT_PACK_SIZE
+     *
+     * @param io
+     *          The context holding the objects of the store
+     * @param name
+     *          The name of the store, the prefix of its objects
+     */
+    public PackStore(IoCTX io, String name) {
+        this(io, name, DEFAULT_PACK_SIZE);
+    }
+
+    /**
+     * Create a store
+     *
+     * @param io
+     *          The context holding the objects of the store
+     * @param name
+     *          The name of the store, the prefix of its objects
+     * @param packSize
+     *          The size after which a pack is sealed and a new one is started
+     */
+    public PackStore(IoCTX io, String name, long packSize) {
+        if (packSize <= 0) {
+            throw new IllegalArgumentException("The pack size should be positive");
+        }
+        this.io = io;
+        this.name = name;
+        this.indexOid = name + ".index";
+        this.registryOid = name + ".packs";
+        this.packSize = packSize;
+    }
+
+    /**
+     * Set the age after which compact() seals a pack its writer did not seal,
+     * e.g. because the writer crashed. Defaults to one hour.
+     *
+     * @param age
+     *          The time since the last append
+     * @param unit
+     *          The unit of age
+     */
+    public void setStaleAge(long age, TimeUnit unit) {
+        this.staleMillis = unit.toMillis(age);
+    }
+
+    /**
+     * Store a blob under a key, replacing the previous blob of the key
+     *
+     * @param key
+     *          The key
+     * @param data
+     *          The blob
+     * @throws RadosException
+     */
+    public void put(String key, byte[] data) throws RadosException {
+        putAll(Collections.singletonMap(key, data));
+    }
+
+    /**
+     * Store blobs with few appends and index updates
+     *
+     * @param entries
+     *          The blobs by key
+     * @throws RadosException
+     */
+    public void putAll(Map<String, byte[]> entries) throws RadosException {
+        final Map<String, byte[]> batch = new LinkedHashMap<String, byte[]>();
+        long bytes = 0;
+        for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+            if (!batch.isEmpty() && bytes + e.getValue().length > Math.min(packSize, MAX_BATCH_BYTES)) {
+                store(batch, null);
+                batch.clear();
+                bytes = 0;
+            }
+            batch.put(e.getKey(), e.getValue());
+            bytes += e.getValue().length;
+        }
+        if (!batch.isEmpty()) {
+            store(batch, null);
+        }
+    }
+
+    /**
+     * Append a batch and index it. With the previous locations of the blobs
+     * the index is only updated where it still holds them.
+     *
+     * @return the number of index entries updated
+     */
+    private int store(Map<String, byte[]> batch, Map<String, byte[]> expected) throws RadosException {
+        int length = 0;
+        for (byte[] value : batch.values()) {
+            length += value.length;
+        }
+        final byte[] data = new byte[length];
+        int position = 0;
+        for (byte[] value : batch.values()) {
+            System.arraycopy(value, 0, data, position, value.length);
+            position += value.length;
+        }
+
+        final Pack pack = append(data);
+        try {
+            final Map<String, byte[]> index = new LinkedHashMap<String, byte[]>();
+            long offset = pack.size - length;
+            for (Map.Entry<String, byte[]> e : batch.entrySet()) {
+                index.put(e.getKey(), new Location(pack.oid, offset, e.getValue().length).encode());
+                offset += e.getValue().length;
+            }
+            putBytes.addAndGet(length);
+            return updateIndex(index, expected);
+        } finally {
+            indexed(pack);
+        }
+    }
+
+    /**
+     * Append data to the current pack, starting a new pack if needed
+     *
+     * @return the pack, its size includes the data
+     */
+    private synchronized Pack append(byte[] data) throws RadosException {
+        for (int attempt = 0; ; attempt++) {
+            if (current == null) {
+                current = openPack();
+            }
+            final Pack pack = current;
+            final WriteOp op = io.writeOpCreate();
+            try {
+                if (pack.created) {
+                    op.queueAssertVersion(pack.version);
+                } else {
+                    op.queueCreate(true);
+                }
+                op.queueAppend(data);
+                op.operateAsync(pack.oid, 0).await();
+                pack.created = true;
+                pack.size += data.length;
+                pack.version = op.getVersion();
+                pack.pending++;
+                if (pack.size >= packSize) {
+                    pack.full = true;
+                    current = null;
+                }
+                return pack;
+            } catch (RadosException e) {
+                // sealed by a compactor or in an unknown state, continue in a new pack
+                pack.full = true;
+                current = null;
+                if (pack.pending == 0) {
+                    seal(pack.oid);
+                }
+                if (attempt > 0) {
+                    throw e;
+                }
+            } finally {
+                io.writeOpRelease(op);
+            }
+        }
+    }
+
+    private Pack openPack() throws RadosException {
+        final String oid = String.format("%s.pack.%x.%08x", name, System.currentTimeMillis(), random.nextInt());
+        final WriteOp op = io.writeOpCreate();
+        try {
+            op.queueOmapSet(Collections.singletonMap(oid, new byte[0]));
+            op.operateAsync(registryOid, 0).await();
+        } finally {
+            io.writeOpRelease(op);
+        }
+        ownPacks.add(oid);
+        return new Pack(oid);
+    }
+
+    private void indexed(Pack pack) {
+        final boolean seal;
+        synchronized (this) {
+            pack.pending--;
+            seal = pack.full && pack.pending == 0;
+        }
+        if (seal) {
+            seal(pack.oid);
+        }
+    }
+
+    /**
+     * Mark a pack as sealed, which also fails any further append by its writer
+     */
+    private void seal(String oid) {
+        final WriteOp op = io.writeOpCreate();
+        try {
+            op.queueAssertExists();
+            op.queueSetXattr(SEALED_XATTR, new byte[0]);
+            op.operateAsync(oid, 0).await();
+        } catch (RadosException e) {
+            if (e.getReturnValue() != ErrorCode.ENOENT.getErrorCode()) {
+                errors.incrementAndGet();
+            }
+        } finally {
+            io.writeOpRelease(op);
+        }
+        synchronized (this) {
+            ownPacks.remove(oid);
+        }
+    }
+
+    /**
+     * Write index entries, only replacing the expected values if they are given
+     *
+     * @return the number of entries written
+     */
+    private int updateIndex(Map<String, byte[]> entries, Map<String, byte[]> expected) throws RadosException {
+        final WriteOp op = io.writeOpCreate();
+        try {
+            if (expected != null) {
+                for (String key : entries.keySet()) {
+                    op.queueOmapCmp(key, ComparisonOperator.EQ, expected.get(key));
+                }
+            }
+            op.queueOmapSet(entries);
+            op.operateAsync(indexOid, 0).await();
+            return entries.size();
+        } catch (RadosException e) {
+            if (expected == null || e.getReturnValue() != ErrorCode.ECANCELED.getErrorCode()) {
+                throw e;
+            }
+            if (entries.size() == 1) {
+                // the key was written or deleted in the meantime
+                return 0;
+            }
+        } finally {
+            io.writeOpRelease(op);
+        }
+        // some keys changed in the meantime, move the others one by one
+        int updated = 0;
+        for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+            updated += updateIndex(Collections.singletonMap(e.getKey(), e.getValue()), expected);
+        }
+        return updated;
+    }
+
+    /**
+     * Read the blob of a key
+     *
+     * @param key
+     *          The key
+     * @return the blob, null if there is none
+     * @throws RadosException
+     */
+    public byte[] get(String key) throws RadosException {
+        return getAll(Collections.singleton(key)).get(key);
+    }
+
+    /**
+     * Read the blobs of many keys with one index lookup per page of keys and
+     * one compound read per pack, all in parallel
+     *
+     * @param keys
+     *          The keys
+     * @return the blobs of the keys which exist
+     * @throws RadosException
+     */
+    public Map<String, byte[]> getAll(Collection<String> keys) throws RadosException {
+        final Map<String, byte[]> result = new HashMap<String, byte[]>();
+        Set<String> remaining = new LinkedHashSet<String>(keys);
+        for (int round = 0; round < READ_ROUNDS && !remaining.isEmpty(); round++) {
+            final Map<String, Location> locations = lookup(remaining);
+            remaining = new LinkedHashSet<String>();
+            for (String pack : readPacks(locations, result)) {
+                // the pack was compacted after the lookup, look the keys up again
+                for (Map.Entry<String, Location> e : locations.entrySet()) {
+                    if (e.getValue().pack.equals(pack)) {
+                        remaining.add(e.getKey());
+                    }
+                }
+            }
+        }
+        if (!remaining.isEmpty()) {
+            throw new RadosException("The index refers to missing packs for " + remaining.size() + " keys",
+                                     ErrorCode.EIO.getErrorCode());
+        }
+        return result;
+    }
+
+    private Map<String, Location> lookup(Collection<String> keys) throws RadosException {
+        final List<String> all = new ArrayList<String>(keys);
+        final List<ReadOp> ops = new ArrayList<ReadOp>();
+        final List<ReadOp.OmapResult> pages = new ArrayList<ReadOp.OmapResult>();
+        final List<RadosFuture<Integer>> futures = new ArrayList<RadosFuture<Integer>>();
+        final Map<String, Location> locations = new LinkedHashMap<String, Location>();
+        try {
+            for (int i = 0; i < all.size(); i += INDEX_PAGE) {
+                final List<String> page = all.subList(i, Math.min(all.size(), i + INDEX_PAGE));
+                final ReadOp op = io.readOpCreate();
+                ops.add(op);
+                pages.add(op.queueOmapGetValsByKeys(page.toArray(new String[page.size()])));
+                futures.add(op.operateAsync(indexOid, 0));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).await();
+                } catch (RadosException e) {
+                    if (e.getReturnValue() == ErrorCode.ENOENT.getErrorCode()) {
+                        // nothing was stored yet
+                        continue;
+                    }
+                    throw e;
+                }
+                for (Map.Entry<String, byte[]> e : pages.get(i).getEntries().entrySet()) {
+                    final Location location = Location.decode(e.getValue());
+                    if (location == null) {
+                        throw new RadosException("Invalid index entry of key " + e.getKey(),
+                                                 ErrorCode.EIO.getErrorCode());
+                    }
+                    locations.put(e.getKey(), location);
+                }
+            }
+        } finally {
+            awaitQuietly(futures);
+            for (ReadOp op : ops) {
+                io.readOpRelease(op);
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Read the blobs at the locations into the result
+     *
+     * @return the packs which no longer exist
+     */
+    private Set<String> readPacks(Map<String, Location> locations, Map<String, byte[]> result)
+            throws RadosException {
+        final Map<String, Map<String, Location>> byPack = new LinkedHashMap<String, Map<String, Location>>();
+        for (Map.Entry<String, Location> e : locations.entrySet()) {
+            if (e.getValue().length == 0) {
+                result.put(e.getKey(), new byte[0]);
+                continue;
+            }
+            Map<String, Location> pack = byPack.get(e.getValue().pack);
+            if (pack == null) {
+                pack = new LinkedHashMap<String, Location>();
+                byPack.put(e.getValue().pack, pack);
+            }
+            pack.put(e.getKey(), e.getValue());
+        }
+
+        final Set<String> missing = new HashSet<String>();
+        final List<String> packs = new ArrayList<String>(byPack.keySet());
+        final List<ReadOp> ops = new ArrayList<ReadOp>();
+        final List<Map<String, ReadOp.ReadResult>> reads = new ArrayList<Map<String, ReadOp.ReadResult>>();
+        final List<RadosFuture<Integer>> futures = new ArrayList<RadosFuture<Integer>>();
+        try {
+            for (String pack : packs) {
+                final ReadOp op = io.readOpCreate();
+                ops.add(op);
+                final Map<String, ReadOp.ReadResult> read = new LinkedHashMap<String, ReadOp.ReadResult>();
+                for (Map.Entry<String, Location> e : byPack.get(pack).entrySet()) {
+                    read.put(e.getKey(), op.queueRead(e.getValue().offset, e.getValue().length));
+                }
+                reads.add(read);
+                futures.add(op.operateAsync(pack, 0));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).await();
+                } catch (RadosException e) {
+                    if (e.getReturnValue() == ErrorCode.ENOENT.getErrorCode()) {
+                        missing.add(packs.get(i));
+                        continue;
+                    }
+                    throw e;
+                }
+                for (Map.Entry<String, ReadOp.ReadResult> e : reads.get(i).entrySet()) {
+                    final ReadOp.ReadResult read = e.getValue();
+                    final int length = byPack.get(packs.get(i)).get(e.getKey()).length;
+                    if (read.getRVal() < 0) {
+                        throw RadosBase.newException(read.getRVal(), "Failed to read key " + e.getKey());
+                    }
+                    if (read.getBytesRead() != length) {
+                        throw new RadosException("Pack " + packs.get(i) + " is shorter than the blob of key "
+                                                 + e.getKey(), ErrorCode.EIO.getErrorCode());
+                    }
+                    final byte[] data = new byte[length];
+                    final ByteBuffer src = read.getBuffer().duplicate();
+                    src.clear();
+                    src.get(data);
+                    result.put(e.getKey(), data);
+                }
+            }
+        } finally {
+            awaitQuietly(futures);
+            for (ReadOp op : ops) {
+                io.readOpRelease(op);
+            }
+        }
+        return missing;
+    }
+
+    private static void awaitQuietly(List<RadosFuture<Integer>> futures) {
+        // operations must not be released while in flight
+        for (RadosFuture<Integer> future : futures) {
+            try {
+                future.await();
+            } catch (RadosException e) {
+                // reported by the caller
+            }
+        }
+    }
+
+    /**
+     * Delete a key, its blob is reclaimed by compact()
+     *
+     * @param key
+     *          The key
+     * @throws RadosException
+     */
+    public void delete(String key) throws RadosException {
+        deleteAll(Collections.singleton(key));
+    }
+
+    /**
+     * Delete keys, their blobs are reclaimed by compact()
+     *
+     * @param keys
+     *          The keys
+     * @throws RadosException
+     */
+    public void deleteAll(Collection<String> keys) throws RadosException {
+        final List<String> all = new ArrayList<String>(keys);
+        for (int i = 0; i < all.size(); i += INDEX_PAGE) {
+            final List<String> page = all.subList(i, Math.min(all.size(), i + INDEX_PAGE));
+            final WriteOp op = io.writeOpCreate();
+            try {
+                op.queueOmapRmKeys(page.toArray(new String[page.size()]));
+                op.operateAsync(indexOid, 0).await();
+            } catch (RadosException e) {
+                if (e.getReturnValue() != ErrorCode.ENOENT.getErrorCode()) {
+                    throw e;
+                }
+            } finally {
+                io.writeOpRelease(op);
+            }
+        }
+    }
+
+    /**
+     * @return the next page of index entries after the key, empty at the end
+     */
+    private Map<String, byte[]> indexPage(String startAfter) throws RadosException {
+        return omapPage(indexOid, startAfter);
+    }
+
+    private Map<String, byte[]> omapPage(String oid, String startAfter) throws RadosException {
+        final ReadOp op = io.readOpCreate();
+        try {
+            final ReadOp.OmapResult page = op.queueOmapGetVals(startAfter, null, INDEX_PAGE);
+            op.operateAsync(oid, 0).await();
+            return page.getEntries();
+        } catch (RadosException e) {
+            if (e.getReturnValue() == ErrorCode.ENOENT.getErrorCode()) {
+                return Collections.emptyMap();
+            }
+            throw e;
+        } finally {
+            io.readOpRelease(op);
+        }
+    }
+
+    private static String lastKey(Map<String, byte[]> page) {
+        String last = null;
+        for (String key : page.keySet()) {
+            last = key;
+        }
+        return last;
+    }
+
+    /**
+     * Compact sparse packs: the live blobs of every sealed pack whose live
+     * bytes are at most the given share of its size are copied to the current
+     * pack, then the pack is removed. Packs whose writer did not append for
+     * the stale age are sealed first.
+     *
+     * @param maxLiveRatio
+     *          The share of live bytes up to which a pack is compacted, between 0 and 1
+     * @return the number of bytes reclaimed
+     * @throws RadosException
+     */
+    public long compact(double maxLiveRatio) throws RadosException {
+        if (maxLiveRatio < 0 || maxLiveRatio > 1) {
+            throw new IllegalArgumentException("The ratio should be between 0 and 1");
+        }
+        final Map<String, PackInfo> packs = packInfos();
+
+        // the index is scanned after the sealing, so it holds every blob of a sealed pack
+        for (String startAfter = null; ; ) {
+            final Map<String, byte[]> page = indexPage(startAfter);
+            if (page.isEmpty()) {
+                break;
+            }
+            for (byte[] value : page.values()) {
+                final Location location = Location.decode(value);
+                final PackInfo info = location == null ? null : packs.get(location.pack);
+                if (info != null) {
+                    info.live += location.length;
+                }
+            }
+            startAfter = lastKey(page);
+        }
+        final Set<String> candidates = new HashSet<String>();
+        for (Map.Entry<String, PackInfo> e : packs.entrySet()) {
+            final PackInfo info = e.getValue();
+            if (info.sealed && info.live <= maxLiveRatio * info.size) {
+                candidates.add(e.getKey());
+            }
+        }
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+
+        long moved = 0;
+        final Map<String, Location> batch = new LinkedHashMap<String, Location>();
+        long batchBytes = 0;
+        for (String startAfter = null; ; ) {
+            final Map<String, byte[]> page = indexPage(startAfter);
+            if (page.isEmpty()) {
+                break;
+            }
+            for (Map.Entry<String, byte[]> e : page.entrySet()) {
+                final Location location = Location.decode(e.getValue());
+                if (location == null || !candidates.contains(location.pack)) {
+                    continue;
+                }
+                batch.put(e.getKey(), location);
+                batchBytes += location.length;
+                if (batchBytes >= Math.min(packSize, MAX_BATCH_BYTES) || batch.size() >= INDEX_PAGE) {
+                    moved += move(batch);
+                    batch.clear();
+                    batchBytes = 0;
+                }
+            }
+            startAfter = lastKey(page);
+        }
+        if (!batch.isEmpty()) {
+            moved += move(batch);
+        }
+
+        long reclaimed = 0;
+        for (String pack : candidates) {
+            try {
+                io.remove(pack);
+            } catch (RadosException e) {
+                if (e.getReturnValue() != ErrorCode.ENOENT.getErrorCode()) {
+                    throw e;
+                }
+            }
+            final WriteOp op = io.writeOpCreate();
+            try {
+                op.queueOmapRmKeys(pack);
+                op.operateAsync(registryOid, 0).await();
+            } finally {
+                io.writeOpRelease(op);
+            }
+            reclaimed += packs.get(pack).size;
+            compactedPacks.incrementAndGet();
+        }
+        reclaimed -= moved;
+        movedBytes.addAndGet(moved);
+        reclaimedBytes.addAndGet(reclaimed);
+        return reclaimed;
+    }
+
+    /**
+     * Stat all registered packs, sealing the stale ones
+     */
+    private Map<String, PackInfo> packInfos() throws RadosException {
+        final Set<String> own;
+        synchronized (this) {
+            own = new HashSet<String>(ownPacks);
+        }
+        final Map<String, PackInfo> packs = new HashMap<String, PackInfo>();
+        for (String startAfter = null; ; ) {
+            final Map<String, byte[]> page = omapPage(registryOid, startAfter);
+            if (page.isEmpty()) {
+                break;
+            }
+            for (String pack : page.keySet()) {
+                final ReadOp op = io.readOpCreate();
+                try {
+                    final ReadOp.StatResult stat = op.queueStat();
+                    final ReadOp.XattrResult sealed = op.queueGetXattr(SEALED_XATTR);
+                    op.operateAsync(pack, 0).await();
+                    boolean isSealed = sealed.getValue() != null;
+                    if (!isSealed && !own.contains(pack)
+                            && System.currentTimeMillis() - stat.getMtime() * 1000 > staleMillis) {
+                        seal(pack);
+                        isSealed = true;
+                    }
+                    packs.put(pack, new PackInfo(stat.getSize(), isSealed));
+                } catch (RadosException e) {
+                    // not created yet or already removed
+                    if (e.getReturnValue() != ErrorCode.ENOENT.getErrorCode()) {
+                        throw e;
+                    }
+                } finally {
+                    io.readOpRelease(op);
+                }
+            }
+            startAfter = lastKey(page);
+        }
+        return packs;
+    }
+
+    /**
+     * Copy blobs to the current pack and point their index entries there,
+     * unless they were replaced or deleted in the meantime
+     *
+     * @return the number of bytes moved
+     */
+    private long move(Map<String, Location> batch) throws RadosException {
+        final Map<String, byte[]> data = new LinkedHashMap<String, byte[]>();
+        readPacks(batch, data);
+        final Map<String, byte[]> blobs = new LinkedHashMap<String, byte[]>();
+        final Map<String, byte[]> expected = new HashMap<String, byte[]>();
+        long bytes = 0;
+        for (Map.Entry<String, Location> e : batch.entrySet()) {
+            final byte[] blob = data.get(e.getKey());
+            if (blob != null) {
+                blobs.put(e.getKey(), blob);
+                expected.put(e.getKey(), e.getValue().encode());
+                bytes += blob.length;
+            }
+        }
+        if (blobs.isEmpty()) {
+            return 0;
+        }
+        store(blobs, expected);
+        return bytes;
+    }
+
+    /**
+     * Run compact() periodically on a background thread
+     *
+     * @param interval
+     *          The time between the end of a compaction and the start of the next one
+     * @param unit
+     *          The unit of interval
+     * @param maxLiveRatio
+     *          The share of live bytes up to which a pack is compacted
+     */
+    public synchronized void startCompaction(long interval, TimeUnit unit, final double maxLiveRatio) {
+        if (scheduler != null) {
+            throw new IllegalStateException("The compaction is already running");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "rados-pack-compaction");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact(maxLiveRatio);
+                } catch (RadosException e) {
+                    errors.incrementAndGet();
+                }
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * @return the number of blob bytes appended, including moved blobs
+     */
+    public long getPutBytes() {
+        return putBytes.get();
+    }
+
+    /**
+     * @return the number of packs removed by compactions
+     */
+    public long getCompactedPacks() {
+        return compactedPacks.get();
+    }
+
+    /**
+     * @return the number of live bytes copied by compactions
+     */
+    public long getMovedBytes() {
+        return movedBytes.get();
+    }
+
+    /**
+     * @return the number of bytes reclaimed by compactions
+     */
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    /**
+     * @return the number of failed background compactions and seals
+     */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * Stop the background compaction and seal the current pack
+     */
+    @Override
+    public void close() {
+        final Pack pack;
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+            pack = current;
+            current = null;
+            if (pack == null) {
+                return;
+            }
+            pack.full = true;
+            if (pack.pending > 0) {
+                // sealed by the last put in flight
+                return;
+            }
+        }
+        if (pack.created) {
+            seal(pack.oid);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import static com.ceph.rados.Library.rados;
+
+import com.ceph.rados.exceptions.ErrorCode;
+import com.ceph.rados.exceptions.RadosException;
+
+import com.sun.jna.ptr.PointerByReference;
+
+/**
+ * Lists the objects of a single placement group of the pool of a context
+ *
+ * The listing seeks to the hash position of the placement group and ends as
+ * soon as it moves on to the next one, so the placement groups of a pool can
+ * be listed independently and in parallel.
+ */
+final class PgListing {
+
+    /**
+     * Receives the listed objects
+     */
+    interface Visitor {
+        /**
+         * @param namespace
+         *          The namespace of the object, empty for the default namespace
+         * @param oid
+         *          The name of the object
+         * @param key
+         *          The locator key of the object or null
+         * @return false to stop listing
+         * @throws RadosException
+         */
+        boolean visit(String namespace, String oid, String key) throws RadosException;
+    }
+
+    private PgListing() {
+    }
+
+    /**
+     * @param io
+     *          The context, objects are listed in its namespace
+     * @param pg
+     *          The placement group
+     * @param visitor
+     *          Receives the objects
+     * @return true if the whole placement group was listed, false if the visitor stopped
+     * @throws RadosException
+     */
+    static boolean list(IoCTX io, int pg, Visitor visitor) throws RadosException {
+        final PointerByReference list = new PointerByReference();
+        final int open = rados.rados_nobjects_list_open(io.getPointer(), list);
+        if (open < 0) {
+            throw RadosBase.newException(open, "Failed starting to list placement group " + pg);
+        }
+        final PointerByReference entry = new PointerByReference();
+        final PointerByReference key = new PointerByReference();
+        final PointerByReference nspace = new PointerByReference();
+        try {
+            rados.rados_nobjects_list_seek(list.getValue(), pg);
+            while (true) {
+                final int r = rados.rados_nobjects_list_next(list.getValue(), entry, key, nspace);
+                if (r == ErrorCode.ENOENT.getErrorCode()) {
+                    return true;
+                }
+                if (r < 0) {
+                    throw RadosBase.newException(r, "Failed listing placement group " + pg);
+                }
+                if (rados.rados_nobjects_list_get_pg_hash_position(list.getValue()) != pg) {
+                    return true;
+                }
+                if (!visitor.visit(nspace.getValue() == null ? "" : nspace.getValue().getString(0),
+                                   entry.getValue().getString(0),
+                                   key.getValue() == null ? null : key.getValue().getString(0))) {
+                    return false;
+                }
+            }
+        } finally {
+            rados.rados_nobjects_list_close(list.getValue());
+        }
+    }
+}
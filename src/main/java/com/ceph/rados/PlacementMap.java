@@ -0,0 +1,372 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.ErrorCode;
+import com.ceph.rados.exceptions.RadosException;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Snapshot of the placement of the objects of one pool.
+ *
+ * The placement group of an object is computed locally the same way librados
+ * does it, by hashing its name and folding the hash onto pg_num. The acting
+ * primary of every placement group is fetched once with "pg dump pgs_brief",
+ * so resolving an object costs no round trip to the monitors. The snapshot
+ * goes stale when the OSD map changes, load a new one to follow it.
+ *
+ * Locator keys are not taken into account.
+ */
+public class PlacementMap {
+
+    /**
+     * Primary of a placement group which is not known to the map
+     */
+    public static final int UNKNOWN_OSD = -1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int HASH_LINUX = 1;
+    private static final int HASH_RJENKINS = 2;
+    private static final byte NAMESPACE_SEPARATOR = 037;
+
+    private final long poolId;
+    private final long epoch;
+    private final int pgNum;
+    private final int pgNumMask;
+    private final int objectHash;
+    private final int[] primaries;
+
+    PlacementMap(long poolId, long epoch, int pgNum, int objectHash, int[] primaries) {
+        if (pgNum < 1) {
+            throw new IllegalArgumentException("The pool should have at least one placement group");
+        }
+        this.poolId = poolId;
+        this.epoch = epoch;
+        this.pgNum = pgNum;
+        this.pgNumMask = (1 << (32 - Integer.numberOfLeadingZeros(pgNum - 1))) - 1;
+        this.objectHash = objectHash;
+        this.primaries = primaries;
+    }
+
+    /**
+     * Load the placement of a pool from the monitors
+     *
+     * @param cluster
+     *          The connected cluster
+     * @param poolId
+     *          The id of the pool
+     * @return PlacementMap
+     * @throws RadosException
+     */
+    public static PlacementMap load(Rados cluster, long poolId) throws RadosException {
+        long epoch = -1;
+        int pgNum = 0;
+        int objectHash = HASH_RJENKINS;
+
+        CommandResult dump = cluster.monCommand("{\"prefix\": \"osd dump\", \"format\": \"json\"}");
+        try {
+            JsonStreamReader reader = dump.getJsonReader();
+            expect(reader.next(), JsonStreamReader.Token.BEGIN_OBJECT);
+            while (reader.next() == JsonStreamReader.Token.NAME) {
+                if (reader.nameEquals("epoch")) {
+                    reader.next();
+                    epoch = reader.getLong();
+                } else if (reader.nameEquals("pools")) {
+                    expect(reader.next(), JsonStreamReader.Token.BEGIN_ARRAY);
+                    while (reader.next() == JsonStreamReader.Token.BEGIN_OBJECT) {
+                        long id = -1;
+                        int num = 0;
+                        int hash = HASH_RJENKINS;
+                        while (reader.next() == JsonStreamReader.Token.NAME) {
+                            if (reader.nameEquals("pool")) {
+                                reader.next();
+                                id = reader.getLong();
+                            } else if (reader.nameEquals("pg_num")) {
+                                reader.next();
+                                num = (int) reader.getLong();
+                            } else if (reader.nameEquals("object_hash")) {
+                                reader.next();
+                                hash = (int) reader.getLong();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        if (id == poolId) {
+                            pgNum = num;
+                            objectHash = hash;
+                        }
+                    }
+                } else {
+                    reader.skipValue();
+                }
+            }
+        } finally {
+            dump.close();
+        }
+        if (pgNum == 0) {
+            throw new RadosException("Pool " + poolId + " is not in the OSD map", ErrorCode.ENOENT.getErrorCode());
+        }
+
+        final int[] primaries = new int[pgNum];
+        Arrays.fill(primaries, UNKNOWN_OSD);
+        CommandResult pgs = cluster.monCommand(
+                "{\"prefix\": \"pg dump\", \"dumpcontents\": [\"pgs_brief\"], \"format\": \"json\"}");
+        try {
+            readPrimaries(pgs.getJsonReader(), poolId, primaries);
+        } finally {
+            pgs.close();
+        }
+        return new PlacementMap(poolId, epoch, pgNum, objectHash, primaries);
+    }
+
+    /**
+     * Load the placement of the pool of a context from the monitors
+     *
+     * @param cluster
+     *          The connected cluster
+     * @param io
+     *          A context of the pool
+     * @return PlacementMap
+     * @throws RadosException
+     */
+    public static PlacementMap load(Rados cluster, IoCTX io) throws RadosException {
+        return load(cluster, io.getId());
+    }
+
+    /**
+     * Look up only the number of placement groups of the pool of a context,
+     * which is much cheaper than loading the whole placement
+     *
+     * @param cluster
+     *          The connected cluster
+     * @param io
+     *          A context of the pool
+     * @return the number of placement groups
+     * @throws RadosException
+     */
+    public static int loadPgNum(Rados cluster, IoCTX io) throws RadosException {
+        final String pool = io.getPoolName().replace("\\", "\\\\").replace("\"", "\\\"");
+        int pgNum = 0;
+        CommandResult result = cluster.monCommand(
+                "{\"prefix\": \"osd pool get\", \"pool\": \"" + pool + "\", \"var\": \"pg_num\", \"format\": \"json\"}");
+        try {
+            JsonStreamReader reader = result.getJsonReader();
+            expect(reader.next(), JsonStreamReader.Token.BEGIN_OBJECT);
+            while (reader.next() == JsonStreamReader.Token.NAME) {
+                if (reader.nameEquals("pg_num")) {
+                    reader.next();
+                    pgNum = (int) reader.getLong();
+                } else {
+                    reader.skipValue();
+                }
+            }
+        } finally {
+            result.close();
+        }
+        if (pgNum == 0) {
+            throw new RadosException("No pg_num reported for pool " + pool, ErrorCode.ENOENT.getErrorCode());
+        }
+        return pgNum;
+    }
+
+    /**
+     * Depending on the release the brief dump is an array of PG stats or an
+     * object which holds that array in "pg_stats", scanning for objects with a
+     * "pgid" and an "acting_primary" handles both.
+     */
+    private static void readPrimaries(JsonStreamReader reader, long poolId, int[] primaries) {
+        String pgid = null;
+        long primary = UNKNOWN_OSD;
+        JsonStreamReader.Token token;
+        while ((token = reader.next()) != JsonStreamReader.Token.END_DOCUMENT) {
+            if (token == JsonStreamReader.Token.NAME) {
+                if (reader.nameEquals("pgid")) {
+                    reader.next();
+                    pgid = reader.getString();
+                } else if (reader.nameEquals("acting_primary")) {
+                    reader.next();
+                    primary = reader.getLong();
+                }
+            } else if (token == JsonStreamReader.Token.END_OBJECT) {
+                if (pgid != null) {
+                    final int dot = pgid.indexOf('.');
+                    if (dot > 0 && Long.parseLong(pgid.substring(0, dot)) == poolId) {
+                        final int seed = Integer.parseInt(pgid.substring(dot + 1), 16);
+                        if (seed < primaries.length) {
+                            primaries[seed] = (int) primary;
+                        }
+                    }
+                }
+                pgid = null;
+                primary = UNKNOWN_OSD;
+            }
+        }
+    }
+
+    private static void expect(JsonStreamReader.Token actual, JsonStreamReader.Token expected) {
+        if (actual != expected) {
+            throw new IllegalStateException("Expected " + expected + " but was " + actual);
+        }
+    }
+
+    /**
+     * @return the id of the pool
+     */
+    public long getPoolId() {
+        return poolId;
+    }
+
+    /**
+     * @return the epoch of the OSD map the snapshot was taken from
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the number of placement groups of the pool
+     */
+    public int getPgNum() {
+        return pgNum;
+    }
+
+    /**
+     * Get the placement group of an object
+     *
+     * @param namespace
+     *          The namespace of the object, null or empty for the default namespace
+     * @param oid
+     *          The name of the object
+     * @return the seed of the placement group, the pgid is poolId.seed in hex
+     */
+    public int getPlacementGroup(String namespace, String oid) {
+        final byte[] name = oid.getBytes(UTF8);
+        final byte[] key;
+        if (namespace == null || namespace.isEmpty()) {
+            key = name;
+        } else {
+            final byte[] ns = namespace.getBytes(UTF8);
+            key = Arrays.copyOf(ns, ns.length + 1 + name.length);
+            key[ns.length] = NAMESPACE_SEPARATOR;
+            System.arraycopy(name, 0, key, ns.length + 1, name.length);
+        }
+        final int hash = objectHash == HASH_LINUX ? hashLinux(key) : hashRjenkins(key);
+        return stableMod(hash, pgNum, pgNumMask);
+    }
+
+    /**
+     * Get the pgid of an object as used by pg commands
+     *
+     * @param namespace
+     *          The namespace of the object, null or empty for the default namespace
+     * @param oid
+     *          The name of the object
+     * @return String
+     */
+    public String getPgId(String namespace, String oid) {
+        return poolId + "." + Integer.toHexString(getPlacementGroup(namespace, oid));
+    }
+
+    /**
+     * Get the acting primary OSD of an object
+     *
+     * @param namespace
+     *          The namespace of the object, null or empty for the default namespace
+     * @param oid
+     *          The name of the object
+     * @return the id of the OSD or UNKNOWN_OSD
+     */
+    public int getPrimary(String namespace, String oid) {
+        return primaries[getPlacementGroup(namespace, oid)];
+    }
+
+    static int stableMod(int x, int b, int bmask) {
+        if ((x & bmask) < b) {
+            return x & bmask;
+        }
+        return x & (bmask >>> 1);
+    }
+
+    static int hashLinux(byte[] key) {
+        int hash = 0;
+        for (byte b : key) {
+            final int c = b & 0xff;
+            hash = (hash + (c << 4) + (c >>> 4)) * 11;
+        }
+        return hash;
+    }
+
+    /**
+     * ceph_str_hash_rjenkins, Robert Jenkins' lookup2 hash
+     */
+    static int hashRjenkins(byte[] k) {
+        int a = 0x9e3779b9;
+        int b = a;
+        int c = 0;
+        int off = 0;
+        int len = k.length;
+
+        while (len >= 12) {
+            a += le32(k, off);
+            b += le32(k, off + 4);
+            c += le32(k, off + 8);
+            a -= b; a -= c; a ^= (c >>> 13);
+            b -= c; b -= a; b ^= (a << 8);
+            c -= a; c -= b; c ^= (b >>> 13);
+            a -= b; a -= c; a ^= (c >>> 12);
+            b -= c; b -= a; b ^= (a << 16);
+            c -= a; c -= b; c ^= (b >>> 5);
+            a -= b; a -= c; a ^= (c >>> 3);
+            b -= c; b -= a; b ^= (a << 10);
+            c -= a; c -= b; c ^= (b >>> 15);
+            off += 12;
+            len -= 12;
+        }
+
+        c += k.length;
+        switch (len) {
+            case 11: c += (k[off + 10] & 0xff) << 24;
+            case 10: c += (k[off + 9] & 0xff) << 16;
+            case 9:  c += (k[off + 8] & 0xff) << 8;
+            case 8:  b += (k[off + 7] & 0xff) << 24;
+            case 7:  b += (k[off + 6] & 0xff) << 16;
+            case 6:  b += (k[off + 5] & 0xff) << 8;
+            case 5:  b += k[off + 4] & 0xff;
+            case 4:  a += (k[off + 3] & 0xff) << 24;
+            case 3:  a += (k[off + 2] & 0xff) << 16;
+            case 2:  a += (k[off + 1] & 0xff) << 8;
+            case 1:  a += k[off] & 0xff;
+            default:
+        }
+        a -= b; a -= c; a ^= (c >>> 13);
+        b -= c; b -= a; b ^= (a << 8);
+        c -= a; c -= b; c ^= (b >>> 13);
+        a -= b; a -= c; a ^= (c >>> 12);
+        b -= c; b -= a; b ^= (a << 16);
+        c -= a; c -= b; c ^= (b >>> 5);
+        a -= b; a -= c; a ^= (c >>> 3);
+        b -= c; b -= a; b ^= (a << 10);
+        c -= a; c -= b; c ^= (b >>> 15);
+        return c;
+    }
+
+    private static int le32(byte[] k, int off) {
+        return (k[off] & 0xff) | (k[off + 1] & 0xff) << 8 | (k[off + 2] & 0xff) << 16 | (k[off + 3] & 0xff) << 24;
+    }
+}
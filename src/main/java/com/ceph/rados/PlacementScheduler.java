@@ -0,0 +1,268 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.ErrorCode;
+import com.ceph.rados.exceptions.RadosException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Dispatches work on objects grouped by the primary OSD of each object.
+ *
+ * Every OSD gets its own queue and at most perOsdConcurrency tasks of an OSD
+ * run at the same time, so a few hot OSDs can not take all workers while the
+ * others sit idle. Tasks of different OSDs never wait for each other; the
+ * executor should have enough threads to keep all OSDs busy.
+ *
+ * Queued tasks are dispatched in a loop rather than recursively, so executors
+ * which run tasks on the calling thread do not grow the stack. If the executor
+ * rejects a task, that task and all tasks queued for the same OSD fail with
+ * ECANCELED.
+ *
+ * Objects are resolved with a PlacementMap, which is replaced with
+ * setPlacementMap() when the OSD map changed. The namespace of the context is
+ * read once, when the scheduler is created.
+ */
+public class PlacementScheduler {
+
+    /**
+     * Work on a single object
+     */
+    public interface Task {
+        void run(IoCTX io, String oid) throws RadosException;
+    }
+
+    private static final class Entry {
+        private final String oid;
+        private final Task task;
+        private final RadosFuture<Void> future = new RadosFuture<Void>();
+
+        private Entry(String oid, Task task) {
+            this.oid = oid;
+            this.task = task;
+        }
+    }
+
+    private static final class OsdQueue {
+        private final ArrayDeque<Entry> pending = new ArrayDeque<Entry>();
+        private int running;
+        private long completed;
+    }
+
+    private final IoCTX io;
+    private final String namespace;
+    private final int perOsdConcurrency;
+    private final Executor executor;
+    private final Map<Integer, OsdQueue> queues = new HashMap<Integer, OsdQueue>();
+    private volatile PlacementMap map;
+
+    /**
+     * Queues whose slot was freed by a task which ran inline, e.g. on a
+     * caller-runs executor, while this thread is dispatching
+     */
+    private final ThreadLocal<ArrayDeque<OsdQueue>> freed = new ThreadLocal<ArrayDeque<OsdQueue>>();
+
+    /**
+     * Create a new scheduler
+     *
+     * @param io
+     *          The context the tasks work on
+     * @param map
+     *          The placement of the pool of the context
+     * @param perOsdConcurrency
+     *          The maximum number of running tasks per primary OSD
+     * @param executor
+     *          The executor which runs the tasks
+     * @throws RadosException
+     */
+    public PlacementScheduler(IoCTX io, PlacementMap map, int perOsdConcurrency, Executor executor)
+            throws RadosException {
+        if (perOsdConcurrency < 1) {
+            throw new IllegalArgumentException("The concurrency per OSD should be at least 1");
+        }
+        if (map.getPoolId() != io.getId()) {
+            throw new IllegalArgumentException("The placement map is for another pool");
+        }
+        this.io = io;
+        this.namespace = io.getNamespace();
+        this.perOsdConcurrency = perOsdConcurrency;
+        this.executor = executor;
+        this.map = map;
+    }
+
+    /**
+     * Replace the placement map, queued tasks keep their OSD
+     *
+     * @param map
+     *          The new placement of the pool
+     */
+    public void setPlacementMap(PlacementMap map) {
+        if (map.getPoolId() != io.getId()) {
+            throw new IllegalArgumentException("The placement map is for another pool");
+        }
+        this.map = map;
+    }
+
+    /**
+     * @return the placement map objects are resolved with
+     */
+    public PlacementMap getPlacementMap() {
+        return map;
+    }
+
+    /**
+     * Queue a task for an object
+     *
+     * @param oid
+     *          The name of the object
+     * @param task
+     *          The work on the object
+     * @return a future which is completed once the task ran
+     */
+    public RadosFuture<Void> submit(String oid, Task task) {
+        final Entry entry = new Entry(oid, task);
+        final int osd = map.getPrimary(namespace, oid);
+        final OsdQueue queue;
+        synchronized (this) {
+            queue = queue(osd);
+            if (queue.running >= perOsdConcurrency) {
+                queue.pending.add(entry);
+                return entry.future;
+            }
+            queue.running++;
+        }
+        dispatch(queue, entry);
+        return entry.future;
+    }
+
+    private OsdQueue queue(int osd) {
+        OsdQueue queue = queues.get(osd);
+        if (queue == null) {
+            queue = new OsdQueue();
+            queues.put(osd, queue);
+        }
+        return queue;
+    }
+
+    private void dispatch(final OsdQueue queue, final Entry entry) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        entry.task.run(io, entry.oid);
+                        entry.future.set(null);
+                    } catch (RadosException e) {
+                        entry.future.setException(e);
+                    } catch (RuntimeException e) {
+                        entry.future.setException(new RadosException("Task on " + entry.oid + " failed", e));
+                    } finally {
+                        completed(queue);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected(queue, entry);
+        }
+    }
+
+    /**
+     * Fail the rejected task and everything queued behind it, the executor
+     * will most likely reject those as well
+     */
+    private void rejected(OsdQueue queue, Entry entry) {
+        final List<Entry> dropped = new ArrayList<Entry>();
+        dropped.add(entry);
+        synchronized (this) {
+            dropped.addAll(queue.pending);
+            queue.pending.clear();
+            queue.completed += dropped.size();
+            queue.running--;
+        }
+        for (Entry e : dropped) {
+            e.future.setException(new RadosException("The executor rejected the task on " + e.oid,
+                                                     ErrorCode.ECANCELED.getErrorCode()));
+        }
+    }
+
+    private void completed(OsdQueue queue) {
+        ArrayDeque<OsdQueue> freed = this.freed.get();
+        if (freed != null) {
+            // the task ran inline, the loop further up this thread dispatches the next one
+            freed.add(queue);
+            return;
+        }
+        freed = new ArrayDeque<OsdQueue>();
+        this.freed.set(freed);
+        try {
+            freed.add(queue);
+            OsdQueue current;
+            while ((current = freed.poll()) != null) {
+                final Entry next;
+                synchronized (this) {
+                    current.completed++;
+                    next = current.pending.poll();
+                    if (next == null) {
+                        current.running--;
+                        continue;
+                    }
+                }
+                dispatch(current, next);
+            }
+        } finally {
+            this.freed.remove();
+        }
+    }
+
+    /**
+     * @param osd
+     *          The id of the OSD
+     * @return the number of running tasks on objects of the OSD
+     */
+    public synchronized int getRunning(int osd) {
+        final OsdQueue queue = queues.get(osd);
+        return queue == null ? 0 : queue.running;
+    }
+
+    /**
+     * @param osd
+     *          The id of the OSD
+     * @return the number of queued tasks on objects of the OSD
+     */
+    public synchronized int getPending(int osd) {
+        final OsdQueue queue = queues.get(osd);
+        return queue == null ? 0 : queue.pending.size();
+    }
+
+    /**
+     * @return the number of completed tasks per primary OSD
+     */
+    public synchronized Map<Integer, Long> getCompletedCounts() {
+        final Map<Integer, Long> counts = new HashMap<Integer, Long>();
+        for (Map.Entry<Integer, OsdQueue> e : queues.entrySet()) {
+            counts.put(e.getKey(), e.getValue().completed);
+        }
+        return counts;
+    }
+}
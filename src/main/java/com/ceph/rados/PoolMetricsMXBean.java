@@ -0,0 +1,44 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+/**
+ * Metrics of a pool sampled by PoolMetricsSampler, registered as
+ * com.ceph.rados:type=PoolMetrics,pool=&lt;name&gt;
+ */
+public interface PoolMetricsMXBean {
+
+    String getPool();
+
+    long getSampleTimeMillis();
+
+    long getBytes();
+
+    long getObjects();
+
+    long getDegradedObjects();
+
+    long getUnfoundObjects();
+
+    double getReadOpsPerSecond();
+
+    double getWriteOpsPerSecond();
+
+    double getReadBytesPerSecond();
+
+    double getWriteBytesPerSecond();
+}
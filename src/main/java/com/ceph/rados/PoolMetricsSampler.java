@@ -0,0 +1,516 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.RadosException;
+import com.ceph.rados.jna.RadosPoolInfo;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Polls the statistics of a set of pools in the background.
+ *
+ * The counters of rados_ioctx_pool_stat() are cumulative. Every sample is
+ * kept in a per pool ring buffer of primitive arrays, from which deltas and
+ * per second rates between the two latest samples are computed. New samples
+ * are published to listeners and, once registerMBeans() was called, through
+ * a PoolMetricsMXBean per pool.
+ *
+ * Pools are sampled on a single background thread without holding the lock
+ * of the sampler, so a slow pool or listener does not block adding or
+ * removing pools. Contexts of removed pools are destroyed on that thread,
+ * after the sample in progress. Intervals are measured with System.nanoTime(),
+ * the wall clock only provides the timestamp of a sample.
+ */
+public class PoolMetricsSampler implements Closeable {
+
+    /**
+     * The sampled values of a pool
+     */
+    public enum Metric {
+        BYTES, OBJECTS, DEGRADED_OBJECTS, UNFOUND_OBJECTS, READ_OPS, READ_BYTES, WRITE_OPS, WRITE_BYTES
+    }
+
+    private static final int METRICS = Metric.values().length;
+
+    /**
+     * Notified on the sampler thread after each sample of a pool
+     */
+    public interface Listener {
+        void onSample(String pool, Sample sample);
+    }
+
+    /**
+     * A sample of a pool together with the change since the previous sample
+     */
+    public static final class Sample {
+        private final long timeMillis;
+        private final long elapsedMillis;
+        private final long[] values;
+        private final long[] deltas;
+
+        Sample(long timeMillis, long elapsedMillis, long[] values, long[] deltas) {
+            this.timeMillis = timeMillis;
+            this.elapsedMillis = elapsedMillis;
+            this.values = values;
+            this.deltas = deltas;
+        }
+
+        /**
+         * @return when the sample was taken in milliseconds since the epoch
+         */
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        /**
+         * @return the time since the previous sample, 0 for the first sample
+         */
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public long getValue(Metric metric) {
+            return values[metric.ordinal()];
+        }
+
+        public long getDelta(Metric metric) {
+            return deltas[metric.ordinal()];
+        }
+
+        /**
+         * @return the change per second since the previous sample, 0 for the first sample
+         */
+        public double getRate(Metric metric) {
+            return elapsedMillis == 0 ? 0 : deltas[metric.ordinal()] * 1000.0 / elapsedMillis;
+        }
+    }
+
+    /**
+     * Ring buffer of the samples of one pool
+     */
+    static final class Series {
+        private final long[] times;
+        private final long[] nanos;
+        private final long[] values;
+        private int next;
+        private int count;
+
+        Series(int capacity) {
+            this.times = new long[capacity];
+            this.nanos = new long[capacity];
+            this.values = new long[capacity * METRICS];
+        }
+
+        /**
+         * @param timeMillis
+         *          The wall clock time of the sample
+         * @param nanoTime
+         *          The System.nanoTime() of the sample, which rates are computed with
+         * @param sample
+         *          The values of the sample
+         */
+        synchronized void add(long timeMillis, long nanoTime, long[] sample) {
+            times[next] = timeMillis;
+            nanos[next] = nanoTime;
+            System.arraycopy(sample, 0, values, next * METRICS, METRICS);
+            next = (next + 1) % times.length;
+            count = Math.min(count + 1, times.length);
+        }
+
+        synchronized int size() {
+            return count;
+        }
+
+        private int index(int age) {
+            return (next - 1 - age + times.length) % times.length;
+        }
+
+        /**
+         * @return the latest sample, null if there is none
+         */
+        synchronized Sample latest() {
+            if (count == 0) {
+                return null;
+            }
+            final int last = index(0);
+            final long[] current = new long[METRICS];
+            final long[] deltas = new long[METRICS];
+            System.arraycopy(values, last * METRICS, current, 0, METRICS);
+            long elapsed = 0;
+            if (count > 1) {
+                final int previous = index(1);
+                elapsed = TimeUnit.NANOSECONDS.toMillis(nanos[last] - nanos[previous]);
+                for (int i = 0; i < METRICS; i++) {
+                    deltas[i] = current[i] - values[previous * METRICS + i];
+                }
+            }
+            return new Sample(times[last], elapsed, current, deltas);
+        }
+
+        /**
+         * @return the values of a metric, oldest first
+         */
+        synchronized long[] history(Metric metric) {
+            final long[] result = new long[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = values[index(count - 1 - i) * METRICS + metric.ordinal()];
+            }
+            return result;
+        }
+
+        /**
+         * @return the sample times, oldest first
+         */
+        synchronized long[] times() {
+            final long[] result = new long[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = times[index(count - 1 - i)];
+            }
+            return result;
+        }
+    }
+
+    private final class PoolMetrics implements PoolMetricsMXBean {
+        private final String pool;
+
+        private PoolMetrics(String pool) {
+            this.pool = pool;
+        }
+
+        private long value(Metric metric) {
+            final Sample sample = getLatest(pool);
+            return sample == null ? 0 : sample.getValue(metric);
+        }
+
+        private double rate(Metric metric) {
+            final Sample sample = getLatest(pool);
+            return sample == null ? 0 : sample.getRate(metric);
+        }
+
+        public String getPool() {
+            return pool;
+        }
+
+        public long getSampleTimeMillis() {
+            final Sample sample = getLatest(pool);
+            return sample == null ? 0 : sample.getTimeMillis();
+        }
+
+        public long getBytes() {
+            return value(Metric.BYTES);
+        }
+
+        public long getObjects() {
+            return value(Metric.OBJECTS);
+        }
+
+        public long getDegradedObjects() {
+            return value(Metric.DEGRADED_OBJECTS);
+        }
+
+        public long getUnfoundObjects() {
+            return value(Metric.UNFOUND_OBJECTS);
+        }
+
+        public double getReadOpsPerSecond() {
+            return rate(Metric.READ_OPS);
+        }
+
+        public double getWriteOpsPerSecond() {
+            return rate(Metric.WRITE_OPS);
+        }
+
+        public double getReadBytesPerSecond() {
+            return rate(Metric.READ_BYTES);
+        }
+
+        public double getWriteBytesPerSecond() {
+            return rate(Metric.WRITE_BYTES);
+        }
+    }
+
+    private final Rados rados;
+    private final int capacity;
+    private final Map<String, IoCTX> contexts = new ConcurrentHashMap<String, IoCTX>();
+    private final Map<String, Series> series = new ConcurrentHashMap<String, Series>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+    private final AtomicLong errors = new AtomicLong();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Create a new sampler and start sampling
+     *
+     * @param rados
+     *          The connected cluster
+     * @param interval
+     *          The time between two samples
+     * @param unit
+     *          The unit of interval
+     * @param capacity
+     *          The number of samples kept per pool
+     */
+    public PoolMetricsSampler(Rados rados, long interval, TimeUnit unit, int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("At least two samples should be kept to compute rates");
+        }
+        this.rados = rados;
+        this.capacity = capacity;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "rados-metrics-sampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sample();
+            }
+        }, 0, interval, unit);
+    }
+
+    /**
+     * Start sampling a pool
+     *
+     * @param pool
+     *          The name of the pool
+     * @throws RadosException
+     */
+    public synchronized void addPool(String pool) throws RadosException {
+        if (contexts.containsKey(pool)) {
+            return;
+        }
+        final IoCTX io = rados.ioCtxCreate(pool);
+        series.put(pool, new Series(capacity));
+        contexts.put(pool, io);
+    }
+
+    /**
+     * Stop sampling a pool and drop its samples
+     *
+     * @param pool
+     *          The name of the pool
+     */
+    public synchronized void removePool(String pool) {
+        final IoCTX io = contexts.remove(pool);
+        series.remove(pool);
+        if (io == null) {
+            return;
+        }
+        final ObjectName name = mbeanName(pool);
+        if (registered.remove(name)) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                // already gone
+            }
+        }
+        destroyLater(Collections.singletonList(io));
+    }
+
+    /**
+     * Destroy contexts on the sampler thread, once no sample uses them anymore
+     *
+     * @return the future of the destruction
+     */
+    private Future<?> destroyLater(final Collection<IoCTX> ios) {
+        return scheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (IoCTX io : ios) {
+                    rados.ioCtxDestroy(io);
+                }
+            }
+        });
+    }
+
+    private static ObjectName mbeanName(String pool) {
+        try {
+            return new ObjectName("com.ceph.rados:type=PoolMetrics,pool=" + ObjectName.quote(pool));
+        } catch (MalformedObjectNameException e) {
+            // the quoted pool name is always valid
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Register a PoolMetricsMXBean for every pool added so far with the
+     * platform MBean server
+     *
+     * @throws JMException
+     */
+    public synchronized void registerMBeans() throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (String pool : contexts.keySet()) {
+            final ObjectName name = mbeanName(pool);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new PoolMetrics(pool), name);
+                registered.add(name);
+            }
+        }
+    }
+
+    private void sample() {
+        final Map<String, IoCTX> pools;
+        final Map<String, Series> targets;
+        synchronized (this) {
+            pools = new HashMap<String, IoCTX>(contexts);
+            targets = new HashMap<String, Series>(series);
+        }
+        for (Map.Entry<String, IoCTX> e : pools.entrySet()) {
+            final RadosPoolInfo info;
+            try {
+                info = e.getValue().poolStat();
+            } catch (RadosException ex) {
+                errors.incrementAndGet();
+                continue;
+            }
+            final long[] values = new long[METRICS];
+            values[Metric.BYTES.ordinal()] = info.num_bytes;
+            values[Metric.OBJECTS.ordinal()] = info.num_objects;
+            values[Metric.DEGRADED_OBJECTS.ordinal()] = info.num_objects_degraded;
+            values[Metric.UNFOUND_OBJECTS.ordinal()] = info.num_objects_unfound;
+            values[Metric.READ_OPS.ordinal()] = info.num_rd;
+            values[Metric.READ_BYTES.ordinal()] = info.num_rd_kb * 1024;
+            values[Metric.WRITE_OPS.ordinal()] = info.num_wr;
+            values[Metric.WRITE_BYTES.ordinal()] = info.num_wr_kb * 1024;
+
+            final Series s = targets.get(e.getKey());
+            s.add(System.currentTimeMillis(), System.nanoTime(), values);
+            if (!listeners.isEmpty()) {
+                final Sample latest = s.latest();
+                for (Listener listener : listeners) {
+                    try {
+                        listener.onSample(e.getKey(), latest);
+                    } catch (RuntimeException ex) {
+                        errors.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param pool
+     *          The name of the pool
+     * @return the latest sample of the pool, null if there is none yet
+     */
+    public Sample getLatest(String pool) {
+        final Series s = series.get(pool);
+        return s == null ? null : s.latest();
+    }
+
+    /**
+     * @param pool
+     *          The name of the pool
+     * @param metric
+     *          The metric
+     * @return the values of the metric in the ring buffer, oldest first
+     */
+    public long[] getHistory(String pool, Metric metric) {
+        final Series s = series.get(pool);
+        return s == null ? new long[0] : s.history(metric);
+    }
+
+    /**
+     * @param pool
+     *          The name of the pool
+     * @return the times of the samples in the ring buffer, oldest first
+     */
+    public long[] getSampleTimes(String pool) {
+        final Series s = series.get(pool);
+        return s == null ? new long[0] : s.times();
+    }
+
+    /**
+     * @return the number of failed samples and listener invocations
+     */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * Stop sampling, unregister the MBeans and destroy the contexts
+     *
+     * Waits for the sample in progress, which still uses the contexts.
+     */
+    @Override
+    public void close() {
+        final Future<?> destroyed;
+        synchronized (this) {
+            if (scheduler.isShutdown()) {
+                return;
+            }
+            unregisterMBeans();
+            destroyed = destroyLater(new ArrayList<IoCTX>(contexts.values()));
+            contexts.clear();
+            // cancels the periodic sampling, the queued destruction still runs
+            scheduler.shutdown();
+        }
+        try {
+            destroyed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            errors.incrementAndGet();
+        }
+    }
+
+    private void unregisterMBeans() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                // already gone
+            }
+        }
+        registered.clear();
+    }
+}
@@ -0,0 +1,670 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.ErrorCode;
+import com.ceph.rados.exceptions.RadosException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Copies the objects of one pool to another, e.g. from a replicated to an
+ * erasure coded pool.
+ *
+ * The source pool is listed placement group by placement group, one placement
+ * group per worker. A worker copies the data, extended attributes and omap of
+ * each object: the first chunk of data is read together with the size,
+ * version and extended attributes of the object and written with a single
+ * write_full together with the attributes and the omap, the remaining chunks
+ * follow with the read of the next chunk overlapping the write of the
+ * current one.
+ *
+ * Each copy is verified by comparing the size, a checksum computed by the
+ * OSDs and the extended attributes of source and target, and by checking the
+ * source did not change during the copy. If requested, the source object is
+ * then removed, but only if its version is still the copied one.
+ *
+ * Like BulkDelete, completed placement groups are recorded in a checkpoint
+ * so an interrupted migration resumes with the remaining ones; copying an
+ * object again overwrites the earlier copy, including the removal of extended
+ * attributes and omap keys the source no longer has. Objects with a locator key are
+ * skipped. Pools without omap support, e.g. erasure coded pools, can only
+ * receive objects without omap entries.
+ */
+public class PoolMigration {
+
+    private static final int OMAP_PAGE = 1024;
+    private static final int WRITES_IN_FLIGHT = 4;
+
+    private final IoCTX source;
+    private final IoCTX target;
+    private final int pgNum;
+    private BulkDelete.Filter filter;
+    private int concurrency = 4;
+    private int chunkSize = 4 << 20;
+    private Pacer pacer;
+    private boolean verify = true;
+    private boolean deleteSource;
+    private BulkDelete.Checkpoint checkpoint;
+
+    private final AtomicLong listed = new AtomicLong();
+    private final AtomicLong copied = new AtomicLong();
+    private final AtomicLong copiedBytes = new AtomicLong();
+    private final AtomicLong mismatched = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicInteger completedPgs = new AtomicInteger();
+    private final AtomicReference<RadosException> error = new AtomicReference<RadosException>();
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private volatile boolean running;
+    private volatile boolean stopped;
+
+    /**
+     * Create a new migration of the objects in the namespace of the source
+     * context, or of all namespaces if it is set to IoCTX.ALL_NAMESPACES. In the
+     * latter case objects keep their namespace, otherwise they are written to
+     * the namespace of the target context.
+     *
+     * @param cluster
+     *          The connected cluster, to look up the number of placement groups
+     * @param source
+     *          The context of the pool to copy from
+     * @param target
+     *          The context of the pool to copy to
+     * @throws RadosException
+     */
+    public PoolMigration(Rados cluster, IoCTX source, IoCTX target) throws RadosException {
+        this(source, target, PlacementMap.loadPgNum(cluster, source));
+    }
+
+    PoolMigration(IoCTX source, IoCTX target, int pgNum) {
+        this.source = source;
+        this.target = target;
+        this.pgNum = pgNum;
+    }
+
+    /**
+     * @param filter
+     *          Selects the objects to copy, all objects by default
+     */
+    public void setFilter(BulkDelete.Filter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @param concurrency
+     *          The number of objects copied at the same time, 4 by default
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("The concurrency should be at least 1");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @param chunkSize
+     *          The size of a single read or write, 4 MiB by default. If the
+     *          target pool requires alignment, it is rounded down to a
+     *          multiple of the alignment
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size should be at least 1 byte");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param bytesPerSecond
+     *          The maximum number of bytes read per second, 0 for no limit
+     */
+    public void setBandwidthLimit(long bytesPerSecond) {
+        this.pacer = bytesPerSecond > 0 ? new Pacer(bytesPerSecond) : null;
+    }
+
+    /**
+     * @param verify
+     *          Compare every copy with its source, enabled by default
+     */
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * @param deleteSource
+     *          Remove each source object once it was copied and verified
+     */
+    public void setDeleteSource(boolean deleteSource) {
+        this.deleteSource = deleteSource;
+    }
+
+    /**
+     * @param checkpoint
+     *          Where to load completed placement groups from and record them
+     */
+    public void setCheckpoint(BulkDelete.Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Copy the objects, blocks until every placement group was processed
+     *
+     * Copies which failed or did not match their source are counted and leave
+     * their placement group incomplete, so a resumed migration tries them again.
+     *
+     * @throws RadosException
+     *          if listing failed, the checkpoint could not be used or when interrupted
+     */
+    public void run() throws RadosException {
+        if (deleteSource && !verify) {
+            throw new IllegalStateException("Source objects are only deleted after a verified copy");
+        }
+        synchronized (this) {
+            if (running) {
+                throw new IllegalStateException("The migration is already running");
+            }
+            running = true;
+            stopped = false;
+        }
+        error.set(null);
+        listed.set(0);
+        copied.set(0);
+        copiedBytes.set(0);
+        mismatched.set(0);
+        failed.set(0);
+        deleted.set(0);
+        skipped.set(0);
+        try {
+            Set<Integer> done = Collections.emptySet();
+            if (checkpoint != null) {
+                try {
+                    done = checkpoint.load(pgNum);
+                } catch (IOException e) {
+                    throw new RadosException("Failed to load the checkpoint", e);
+                }
+            }
+            final ConcurrentLinkedQueue<Integer> pgs = new ConcurrentLinkedQueue<Integer>();
+            for (int pg = 0; pg < pgNum; pg++) {
+                if (!done.contains(pg)) {
+                    pgs.add(pg);
+                }
+            }
+            completedPgs.set(pgNum - pgs.size());
+            startNanos = System.nanoTime();
+            endNanos = 0;
+            execute(pgs);
+        } finally {
+            endNanos = System.nanoTime();
+            running = false;
+        }
+        final RadosException e = error.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /**
+     * @return the chunk size, rounded down to whole stripes for targets which require alignment
+     */
+    int alignedChunkSize(boolean alignmentRequired, long alignment) {
+        return alignmentRequired ? IoCTX.alignChunkSize(chunkSize, alignment) : chunkSize;
+    }
+
+    private void execute(final ConcurrentLinkedQueue<Integer> pgs) throws RadosException {
+        final boolean allNamespaces = IoCTX.ALL_NAMESPACES.equals(source.getNamespace());
+        // pools which require alignment, e.g. erasure coded pools without overwrites, only accept appends of
+        // whole stripes in order
+        final boolean alignmentRequired = target.isAlignmentRequired();
+        final int size = alignedChunkSize(alignmentRequired, alignmentRequired ? target.getRequiredAlignment() : 1);
+        final int writesInFlight = alignmentRequired ? 0 : WRITES_IN_FLIGHT;
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "rados-pool-migration");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (int i = 0; i < concurrency; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final Buffers buffers = new Buffers(size, writesInFlight);
+                    Integer pg;
+                    while (!stopped && error.get() == null && (pg = pgs.poll()) != null) {
+                        try {
+                            migratePg(pg, allNamespaces, buffers);
+                        } catch (RadosException e) {
+                            error.compareAndSet(null, e);
+                        }
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            stopped = true;
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RadosException("Interrupted while copying objects", ErrorCode.EINTR.getErrorCode());
+        }
+    }
+
+    /**
+     * The buffers of a worker, reused for every object it copies
+     */
+    private static final class Buffers {
+        private final ReadOp.ReadResult first;
+        private final byte[] chunk;
+        private final int writesInFlight;
+
+        Buffers(int chunkSize, int writesInFlight) {
+            this.first = new ReadOp.ReadResult(ByteBuffer.allocateDirect(chunkSize));
+            this.chunk = new byte[chunkSize];
+            this.writesInFlight = writesInFlight;
+        }
+    }
+
+    private void migratePg(final int pg, final boolean allNamespaces, final Buffers buffers) throws RadosException {
+        final boolean[] complete = {true};
+        final boolean listedAll = PgListing.list(source, pg, new PgListing.Visitor() {
+            @Override
+            public boolean visit(String namespace, String oid, String key) throws RadosException {
+                if (stopped) {
+                    return false;
+                }
+                listed.incrementAndGet();
+                if (filter != null && !filter.accept(namespace, oid)) {
+                    return true;
+                }
+                if (key != null) {
+                    skipped.incrementAndGet();
+                    return true;
+                }
+                final IoCTX src = allNamespaces ? source.withNamespace(namespace) : source;
+                final IoCTX dst = allNamespaces ? target.withNamespace(namespace) : target;
+                try {
+                    if (!migrate(src, dst, new ObjectId(oid), buffers)) {
+                        mismatched.incrementAndGet();
+                        complete[0] = false;
+                    }
+                } catch (RadosException e) {
+                    if (e.getReturnValue() == ErrorCode.EINTR.getErrorCode()) {
+                        throw e;
+                    }
+                    failed.incrementAndGet();
+                    complete[0] = false;
+                }
+                return true;
+            }
+        });
+        if (!listedAll || !complete[0]) {
+            return;
+        }
+        if (checkpoint != null) {
+            try {
+                checkpoint.completed(pgNum, pg);
+            } catch (IOException e) {
+                throw new RadosException("Failed to record placement group " + pg + " in the checkpoint", e);
+            }
+        }
+        completedPgs.incrementAndGet();
+    }
+
+    /**
+     * @return false if the copy does not match the source
+     */
+    private boolean migrate(IoCTX src, IoCTX dst, ObjectId oid, Buffers buffers) throws RadosException {
+        // the first chunk together with the size, version and attributes of the source
+        final long size;
+        final long version;
+        final Map<String, byte[]> xattrs;
+        final byte[] first;
+        final ReadOp meta = src.readOpCreate();
+        try {
+            final ReadOp.StatResult stat = meta.queueStat();
+            final ReadOp.XattrsResult xattrsResult = meta.queueGetXattrs();
+            meta.queueRead(0, buffers.first);
+            try {
+                meta.operateAsync(oid, 0).await();
+            } catch (RadosException e) {
+                if (e.getReturnValue() == ErrorCode.ENOENT.getErrorCode()) {
+                    // removed since it was listed
+                    return true;
+                }
+                throw e;
+            }
+            size = stat.getSize();
+            version = meta.getVersion();
+            xattrs = xattrsResult.getXattrs();
+            first = new byte[(int) buffers.first.getBytesRead()];
+            final ByteBuffer data = buffers.first.getBuffer().duplicate();
+            data.clear();
+            data.get(first);
+        } finally {
+            src.readOpRelease(meta);
+        }
+        pace(first.length);
+
+        final Map<String, byte[]> omap = readOmap(src, oid, false);
+        final Set<String> staleXattrs = new HashSet<String>();
+        final Set<String> staleOmap = new HashSet<String>();
+        findStale(dst, oid, xattrs, omap, staleXattrs, staleOmap);
+
+        final WriteOp write = dst.writeOpCreate();
+        try {
+            write.queueWriteFull(first);
+            for (String name : staleXattrs) {
+                write.queueRmXattr(name);
+            }
+            for (Map.Entry<String, byte[]> e : xattrs.entrySet()) {
+                write.queueSetXattr(e.getKey(), e.getValue());
+            }
+            write.queueOmapRmKeys(staleOmap.toArray(new String[staleOmap.size()]));
+            write.queueOmapSet(omap);
+            write.operateAsync(oid, 0).await();
+        } finally {
+            dst.writeOpRelease(write);
+        }
+
+        long offset = first.length;
+        final Deque<RadosFuture<Integer>> writes = new ArrayDeque<RadosFuture<Integer>>();
+        RadosFuture<Integer> read = offset < size ? readChunk(src, oid, offset, size, buffers) : null;
+        while (read != null) {
+            final int n = read.await();
+            if (n == 0) {
+                // truncated since the first read, the verification catches it
+                break;
+            }
+            pace(n);
+            // the write copies the data, so the next read may reuse the buffer right away
+            writes.add(dst.aioWrite(oid, n == buffers.chunk.length ? buffers.chunk : Arrays.copyOf(buffers.chunk, n),
+                                    offset));
+            offset += n;
+            read = offset < size ? readChunk(src, oid, offset, size, buffers) : null;
+            while (writes.size() > buffers.writesInFlight) {
+                writes.poll().await();
+            }
+        }
+        for (RadosFuture<Integer> w : writes) {
+            w.await();
+        }
+        copied.incrementAndGet();
+        copiedBytes.addAndGet(offset);
+
+        if (verify && !verify(src, dst, oid, version, size, xattrs)) {
+            return false;
+        }
+        if (deleteSource) {
+            final WriteOp remove = src.writeOpCreate();
+            try {
+                remove.queueAssertVersion(version);
+                remove.queueRemove();
+                remove.operateAsync(oid, 0).await();
+                deleted.incrementAndGet();
+            } catch (RadosException e) {
+                if (e.getReturnValue() == ErrorCode.ERANGE.getErrorCode()
+                        || e.getReturnValue() == ErrorCode.EOVERFLOW.getErrorCode()) {
+                    // updated since it was copied
+                    return false;
+                }
+                throw e;
+            } finally {
+                src.writeOpRelease(remove);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collect the extended attributes and omap keys of an earlier copy which
+     * the source does not have, nothing if there is no earlier copy
+     */
+    private static void findStale(IoCTX dst, ObjectId oid, Map<String, byte[]> xattrs, Map<String, byte[]> omap,
+                                  Set<String> staleXattrs, Set<String> staleOmap) throws RadosException {
+        final ReadOp op = dst.readOpCreate();
+        try {
+            final ReadOp.XattrsResult existing = op.queueGetXattrs();
+            try {
+                op.operateAsync(oid, 0).await();
+            } catch (RadosException e) {
+                if (e.getReturnValue() == ErrorCode.ENOENT.getErrorCode()) {
+                    return;
+                }
+                throw e;
+            }
+            staleXattrs.addAll(existing.getXattrs().keySet());
+            staleXattrs.removeAll(xattrs.keySet());
+        } finally {
+            dst.readOpRelease(op);
+        }
+        staleOmap.addAll(readOmap(dst, oid, true).keySet());
+        staleOmap.removeAll(omap.keySet());
+    }
+
+    private RadosFuture<Integer> readChunk(IoCTX src, ObjectId oid, long offset, long size, Buffers buffers)
+            throws RadosException {
+        return src.aioRead(oid, (int) Math.min(buffers.chunk.length, size - offset), offset, buffers.chunk);
+    }
+
+    private void pace(long bytes) throws RadosException {
+        if (pacer == null) {
+            return;
+        }
+        try {
+            pacer.acquire(bytes);
+        } catch (InterruptedException e) {
+            stopped = true;
+            Thread.currentThread().interrupt();
+            throw new RadosException("Interrupted while copying objects", ErrorCode.EINTR.getErrorCode());
+        }
+    }
+
+    private static Map<String, byte[]> readOmap(IoCTX io, ObjectId oid, boolean keysOnly) throws RadosException {
+        final Map<String, byte[]> omap = new LinkedHashMap<String, byte[]>();
+        String after = "";
+        while (true) {
+            final ReadOp op = io.readOpCreate();
+            try {
+                final ReadOp.OmapResult page = keysOnly
+                        ? op.queueOmapGetKeys(after, OMAP_PAGE) : op.queueOmapGetVals(after, "", OMAP_PAGE);
+                try {
+                    op.operateAsync(oid, 0).await();
+                } catch (RadosException e) {
+                    if (e.getReturnValue() == ErrorCode.EOPNOTSUPP.getErrorCode()) {
+                        // the pool has no omap support
+                        return omap;
+                    }
+                    throw e;
+                }
+                final Map<String, byte[]> entries = page.getEntries();
+                for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+                    omap.put(e.getKey(), e.getValue());
+                    after = e.getKey();
+                }
+                if (entries.size() < OMAP_PAGE) {
+                    return omap;
+                }
+            } finally {
+                io.readOpRelease(op);
+            }
+        }
+    }
+
+    /**
+     * Compare size, checksum and extended attributes of the copy with the
+     * source, which should still have the copied version
+     */
+    private static boolean verify(IoCTX src, IoCTX dst, ObjectId oid, long version, long size,
+                                  Map<String, byte[]> xattrs) throws RadosException {
+        final ReadOp sourceOp = src.readOpCreate();
+        final ReadOp targetOp = dst.readOpCreate();
+        try {
+            sourceOp.queueAssertVersion(version);
+            final ReadOp.StatResult targetStat = targetOp.queueStat();
+            final ReadOp.XattrsResult targetXattrs = targetOp.queueGetXattrs();
+            ReadOp.ChecksumResult sourceChecksum = null;
+            ReadOp.ChecksumResult targetChecksum = null;
+            if (size > 0) {
+                sourceChecksum = sourceOp.queueChecksum(ChecksumType.XXHASH64, 0, 0, size, 0);
+                targetChecksum = targetOp.queueChecksum(ChecksumType.XXHASH64, 0, 0, size, 0);
+            }
+            final RadosFuture<Integer> sourceDone = sourceOp.operateAsync(oid, 0);
+            final RadosFuture<Integer> targetDone = targetOp.operateAsync(oid, 0);
+            try {
+                sourceDone.await();
+            } catch (RadosException e) {
+                if (e.getReturnValue() == ErrorCode.ERANGE.getErrorCode()
+                        || e.getReturnValue() == ErrorCode.EOVERFLOW.getErrorCode()) {
+                    // updated since it was copied
+                    return false;
+                }
+                throw e;
+            }
+            targetDone.await();
+            return targetStat.getSize() == size
+                    && equals(xattrs, targetXattrs.getXattrs())
+                    && (size == 0 || Arrays.equals(sourceChecksum.getChecksums(), targetChecksum.getChecksums()));
+        } finally {
+            src.readOpRelease(sourceOp);
+            dst.readOpRelease(targetOp);
+        }
+    }
+
+    private static boolean equals(Map<String, byte[]> a, Map<String, byte[]> b) {
+        if (!a.keySet().equals(b.keySet())) {
+            return false;
+        }
+        for (Map.Entry<String, byte[]> e : a.entrySet()) {
+            if (!Arrays.equals(e.getValue(), b.get(e.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop listing, objects being copied are finished and run() returns afterwards
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @return true while run() is in progress
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the number of placement groups of the source pool
+     */
+    public int getPgNum() {
+        return pgNum;
+    }
+
+    /**
+     * @return the number of completed placement groups, including those of the checkpoint
+     */
+    public int getCompletedPgCount() {
+        return completedPgs.get();
+    }
+
+    /**
+     * @return the number of listed objects
+     */
+    public long getListedCount() {
+        return listed.get();
+    }
+
+    /**
+     * @return the number of copied objects
+     */
+    public long getCopiedCount() {
+        return copied.get();
+    }
+
+    /**
+     * @return the number of copied bytes of object data
+     */
+    public long getCopiedBytes() {
+        return copiedBytes.get();
+    }
+
+    /**
+     * @return the number of copies which did not match their source
+     */
+    public long getMismatchCount() {
+        return mismatched.get();
+    }
+
+    /**
+     * @return the number of objects which could not be copied
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of removed source objects
+     */
+    public long getDeletedCount() {
+        return deleted.get();
+    }
+
+    /**
+     * @return the number of objects with a locator key which were not copied
+     */
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * @return the average number of copied bytes per second of the current or last run
+     */
+    public double getBytesPerSecond() {
+        final long start = startNanos;
+        if (start == 0) {
+            return 0;
+        }
+        final long elapsed = (endNanos != 0 ? endNanos : System.nanoTime()) - start;
+        return elapsed <= 0 ? 0 : copiedBytes.get() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+}
@@ -22,13 +22,16 @@ package com.ceph.rados;
 import com.ceph.rados.exceptions.RadosException;
 import com.ceph.rados.jna.RadosClusterInfo;
 import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.LongByReference;
 import com.sun.jna.ptr.PointerByReference;
 import com.sun.jna.Pointer;
 import com.sun.jna.Memory;
 import com.sun.jna.Native;
 
 import java.io.File;
+import java.util.Locale;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import static com.ceph.rados.Library.rados;
 
@@ -36,6 +39,8 @@ public class Rados extends RadosBase {
 
     protected Pointer clusterPtr;
     private boolean connected;
+    private volatile OperationLimiter limiter;
+    private volatile ExecutionMode executionMode = ExecutionMode.DIRECT;
 
     /**
      * Construct a RADOS Object which invokes rados_create
@@ -121,6 +126,33 @@ public class Rados extends RadosBase {
         }, "Could not set configuration option %s", option);
     }
 
+    /**
+     * Set the timeouts librados applies to operations on OSDs and monitors
+     *
+     * Operations exceeding them fail with ETIMEDOUT instead of waiting
+     * indefinitely. These are the rados_osd_op_timeout and rados_mon_op_timeout
+     * options, so they have to be set before connecting.
+     *
+     * @param osdTimeout
+     *            the timeout of OSD operations, 0 to wait indefinitely
+     * @param monTimeout
+     *            the timeout of monitor operations, 0 to wait indefinitely
+     * @param unit
+     *            the unit of the timeouts
+     * @throws RadosException
+     */
+    public void setOperationTimeouts(long osdTimeout, long monTimeout, TimeUnit unit) throws RadosException {
+        this.confSet("rados_osd_op_timeout", toSeconds(osdTimeout, unit));
+        this.confSet("rados_mon_op_timeout", toSeconds(monTimeout, unit));
+    }
+
+    private static String toSeconds(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("The timeout shouldn't be negative");
+        }
+        return String.format(Locale.ROOT, "%.3f", unit.toMillis(timeout) / 1000.0);
+    }
+
     /**
      * Retrieve a RADOS configuration option's value
      *
@@ -193,6 +225,120 @@ public class Rados extends RadosBase {
         return result;
     }
 
+    /**
+     * Send a command to the monitors
+     *
+     * @param cmd
+     *            the command as JSON, e.g. {"prefix": "osd dump", "format": "json"}
+     * @return the output of the command, which must be closed
+     * @throws RadosException
+     *            if the command failed, the message includes the status of the command
+     */
+    public CommandResult monCommand(String cmd) throws RadosException {
+        return monCommand(cmd, null);
+    }
+
+    /**
+     * Send a command with input data to the monitors
+     *
+     * @param cmd
+     *            the command as JSON
+     * @param input
+     *            the input data of the command, may be null
+     * @return the output of the command, which must be closed
+     * @throws RadosException
+     *            if the command failed, the message includes the status of the command
+     */
+    public CommandResult monCommand(final String cmd, final byte[] input) throws RadosException {
+        this.verifyConnected(true);
+        return runCommand(new CommandCall() {
+            @Override
+            public int call(PointerByReference outbuf, LongByReference outbufLen,
+                            PointerByReference outs, LongByReference outsLen) {
+                return rados.rados_mon_command(clusterPtr, new String[] {cmd}, 1, input, inputLength(input),
+                                               outbuf, outbufLen, outs, outsLen);
+            }
+        }, "Monitor command %s failed", cmd);
+    }
+
+    /**
+     * Send a command to an OSD
+     *
+     * @param osd
+     *            the id of the OSD
+     * @param cmd
+     *            the command as JSON, e.g. {"prefix": "perf dump"}
+     * @return the output of the command, which must be closed
+     * @throws RadosException
+     *            if the command failed, the message includes the status of the command
+     */
+    public CommandResult osdCommand(final int osd, final String cmd) throws RadosException {
+        this.verifyConnected(true);
+        return runCommand(new CommandCall() {
+            @Override
+            public int call(PointerByReference outbuf, LongByReference outbufLen,
+                            PointerByReference outs, LongByReference outsLen) {
+                return rados.rados_osd_command(clusterPtr, osd, new String[] {cmd}, 1, null, 0,
+                                               outbuf, outbufLen, outs, outsLen);
+            }
+        }, "Command %s on osd.%s failed", cmd, osd);
+    }
+
+    /**
+     * Send a command to the primary OSD of a placement group
+     *
+     * @param pg
+     *            the placement group, e.g. 1.2f
+     * @param cmd
+     *            the command as JSON, e.g. {"prefix": "query"}
+     * @return the output of the command, which must be closed
+     * @throws RadosException
+     *            if the command failed, the message includes the status of the command
+     */
+    public CommandResult pgCommand(final String pg, final String cmd) throws RadosException {
+        this.verifyConnected(true);
+        return runCommand(new CommandCall() {
+            @Override
+            public int call(PointerByReference outbuf, LongByReference outbufLen,
+                            PointerByReference outs, LongByReference outsLen) {
+                return rados.rados_pg_command(clusterPtr, pg, new String[] {cmd}, 1, null, 0,
+                                              outbuf, outbufLen, outs, outsLen);
+            }
+        }, "Command %s on pg %s failed", cmd, pg);
+    }
+
+    private interface CommandCall {
+        int call(PointerByReference outbuf, LongByReference outbufLen, PointerByReference outs, LongByReference outsLen);
+    }
+
+    private static long inputLength(byte[] input) {
+        return input == null ? 0 : input.length;
+    }
+
+    private CommandResult runCommand(CommandCall call, String errorMsg, Object... errorMsgArgs) throws RadosException {
+        final PointerByReference outbuf = new PointerByReference();
+        final LongByReference outbufLen = new LongByReference();
+        final PointerByReference outs = new PointerByReference();
+        final LongByReference outsLen = new LongByReference();
+
+        final int r = call.call(outbuf, outbufLen, outs, outsLen);
+
+        String status = "";
+        if (outs.getValue() != null) {
+            if (outsLen.getValue() > 0) {
+                status = new String(outs.getValue().getByteArray(0, (int) outsLen.getValue()));
+            }
+            rados.rados_buffer_free(outs.getValue());
+        }
+        if (r < 0) {
+            if (outbuf.getValue() != null) {
+                rados.rados_buffer_free(outbuf.getValue());
+            }
+            throw newException(r, String.format(errorMsg, errorMsgArgs) + ": " + status);
+        }
+        return new CommandResult(outbuf.getValue(), outbufLen.getValue(), status);
+    }
+
     /**
      * Create a RADOS pool
      *
@@ -352,7 +498,54 @@ public class Rados extends RadosBase {
                 return rados.rados_ioctx_create(clusterPtr, pool, p);
             }
         }, "Failed to create the IoCTX for pool %s", pool);
-        return new IoCTX(p);
+        final IoCTX io = new IoCTX(p);
+        io.setOperationLimiter(this.limiter);
+        io.setExecutionMode(this.executionMode);
+        return io;
+    }
+
+    /**
+     * Set the limiter for asynchronous operations
+     *
+     * The limiter is shared by all IoCTX created afterwards, so it bounds
+     * the operations in flight on the whole connection.
+     *
+     * @param limiter
+     *          The limiter or null to not limit operations
+     */
+    public void setOperationLimiter(OperationLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * Get the limiter for asynchronous operations
+     *
+     * @return OperationLimiter or null
+     */
+    public OperationLimiter getOperationLimiter() {
+        return this.limiter;
+    }
+
+    /**
+     * Set the execution mode inherited by all IoCTX created afterwards
+     *
+     * @param mode
+     *          The execution mode
+     */
+    public void setExecutionMode(ExecutionMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("The execution mode shouldn't be null");
+        }
+        this.executionMode = mode;
+    }
+
+    /**
+     * Get the execution mode inherited by new IoCTX
+     *
+     * @return ExecutionMode
+     */
+    public ExecutionMode getExecutionMode() {
+        return this.executionMode;
     }
 
     /**
@@ -362,6 +555,7 @@ public class Rados extends RadosBase {
      *             A IoCTX object
      */
     public void ioCtxDestroy(IoCTX io) {
+        io.destroyDerived();
         rados.rados_ioctx_destroy(io.getPointer());
     }
 
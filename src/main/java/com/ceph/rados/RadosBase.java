@@ -66,29 +66,46 @@ public class RadosBase {
 
 
     private void throwException(int errorCode, String msg) throws RadosException {
+        throw newException(errorCode, msg);
+    }
+
+    /**
+     * Map a negative native return value to the matching RadosException
+     *
+     * This is used for return values which are not delivered through
+     * handleReturnCode, e.g. the return value of an asynchronous operation.
+     *
+     * @param errorCode the negative native return value
+     * @param msg the error message
+     * @return the exception to be thrown
+     */
+    static RadosException newException(int errorCode, String msg) {
         final String errorName = ErrorCode.getErrorName(errorCode);
         final String errorMessage = ErrorCode.getErrorMessage(errorCode);
         final String finalMessage = String.format("%s; %s: %s", msg, errorName, errorMessage);
         final ErrorCode errorCodeEnum = ErrorCode.getEnum(errorCode);
+        if (errorCodeEnum == null) {
+            return new RadosException(finalMessage, errorCode);
+        }
         switch (errorCodeEnum) {
             case EPERM:
-                throw new RadosPermissionException(finalMessage, errorCode);
+                return new RadosPermissionException(finalMessage, errorCode);
             case ENOENT:
-                throw new RadosNotFoundException(finalMessage, errorCode);
+                return new RadosNotFoundException(finalMessage, errorCode);
             case EINVAL:
-                throw new RadosInvalidArgumentException(finalMessage, errorCode);
+                return new RadosInvalidArgumentException(finalMessage, errorCode);
             case EROFS:
-                throw new RadosReadOnlyException(finalMessage, errorCode);
+                return new RadosReadOnlyException(finalMessage, errorCode);
             case EDOM:
-                throw new RadosArgumentOutOfDomainException(finalMessage, errorCode);
+                return new RadosArgumentOutOfDomainException(finalMessage, errorCode);
             case EISCONN:
-                throw new RadosAlreadyConnectedException(finalMessage, errorCode);
+                return new RadosAlreadyConnectedException(finalMessage, errorCode);
             case ETIMEDOUT:
-                throw new RadosTimeoutException(finalMessage, errorCode);
+                return new RadosTimeoutException(finalMessage, errorCode);
             case EINPROGRESS:
-                throw new RadosOperationInProgressException(finalMessage, errorCode);
+                return new RadosOperationInProgressException(finalMessage, errorCode);
             default:
-                throw new RadosException(finalMessage, errorCode);
+                return new RadosException(finalMessage, errorCode);
         }
     }
 }
@@ -0,0 +1,293 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.ErrorCode;
+import com.ceph.rados.exceptions.RadosException;
+import com.ceph.rados.exceptions.RadosTimeoutException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of an asynchronous operation.
+ *
+ * Callbacks registered through addCallback() are invoked by the thread which
+ * completes the future. For native operations that is a librados thread, so
+ * callbacks should be short and must never block.
+ *
+ * @param <T> the type of the result
+ */
+public class RadosFuture<T> implements Future<T> {
+
+    /**
+     * Notified once the future is completed.
+     */
+    public interface Callback<T> {
+        void onSuccess(T result);
+        void onFailure(RadosException e);
+    }
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final List<Callback<? super T>> callbacks = new ArrayList<Callback<? super T>>();
+    private boolean completed;
+    private boolean cancelled;
+    private Runnable onCancel;
+    private T result;
+    private RadosException error;
+
+    /**
+     * Create an already completed future
+     *
+     * @param result
+     *          The result
+     * @return RadosFuture
+     */
+    public static <T> RadosFuture<T> completed(T result) {
+        RadosFuture<T> future = new RadosFuture<T>();
+        future.set(result);
+        return future;
+    }
+
+    /**
+     * Create an already failed future
+     *
+     * @param e
+     *          The cause of the failure
+     * @return RadosFuture
+     */
+    public static <T> RadosFuture<T> failed(RadosException e) {
+        RadosFuture<T> future = new RadosFuture<T>();
+        future.setException(e);
+        return future;
+    }
+
+    /**
+     * Complete the future successfully
+     *
+     * @param value
+     *          The result
+     * @return false if the future was already completed
+     */
+    public boolean set(T value) {
+        List<Callback<? super T>> toNotify;
+        synchronized (this) {
+            if (completed) {
+                return false;
+            }
+            completed = true;
+            result = value;
+            toNotify = new ArrayList<Callback<? super T>>(callbacks);
+            callbacks.clear();
+        }
+        done.countDown();
+        for (Callback<? super T> callback : toNotify) {
+            callback.onSuccess(value);
+        }
+        return true;
+    }
+
+    /**
+     * Complete the future with a failure
+     *
+     * @param e
+     *          The cause of the failure
+     * @return false if the future was already completed
+     */
+    public boolean setException(RadosException e) {
+        List<Callback<? super T>> toNotify;
+        synchronized (this) {
+            if (completed) {
+                return false;
+            }
+            completed = true;
+            error = e;
+            toNotify = new ArrayList<Callback<? super T>>(callbacks);
+            callbacks.clear();
+        }
+        done.countDown();
+        for (Callback<? super T> callback : toNotify) {
+            callback.onFailure(e);
+        }
+        return true;
+    }
+
+    /**
+     * Register a callback, it is invoked immediately if the future is already done
+     *
+     * @param callback
+     *          The callback to be notified
+     */
+    public void addCallback(Callback<? super T> callback) {
+        synchronized (this) {
+            if (!completed) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        if (error != null) {
+            callback.onFailure(error);
+        } else {
+            callback.onSuccess(result);
+        }
+    }
+
+    /**
+     * Cancel the future
+     *
+     * An asynchronous IoCTX operation which is already in flight is cancelled
+     * with rados_aio_cancel, which is best effort: the operation may have been
+     * applied anyway. Its result is discarded either way.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean changed = setException(new RadosException("Operation was cancelled", ErrorCode.ECANCELED.getErrorCode()));
+        final Runnable action;
+        synchronized (this) {
+            if (changed) {
+                cancelled = true;
+            }
+            action = changed ? onCancel : null;
+        }
+        if (action != null) {
+            action.run();
+        }
+        return changed;
+    }
+
+    /**
+     * Set what cancel() does besides completing the future, e.g. cancel the
+     * native operation. It runs right away if the future is already cancelled.
+     */
+    void setOnCancel(Runnable action) {
+        synchronized (this) {
+            if (!cancelled) {
+                onCancel = action;
+                return;
+            }
+        }
+        action.run();
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return completed;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        done.await();
+        return getNow();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getNow();
+    }
+
+    /**
+     * Wait for the operation to finish
+     *
+     * @return the result of the operation
+     * @throws RadosException
+     *          the failure of the operation or when interrupted while waiting
+     */
+    public T await() throws RadosException {
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RadosException("Interrupted while waiting for the operation", ErrorCode.EINTR.getErrorCode());
+        }
+        return getResult();
+    }
+
+    /**
+     * Wait for the operation to finish
+     *
+     * @param timeout
+     *          The maximum time to wait
+     * @param unit
+     *          The unit of the timeout
+     * @return the result of the operation
+     * @throws RadosTimeoutException
+     *          if the operation did not finish in time
+     * @throws RadosException
+     *          the failure of the operation or when interrupted while waiting
+     */
+    public T await(long timeout, TimeUnit unit) throws RadosException {
+        try {
+            if (!done.await(timeout, unit)) {
+                throw new RadosTimeoutException("Operation did not finish within " + unit.toMillis(timeout) + " ms",
+                                                ErrorCode.ETIMEDOUT.getErrorCode());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RadosException("Interrupted while waiting for the operation", ErrorCode.EINTR.getErrorCode());
+        }
+        return getResult();
+    }
+
+    /**
+     * Wait for the operation to finish, at most until the deadline
+     *
+     * When the deadline passes the operation is abandoned, it still completes
+     * in the background but its result is dropped.
+     *
+     * @param deadline
+     *          The deadline
+     * @return the result of the operation
+     * @throws RadosTimeoutException
+     *          if the operation did not finish in time
+     * @throws RadosException
+     *          the failure of the operation or when interrupted while waiting
+     */
+    public T await(Deadline deadline) throws RadosException {
+        return await(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized T getResult() throws RadosException {
+        if (error != null) {
+            throw error;
+        }
+        return result;
+    }
+
+    private synchronized T getNow() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return result;
+    }
+}
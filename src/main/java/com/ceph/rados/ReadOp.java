@@ -17,6 +17,9 @@
  * * history *
  * ***********
  * 2014-08-15 - initial implementation supporting ranged reads only
+ * - stat, xattr, omap, cmpxattr, assertion and checksum sub-operations
+ * - asynchronous execution, reuse of ReadOp and result handles
+ * - cmpext and version tracking
  */
 
 package com.ceph.rados;
@@ -24,15 +27,34 @@ package com.ceph.rados;
 import static com.ceph.rados.Library.rados;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.ceph.rados.exceptions.RadosException;
 
+import com.sun.jna.Memory;
 import com.sun.jna.Pointer;
 import com.sun.jna.ptr.IntByReference;
 import com.sun.jna.ptr.LongByReference;
+import com.sun.jna.ptr.PointerByReference;
 
 public class ReadOp {
 
+    /**
+     * Flag of operate(): let any replica serve the reads (LIBRADOS_OPERATION_BALANCE_READS)
+     */
+    public static final int OPERATION_BALANCE_READS = 1;
+
+    /**
+     * Flag of operate(): serve the reads from the closest replica (LIBRADOS_OPERATION_LOCALIZE_READS)
+     */
+    public static final int OPERATION_LOCALIZE_READS = 2;
+
     public static class ReadResult {
         private final ByteBuffer buf;
         final LongByReference bytesread;
@@ -45,13 +67,195 @@ public class ReadOp {
             bytesread = new LongByReference();
             rval = new IntByReference();
         }
+        /**
+         * Create a result handle backed by a caller supplied buffer. The read fills
+         * the remaining bytes of the buffer. The handle can be passed to
+         * queueRead(long, ReadResult) again and again without any allocation.
+         *
+         * @param directBuffer a direct buffer
+         */
+        public ReadResult(ByteBuffer directBuffer) {
+            if (!directBuffer.isDirect()) {
+                throw new IllegalArgumentException("The buffer should be a direct buffer");
+            }
+            buf = directBuffer.slice();
+            bytesread = new LongByReference();
+            rval = new IntByReference();
+        }
         public ByteBuffer getBuffer() { return buf; }
         public long getBytesRead() { return bytesread.getValue(); }
         public int  getRVal() { return rval.getValue(); }
     }
 
+    /**
+     * Result of rados_read_op_stat
+     */
+    public static class StatResult {
+        public StatResult() {}
+        final LongByReference size = new LongByReference();
+        final LongByReference mtime = new LongByReference();
+        final IntByReference rval = new IntByReference();
+        public long getSize() { return size.getValue(); }
+        public long getMtime() { return mtime.getValue(); }
+        public int  getRVal() { return rval.getValue(); }
+    }
+
+    /**
+     * Result of rados_read_op_checksum
+     */
+    public static class ChecksumResult {
+        private final ChecksumType type;
+        private final Memory checksums;
+        final IntByReference rval = new IntByReference();
+        ChecksumResult(ChecksumType type, int count) {
+            this.type = type;
+            this.checksums = new Memory(4 + (long) count * type.getSize());
+        }
+        /**
+         * @return one checksum per chunk, CRC32C and XXHASH32 values are unsigned 32 bit
+         */
+        public long[] getChecksums() {
+            final ByteBuffer buf = checksums.getByteBuffer(0, checksums.size()).order(ByteOrder.LITTLE_ENDIAN);
+            final long[] result = new long[buf.getInt()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = type.getSize() == 8 ? buf.getLong() : buf.getInt() & 0xffffffffL;
+            }
+            return result;
+        }
+        public int  getRVal() { return rval.getValue(); }
+    }
+
+    /**
+     * Result of a sub-operation which returns an iterator over key/value pairs.
+     * The iterator is consumed on first access and released by the ReadOp.
+     */
+    abstract static class IteratorResult {
+        final PointerByReference iter = new PointerByReference();
+        final IntByReference rval = new IntByReference();
+        private Map<String, byte[]> entries;
+        private boolean ended;
+
+        synchronized Map<String, byte[]> entries() throws RadosException {
+            if (entries == null) {
+                if (ended) {
+                    throw new RadosException("The ReadOp has already been released");
+                }
+                if (rval.getValue() < 0) {
+                    throw RadosBase.newException(rval.getValue(), "The sub-operation failed");
+                }
+                final Map<String, byte[]> result = new LinkedHashMap<String, byte[]>();
+                final PointerByReference key = new PointerByReference();
+                final PointerByReference val = new PointerByReference();
+                final LongByReference len = new LongByReference();
+                while (true) {
+                    final int r = next(key, val, len);
+                    if (r < 0) {
+                        throw RadosBase.newException(r, "Failed to iterate the results");
+                    }
+                    if (key.getValue() == null) {
+                        break;
+                    }
+                    final int length = (int) len.getValue();
+                    result.put(key.getValue().getString(0),
+                               val.getValue() == null || length == 0 ? new byte[0] : val.getValue().getByteArray(0, length));
+                }
+                entries = Collections.unmodifiableMap(result);
+                end();
+            }
+            return entries;
+        }
+
+        synchronized void end() {
+            if (!ended) {
+                ended = true;
+                close();
+            }
+        }
+
+        abstract int next(PointerByReference key, PointerByReference val, LongByReference len);
+        abstract void close();
+
+        public int getRVal() { return rval.getValue(); }
+    }
+
+    /**
+     * Result of rados_read_op_getxattrs
+     */
+    public static class XattrsResult extends IteratorResult {
+        @Override
+        int next(PointerByReference key, PointerByReference val, LongByReference len) {
+            return rados.rados_getxattrs_next(iter.getValue(), key, val, len);
+        }
+        @Override
+        void close() {
+            rados.rados_getxattrs_end(iter.getValue());
+        }
+        /**
+         * @return the values of all extended attributes by name
+         * @throws RadosException if the sub-operation failed
+         */
+        public Map<String, byte[]> getXattrs() throws RadosException {
+            return entries();
+        }
+    }
+
+    /**
+     * Result of a single extended attribute, served by a rados_read_op_getxattrs
+     * shared by all attributes of the same ReadOp
+     */
+    public static class XattrResult {
+        private final XattrsResult xattrs;
+        private final String name;
+        XattrResult(XattrsResult xattrs, String name) {
+            this.xattrs = xattrs;
+            this.name = name;
+        }
+        /**
+         * @return the value of the attribute or null if the object does not have it
+         * @throws RadosException if the sub-operation failed
+         */
+        public byte[] getValue() throws RadosException {
+            return xattrs.getXattrs().get(name);
+        }
+        public int  getRVal() { return xattrs.getRVal(); }
+    }
+
+    /**
+     * Result of rados_read_op_omap_get_vals, _get_keys and _get_vals_by_keys
+     */
+    public static class OmapResult extends IteratorResult {
+        @Override
+        int next(PointerByReference key, PointerByReference val, LongByReference len) {
+            return rados.rados_omap_get_next(iter.getValue(), key, val, len);
+        }
+        @Override
+        void close() {
+            rados.rados_omap_get_end(iter.getValue());
+        }
+        /**
+         * @return the omap entries in key order, values are empty when only keys were requested
+         * @throws RadosException if the sub-operation failed
+         */
+        public Map<String, byte[]> getEntries() throws RadosException {
+            return entries();
+        }
+        /**
+         * @return the omap keys in order
+         * @throws RadosException if the sub-operation failed
+         */
+        public Set<String> getKeys() throws RadosException {
+            return entries().keySet();
+        }
+    }
+
+    private final IoCTX io;
     private final Pointer ioctxPtr;
-    private final Pointer readOpPtr;
+    private Pointer readOpPtr;
+    private long queuedBytes;
+    // native code writes into the results on operate(), so they have to stay reachable until then
+    private final List<Object> results = new ArrayList<Object>();
+    private XattrsResult xattrs;
+    private volatile long version;
 
     /**
      * Create a new read_op object.
@@ -60,14 +264,44 @@ public class ReadOp {
      * objects are created by the IoCTX class and returned
      * when creating a ReadOp there.
      */
-    ReadOp(Pointer ioctx_p, Pointer readop_p) {
-        this.ioctxPtr = ioctx_p;
+    ReadOp(IoCTX io, Pointer readop_p) {
+        this.io = io;
+        this.ioctxPtr = io.getPointer();
         this.readOpPtr = readop_p;
     }
 
     Pointer getPointer() {
         return readOpPtr;
     }
+
+    /**
+     * Release the iterators of all sub-operations, called by IoCTX.readOpRelease()
+     */
+    void release() {
+        for (Object result : results) {
+            if (result instanceof IteratorResult) {
+                ((IteratorResult) result).end();
+            }
+        }
+        results.clear();
+        xattrs = null;
+        queuedBytes = 0;
+    }
+
+    /**
+     * Drop all queued sub-operations so this ReadOp can be filled and executed again.
+     *
+     * librados can not reset a rados_read_op_t, so the native operation is
+     * released and a fresh one is created: every round costs one native
+     * allocation. Result handles from earlier rounds can be queued again, so
+     * a steady-state read loop allocates no Java buffers or handles.
+     * Must not be called while an operateAsync() is in flight.
+     */
+    public void reset() {
+        rados.rados_release_read_op(readOpPtr);
+        release();
+        readOpPtr = rados.rados_create_read_op();
+    }
     
     /**
      * Add a read operation to the rados_read_op_t via rados_read_op_read.  Note returned
@@ -81,6 +315,184 @@ public class ReadOp {
     public ReadResult queueRead(long offset, long len) throws RadosException {
         ReadResult r = new ReadResult(len);
         rados.rados_read_op_read(readOpPtr, offset, len, r.getBuffer(), r.bytesread, r.rval);
+        results.add(r);
+        queuedBytes += len;
+        return r;
+    }
+
+    /**
+     * Add a read operation into an existing result handle, e.g. one of a previous
+     * round or one backed by a caller supplied buffer. The read fills the whole
+     * buffer of the handle, which is cleared first.
+     *
+     * @param offset starting offset into the object
+     * @param result the handle to reuse
+     * @return the given handle
+     */
+    public ReadResult queueRead(long offset, ReadResult result) {
+        result.buf.clear();
+        result.bytesread.setValue(0);
+        result.rval.setValue(0);
+        rados.rados_read_op_read(readOpPtr, offset, result.buf.capacity(), result.buf, result.bytesread, result.rval);
+        results.add(result);
+        queuedBytes += result.buf.capacity();
+        return result;
+    }
+
+    /**
+     * Add a stat of the object via rados_read_op_stat.
+     *
+     * @return Java object which will hold the size and mtime after operate() is called
+     */
+    public StatResult queueStat() {
+        return queueStat(new StatResult());
+    }
+
+    /**
+     * Add a stat of the object into an existing result handle.
+     *
+     * @param result the handle to reuse
+     * @return the given handle
+     */
+    public StatResult queueStat(StatResult result) {
+        rados.rados_read_op_stat(readOpPtr, result.size, result.mtime, result.rval);
+        results.add(result);
+        return result;
+    }
+
+    /**
+     * Add the retrieval of all extended attributes via rados_read_op_getxattrs.
+     *
+     * @return Java object which will hold the attributes after operate() is called
+     */
+    public XattrsResult queueGetXattrs() {
+        if (xattrs == null) {
+            xattrs = new XattrsResult();
+            rados.rados_read_op_getxattrs(readOpPtr, xattrs.iter, xattrs.rval);
+            results.add(xattrs);
+        }
+        return xattrs;
+    }
+
+    /**
+     * Add the retrieval of a single extended attribute. All attributes of one
+     * ReadOp are fetched by a single rados_read_op_getxattrs.
+     *
+     * @param name the name of the attribute
+     * @return Java object which will hold the value after operate() is called
+     */
+    public XattrResult queueGetXattr(String name) {
+        return new XattrResult(queueGetXattrs(), name);
+    }
+
+    /**
+     * Add the retrieval of omap entries via rados_read_op_omap_get_vals.
+     *
+     * @param startAfter list entries after this key, null to start at the beginning
+     * @param filterPrefix list only keys with this prefix, null for all keys
+     * @param maxReturn the maximum number of entries to return
+     * @return Java object which will hold the entries after operate() is called
+     */
+    public OmapResult queueOmapGetVals(String startAfter, String filterPrefix, long maxReturn) {
+        OmapResult r = new OmapResult();
+        rados.rados_read_op_omap_get_vals(readOpPtr, startAfter, filterPrefix, maxReturn, r.iter, r.rval);
+        results.add(r);
+        return r;
+    }
+
+    /**
+     * Add the retrieval of omap keys via rados_read_op_omap_get_keys.
+     *
+     * @param startAfter list keys after this key, null to start at the beginning
+     * @param maxReturn the maximum number of keys to return
+     * @return Java object which will hold the keys after operate() is called
+     */
+    public OmapResult queueOmapGetKeys(String startAfter, long maxReturn) {
+        OmapResult r = new OmapResult();
+        rados.rados_read_op_omap_get_keys(readOpPtr, startAfter, maxReturn, r.iter, r.rval);
+        results.add(r);
+        return r;
+    }
+
+    /**
+     * Add the retrieval of specific omap entries via rados_read_op_omap_get_vals_by_keys.
+     *
+     * @param keys the keys to fetch
+     * @return Java object which will hold the entries found after operate() is called
+     */
+    public OmapResult queueOmapGetValsByKeys(String... keys) {
+        OmapResult r = new OmapResult();
+        rados.rados_read_op_omap_get_vals_by_keys(readOpPtr, keys, keys.length, r.iter, r.rval);
+        results.add(r);
+        return r;
+    }
+
+    /**
+     * Fail the whole operation with ECANCELED unless the extended attribute
+     * compares to the value as requested.
+     *
+     * @param name the name of the attribute
+     * @param op the comparison
+     * @param value the value to compare with
+     */
+    public void queueCmpXattr(String name, ComparisonOperator op, byte[] value) {
+        rados.rados_read_op_cmpxattr(readOpPtr, name, op.getValue(), value, value.length);
+    }
+
+    /**
+     * Fail the whole operation unless the object data at the offset equals the
+     * given bytes. On a mismatch operate() returns -MAX_ERRNO (-4095) minus the
+     * offset of the first differing byte.
+     *
+     * @param offset starting offset into the object
+     * @param value the bytes to compare with
+     */
+    public void queueCmpExt(long offset, byte[] value) {
+        rados.rados_read_op_cmpext(readOpPtr, value, value.length, offset, null);
+    }
+
+    /**
+     * Fail the whole operation with ENOENT if the object does not exist.
+     */
+    public void queueAssertExists() {
+        rados.rados_read_op_assert_exists(readOpPtr);
+    }
+
+    /**
+     * Fail the whole operation unless the object has the given version, with
+     * ERANGE if the object is newer and EOVERFLOW if it is older.
+     *
+     * @param expected the expected version of the object
+     */
+    public void queueAssertVersion(long expected) {
+        rados.rados_read_op_assert_version(readOpPtr, expected);
+    }
+
+    /**
+     * Add a checksum of an object range computed by the OSD via rados_read_op_checksum.
+     *
+     * @param type the checksum algorithm
+     * @param seed the initial value, e.g. -1 for CRC32C
+     * @param offset starting offset into the object
+     * @param len length of the range, 0 for the whole object
+     * @param chunkSize compute one checksum per chunk of this size, 0 for a single checksum
+     * @return Java object which will hold the checksums after operate() is called
+     */
+    public ChecksumResult queueChecksum(ChecksumType type, long seed, long offset, long len, long chunkSize) {
+        if (chunkSize > 0 && len <= 0) {
+            throw new IllegalArgumentException("The length is required to compute chunked checksums");
+        }
+        final int count = chunkSize > 0 ? (int) ((len + chunkSize - 1) / chunkSize) : 1;
+        final ByteBuffer init = ByteBuffer.allocate(type.getSize()).order(ByteOrder.LITTLE_ENDIAN);
+        if (type.getSize() == 8) {
+            init.putLong(seed);
+        } else {
+            init.putInt((int) seed);
+        }
+        ChecksumResult r = new ChecksumResult(type, count);
+        rados.rados_read_op_checksum(readOpPtr, type.getValue(), init.array(), init.capacity(), offset, len,
+                                     chunkSize, r.checksums, r.checksums.size(), r.rval);
+        results.add(r);
         return r;
     }
     
@@ -92,6 +504,80 @@ public class ReadOp {
      * @return rados_read_op_operate return value
      */
     public int operate(String oid, int flags) {
-        return rados.rados_read_op_operate(readOpPtr, ioctxPtr, oid, flags);
+        final int r = rados.rados_read_op_operate(readOpPtr, ioctxPtr, oid, flags);
+        version = rados.rados_get_last_version(ioctxPtr);
+        return r;
+    }
+
+    /**
+     * Executes operations added to the rados_read_op_t.
+     *
+     * @param oid the pre-encoded name of the object
+     * @param flags
+     * @return rados_read_op_operate return value
+     */
+    public int operate(ObjectId oid, int flags) {
+        final int r = rados.rados_read_op_operate(readOpPtr, ioctxPtr, oid.getPointer(), flags);
+        version = rados.rados_get_last_version(ioctxPtr);
+        return r;
+    }
+
+    /**
+     * Executes operations added to the rados_read_op_t asynchronously via
+     * rados_aio_read_op_operate. The result handles are populated once the
+     * returned future is done. The operation is admitted by the operation
+     * limiter of the IoCTX with the total length of the queued reads.
+     *
+     * The name is encoded into native memory on every call, hot paths should
+     * use operateAsync(ObjectId, int) with an ObjectId they keep.
+     *
+     * @param oid
+     * @param flags
+     * @return RadosFuture with the rados_aio_read_op_operate return value
+     * @throws RadosException if the operation could not be submitted
+     */
+    public RadosFuture<Integer> operateAsync(final String oid, final int flags) throws RadosException {
+        return operateAsync(new ObjectId(oid), flags);
+    }
+
+    /**
+     * Executes operations added to the rados_read_op_t asynchronously.
+     *
+     * @param oid the pre-encoded name of the object
+     * @param flags
+     * @return RadosFuture with the rados_aio_read_op_operate return value
+     * @throws RadosException if the operation could not be submitted
+     * @see #operateAsync(String, int)
+     */
+    public RadosFuture<Integer> operateAsync(final ObjectId oid, final int flags) throws RadosException {
+        final Pointer op = readOpPtr;
+        return io.submitAio(queuedBytes, new IoCTX.AioCall<Integer>() {
+            @Override
+            int submit(Pointer completion) {
+                return rados.rados_aio_read_op_operate(op, ioctxPtr, completion, oid.getPointer(), flags);
+            }
+            @Override
+            Integer onSuccess(int returnValue) {
+                return returnValue;
+            }
+            @Override
+            Integer onSuccess(int returnValue, long objectVersion) {
+                version = objectVersion;
+                return returnValue;
+            }
+        }, "Failed to execute the read operation on %s", oid);
+    }
+
+    /**
+     * Get the version of the object the last operate() or operateAsync() was performed on.
+     *
+     * After a synchronous operate() this is the last version seen by the IoCTX,
+     * which is only exact if no other thread uses the IoCTX at the same time.
+     * After operateAsync() it is taken from the completion of the operation.
+     *
+     * @return the version of the object
+     */
+    public long getVersion() {
+        return version;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,342 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados;
+
+import static com.ceph.rados.Library.rados;
+
+import com.ceph.rados.exceptions.RadosException;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+import java.util.Map;
+
+/**
+ * A compound write operation (rados_write_op_t).
+ *
+ * All queued sub-operations are applied atomically, or none of them if one
+ * of the queued assertions fails. Together with the version of an object
+ * this allows optimistic concurrency: read the object and its version, then
+ * write it with queueAssertVersion() so the write fails if someone else
+ * updated the object in between.
+ *
+ * The data of all sub-operations is copied when it is queued.
+ */
+public class WriteOp {
+
+    private final IoCTX io;
+    private final Pointer ioctxPtr;
+    private Pointer writeOpPtr;
+    private long queuedBytes;
+    private volatile long version;
+
+    /**
+     * Create a new write_op object.
+     *
+     * This constructor should never be called, WriteOp
+     * objects are created by the IoCTX class and returned
+     * when creating a WriteOp there.
+     */
+    WriteOp(IoCTX io, Pointer writeop_p) {
+        this.io = io;
+        this.ioctxPtr = io.getPointer();
+        this.writeOpPtr = writeop_p;
+    }
+
+    Pointer getPointer() {
+        return writeOpPtr;
+    }
+
+    /**
+     * Drop all queued sub-operations so this WriteOp can be filled and executed again.
+     *
+     * librados can not reset a rados_write_op_t, so the native operation is
+     * released and a fresh one is created: every round costs one native
+     * allocation. Must not be called while an operateAsync() is in flight.
+     */
+    public void reset() {
+        rados.rados_release_write_op(writeOpPtr);
+        writeOpPtr = rados.rados_create_write_op();
+        queuedBytes = 0;
+    }
+
+    /**
+     * Fail the whole operation with ENOENT if the object does not exist.
+     */
+    public void queueAssertExists() {
+        rados.rados_write_op_assert_exists(writeOpPtr);
+    }
+
+    /**
+     * Fail the whole operation unless the object has the given version, with
+     * ERANGE if the object is newer and EOVERFLOW if it is older.
+     *
+     * @param expected the expected version of the object
+     */
+    public void queueAssertVersion(long expected) {
+        rados.rados_write_op_assert_version(writeOpPtr, expected);
+    }
+
+    /**
+     * Fail the whole operation unless the object data at the offset equals the
+     * given bytes. On a mismatch operate() returns -MAX_ERRNO (-4095) minus the
+     * offset of the first differing byte.
+     *
+     * @param offset starting offset into the object
+     * @param value the bytes to compare with
+     */
+    public void queueCmpExt(long offset, byte[] value) {
+        rados.rados_write_op_cmpext(writeOpPtr, value, value.length, offset, null);
+    }
+
+    /**
+     * Fail the whole operation with ECANCELED unless the extended attribute
+     * compares to the value as requested.
+     *
+     * @param name the name of the attribute
+     * @param op the comparison
+     * @param value the value to compare with
+     */
+    public void queueCmpXattr(String name, ComparisonOperator op, byte[] value) {
+        rados.rados_write_op_cmpxattr(writeOpPtr, name, op.getValue(), value, value.length);
+    }
+
+    /**
+     * Create the object.
+     *
+     * @param exclusive fail with EEXIST if the object already exists
+     */
+    public void queueCreate(boolean exclusive) {
+        rados.rados_write_op_create(writeOpPtr, exclusive ? 1 : 0, null);
+    }
+
+    /**
+     * Write data at an offset of the object.
+     *
+     * @param offset the offset into the object
+     * @param buf the data to write
+     */
+    public void queueWrite(long offset, byte[] buf) {
+        rados.rados_write_op_write(writeOpPtr, buf, buf.length, offset);
+        queuedBytes += buf.length;
+    }
+
+    /**
+     * Replace the content of the object.
+     *
+     * @param buf the new content
+     */
+    public void queueWriteFull(byte[] buf) {
+        rados.rados_write_op_write_full(writeOpPtr, buf, buf.length);
+        queuedBytes += buf.length;
+    }
+
+    /**
+     * Replace the content of the object.
+     *
+     * @param buf the new content
+     * @param len the number of bytes to write from buf
+     */
+    public void queueWriteFull(byte[] buf, int len) {
+        if (len < 0 || len > buf.length) {
+            throw new IllegalArgumentException("Length should be between 0 and " + buf.length);
+        }
+        rados.rados_write_op_write_full(writeOpPtr, buf, len);
+        queuedBytes += len;
+    }
+
+    /**
+     * Append data to the object.
+     *
+     * @param buf the data to append
+     */
+    public void queueAppend(byte[] buf) {
+        rados.rados_write_op_append(writeOpPtr, buf, buf.length);
+        queuedBytes += buf.length;
+    }
+
+    /**
+     * Resize the object.
+     *
+     * @param size the new size of the object
+     */
+    public void queueTruncate(long size) {
+        rados.rados_write_op_truncate(writeOpPtr, size);
+    }
+
+    /**
+     * Remove the object.
+     */
+    public void queueRemove() {
+        rados.rados_write_op_remove(writeOpPtr);
+    }
+
+    /**
+     * Set an extended attribute of the object.
+     *
+     * @param name the name of the attribute
+     * @param value the value of the attribute
+     */
+    public void queueSetXattr(String name, byte[] value) {
+        rados.rados_write_op_setxattr(writeOpPtr, name, value, value.length);
+        queuedBytes += value.length;
+    }
+
+    /**
+     * Remove an extended attribute of the object.
+     *
+     * @param name the name of the attribute
+     */
+    public void queueRmXattr(String name) {
+        rados.rados_write_op_rmxattr(writeOpPtr, name);
+    }
+
+    /**
+     * Set key/value pairs in the omap of the object.
+     *
+     * @param entries the values by key
+     */
+    public void queueOmapSet(Map<String, byte[]> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        final String[] keys = new String[entries.size()];
+        final Pointer[] vals = new Pointer[entries.size()];
+        final long[] lens = new long[entries.size()];
+        int i = 0;
+        for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+            final byte[] value = e.getValue();
+            keys[i] = e.getKey();
+            if (value.length > 0) {
+                final Memory mem = new Memory(value.length);
+                mem.write(0, value, 0, value.length);
+                vals[i] = mem;
+            }
+            lens[i] = value.length;
+            queuedBytes += value.length;
+            i++;
+        }
+        rados.rados_write_op_omap_set(writeOpPtr, keys, vals, lens, keys.length);
+    }
+
+    /**
+     * Remove keys from the omap of the object.
+     *
+     * @param keys the keys to remove
+     */
+    public void queueOmapRmKeys(String... keys) {
+        if (keys.length > 0) {
+            rados.rados_write_op_omap_rm_keys(writeOpPtr, keys, keys.length);
+        }
+    }
+
+    /**
+     * Fail the whole operation with ECANCELED unless the omap value of the key
+     * compares to the value as requested.
+     *
+     * @param key the omap key
+     * @param op the comparison
+     * @param value the value to compare with
+     */
+    public void queueOmapCmp(String key, ComparisonOperator op, byte[] value) {
+        rados.rados_write_op_omap_cmp(writeOpPtr, key, op.getValue(), value, value.length, null);
+    }
+
+    /**
+     * Executes operations added to the rados_write_op_t.
+     *
+     * @param oid
+     * @param flags
+     * @return rados_write_op_operate return value
+     */
+    public int operate(String oid, int flags) {
+        final int r = rados.rados_write_op_operate(writeOpPtr, ioctxPtr, oid, null, flags);
+        version = rados.rados_get_last_version(ioctxPtr);
+        return r;
+    }
+
+    /**
+     * Executes operations added to the rados_write_op_t.
+     *
+     * @param oid the pre-encoded name of the object
+     * @param flags
+     * @return rados_write_op_operate return value
+     */
+    public int operate(ObjectId oid, int flags) {
+        final int r = rados.rados_write_op_operate(writeOpPtr, ioctxPtr, oid.getPointer(), null, flags);
+        version = rados.rados_get_last_version(ioctxPtr);
+        return r;
+    }
+
+    /**
+     * Executes operations added to the rados_write_op_t asynchronously via
+     * rados_aio_write_op_operate. The operation is admitted by the operation
+     * limiter of the IoCTX with the total length of the queued data.
+     *
+     * The name is encoded into native memory on every call, hot paths should
+     * use operateAsync(ObjectId, int) with an ObjectId they keep.
+     *
+     * @param oid
+     * @param flags
+     * @return RadosFuture with the rados_aio_write_op_operate return value
+     * @throws RadosException if the operation could not be submitted
+     */
+    public RadosFuture<Integer> operateAsync(String oid, int flags) throws RadosException {
+        return operateAsync(new ObjectId(oid), flags);
+    }
+
+    /**
+     * Executes operations added to the rados_write_op_t asynchronously.
+     *
+     * @param oid the pre-encoded name of the object
+     * @param flags
+     * @return RadosFuture with the rados_aio_write_op_operate return value
+     * @throws RadosException if the operation could not be submitted
+     * @see #operateAsync(String, int)
+     */
+    public RadosFuture<Integer> operateAsync(final ObjectId oid, final int flags) throws RadosException {
+        final Pointer op = writeOpPtr;
+        return io.submitAio(queuedBytes, new IoCTX.AioCall<Integer>() {
+            @Override
+            int submit(Pointer completion) {
+                return rados.rados_aio_write_op_operate(op, ioctxPtr, completion, oid.getPointer(), null, flags);
+            }
+            @Override
+            Integer onSuccess(int returnValue) {
+                return returnValue;
+            }
+            @Override
+            Integer onSuccess(int returnValue, long objectVersion) {
+                version = objectVersion;
+                return returnValue;
+            }
+        }, "Failed to execute the write operation on %s", oid);
+    }
+
+    /**
+     * Get the version of the object after the last operate() or operateAsync().
+     *
+     * After a synchronous operate() this is the last version seen by the IoCTX,
+     * which is only exact if no other thread uses the IoCTX at the same time.
+     * After operateAsync() it is taken from the completion of the operation.
+     *
+     * @return the version of the object
+     */
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados.fs;
+
+import com.ceph.rados.exceptions.ErrorCode;
+import com.ceph.rados.exceptions.RadosException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The attribute views of RADOS objects: "basic" backed by rados_stat() and
+ * "user" backed by the extended attributes of the object
+ */
+final class RadosAttributeViews {
+
+    private RadosAttributeViews() {
+    }
+
+    static final class Basic implements BasicFileAttributeView {
+        private final RadosPath path;
+
+        Basic(RadosPath path) {
+            this.path = path;
+        }
+
+        @Override
+        public String name() {
+            return "basic";
+        }
+
+        @Override
+        public BasicFileAttributes readAttributes() throws IOException {
+            return path.getFileSystem().getAttributes(path.oid());
+        }
+
+        /**
+         * RADOS sets the times of objects itself, so only null arguments are accepted
+         */
+        @Override
+        public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+            if (lastModifiedTime != null || lastAccessTime != null || createTime != null) {
+                throw new UnsupportedOperationException("The times of RADOS objects cannot be set");
+            }
+        }
+    }
+
+    static final class User implements UserDefinedFileAttributeView {
+        private final RadosPath path;
+
+        User(RadosPath path) {
+            this.path = path;
+        }
+
+        private String oid() throws IOException {
+            final String oid = path.oid();
+            if (path.getFileSystem().getAttributes(oid).isDirectory()) {
+                throw new UnsupportedOperationException("Directories have no extended attributes");
+            }
+            return oid;
+        }
+
+        @Override
+        public String name() {
+            return "user";
+        }
+
+        @Override
+        public List<String> list() throws IOException {
+            final String oid = oid();
+            try {
+                return new ArrayList<String>(path.getFileSystem().getIoCTX().getXattrs(oid).keySet());
+            } catch (RadosException e) {
+                throw RadosFileSystem.translate(e, oid);
+            }
+        }
+
+        private byte[] get(String name) throws IOException {
+            final String oid = oid();
+            try {
+                return path.getFileSystem().getIoCTX().getXattr(oid, name);
+            } catch (RadosException e) {
+                if (e.getReturnValue() == ErrorCode.ENODATA.getErrorCode()) {
+                    throw new IOException("No attribute " + name + " on " + oid, e);
+                }
+                throw RadosFileSystem.translate(e, oid);
+            }
+        }
+
+        @Override
+        public int size(String name) throws IOException {
+            return get(name).length;
+        }
+
+        @Override
+        public int read(String name, ByteBuffer dst) throws IOException {
+            final byte[] value = get(name);
+            if (value.length > dst.remaining()) {
+                throw new IOException("The buffer is too small for attribute " + name);
+            }
+            dst.put(value);
+            return value.length;
+        }
+
+        @Override
+        public int write(String name, ByteBuffer src) throws IOException {
+            final String oid = oid();
+            final byte[] value = new byte[src.remaining()];
+            src.get(value);
+            try {
+                path.getFileSystem().getIoCTX().setXattr(oid, name, value);
+            } catch (RadosException e) {
+                throw RadosFileSystem.translate(e, oid);
+            }
+            return value.length;
+        }
+
+        @Override
+        public void delete(String name) throws IOException {
+            final String oid = oid();
+            try {
+                path.getFileSystem().getIoCTX().removeExtentedAttribute(oid, name);
+            } catch (RadosException e) {
+                throw RadosFileSystem.translate(e, oid);
+            }
+        }
+    }
+}
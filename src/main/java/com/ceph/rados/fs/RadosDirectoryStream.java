@@ -0,0 +1,129 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados.fs;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The entries of a virtual directory: the next name below the directory of
+ * every object name which starts with the directory and a separator
+ */
+final class RadosDirectoryStream implements DirectoryStream<Path> {
+
+    private final RadosPath dir;
+    private final String[] children;
+    private final Filter<? super Path> filter;
+    private boolean open = true;
+    private boolean iterated;
+
+    RadosDirectoryStream(RadosPath dir, String[] listing, Filter<? super Path> filter) {
+        this.dir = dir;
+        this.children = children(dir.oid(), listing);
+        this.filter = filter;
+    }
+
+    /**
+     * @return the distinct names directly below the directory, sorted
+     */
+    static String[] children(String dirOid, String[] sortedNames) {
+        final String prefix = dirOid.isEmpty() ? "" : dirOid + "/";
+        final List<String> children = new ArrayList<String>();
+        // the names below the directory are adjacent in the sorted listing
+        int i = Arrays.binarySearch(sortedNames, prefix);
+        for (i = i < 0 ? -i - 1 : i; i < sortedNames.length && sortedNames[i].startsWith(prefix); i++) {
+            final String rest = sortedNames[i].substring(prefix.length());
+            final int slash = rest.indexOf('/');
+            final String child = slash < 0 ? rest : rest.substring(0, slash);
+            if (!child.isEmpty() && (children.isEmpty() || !children.get(children.size() - 1).equals(child))) {
+                children.add(child);
+            }
+        }
+        final String[] result = children.toArray(new String[children.size()]);
+        // a file "a" and the names below "a/" are not adjacent if e.g. "a-b" exists
+        Arrays.sort(result);
+        int distinct = 0;
+        for (int j = 0; j < result.length; j++) {
+            if (j == 0 || !result[j].equals(result[distinct - 1])) {
+                result[distinct++] = result[j];
+            }
+        }
+        return Arrays.copyOf(result, distinct);
+    }
+
+    @Override
+    public synchronized Iterator<Path> iterator() {
+        if (!open) {
+            throw new IllegalStateException("The directory stream is closed");
+        }
+        if (iterated) {
+            throw new IllegalStateException("The directory stream can only be iterated once");
+        }
+        iterated = true;
+        return new Iterator<Path>() {
+            private int index;
+            private Path nextPath;
+
+            @Override
+            public boolean hasNext() {
+                while (nextPath == null && index < children.length) {
+                    synchronized (RadosDirectoryStream.this) {
+                        if (!open) {
+                            return false;
+                        }
+                    }
+                    final Path candidate = dir.resolve(children[index++]);
+                    try {
+                        if (filter == null || filter.accept(candidate)) {
+                            nextPath = candidate;
+                        }
+                    } catch (IOException e) {
+                        throw new DirectoryIteratorException(e);
+                    }
+                }
+                return nextPath != null;
+            }
+
+            @Override
+            public Path next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final Path result = nextPath;
+                nextPath = null;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados.fs;
+
+import com.ceph.rados.jna.RadosObjectInfo;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The basic attributes of an object, from rados_stat(), or of a virtual directory
+ */
+final class RadosFileAttributes implements BasicFileAttributes {
+
+    private static final FileTime EPOCH = FileTime.fromMillis(0);
+
+    private final String oid;
+    private final boolean directory;
+    private final long size;
+    private final FileTime mtime;
+
+    private RadosFileAttributes(String oid, boolean directory, long size, FileTime mtime) {
+        this.oid = oid;
+        this.directory = directory;
+        this.size = size;
+        this.mtime = mtime;
+    }
+
+    static RadosFileAttributes file(String oid, RadosObjectInfo info) {
+        return new RadosFileAttributes(oid, false, info.getSize(), FileTime.from(info.getMtime(), TimeUnit.SECONDS));
+    }
+
+    static RadosFileAttributes directory(String oid) {
+        return new RadosFileAttributes(oid, true, 0, EPOCH);
+    }
+
+    @Override
+    public FileTime lastModifiedTime() {
+        return mtime;
+    }
+
+    /**
+     * @return the modification time, RADOS does not track accesses
+     */
+    @Override
+    public FileTime lastAccessTime() {
+        return mtime;
+    }
+
+    /**
+     * @return the modification time, RADOS does not track the creation
+     */
+    @Override
+    public FileTime creationTime() {
+        return mtime;
+    }
+
+    @Override
+    public boolean isRegularFile() {
+        return !directory;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+        return false;
+    }
+
+    @Override
+    public boolean isOther() {
+        return false;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the name of the object, null for directories
+     */
+    @Override
+    public Object fileKey() {
+        return directory ? null : oid;
+    }
+}
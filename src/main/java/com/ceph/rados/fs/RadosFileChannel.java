@@ -0,0 +1,409 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados.fs;
+
+import com.ceph.rados.IoCTX;
+import com.ceph.rados.RadosFuture;
+import com.ceph.rados.exceptions.RadosException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * A channel on a RADOS object.
+ *
+ * Reads are served from a window of the object. When a read reaches the
+ * window, the next window is already requested with an asynchronous read,
+ * so sequential reads stream without waiting for a round trip per window.
+ * Writes are collected in a buffer while they are contiguous and sent with
+ * asynchronous writes, which RADOS applies in order. force(), size(), reads
+ * and closing wait for the writes in flight.
+ */
+public class RadosFileChannel extends FileChannel {
+
+    private static final int MAX_WRITES_IN_FLIGHT = 2;
+
+    private final RadosFileSystem fs;
+    private final IoCTX io;
+    private final String oid;
+    private final boolean readable;
+    private final boolean writable;
+    private final boolean append;
+    private final int bufferSize;
+    private long position;
+    private long size;
+
+    private byte[] window = new byte[0];
+    private long windowStart;
+    private int windowLength;
+    private byte[] next;
+    private long nextStart;
+    private RadosFuture<Integer> nextRead;
+
+    private final byte[] pending;
+    private long pendingStart;
+    private int pendingLength;
+    private final Deque<RadosFuture<Integer>> writes = new ArrayDeque<RadosFuture<Integer>>();
+
+    RadosFileChannel(RadosFileSystem fs, String oid, long size, boolean readable, boolean writable, boolean append) {
+        this.fs = fs;
+        this.io = fs.getIoCTX();
+        this.oid = oid;
+        this.size = size;
+        this.readable = readable;
+        this.writable = writable;
+        this.append = append;
+        this.bufferSize = fs.getBufferSize();
+        this.pending = writable ? new byte[bufferSize] : null;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * Read data of the object asynchronously, bypassing the read-ahead window
+     *
+     * Writes which are still buffered are sent first.
+     *
+     * @param position
+     *          The offset where to start reading
+     * @param buf
+     *          The buffer to store the result, which must not be touched until the future is done
+     * @param length
+     *          Amount of bytes to read
+     * @return RadosFuture with the number of bytes read
+     * @throws IOException
+     */
+    public synchronized RadosFuture<Integer> readAsync(long position, byte[] buf, int length) throws IOException {
+        ensureOpen();
+        if (!readable) {
+            throw new NonReadableChannelException();
+        }
+        awaitWrites();
+        try {
+            return io.aioRead(oid, length, position, buf);
+        } catch (RadosException e) {
+            throw RadosFileSystem.translate(e, oid);
+        }
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        final int n = read(dst, position);
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst, long position) throws IOException {
+        ensureOpen();
+        if (!readable) {
+            throw new NonReadableChannelException();
+        }
+        if (position < 0) {
+            throw new IllegalArgumentException("The position should not be negative");
+        }
+        if (dst.remaining() == 0) {
+            return 0;
+        }
+        awaitWrites();
+        if (!fill(position)) {
+            return -1;
+        }
+        final int offset = (int) (position - windowStart);
+        final int n = Math.min(dst.remaining(), windowLength - offset);
+        dst.put(window, offset, n);
+        return n;
+    }
+
+    /**
+     * Make the window hold the position
+     *
+     * @return false at the end of the object
+     */
+    private boolean fill(long position) throws IOException {
+        if (position >= windowStart && position < windowStart + windowLength) {
+            return true;
+        }
+        try {
+            if (nextRead != null && position >= nextStart && position < nextStart + bufferSize) {
+                windowLength = nextRead.await();
+                window = next;
+                windowStart = nextStart;
+            } else {
+                window = new byte[bufferSize];
+                windowStart = position;
+                windowLength = io.read(oid, bufferSize, position, window);
+            }
+            nextRead = null;
+            if (windowLength == bufferSize) {
+                // likely not the end, request the next window ahead
+                next = new byte[bufferSize];
+                nextStart = windowStart + windowLength;
+                nextRead = io.aioRead(oid, bufferSize, nextStart, next);
+            }
+        } catch (RadosException e) {
+            nextRead = null;
+            windowLength = 0;
+            throw RadosFileSystem.translate(e, oid);
+        }
+        return position < windowStart + windowLength;
+    }
+
+    private void dropWindow() {
+        // a prefetch in flight fills a buffer which is not used any more
+        windowLength = 0;
+        nextRead = null;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+        if (append) {
+            position = size;
+        }
+        final int n = write(src, position);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src, long position) throws IOException {
+        ensureOpen();
+        if (!writable) {
+            throw new NonWritableChannelException();
+        }
+        if (position < 0) {
+            throw new IllegalArgumentException("The position should not be negative");
+        }
+        dropWindow();
+        final int n = src.remaining();
+        long at = position;
+        while (src.hasRemaining()) {
+            if (pendingLength > 0 && (at != pendingStart + pendingLength || pendingLength == pending.length)) {
+                flush();
+            }
+            if (pendingLength == 0) {
+                pendingStart = at;
+            }
+            final int chunk = Math.min(src.remaining(), pending.length - pendingLength);
+            src.get(pending, pendingLength, chunk);
+            pendingLength += chunk;
+            at += chunk;
+        }
+        size = Math.max(size, at);
+        return n;
+    }
+
+    /**
+     * Send the buffered writes
+     */
+    private void flush() throws IOException {
+        if (pendingLength == 0) {
+            return;
+        }
+        try {
+            while (writes.size() >= MAX_WRITES_IN_FLIGHT) {
+                writes.poll().await();
+            }
+            // the data is copied when the write is submitted
+            writes.add(io.aioWrite(oid, Arrays.copyOf(pending, pendingLength), pendingStart));
+        } catch (RadosException e) {
+            throw RadosFileSystem.translate(e, oid);
+        } finally {
+            pendingLength = 0;
+        }
+        fs.invalidate(oid);
+    }
+
+    private void awaitWrites() throws IOException {
+        flush();
+        RadosException failure = null;
+        while (!writes.isEmpty()) {
+            try {
+                writes.poll().await();
+            } catch (RadosException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw RadosFileSystem.translate(failure, oid);
+        }
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized FileChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("The position should not be negative");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        ensureOpen();
+        awaitWrites();
+        try {
+            size = io.stat(oid).getSize();
+        } catch (RadosException e) {
+            throw RadosFileSystem.translate(e, oid);
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized FileChannel truncate(long newSize) throws IOException {
+        ensureOpen();
+        if (!writable) {
+            throw new NonWritableChannelException();
+        }
+        if (newSize < 0) {
+            throw new IllegalArgumentException("The size should not be negative");
+        }
+        if (newSize < size()) {
+            try {
+                io.truncate(oid, newSize);
+            } catch (RadosException e) {
+                throw RadosFileSystem.translate(e, oid);
+            }
+            size = newSize;
+            dropWindow();
+            fs.invalidate(oid);
+        }
+        position = Math.min(position, newSize);
+        return this;
+    }
+
+    @Override
+    public synchronized void force(boolean metaData) throws IOException {
+        ensureOpen();
+        awaitWrites();
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            final int n = read(dsts[i]);
+            if (n < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += n;
+            if (dsts[i].hasRemaining()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += write(srcs[i]);
+        }
+        return total;
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate((int) Math.min(count, bufferSize));
+        long transferred = 0;
+        while (transferred < count) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), count - transferred));
+            final int n = read(buf, position + transferred);
+            if (n <= 0) {
+                break;
+            }
+            buf.flip();
+            while (buf.hasRemaining()) {
+                target.write(buf);
+            }
+            transferred += n;
+        }
+        return transferred;
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate((int) Math.min(count, bufferSize));
+        long transferred = 0;
+        while (transferred < count) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), count - transferred));
+            final int n = src.read(buf);
+            if (n <= 0) {
+                break;
+            }
+            buf.flip();
+            write(buf, position + transferred);
+            transferred += n;
+        }
+        return transferred;
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) {
+        throw new UnsupportedOperationException("RADOS objects cannot be mapped");
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException("Use ObjectLocker to lock RADOS objects");
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException("Use ObjectLocker to lock RADOS objects");
+    }
+
+    @Override
+    protected synchronized void implCloseChannel() throws IOException {
+        try {
+            if (writable) {
+                awaitWrites();
+            }
+        } finally {
+            dropWindow();
+            fs.invalidate(oid);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados.fs;
+
+import com.ceph.rados.Rados;
+import com.ceph.rados.exceptions.RadosException;
+import com.ceph.rados.jna.RadosClusterInfo;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileStoreAttributeView;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+
+/**
+ * The pool of a RadosFileSystem, its space is the space of the cluster
+ */
+final class RadosFileStore extends FileStore {
+
+    private final Rados rados;
+    private final String pool;
+
+    RadosFileStore(Rados rados, String pool) {
+        this.rados = rados;
+        this.pool = pool;
+    }
+
+    private RadosClusterInfo stat() throws IOException {
+        try {
+            return rados.clusterStat();
+        } catch (RadosException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String name() {
+        return pool;
+    }
+
+    @Override
+    public String type() {
+        return RadosFileSystemProvider.SCHEME;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    @Override
+    public long getTotalSpace() throws IOException {
+        return stat().kb * 1024;
+    }
+
+    @Override
+    public long getUsableSpace() throws IOException {
+        return stat().kb_avail * 1024;
+    }
+
+    @Override
+    public long getUnallocatedSpace() throws IOException {
+        return stat().kb_avail * 1024;
+    }
+
+    @Override
+    public boolean supportsFileAttributeView(Class<? extends FileAttributeView> type) {
+        return type == BasicFileAttributeView.class || type == UserDefinedFileAttributeView.class;
+    }
+
+    @Override
+    public boolean supportsFileAttributeView(String name) {
+        return name.equals("basic") || name.equals("user");
+    }
+
+    @Override
+    public <V extends FileStoreAttributeView> V getFileStoreAttributeView(Class<V> type) {
+        return null;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws IOException {
+        throw new UnsupportedOperationException("No file store attribute " + attribute);
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados.fs;
+
+import com.ceph.rados.IoCTX;
+import com.ceph.rados.Rados;
+import com.ceph.rados.exceptions.ErrorCode;
+import com.ceph.rados.exceptions.RadosException;
+import com.ceph.rados.jna.RadosListEntry;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The objects of one namespace of a pool as a file system.
+ *
+ * Directories are virtual: a directory exists if an object name starts with
+ * its path and a separator, or if its marker object, its path with a
+ * trailing separator, exists. createDirectory() creates the marker.
+ *
+ * Attributes of objects are cached for a short time and listings of the
+ * namespace as well, as a listing scans the whole pool. Changes made through
+ * this file system invalidate the cached attributes and add or remove the
+ * single name in the cached listing, changes made by others are seen once
+ * the cached entries expire.
+ */
+public class RadosFileSystem extends FileSystem {
+
+    private static final int MAX_CACHED_ATTRIBUTES = 10000;
+
+    private final RadosFileSystemProvider provider;
+    private final String key;
+    private final Rados rados;
+    private final boolean ownsRados;
+    private final IoCTX io;
+    private final String pool;
+    private final String namespace;
+    private final int bufferSize;
+    private final long cacheMillis;
+    private final RadosFileStore store;
+    private volatile boolean open = true;
+
+    private final Map<String, CachedAttributes> attributes =
+            new LinkedHashMap<String, CachedAttributes>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedAttributes> eldest) {
+                    return size() > MAX_CACHED_ATTRIBUTES;
+                }
+            };
+    private String[] listing;
+    private long listingExpires;
+
+    private static final class CachedAttributes {
+        private final RadosFileAttributes attributes;
+        private final long expires;
+
+        private CachedAttributes(RadosFileAttributes attributes, long expires) {
+            this.attributes = attributes;
+            this.expires = expires;
+        }
+    }
+
+    RadosFileSystem(RadosFileSystemProvider provider, String key, Rados rados, boolean ownsRados, IoCTX io,
+                    String pool, String namespace, int bufferSize, long cacheMillis) {
+        this.provider = provider;
+        this.key = key;
+        this.rados = rados;
+        this.ownsRados = ownsRados;
+        this.io = io;
+        this.pool = pool;
+        this.namespace = namespace;
+        this.bufferSize = bufferSize;
+        this.cacheMillis = cacheMillis;
+        this.store = new RadosFileStore(rados, pool);
+    }
+
+    /**
+     * @return the context of the pool and namespace, valid until the file system is closed
+     */
+    public IoCTX getIoCTX() {
+        return io;
+    }
+
+    public String getPool() {
+        return pool;
+    }
+
+    /**
+     * @return the namespace, empty for the default namespace
+     */
+    public String getNamespace() {
+        return namespace;
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    URI toUri(String absolutePath) {
+        try {
+            return new URI(RadosFileSystemProvider.SCHEME, pool, "/" + namespace + absolutePath, null, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void ensureOpen() {
+        if (!open) {
+            throw new ClosedFileSystemException();
+        }
+    }
+
+    static IOException translate(RadosException e, String oid) {
+        if (e.getReturnValue() == ErrorCode.ENOENT.getErrorCode()) {
+            return new NoSuchFileException(oid);
+        }
+        if (e.getReturnValue() == ErrorCode.EEXIST.getErrorCode()) {
+            return new FileAlreadyExistsException(oid);
+        }
+        return new IOException(e.getMessage(), e);
+    }
+
+    /**
+     * @return the attributes of an object or directory
+     * @throws NoSuchFileException
+     *          if there is neither
+     */
+    RadosFileAttributes getAttributes(String oid) throws IOException {
+        ensureOpen();
+        if (oid.isEmpty()) {
+            return RadosFileAttributes.directory(oid);
+        }
+        final long now = System.currentTimeMillis();
+        synchronized (attributes) {
+            final CachedAttributes cached = attributes.get(oid);
+            if (cached != null && cached.expires > now) {
+                return cached.attributes;
+            }
+        }
+        RadosFileAttributes result;
+        try {
+            result = RadosFileAttributes.file(oid, io.stat(oid));
+        } catch (RadosException e) {
+            if (e.getReturnValue() != ErrorCode.ENOENT.getErrorCode()) {
+                throw translate(e, oid);
+            }
+            if (!isDirectory(oid)) {
+                throw new NoSuchFileException(oid);
+            }
+            result = RadosFileAttributes.directory(oid);
+        }
+        synchronized (attributes) {
+            attributes.put(oid, new CachedAttributes(result, now + cacheMillis));
+        }
+        return result;
+    }
+
+    /**
+     * @return whether an object name starts with the directory and a separator
+     */
+    boolean isDirectory(String oid) throws IOException {
+        if (oid.isEmpty()) {
+            return true;
+        }
+        final String prefix = oid + "/";
+        final String[] names = listing();
+        final int i = firstWithPrefix(names, prefix);
+        return i < names.length && names[i].startsWith(prefix);
+    }
+
+    /**
+     * @return the index of the first name in the sorted listing which is not
+     *          less than the prefix, the names starting with it follow there
+     */
+    static int firstWithPrefix(String[] names, String prefix) {
+        final int i = Arrays.binarySearch(names, prefix);
+        return i < 0 ? -i - 1 : i;
+    }
+
+    /**
+     * @return the names of all objects of the namespace, sorted
+     */
+    synchronized String[] listing() throws IOException {
+        ensureOpen();
+        final long now = System.currentTimeMillis();
+        if (listing == null || listingExpires <= now) {
+            final RadosListEntry[] entries;
+            try {
+                entries = io.listObjectEntries();
+            } catch (RadosException e) {
+                throw translate(e, "/");
+            }
+            final String[] names = new String[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                names[i] = entries[i].getOid();
+            }
+            Arrays.sort(names);
+            listing = names;
+            listingExpires = now + cacheMillis;
+        }
+        return listing;
+    }
+
+    /**
+     * Drop the cached attributes of an object after its content changed
+     */
+    void invalidate(String oid) {
+        synchronized (attributes) {
+            attributes.remove(oid);
+            // directories above it may have appeared or vanished
+            for (int i = oid.lastIndexOf('/'); i > 0; i = oid.lastIndexOf('/', i - 1)) {
+                attributes.remove(oid.substring(0, i));
+            }
+        }
+    }
+
+    /**
+     * Drop the cached attributes of an object and add it to the cached listing
+     * after it was created
+     */
+    void created(String oid) {
+        invalidate(oid);
+        synchronized (this) {
+            if (listing == null) {
+                return;
+            }
+            final int i = Arrays.binarySearch(listing, oid);
+            if (i < 0) {
+                final int at = -i - 1;
+                final String[] names = new String[listing.length + 1];
+                System.arraycopy(listing, 0, names, 0, at);
+                names[at] = oid;
+                System.arraycopy(listing, at, names, at + 1, listing.length - at);
+                // a new array, directory streams keep iterating the one they got
+                listing = names;
+            }
+        }
+    }
+
+    /**
+     * Drop the cached attributes of an object and remove it from the cached
+     * listing after it was removed
+     */
+    void removed(String oid) {
+        invalidate(oid);
+        synchronized (this) {
+            if (listing == null) {
+                return;
+            }
+            final int i = Arrays.binarySearch(listing, oid);
+            if (i >= 0) {
+                final String[] names = new String[listing.length - 1];
+                System.arraycopy(listing, 0, names, 0, i);
+                System.arraycopy(listing, i + 1, names, i, names.length - i);
+                listing = names;
+            }
+        }
+    }
+
+    /**
+     * Drop the cached attributes of an object and the cached listing when it
+     * is not known whether the object exists
+     */
+    void forget(String oid) {
+        invalidate(oid);
+        synchronized (this) {
+            listing = null;
+        }
+    }
+
+    @Override
+    public RadosFileSystemProvider provider() {
+        return provider;
+    }
+
+    /**
+     * Close the file system, destroying its context and, if the provider
+     * connected the cluster, shutting the connection down
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        provider.removeFileSystem(key);
+        rados.ioCtxDestroy(io);
+        if (ownsRados) {
+            rados.shutDown();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    @Override
+    public String getSeparator() {
+        return "/";
+    }
+
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        return Collections.<Path>singletonList(new RadosPath(this, "/"));
+    }
+
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        return Collections.<FileStore>singletonList(store);
+    }
+
+    RadosFileStore getFileStore() {
+        return store;
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return new HashSet<String>(Arrays.asList("basic", "user"));
+    }
+
+    @Override
+    public Path getPath(String first, String... more) {
+        final StringBuilder sb = new StringBuilder(first);
+        for (String name : more) {
+            if (!name.isEmpty()) {
+                if (sb.length() > 0) {
+                    sb.append('/');
+                }
+                sb.append(name);
+            }
+        }
+        return new RadosPath(this, sb.toString());
+    }
+
+    @Override
+    public PathMatcher getPathMatcher(String syntaxAndPattern) {
+        final int colon = syntaxAndPattern.indexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("The pattern should have the form syntax:pattern");
+        }
+        final String syntax = syntaxAndPattern.substring(0, colon);
+        final String pattern = syntaxAndPattern.substring(colon + 1);
+        final Pattern regex;
+        if (syntax.equalsIgnoreCase("glob")) {
+            regex = Pattern.compile(globToRegex(pattern));
+        } else if (syntax.equalsIgnoreCase("regex")) {
+            regex = Pattern.compile(pattern);
+        } else {
+            throw new UnsupportedOperationException("Syntax " + syntax + " is not supported");
+        }
+        return new PathMatcher() {
+            @Override
+            public boolean matches(Path path) {
+                return regex.matcher(path.toString()).matches();
+            }
+        };
+    }
+
+    static String globToRegex(String glob) {
+        final StringBuilder regex = new StringBuilder("^");
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        regex.append(".*");
+                        i++;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '{':
+                    regex.append("(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    regex.append(')');
+                    inGroup = false;
+                    break;
+                case ',':
+                    regex.append(inGroup ? "|" : ",");
+                    break;
+                case '[':
+                    final int end = glob.indexOf(']', i + 1);
+                    if (end < 0) {
+                        regex.append("\\[");
+                        break;
+                    }
+                    String set = glob.substring(i + 1, end);
+                    if (set.startsWith("!")) {
+                        set = "^" + set.substring(1);
+                    }
+                    regex.append('[').append(set.replace("\\", "\\\\")).append(']');
+                    i = end;
+                    break;
+                case '\\':
+                    if (i + 1 < glob.length()) {
+                        regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                    }
+                    break;
+                default:
+                    regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.append('$').toString();
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        throw new UnsupportedOperationException("RADOS objects have no owners");
+    }
+
+    @Override
+    public WatchService newWatchService() {
+        throw new UnsupportedOperationException("RADOS pools cannot be watched");
+    }
+}
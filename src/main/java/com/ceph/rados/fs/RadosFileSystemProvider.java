@@ -0,0 +1,611 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados.fs;
+
+import com.ceph.rados.IoCTX;
+import com.ceph.rados.Rados;
+import com.ceph.rados.WriteOp;
+import com.ceph.rados.exceptions.ErrorCode;
+import com.ceph.rados.exceptions.RadosException;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A java.nio.file provider for RADOS pools.
+ *
+ * A file system is one namespace of a pool, identified by the URI
+ * rados://pool/namespace/, where an empty namespace, as in rados://pool//,
+ * is the default namespace. A path within it names the object of the same
+ * name without the leading separator, so rados://pool/ns/a/b.txt is the
+ * object "a/b.txt" in namespace "ns".
+ *
+ * A file system is created with FileSystems.newFileSystem() and an
+ * environment which holds either a connected Rados under "rados", or the
+ * client id under "id" and optionally a configuration file under "conf", in
+ * which case the provider connects and shuts the connection down when the
+ * file system is closed. "bufferSize" sets the size of the read-ahead and
+ * write-behind buffers of channels and "cacheMillis" how long attributes
+ * and listings are cached.
+ *
+ * Objects have no parent directories, so files can be created in any
+ * directory, existing or not.
+ */
+public class RadosFileSystemProvider extends FileSystemProvider {
+
+    public static final String SCHEME = "rados";
+    public static final String ENV_RADOS = "rados";
+    public static final String ENV_ID = "id";
+    public static final String ENV_CONF = "conf";
+    public static final String ENV_BUFFER_SIZE = "bufferSize";
+    public static final String ENV_CACHE_MILLIS = "cacheMillis";
+    public static final int DEFAULT_BUFFER_SIZE = 4 << 20;
+    public static final long DEFAULT_CACHE_MILLIS = 1000;
+
+    private final Map<String, RadosFileSystem> fileSystems = new HashMap<String, RadosFileSystem>();
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    /**
+     * @return the pool, the namespace and the path of a URI
+     */
+    private static String[] parse(URI uri) {
+        if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("The URI scheme should be " + SCHEME);
+        }
+        final String pool = uri.getAuthority();
+        final String path = uri.getPath();
+        if (pool == null || pool.isEmpty() || path == null || !path.startsWith("/")) {
+            throw new IllegalArgumentException("The URI should have the form rados://pool/namespace/path");
+        }
+        final int slash = path.indexOf('/', 1);
+        final String namespace = slash < 0 ? path.substring(1) : path.substring(1, slash);
+        return new String[]{pool, namespace, slash < 0 ? "/" : path.substring(slash)};
+    }
+
+    private static String key(String pool, String namespace) {
+        return pool + "/" + namespace;
+    }
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
+        final String[] parsed = parse(uri);
+        final String key = key(parsed[0], parsed[1]);
+        synchronized (fileSystems) {
+            if (fileSystems.containsKey(key)) {
+                throw new FileSystemAlreadyExistsException(key);
+            }
+            Rados rados = (Rados) env.get(ENV_RADOS);
+            final boolean owned = rados == null;
+            try {
+                if (owned) {
+                    final Object id = env.get(ENV_ID);
+                    if (id == null) {
+                        throw new IllegalArgumentException("The environment should hold a Rados or a client id");
+                    }
+                    rados = new Rados(id.toString());
+                    final Object conf = env.get(ENV_CONF);
+                    if (conf != null) {
+                        rados.confReadFile(new File(conf.toString()));
+                    }
+                    rados.connect();
+                }
+                final IoCTX io = rados.ioCtxCreate(parsed[0]);
+                io.setNamespace(parsed[1]);
+                final Object bufferSize = env.get(ENV_BUFFER_SIZE);
+                final Object cacheMillis = env.get(ENV_CACHE_MILLIS);
+                final RadosFileSystem fs = new RadosFileSystem(this, key, rados, owned, io, parsed[0], parsed[1],
+                        bufferSize == null ? DEFAULT_BUFFER_SIZE : Integer.parseInt(bufferSize.toString()),
+                        cacheMillis == null ? DEFAULT_CACHE_MILLIS : Long.parseLong(cacheMillis.toString()));
+                fileSystems.put(key, fs);
+                return fs;
+            } catch (RadosException e) {
+                if (owned && rados != null) {
+                    rados.shutDown();
+                }
+                throw new IOException("Failed to open " + uri, e);
+            }
+        }
+    }
+
+    @Override
+    public FileSystem getFileSystem(URI uri) {
+        final String[] parsed = parse(uri);
+        synchronized (fileSystems) {
+            final RadosFileSystem fs = fileSystems.get(key(parsed[0], parsed[1]));
+            if (fs == null) {
+                throw new FileSystemNotFoundException(uri.toString());
+            }
+            return fs;
+        }
+    }
+
+    void removeFileSystem(String key) {
+        synchronized (fileSystems) {
+            fileSystems.remove(key);
+        }
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        return getFileSystem(uri).getPath(parse(uri)[2]);
+    }
+
+    private static RadosPath check(Path path) {
+        if (!(path instanceof RadosPath)) {
+            throw new ProviderMismatchException();
+        }
+        final RadosPath p = (RadosPath) path;
+        p.getFileSystem().ensureOpen();
+        return p;
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options,
+                                              FileAttribute<?>... attrs) throws IOException {
+        return newFileChannel(path, options, attrs);
+    }
+
+    @Override
+    public FileChannel newFileChannel(Path path, Set<? extends OpenOption> options,
+                                      FileAttribute<?>... attrs) throws IOException {
+        final RadosPath p = check(path);
+        if (attrs.length > 0) {
+            throw new UnsupportedOperationException("RADOS objects have no initial attributes");
+        }
+        final RadosFileSystem fs = p.getFileSystem();
+        final String oid = p.oid();
+        final boolean append = options.contains(StandardOpenOption.APPEND);
+        final boolean writable = append || options.contains(StandardOpenOption.WRITE);
+        final boolean readable = options.contains(StandardOpenOption.READ) || !writable;
+        if (append && (readable || options.contains(StandardOpenOption.TRUNCATE_EXISTING))) {
+            throw new IllegalArgumentException("APPEND is not allowed with READ or TRUNCATE_EXISTING");
+        }
+        if (oid.isEmpty()) {
+            throw new FileSystemException(path.toString(), null, "Is a directory");
+        }
+
+        final IoCTX io = fs.getIoCTX();
+        long size = -1;
+        try {
+            size = io.stat(oid).getSize();
+        } catch (RadosException e) {
+            if (e.getReturnValue() != ErrorCode.ENOENT.getErrorCode()) {
+                throw RadosFileSystem.translate(e, oid);
+            }
+        }
+        if (writable) {
+            if (options.contains(StandardOpenOption.CREATE_NEW) || (size < 0
+                    && options.contains(StandardOpenOption.CREATE))) {
+                final WriteOp op = io.writeOpCreate();
+                try {
+                    op.queueCreate(options.contains(StandardOpenOption.CREATE_NEW));
+                    op.operateAsync(oid, 0).await();
+                } catch (RadosException e) {
+                    throw RadosFileSystem.translate(e, oid);
+                } finally {
+                    io.writeOpRelease(op);
+                }
+                if (size < 0) {
+                    size = 0;
+                }
+                fs.created(oid);
+            }
+            if (size > 0 && options.contains(StandardOpenOption.TRUNCATE_EXISTING)) {
+                try {
+                    io.truncate(oid, 0);
+                } catch (RadosException e) {
+                    throw RadosFileSystem.translate(e, oid);
+                }
+                size = 0;
+                fs.invalidate(oid);
+            }
+        }
+        if (size < 0) {
+            if (fs.isDirectory(oid)) {
+                throw new FileSystemException(path.toString(), null, "Is a directory");
+            }
+            throw new NoSuchFileException(path.toString());
+        }
+        return new RadosFileChannel(fs, oid, size, readable, writable, append);
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter)
+            throws IOException {
+        final RadosPath p = check(dir);
+        if (!p.getFileSystem().getAttributes(p.oid()).isDirectory()) {
+            throw new NotDirectoryException(dir.toString());
+        }
+        return new RadosDirectoryStream(p, p.getFileSystem().listing(), filter);
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
+        final RadosPath p = check(dir);
+        final RadosFileSystem fs = p.getFileSystem();
+        final String oid = p.oid();
+        if (attrs.length > 0) {
+            throw new UnsupportedOperationException("Directories have no initial attributes");
+        }
+        if (exists(fs, oid)) {
+            throw new FileAlreadyExistsException(dir.toString());
+        }
+        final WriteOp op = fs.getIoCTX().writeOpCreate();
+        try {
+            op.queueCreate(true);
+            op.operateAsync(oid + "/", 0).await();
+        } catch (RadosException e) {
+            throw RadosFileSystem.translate(e, dir.toString());
+        } finally {
+            fs.getIoCTX().writeOpRelease(op);
+        }
+        fs.created(oid + "/");
+    }
+
+    private static boolean exists(RadosFileSystem fs, String oid) throws IOException {
+        try {
+            fs.getAttributes(oid);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void delete(Path path) throws IOException {
+        final RadosPath p = check(path);
+        final RadosFileSystem fs = p.getFileSystem();
+        final String oid = p.oid();
+        if (oid.isEmpty()) {
+            throw new FileSystemException(path.toString(), null, "The root cannot be deleted");
+        }
+        try {
+            fs.getIoCTX().remove(oid);
+            fs.removed(oid);
+            return;
+        } catch (RadosException e) {
+            if (e.getReturnValue() != ErrorCode.ENOENT.getErrorCode()) {
+                throw RadosFileSystem.translate(e, oid);
+            }
+        }
+        final String marker = oid + "/";
+        final String[] names = fs.listing();
+        // the marker sorts before the names below it
+        int i = RadosFileSystem.firstWithPrefix(names, marker);
+        final boolean hasMarker = i < names.length && names[i].equals(marker);
+        if (hasMarker) {
+            i++;
+        }
+        if (i < names.length && names[i].startsWith(marker)) {
+            throw new DirectoryNotEmptyException(path.toString());
+        }
+        if (!hasMarker) {
+            throw new NoSuchFileException(path.toString());
+        }
+        try {
+            fs.getIoCTX().remove(marker);
+        } catch (RadosException e) {
+            throw RadosFileSystem.translate(e, path.toString());
+        } finally {
+            fs.removed(marker);
+            fs.invalidate(oid);
+        }
+    }
+
+    /**
+     * Copy an object in chunks, together with its extended attributes with
+     * COPY_ATTRIBUTES
+     *
+     * An existing target object is replaced by the write_full of the first
+     * chunk instead of being deleted first, so a copy which fails right away
+     * leaves the target untouched. A copy which fails after the first chunk
+     * leaves the target partially written.
+     */
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) throws IOException {
+        final RadosPath from = check(source);
+        final RadosPath to = check(target);
+        final Set<CopyOption> opts = new HashSet<CopyOption>(Arrays.asList(options));
+        if (opts.contains(StandardCopyOption.ATOMIC_MOVE)) {
+            throw new UnsupportedOperationException("Copies cannot be atomic");
+        }
+        if (from.toAbsolutePath().normalize().equals(to.toAbsolutePath().normalize())) {
+            return;
+        }
+        final BasicFileAttributes attributes = from.getFileSystem().getAttributes(from.oid());
+        boolean replace = false;
+        if (exists(to.getFileSystem(), to.oid())) {
+            if (!opts.contains(StandardCopyOption.REPLACE_EXISTING)) {
+                throw new FileAlreadyExistsException(target.toString());
+            }
+            if (attributes.isDirectory() || to.getFileSystem().getAttributes(to.oid()).isDirectory()) {
+                // an empty directory, or an object replaced by one, holds no data to lose
+                delete(to);
+            } else {
+                replace = true;
+            }
+        }
+        if (attributes.isDirectory()) {
+            createDirectory(to);
+            return;
+        }
+        boolean copied = false;
+        try {
+            copyObject(from, to, replace, opts.contains(StandardCopyOption.COPY_ATTRIBUTES));
+            copied = true;
+        } finally {
+            if (copied) {
+                to.getFileSystem().created(to.oid());
+            } else {
+                // the target may or may not have been created
+                to.getFileSystem().forget(to.oid());
+            }
+        }
+    }
+
+    private static void copyObject(RadosPath from, RadosPath to, boolean replace, boolean copyAttributes)
+            throws IOException {
+        final IoCTX src = from.getFileSystem().getIoCTX();
+        final IoCTX dst = to.getFileSystem().getIoCTX();
+        final String oid = to.oid();
+        // the object an error is reported for
+        String current = from.oid();
+        try {
+            final Map<String, byte[]> xattrs = copyAttributes
+                    ? src.getXattrs(from.oid()) : new HashMap<String, byte[]>();
+            final Set<String> stale = new HashSet<String>();
+            if (replace) {
+                stale.addAll(dst.getXattrs(oid).keySet());
+                stale.removeAll(xattrs.keySet());
+            }
+            final int chunk = (int) Math.min(dst.getMaxWriteSize(), from.getFileSystem().getBufferSize());
+            final byte[] buf = new byte[chunk];
+            long offset = 0;
+            while (true) {
+                current = from.oid();
+                final int n = src.read(from.oid(), chunk, offset, buf);
+                if (n == 0 && offset > 0) {
+                    break;
+                }
+                current = oid;
+                final WriteOp op = dst.writeOpCreate();
+                try {
+                    if (offset == 0) {
+                        // replaces the content and the attributes of an existing target in one step
+                        if (!replace) {
+                            op.queueCreate(true);
+                        }
+                        op.queueWriteFull(buf, n);
+                        for (String name : stale) {
+                            op.queueRmXattr(name);
+                        }
+                        for (Map.Entry<String, byte[]> e : xattrs.entrySet()) {
+                            op.queueSetXattr(e.getKey(), e.getValue());
+                        }
+                    } else {
+                        op.queueWrite(offset, Arrays.copyOf(buf, n));
+                    }
+                    op.operateAsync(oid, 0).await();
+                } finally {
+                    dst.writeOpRelease(op);
+                }
+                offset += n;
+                if (n < chunk) {
+                    break;
+                }
+            }
+        } catch (RadosException e) {
+            throw RadosFileSystem.translate(e, current);
+        }
+    }
+
+    /**
+     * Move an object by copying and deleting it, empty directories by
+     * moving their marker
+     */
+    @Override
+    public void move(Path source, Path target, CopyOption... options) throws IOException {
+        for (CopyOption option : options) {
+            if (option == StandardCopyOption.ATOMIC_MOVE) {
+                throw new AtomicMoveNotSupportedException(source.toString(), target.toString(),
+                                                          "RADOS has no rename");
+            }
+        }
+        final RadosPath from = check(source);
+        if (from.toAbsolutePath().normalize().equals(check(target).toAbsolutePath().normalize())) {
+            return;
+        }
+        if (from.getFileSystem().getAttributes(from.oid()).isDirectory()) {
+            final String marker = from.oid() + "/";
+            final String[] names = from.getFileSystem().listing();
+            int i = RadosFileSystem.firstWithPrefix(names, marker);
+            if (i < names.length && names[i].equals(marker)) {
+                i++;
+            }
+            if (i < names.length && names[i].startsWith(marker)) {
+                throw new DirectoryNotEmptyException(source.toString());
+            }
+        }
+        final CopyOption[] copyOptions = Arrays.copyOf(options, options.length + 1);
+        copyOptions[options.length] = StandardCopyOption.COPY_ATTRIBUTES;
+        copy(source, target, copyOptions);
+        delete(source);
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path path2) throws IOException {
+        return check(path).toAbsolutePath().normalize().equals(check(path2).toAbsolutePath().normalize());
+    }
+
+    @Override
+    public boolean isHidden(Path path) {
+        return false;
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) {
+        return check(path).getFileSystem().getFileStore();
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        final RadosPath p = check(path);
+        p.getFileSystem().getAttributes(p.oid());
+        for (AccessMode mode : modes) {
+            if (mode == AccessMode.EXECUTE) {
+                throw new AccessDeniedException(path.toString());
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        final RadosPath p = check(path);
+        if (type == BasicFileAttributeView.class) {
+            return (V) new RadosAttributeViews.Basic(p);
+        }
+        if (type == UserDefinedFileAttributeView.class) {
+            return (V) new RadosAttributeViews.User(p);
+        }
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+            throws IOException {
+        if (type != BasicFileAttributes.class) {
+            throw new UnsupportedOperationException("Attributes " + type.getName() + " are not supported");
+        }
+        final RadosPath p = check(path);
+        return (A) p.getFileSystem().getAttributes(p.oid());
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options)
+            throws IOException {
+        final RadosPath p = check(path);
+        final int colon = attributes.indexOf(':');
+        final String view = colon < 0 ? "basic" : attributes.substring(0, colon);
+        final String[] names = attributes.substring(colon + 1).split(",");
+        final Map<String, Object> result = new LinkedHashMap<String, Object>();
+        if (view.equals("basic")) {
+            final BasicFileAttributes a = p.getFileSystem().getAttributes(p.oid());
+            final Map<String, Object> all = new LinkedHashMap<String, Object>();
+            all.put("size", a.size());
+            all.put("lastModifiedTime", a.lastModifiedTime());
+            all.put("lastAccessTime", a.lastAccessTime());
+            all.put("creationTime", a.creationTime());
+            all.put("isRegularFile", a.isRegularFile());
+            all.put("isDirectory", a.isDirectory());
+            all.put("isSymbolicLink", a.isSymbolicLink());
+            all.put("isOther", a.isOther());
+            all.put("fileKey", a.fileKey());
+            for (String name : names) {
+                if (name.equals("*")) {
+                    result.putAll(all);
+                } else if (all.containsKey(name)) {
+                    result.put(name, all.get(name));
+                } else {
+                    throw new IllegalArgumentException("No basic attribute " + name);
+                }
+            }
+            return result;
+        }
+        if (view.equals("user")) {
+            final RadosAttributeViews.User user = new RadosAttributeViews.User(p);
+            for (String name : names) {
+                if (name.equals("*")) {
+                    for (String xattr : user.list()) {
+                        result.put(xattr, read(user, xattr));
+                    }
+                } else {
+                    result.put(name, read(user, name));
+                }
+            }
+            return result;
+        }
+        throw new UnsupportedOperationException("View " + view + " is not supported");
+    }
+
+    private static byte[] read(RadosAttributeViews.User view, String name) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(view.size(name));
+        view.read(name, buf);
+        return buf.array();
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) throws IOException {
+        final RadosPath p = check(path);
+        final int colon = attribute.indexOf(':');
+        final String view = colon < 0 ? "basic" : attribute.substring(0, colon);
+        if (!view.equals("user")) {
+            throw new UnsupportedOperationException("Only user attributes can be set");
+        }
+        final ByteBuffer buf;
+        if (value instanceof byte[]) {
+            buf = ByteBuffer.wrap((byte[]) value);
+        } else if (value instanceof ByteBuffer) {
+            buf = (ByteBuffer) value;
+        } else {
+            throw new IllegalArgumentException("The value of a user attribute should be a byte[] or a ByteBuffer, not "
+                                               + (value == null ? "null" : value.getClass().getName()));
+        }
+        new RadosAttributeViews.User(p).write(attribute.substring(colon + 1), buf);
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A path of a RadosFileSystem.
+ *
+ * The absolute, normalized path without its leading separator is the name
+ * of the object, so "/logs/2024/app.log" is the object "logs/2024/app.log".
+ * The working directory is the root.
+ */
+final class RadosPath implements Path {
+
+    private final RadosFileSystem fs;
+    private final String path;
+    private String[] names;
+
+    RadosPath(RadosFileSystem fs, String path) {
+        this.fs = fs;
+        this.path = clean(path);
+    }
+
+    /**
+     * @return the path without repeated or trailing separators
+     */
+    private static String clean(String path) {
+        final StringBuilder sb = new StringBuilder(path.length());
+        char previous = 0;
+        for (int i = 0; i < path.length(); i++) {
+            final char c = path.charAt(i);
+            if (c == '\u0000') {
+                throw new InvalidPathException(path, "Nul character not allowed");
+            }
+            if (c != '/' || previous != '/') {
+                sb.append(c);
+            }
+            previous = c;
+        }
+        if (sb.length() > 1 && sb.charAt(sb.length() - 1) == '/') {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    private String[] names() {
+        if (names == null) {
+            final List<String> list = new ArrayList<String>();
+            for (String name : path.split("/")) {
+                if (!name.isEmpty()) {
+                    list.add(name);
+                }
+            }
+            names = list.toArray(new String[list.size()]);
+        }
+        return names;
+    }
+
+    private static String join(String[] names, int begin, int end) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = begin; i < end; i++) {
+            if (i > begin) {
+                sb.append('/');
+            }
+            sb.append(names[i]);
+        }
+        return sb.toString();
+    }
+
+    private RadosPath check(Path other) {
+        if (other == null) {
+            throw new NullPointerException();
+        }
+        if (!(other instanceof RadosPath)) {
+            throw new ProviderMismatchException();
+        }
+        return (RadosPath) other;
+    }
+
+    /**
+     * @return the name of the object, empty for the root
+     */
+    String oid() {
+        return ((RadosPath) toAbsolutePath().normalize()).path.substring(1);
+    }
+
+    @Override
+    public RadosFileSystem getFileSystem() {
+        return fs;
+    }
+
+    @Override
+    public boolean isAbsolute() {
+        return path.startsWith("/");
+    }
+
+    @Override
+    public Path getRoot() {
+        return isAbsolute() ? new RadosPath(fs, "/") : null;
+    }
+
+    @Override
+    public Path getFileName() {
+        final String[] n = names();
+        if (n.length == 0) {
+            return path.isEmpty() ? this : null;
+        }
+        return new RadosPath(fs, n[n.length - 1]);
+    }
+
+    @Override
+    public Path getParent() {
+        final String[] n = names();
+        if (n.length == 0 || (n.length == 1 && !isAbsolute())) {
+            return null;
+        }
+        return new RadosPath(fs, (isAbsolute() ? "/" : "") + join(n, 0, n.length - 1));
+    }
+
+    @Override
+    public int getNameCount() {
+        return path.isEmpty() ? 1 : names().length;
+    }
+
+    @Override
+    public Path getName(int index) {
+        return subpath(index, index + 1);
+    }
+
+    @Override
+    public Path subpath(int beginIndex, int endIndex) {
+        if (path.isEmpty() && beginIndex == 0 && endIndex == 1) {
+            return this;
+        }
+        final String[] n = names();
+        if (beginIndex < 0 || beginIndex >= n.length || endIndex > n.length || beginIndex >= endIndex) {
+            throw new IllegalArgumentException();
+        }
+        return new RadosPath(fs, join(n, beginIndex, endIndex));
+    }
+
+    @Override
+    public boolean startsWith(Path other) {
+        if (!(other instanceof RadosPath) || ((RadosPath) other).fs != fs) {
+            return false;
+        }
+        final RadosPath o = (RadosPath) other;
+        if (o.isAbsolute() != isAbsolute()) {
+            return false;
+        }
+        final String[] n = names();
+        final String[] on = o.names();
+        if (on.length > n.length || (o.path.isEmpty() && !path.isEmpty())) {
+            return false;
+        }
+        for (int i = 0; i < on.length; i++) {
+            if (!on[i].equals(n[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean startsWith(String other) {
+        return startsWith(fs.getPath(other));
+    }
+
+    @Override
+    public boolean endsWith(Path other) {
+        if (!(other instanceof RadosPath) || ((RadosPath) other).fs != fs) {
+            return false;
+        }
+        final RadosPath o = (RadosPath) other;
+        if (o.isAbsolute()) {
+            return o.path.equals(path);
+        }
+        final String[] n = names();
+        final String[] on = o.names();
+        if (on.length > n.length || (o.path.isEmpty() && !path.isEmpty())) {
+            return false;
+        }
+        for (int i = 0; i < on.length; i++) {
+            if (!on[on.length - 1 - i].equals(n[n.length - 1 - i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endsWith(String other) {
+        return endsWith(fs.getPath(other));
+    }
+
+    @Override
+    public Path normalize() {
+        final List<String> result = new ArrayList<String>();
+        for (String name : names()) {
+            if (name.equals(".")) {
+                continue;
+            }
+            if (name.equals("..")) {
+                if (!result.isEmpty() && !result.get(result.size() - 1).equals("..")) {
+                    result.remove(result.size() - 1);
+                    continue;
+                }
+                if (isAbsolute()) {
+                    // the parent of the root is the root
+                    continue;
+                }
+            }
+            result.add(name);
+        }
+        final String[] n = result.toArray(new String[result.size()]);
+        return new RadosPath(fs, (isAbsolute() ? "/" : "") + join(n, 0, n.length));
+    }
+
+    @Override
+    public Path resolve(Path other) {
+        final RadosPath o = check(other);
+        if (o.isAbsolute()) {
+            return o;
+        }
+        if (o.path.isEmpty()) {
+            return this;
+        }
+        if (path.isEmpty()) {
+            return o;
+        }
+        return new RadosPath(fs, path + "/" + o.path);
+    }
+
+    @Override
+    public Path resolve(String other) {
+        return resolve(fs.getPath(other));
+    }
+
+    @Override
+    public Path resolveSibling(Path other) {
+        final Path parent = getParent();
+        return parent == null ? check(other) : parent.resolve(other);
+    }
+
+    @Override
+    public Path resolveSibling(String other) {
+        return resolveSibling(fs.getPath(other));
+    }
+
+    @Override
+    public Path relativize(Path other) {
+        final RadosPath o = check(other);
+        if (o.isAbsolute() != isAbsolute()) {
+            throw new IllegalArgumentException("Both paths should be absolute or relative");
+        }
+        final String[] n = names();
+        final String[] on = o.names();
+        int common = 0;
+        while (common < n.length && common < on.length && n[common].equals(on[common])) {
+            common++;
+        }
+        final List<String> result = new ArrayList<String>();
+        for (int i = common; i < n.length; i++) {
+            result.add("..");
+        }
+        result.addAll(Arrays.asList(on).subList(common, on.length));
+        final String[] r = result.toArray(new String[result.size()]);
+        return new RadosPath(fs, join(r, 0, r.length));
+    }
+
+    @Override
+    public URI toUri() {
+        return fs.toUri(((RadosPath) toAbsolutePath().normalize()).path);
+    }
+
+    @Override
+    public Path toAbsolutePath() {
+        return isAbsolute() ? this : new RadosPath(fs, "/" + path);
+    }
+
+    @Override
+    public Path toRealPath(LinkOption... options) throws IOException {
+        final Path real = toAbsolutePath().normalize();
+        fs.provider().checkAccess(real);
+        return real;
+    }
+
+    @Override
+    public File toFile() {
+        throw new UnsupportedOperationException("RADOS objects are not files of the default file system");
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+        throw new UnsupportedOperationException("RADOS pools cannot be watched");
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>... events) {
+        throw new UnsupportedOperationException("RADOS pools cannot be watched");
+    }
+
+    @Override
+    public Iterator<Path> iterator() {
+        final List<Path> list = new ArrayList<Path>();
+        for (int i = 0; i < getNameCount(); i++) {
+            list.add(getName(i));
+        }
+        return list.iterator();
+    }
+
+    @Override
+    public int compareTo(Path other) {
+        return path.compareTo(check(other).path);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof RadosPath && ((RadosPath) other).fs == fs && ((RadosPath) other).path.equals(path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
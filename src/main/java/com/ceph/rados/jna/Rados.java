@@ -23,6 +23,7 @@ import java.nio.ByteBuffer;
 import com.ceph.rados.jna.RadosClusterInfo;
 import com.ceph.rados.jna.RadosPoolInfo;
 
+import com.sun.jna.Callback;
 import com.sun.jna.Library;
 import com.sun.jna.Native;
 import com.sun.jna.ptr.IntByReference;
@@ -34,6 +35,10 @@ public interface Rados extends Library {
 
     Rados INSTANCE = (Rados) Native.loadLibrary("rados", Rados.class);
 
+    interface rados_callback_t extends Callback {
+        void callback(Pointer completion, Pointer arg);
+    }
+
     void rados_version(IntByReference major, IntByReference minor, IntByReference extra);
     int rados_create(PointerByReference cluster, String id);
     int rados_create2(PointerByReference cluster, String clustername, String name, long flags);
@@ -54,21 +59,37 @@ public interface Rados extends Library {
     int rados_ioctx_pool_stat(Pointer ioctx, RadosPoolInfo result);
     long rados_get_instance_id(Pointer cluster);
     int rados_ioctx_create(Pointer cluster, String pool, Pointer ioctx);
+    int rados_ioctx_create2(Pointer cluster, long pool_id, Pointer ioctx);
+    Pointer rados_ioctx_get_cluster(Pointer ioctx);
     void rados_ioctx_destroy(Pointer ioctx);
     long rados_ioctx_get_id(Pointer ioctx);
     int rados_ioctx_pool_set_auid(Pointer ioctx, long auid);
     int rados_ioctx_pool_get_auid(Pointer ioctx, LongByReference auid);
+    int rados_ioctx_pool_requires_alignment2(Pointer ioctx, IntByReference requires);
+    int rados_ioctx_pool_required_alignment2(Pointer ioctx, LongByReference alignment);
     int rados_ioctx_get_pool_name(Pointer ioctx, byte[] buf, int len);
     void rados_ioctx_locator_set_key(Pointer ioctx, String key);
+    void rados_ioctx_set_namespace(Pointer ioctx, String nspace);
+    int rados_ioctx_get_namespace(Pointer ioctx, byte[] buf, int maxlen);
     int rados_ioctx_snap_create(Pointer ioctx, String snapname);
     int rados_ioctx_snap_remove(Pointer ioctx, String snapname);
     int rados_ioctx_snap_lookup(Pointer ioctx, String snapname, LongByReference id);
     int rados_ioctx_snap_get_name(Pointer ioctx, long id, byte[] buf, long len);
     int rados_ioctx_snap_get_stamp(Pointer ioctx, long id, LongByReference time);
-    int rados_ioctx_snap_list(Pointer ioctx, byte[] buf, int len);
+    int rados_ioctx_snap_list(Pointer ioctx, long[] snaps, int maxlen);
+    void rados_ioctx_snap_set_read(Pointer ioctx, long snap);
+    int rados_ioctx_selfmanaged_snap_create(Pointer ioctx, LongByReference snapid);
+    int rados_ioctx_selfmanaged_snap_remove(Pointer ioctx, long snapid);
+    int rados_ioctx_selfmanaged_snap_rollback(Pointer ioctx, String oid, long snapid);
+    int rados_ioctx_selfmanaged_snap_set_write_ctx(Pointer ioctx, long seq, long[] snaps, int num_snaps);
     int rados_objects_list_open(Pointer ioctx, Pointer list);
     int rados_objects_list_next(Pointer list, Pointer entry, byte[] key);
     void rados_objects_list_close(Pointer list);
+    int rados_nobjects_list_open(Pointer ioctx, PointerByReference list);
+    int rados_nobjects_list_next(Pointer list, PointerByReference entry, PointerByReference key, PointerByReference nspace);
+    void rados_nobjects_list_close(Pointer list);
+    int rados_nobjects_list_seek(Pointer list, int pos);
+    int rados_nobjects_list_get_pg_hash_position(Pointer list);
     int rados_write(Pointer ioctx, String oid, byte[] buf, int len, long off);
     int rados_write_full(Pointer ioctx, String oid, byte[] buf, int len);
     int rados_append(Pointer ioctx, String oid, byte[] buf, int len);
@@ -80,11 +101,100 @@ public interface Rados extends Library {
     Pointer rados_create_read_op();
     void rados_release_read_op(Pointer read_op);
     void rados_read_op_read(Pointer read_op, long offset, long len, ByteBuffer direct_buffer, LongByReference bytes_read, IntByReference prval);
+    void rados_read_op_stat(Pointer read_op, LongByReference psize, LongByReference pmtime, IntByReference prval);
+    void rados_read_op_getxattrs(Pointer read_op, PointerByReference iter, IntByReference prval);
+    void rados_read_op_omap_get_vals(Pointer read_op, String start_after, String filter_prefix, long max_return, PointerByReference iter, IntByReference prval);
+    void rados_read_op_omap_get_keys(Pointer read_op, String start_after, long max_return, PointerByReference iter, IntByReference prval);
+    void rados_read_op_omap_get_vals_by_keys(Pointer read_op, String[] keys, long keys_len, PointerByReference iter, IntByReference prval);
+    void rados_read_op_cmpxattr(Pointer read_op, String name, byte comparison_operator, byte[] value, long value_len);
+    void rados_read_op_assert_exists(Pointer read_op);
+    void rados_read_op_assert_version(Pointer read_op, long ver);
+    void rados_read_op_checksum(Pointer read_op, int type, byte[] init_value, long init_value_len, long offset, long len, long chunk_size, Pointer pchecksum, long checksum_len, IntByReference prval);
+    void rados_read_op_cmpext(Pointer read_op, byte[] cmp_buf, long cmp_len, long off, IntByReference prval);
     int rados_read_op_operate(Pointer read_op, Pointer ioctx, String oid, int flags);
+    Pointer rados_create_write_op();
+    void rados_release_write_op(Pointer write_op);
+    void rados_write_op_assert_exists(Pointer write_op);
+    void rados_write_op_assert_version(Pointer write_op, long ver);
+    void rados_write_op_cmpext(Pointer write_op, byte[] cmp_buf, long cmp_len, long off, IntByReference prval);
+    void rados_write_op_cmpxattr(Pointer write_op, String name, byte comparison_operator, byte[] value, long value_len);
+    void rados_write_op_create(Pointer write_op, int exclusive, String category);
+    void rados_write_op_write(Pointer write_op, byte[] buffer, long len, long offset);
+    void rados_write_op_write_full(Pointer write_op, byte[] buffer, long len);
+    void rados_write_op_append(Pointer write_op, byte[] buffer, long len);
+    void rados_write_op_remove(Pointer write_op);
+    void rados_write_op_truncate(Pointer write_op, long offset);
+    void rados_write_op_setxattr(Pointer write_op, String name, byte[] value, long value_len);
+    void rados_write_op_rmxattr(Pointer write_op, String name);
+    void rados_write_op_omap_set(Pointer write_op, String[] keys, Pointer[] vals, long[] lens, long num);
+    void rados_write_op_omap_rm_keys(Pointer write_op, String[] keys, long keys_len);
+    void rados_write_op_omap_cmp(Pointer write_op, String key, byte comparison_operator, byte[] val, long val_len, IntByReference prval);
+    int rados_write_op_operate(Pointer write_op, Pointer ioctx, String oid, Pointer mtime, int flags);
+    long rados_get_last_version(Pointer ioctx);
+    int rados_omap_get_next(Pointer iter, PointerByReference key, PointerByReference val, LongByReference len);
+    void rados_omap_get_end(Pointer iter);
     int rados_shutdown(Pointer cluster);
 
     //	read, write, remove extended attributes
     int rados_getxattr(Pointer ioctx, String oid, String xattrName, byte[] buf, long len);
     int rados_setxattr(Pointer ioctx, String oid, String xattrName, byte[] buf, long len);
     int rados_rmxattr(Pointer ioctx, String oid, String xattrName);
+    int rados_getxattr(Pointer ioctx, String oid, String xattrName, Pointer buf, long len);
+    int rados_setxattr(Pointer ioctx, String oid, String xattrName, Pointer buf, long len);
+    int rados_getxattrs(Pointer ioctx, String oid, PointerByReference iter);
+    int rados_getxattrs_next(Pointer iter, PointerByReference name, PointerByReference val, LongByReference len);
+    void rados_getxattrs_end(Pointer iter);
+
+    //	monitor, OSD and PG commands
+    int rados_mon_command(Pointer cluster, String[] cmd, long cmdlen, byte[] inbuf, long inbuflen,
+                          PointerByReference outbuf, LongByReference outbuflen, PointerByReference outs, LongByReference outslen);
+    int rados_osd_command(Pointer cluster, int osdid, String[] cmd, long cmdlen, byte[] inbuf, long inbuflen,
+                          PointerByReference outbuf, LongByReference outbuflen, PointerByReference outs, LongByReference outslen);
+    int rados_pg_command(Pointer cluster, String pgstr, String[] cmd, long cmdlen, byte[] inbuf, long inbuflen,
+                         PointerByReference outbuf, LongByReference outbuflen, PointerByReference outs, LongByReference outslen);
+    void rados_buffer_free(Pointer buf);
+
+    //	advisory locks
+    int rados_lock_exclusive(Pointer ioctx, String oid, String name, String cookie, String desc, TimeVal duration, byte flags);
+    int rados_lock_shared(Pointer ioctx, String oid, String name, String cookie, String tag, String desc, TimeVal duration, byte flags);
+    int rados_unlock(Pointer ioctx, String oid, String name, String cookie);
+    int rados_break_lock(Pointer ioctx, String oid, String name, String client, String cookie);
+    int rados_list_lockers(Pointer ioctx, String oid, String name, IntByReference exclusive, byte[] tag, LongByReference tag_len,
+                           byte[] clients, LongByReference clients_len, byte[] cookies, LongByReference cookies_len,
+                           byte[] addrs, LongByReference addrs_len);
+
+    //	asynchronous I/O
+    int rados_aio_create_completion(Pointer cb_arg, rados_callback_t cb_complete, rados_callback_t cb_safe, PointerByReference pc);
+    void rados_aio_release(Pointer c);
+    int rados_aio_wait_for_complete(Pointer c);
+    int rados_aio_is_complete(Pointer c);
+    int rados_aio_get_return_value(Pointer c);
+    long rados_aio_get_version(Pointer c);
+    int rados_aio_write(Pointer ioctx, String oid, Pointer completion, Pointer buf, long len, long off);
+    int rados_aio_write_full(Pointer ioctx, String oid, Pointer completion, Pointer buf, long len);
+    int rados_aio_append(Pointer ioctx, String oid, Pointer completion, Pointer buf, long len);
+    int rados_aio_read(Pointer ioctx, String oid, Pointer completion, Pointer buf, long len, long off);
+    int rados_aio_remove(Pointer ioctx, String oid, Pointer completion);
+    int rados_aio_flush(Pointer ioctx);
+    int rados_aio_cancel(Pointer ioctx, Pointer completion);
+    int rados_aio_read_op_operate(Pointer read_op, Pointer ioctx, Pointer completion, String oid, int flags);
+    int rados_aio_write_op_operate(Pointer write_op, Pointer ioctx, Pointer completion, String oid, Pointer mtime, int flags);
+
+    //	overloads taking a pre-encoded object name
+    int rados_write(Pointer ioctx, Pointer oid, byte[] buf, int len, long off);
+    int rados_write_full(Pointer ioctx, Pointer oid, byte[] buf, int len);
+    int rados_append(Pointer ioctx, Pointer oid, byte[] buf, int len);
+    int rados_read(Pointer ioctx, Pointer oid, byte[] buf, int len, long off);
+    int rados_remove(Pointer ioctx, Pointer oid);
+    int rados_stat(Pointer ioctx, Pointer oid, LongByReference size, LongByReference mtime);
+    int rados_getxattr(Pointer ioctx, Pointer oid, String xattrName, byte[] buf, long len);
+    int rados_read_op_operate(Pointer read_op, Pointer ioctx, Pointer oid, int flags);
+    int rados_aio_write(Pointer ioctx, Pointer oid, Pointer completion, Pointer buf, long len, long off);
+    int rados_aio_write_full(Pointer ioctx, Pointer oid, Pointer completion, Pointer buf, long len);
+    int rados_aio_append(Pointer ioctx, Pointer oid, Pointer completion, Pointer buf, long len);
+    int rados_aio_read(Pointer ioctx, Pointer oid, Pointer completion, Pointer buf, long len, long off);
+    int rados_aio_remove(Pointer ioctx, Pointer oid, Pointer completion);
+    int rados_aio_read_op_operate(Pointer read_op, Pointer ioctx, Pointer completion, Pointer oid, int flags);
+    int rados_write_op_operate(Pointer write_op, Pointer ioctx, Pointer oid, Pointer mtime, int flags);
+    int rados_aio_write_op_operate(Pointer write_op, Pointer ioctx, Pointer completion, Pointer oid, Pointer mtime, int flags);
 }
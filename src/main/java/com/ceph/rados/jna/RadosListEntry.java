@@ -0,0 +1,59 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados.jna;
+
+public class RadosListEntry {
+
+    private String namespace;
+    private String oid;
+    private String locator;
+
+    public RadosListEntry(String namespace, String oid, String locator) {
+        this.namespace = namespace;
+        this.oid = oid;
+        this.locator = locator;
+    }
+
+    /**
+     * Returns the namespace, empty for the default namespace
+     * @return String
+     */
+    public String getNamespace() {
+        return this.namespace;
+    }
+
+    /**
+     * Return the object name
+     * @return String
+     */
+    public String getOid() {
+        return this.oid;
+    }
+
+    /**
+     * Returns the locator key
+     * @return String or null if the object has no locator key
+     */
+    public String getLocator() {
+        return this.locator;
+    }
+
+    @Override
+    public String toString() {
+        return this.namespace + "/" + this.oid + (this.locator == null ? "" : "@" + this.locator);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados.jna;
+
+import java.util.List;
+
+public class RadosLockInfo {
+
+    public static class Locker {
+        private String client;
+        private String cookie;
+        private String address;
+
+        public Locker(String client, String cookie, String address) {
+            this.client = client;
+            this.cookie = cookie;
+            this.address = address;
+        }
+
+        /**
+         * Returns the name of the client holding the lock, e.g. client.4123
+         * @return String
+         */
+        public String getClient() {
+            return this.client;
+        }
+
+        /**
+         * Returns the cookie the lock was taken with
+         * @return String
+         */
+        public String getCookie() {
+            return this.cookie;
+        }
+
+        /**
+         * Returns the address of the client
+         * @return String
+         */
+        public String getAddress() {
+            return this.address;
+        }
+    }
+
+    private boolean exclusive;
+    private String tag;
+    private List<Locker> lockers;
+
+    public RadosLockInfo(boolean exclusive, String tag, List<Locker> lockers) {
+        this.exclusive = exclusive;
+        this.tag = tag;
+        this.lockers = lockers;
+    }
+
+    /**
+     * Returns whether the lock is held exclusively
+     * @return boolean
+     */
+    public boolean isExclusive() {
+        return this.exclusive;
+    }
+
+    /**
+     * Returns the tag of a shared lock
+     * @return String
+     */
+    public String getTag() {
+        return this.tag;
+    }
+
+    /**
+     * Returns the current holders of the lock
+     * @return List
+     */
+    public List<Locker> getLockers() {
+        return this.lockers;
+    }
+}
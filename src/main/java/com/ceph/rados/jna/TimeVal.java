@@ -0,0 +1,38 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rados.jna;
+
+import com.sun.jna.Structure;
+import java.util.List;
+import java.util.Arrays;
+
+public class TimeVal extends Structure {
+    public long tv_sec;
+    public long tv_usec;
+
+    public TimeVal() {
+    }
+
+    public TimeVal(long millis) {
+        this.tv_sec = millis / 1000;
+        this.tv_usec = (millis % 1000) * 1000;
+    }
+
+    protected List getFieldOrder() {
+        return Arrays.asList("tv_sec", "tv_usec");
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * RADOS Java - Java bindings for librados and librbd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rbd;
+
+import com.ceph.rbd.jna.Rbd;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.PointerByReference;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.ceph.rbd.Library.rbd;
+
+/**
+ * Lifecycle of a native rbd_completion_t.
+ *
+ * All completions share a single native callback. The handler of every
+ * completion in flight is kept reachable here, together with the native
+ * buffers it references, until librbd reports the operation as complete.
+ */
+final class RbdCompletion {
+
+    /**
+     * Invoked on a librbd thread with the return value of the operation.
+     */
+    interface Handler {
+        void onComplete(long returnValue);
+    }
+
+    private static final ConcurrentMap<Long, Handler> pending = new ConcurrentHashMap<Long, Handler>();
+
+    private static final Rbd.rbd_callback_t onComplete = new Rbd.rbd_callback_t() {
+        @Override
+        public void callback(Pointer completion, Pointer arg) {
+            final Handler handler = pending.remove(Pointer.nativeValue(completion));
+            final long returnValue = rbd.rbd_aio_get_return_value(completion);
+            rbd.rbd_aio_release(completion);
+            if (handler != null) {
+                handler.onComplete(returnValue);
+            }
+        }
+    };
+
+    private RbdCompletion() {}
+
+    /**
+     * Create a native completion which invokes the handler when complete
+     *
+     * @param handler the handler to invoke
+     * @return the rbd_completion_t to pass to a rbd_aio_* call
+     * @throws RbdException
+     */
+    static Pointer create(Handler handler) throws RbdException {
+        final PointerByReference completion = new PointerByReference();
+        final int r = rbd.rbd_aio_create_completion(null, onComplete, completion);
+        if (r < 0) {
+            throw new RbdException("Failed to create an aio completion", r);
+        }
+        pending.put(Pointer.nativeValue(completion.getValue()), handler);
+        return completion.getValue();
+    }
+
+    /**
+     * Release a completion whose operation could not be submitted
+     *
+     * @param completion the rbd_completion_t returned by create()
+     */
+    static void abort(Pointer completion) {
+        pending.remove(Pointer.nativeValue(completion));
+        rbd.rbd_aio_release(completion);
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+
+package com.ceph.rbd;
+
+import static com.ceph.rbd.Library.rbd;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileLock;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An AsynchronousFileChannel on an RBD image.
+ *
+ * Every read and write is a single rbd_aio_read or rbd_aio_write, with its
+ * own native buffer or, for a single direct buffer, the memory of the
+ * buffer itself. Operations share no state besides the last known size of
+ * the image, so any number of threads can issue positional operations
+ * concurrently without locking. Scattering reads and gathering writes
+ * transfer a range of the image into or from several buffers with a single
+ * operation.
+ *
+ * force() is rbd_aio_flush, size() is rbd_stat and truncate() shrinks the
+ * image with rbd_resize. Reads end at the size of the image; writes beyond
+ * it fail, the image has to be resized first.
+ *
+ * Completion handlers run on the executor given to the constructor, or
+ * without one on the librbd completion thread, where they must not block.
+ * The image is not closed together with the channel, and operations in
+ * flight when the channel is closed still complete.
+ */
+public class RbdFileChannel extends AsynchronousFileChannel {
+
+    private final RbdImage image;
+    private final Executor executor;
+    private volatile boolean open = true;
+    private volatile long size;
+
+    /**
+     * Create a channel whose handlers run on the librbd completion thread
+     *
+     * @param image
+     *         The open image
+     * @throws RbdException
+     */
+    public RbdFileChannel(RbdImage image) throws RbdException {
+        this(image, null);
+    }
+
+    /**
+     * Create a channel
+     *
+     * @param image
+     *         The open image
+     * @param executor
+     *         The executor running the completion handlers, null for the librbd completion thread
+     * @throws RbdException
+     */
+    public RbdFileChannel(RbdImage image, Executor executor) throws RbdException {
+        this.image = image;
+        this.executor = executor;
+        this.size = image.stat().size;
+    }
+
+    /**
+     * Receives the outcome of an operation on the librbd completion thread
+     */
+    private interface Done {
+        void completed(long bytes);
+        void failed(Throwable exc);
+    }
+
+    private <V, A> void dispatch(final CompletionHandler<V, ? super A> handler, final A attachment,
+                                 final V result, final Throwable exc) {
+        final Runnable run = new Runnable() {
+            @Override
+            public void run() {
+                if (exc == null) {
+                    handler.completed(result, attachment);
+                } else {
+                    handler.failed(exc, attachment);
+                }
+            }
+        };
+        if (executor == null) {
+            run.run();
+            return;
+        }
+        try {
+            executor.execute(run);
+        } catch (RejectedExecutionException e) {
+            run.run();
+        }
+    }
+
+    private static IOException error(String message, long returnValue) {
+        return new IOException(message, new RbdException(message, (int) returnValue));
+    }
+
+    /**
+     * Submit a read into or a write from the buffers at a position
+     */
+    private void submit(final boolean write, final ByteBuffer[] buffers, final long position, final Done done) {
+        if (position < 0) {
+            throw new IllegalArgumentException("The position should not be negative");
+        }
+        if (!write) {
+            for (ByteBuffer buffer : buffers) {
+                if (buffer.isReadOnly()) {
+                    throw new IllegalArgumentException("Read-only buffer");
+                }
+            }
+        }
+        if (!open) {
+            done.failed(new ClosedChannelException());
+            return;
+        }
+        long total = 0;
+        for (ByteBuffer buffer : buffers) {
+            total += buffer.remaining();
+        }
+        if (!write) {
+            if (position >= size) {
+                // the image may have grown since
+                try {
+                    size = image.stat().size;
+                } catch (RbdException e) {
+                    done.failed(new IOException(e.getMessage(), e));
+                    return;
+                }
+                if (position >= size) {
+                    done.completed(-1);
+                    return;
+                }
+            }
+            total = Math.min(total, size - position);
+        }
+        if (total == 0) {
+            done.completed(0);
+            return;
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("At most " + Integer.MAX_VALUE + " bytes can be transferred at once");
+        }
+        final int length = (int) total;
+
+        final boolean direct = buffers.length == 1 && buffers[0].isDirect();
+        final Pointer buf;
+        if (direct) {
+            buf = Native.getDirectBufferPointer(buffers[0]).share(buffers[0].position());
+        } else {
+            final Memory mem = new Memory(length);
+            if (write) {
+                long offset = 0;
+                for (ByteBuffer buffer : buffers) {
+                    final ByteBuffer src = buffer.duplicate();
+                    mem.getByteBuffer(offset, src.remaining()).put(src);
+                    offset += buffer.remaining();
+                }
+            }
+            buf = mem;
+        }
+
+        final RbdCompletion.Handler handler = new RbdCompletion.Handler() {
+            // the buffers and the native memory stay reachable until librbd is done with them
+            private final ByteBuffer[] keep = buffers;
+            private final Pointer memory = buf;
+
+            @Override
+            public void onComplete(long returnValue) {
+                if (returnValue < 0) {
+                    done.failed(error("Failed to " + (write ? "write " : "read ") + length
+                                      + " bytes at offset " + position, returnValue));
+                    return;
+                }
+                // writes report 0 on success
+                final int n = write ? length : (int) returnValue;
+                int offset = 0;
+                for (ByteBuffer buffer : keep) {
+                    final int k = Math.min(buffer.remaining(), n - offset);
+                    if (!write && !direct) {
+                        buffer.put(memory.getByteBuffer(offset, k));
+                    } else {
+                        buffer.position(buffer.position() + k);
+                    }
+                    offset += k;
+                }
+                done.completed(n);
+            }
+        };
+        final Pointer completion;
+        try {
+            completion = RbdCompletion.create(handler);
+        } catch (RbdException e) {
+            done.failed(new IOException(e.getMessage(), e));
+            return;
+        }
+        final int r = write
+                ? rbd.rbd_aio_write(image.getPointer(), position, length, buf, completion)
+                : rbd.rbd_aio_read(image.getPointer(), position, length, buf, completion);
+        if (r < 0) {
+            RbdCompletion.abort(completion);
+            done.failed(error("Failed to submit the " + (write ? "write" : "read") + " at offset " + position, r));
+        }
+    }
+
+    private <A> void submitInt(boolean write, ByteBuffer[] buffers, long position, final A attachment,
+                               final CompletionHandler<Integer, ? super A> handler) {
+        submit(write, buffers, position, new Done() {
+            @Override
+            public void completed(long bytes) {
+                dispatch(handler, attachment, (int) bytes, null);
+            }
+
+            @Override
+            public void failed(Throwable exc) {
+                dispatch(handler, attachment, null, exc);
+            }
+        });
+    }
+
+    private <A> void submitLong(boolean write, ByteBuffer[] buffers, long position, final A attachment,
+                                final CompletionHandler<Long, ? super A> handler) {
+        submit(write, buffers, position, new Done() {
+            @Override
+            public void completed(long bytes) {
+                dispatch(handler, attachment, bytes, null);
+            }
+
+            @Override
+            public void failed(Throwable exc) {
+                dispatch(handler, attachment, null, exc);
+            }
+        });
+    }
+
+    @Override
+    public <A> void read(ByteBuffer dst, long position, A attachment,
+                         CompletionHandler<Integer, ? super A> handler) {
+        submitInt(false, new ByteBuffer[]{dst}, position, attachment, handler);
+    }
+
+    @Override
+    public Future<Integer> read(ByteBuffer dst, long position) {
+        final IoFuture<Integer> future = new IoFuture<Integer>();
+        submitInt(false, new ByteBuffer[]{dst}, position, null, future);
+        return future;
+    }
+
+    @Override
+    public <A> void write(ByteBuffer src, long position, A attachment,
+                          CompletionHandler<Integer, ? super A> handler) {
+        submitInt(true, new ByteBuffer[]{src}, position, attachment, handler);
+    }
+
+    @Override
+    public Future<Integer> write(ByteBuffer src, long position) {
+        final IoFuture<Integer> future = new IoFuture<Integer>();
+        submitInt(true, new ByteBuffer[]{src}, position, null, future);
+        return future;
+    }
+
+    /**
+     * Read a range of the image into a sequence of buffers with a single operation
+     *
+     * @param dsts
+     *         The buffers, filled in order
+     * @param position
+     *         The offset in the image where to start reading
+     * @param attachment
+     *         The object passed to the handler
+     * @param handler
+     *         Receives the number of bytes read, -1 at the end of the image
+     */
+    public <A> void read(ByteBuffer[] dsts, long position, A attachment, CompletionHandler<Long, ? super A> handler) {
+        submitLong(false, dsts.clone(), position, attachment, handler);
+    }
+
+    /**
+     * Read a range of the image into a sequence of buffers with a single operation
+     *
+     * @param dsts
+     *         The buffers, filled in order
+     * @param position
+     *         The offset in the image where to start reading
+     * @return Future with the number of bytes read, -1 at the end of the image
+     */
+    public Future<Long> read(ByteBuffer[] dsts, long position) {
+        final IoFuture<Long> future = new IoFuture<Long>();
+        submitLong(false, dsts.clone(), position, null, future);
+        return future;
+    }
+
+    /**
+     * Write a sequence of buffers to a range of the image with a single operation
+     *
+     * @param srcs
+     *         The buffers, written in order
+     * @param position
+     *         The offset in the image where to start writing
+     * @param attachment
+     *         The object passed to the handler
+     * @param handler
+     *         Receives the number of bytes written
+     */
+    public <A> void write(ByteBuffer[] srcs, long position, A attachment, CompletionHandler<Long, ? super A> handler) {
+        submitLong(true, srcs.clone(), position, attachment, handler);
+    }
+
+    /**
+     * Write a sequence of buffers to a range of the image with a single operation
+     *
+     * @param srcs
+     *         The buffers, written in order
+     * @param position
+     *         The offset in the image where to start writing
+     * @return Future with the number of bytes written
+     */
+    public Future<Long> write(ByteBuffer[] srcs, long position) {
+        final IoFuture<Long> future = new IoFuture<Long>();
+        submitLong(true, srcs.clone(), position, null, future);
+        return future;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        try {
+            size = image.stat().size;
+        } catch (RbdException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return size;
+    }
+
+    /**
+     * Shrink the image, a larger size leaves it as it is
+     */
+    @Override
+    public AsynchronousFileChannel truncate(long newSize) throws IOException {
+        if (newSize < 0) {
+            throw new IllegalArgumentException("The size should not be negative");
+        }
+        if (newSize < size()) {
+            try {
+                image.resize(newSize);
+            } catch (RbdException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            size = newSize;
+        }
+        return this;
+    }
+
+    /**
+     * Flush the writes of the image with rbd_aio_flush
+     */
+    @Override
+    public void force(boolean metaData) throws IOException {
+        ensureOpen();
+        final long r;
+        try {
+            r = image.awaitAio(null, new RbdImage.AioCall() {
+                @Override
+                public int submit(Pointer completion) {
+                    return rbd.rbd_aio_flush(image.getPointer(), completion);
+                }
+            });
+        } catch (RbdException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        if (r < 0) {
+            throw error("Failed to flush the RBD image", r);
+        }
+    }
+
+    @Override
+    public <A> void lock(long position, long size, boolean shared, A attachment,
+                         CompletionHandler<FileLock, ? super A> handler) {
+        throw new UnsupportedOperationException("RBD images cannot be locked by range");
+    }
+
+    @Override
+    public Future<FileLock> lock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException("RBD images cannot be locked by range");
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) {
+        throw new UnsupportedOperationException("RBD images cannot be locked by range");
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Close the channel, the image stays open
+     */
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    /**
+     * The result of an operation without a handler
+     */
+    private static final class IoFuture<V> implements Future<V>, CompletionHandler<V, Object> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile V result;
+        private volatile Throwable failure;
+
+        @Override
+        public void completed(V result, Object attachment) {
+            this.result = result;
+            done.countDown();
+        }
+
+        @Override
+        public void failed(Throwable exc, Object attachment) {
+            this.failure = exc;
+            done.countDown();
+        }
+
+        /**
+         * Operations in flight cannot be cancelled
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        private V get0() throws ExecutionException {
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return result;
+        }
+
+        @Override
+        public V get() throws InterruptedException, ExecutionException {
+            done.await();
+            return get0();
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return get0();
+        }
+    }
+}
@@ -18,6 +18,8 @@
 
 package com.ceph.rbd;
 
+import com.ceph.rados.ExecutionMode;
+import com.ceph.rados.exceptions.ErrorCode;
 import com.ceph.rbd.jna.RbdImageInfo;
 import com.ceph.rbd.jna.RbdSnapInfo;
 import com.sun.jna.Pointer;
@@ -29,6 +31,9 @@ import com.sun.jna.ptr.PointerByReference;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static com.ceph.rbd.Library.rbd;
 import com.sun.jna.NativeLong;
@@ -37,6 +42,8 @@ public class RbdImage {
 
     private Pointer image;
     private String name;
+    private volatile ExecutionMode executionMode = ExecutionMode.DIRECT;
+    private volatile long timeoutNanos;
 
     public RbdImage(Pointer image, String name) {
         this.image = image;
@@ -52,6 +59,58 @@ public class RbdImage {
         return this.name;
     }
 
+    /**
+     * Set how the blocking read and write calls wait for librbd
+     *
+     * @param mode
+     *         The execution mode
+     */
+    public void setExecutionMode(ExecutionMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("The execution mode shouldn't be null");
+        }
+        this.executionMode = mode;
+    }
+
+    /**
+     * Get how the blocking calls wait for librbd
+     *
+     * @return ExecutionMode
+     */
+    public ExecutionMode getExecutionMode() {
+        return this.executionMode;
+    }
+
+    /**
+     * Set the timeout of the blocking read and write calls
+     *
+     * With a timeout these calls are served by asynchronous operations. When
+     * the timeout passes they fail with ETIMEDOUT and the operation is
+     * abandoned; it still completes in the background, its result is dropped.
+     *
+     * @param timeout
+     *         The timeout, 0 to wait indefinitely
+     * @param unit
+     *         The unit of timeout
+     */
+    public void setOperationTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("The timeout shouldn't be negative");
+        }
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Get the timeout of the blocking calls
+     *
+     * @param unit
+     *         The unit of the result
+     * @return the timeout, 0 if calls wait indefinitely
+     */
+    public long getOperationTimeout(TimeUnit unit) {
+        return unit.convert(this.timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
     /**
      * Return the pointer to the RBD image
      *
@@ -230,14 +289,32 @@ public class RbdImage {
      *         The number of bytes to write
      * @throws RbdException
      */
-    public void write(byte[] data, long offset, int length) throws RbdException {
+    public void write(final byte[] data, final long offset, final int length) throws RbdException {
         if (length < 1) {
             throw new RbdException("There should be at least one byte to write");
         }
 
-        int r = rbd.rbd_write(this.getPointer(), offset, length, data);
+        long r;
+        final ExecutionMode mode = this.executionMode;
+        if (mode.isAio() || this.timeoutNanos > 0) {
+            final Memory buf = new Memory(length);
+            buf.write(0, data, 0, length);
+            r = awaitAio(buf, new AioCall() {
+                @Override
+                public int submit(Pointer completion) {
+                    return rbd.rbd_aio_write(getPointer(), offset, length, buf, completion);
+                }
+            });
+        } else {
+            r = callBlocking(mode, new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return rbd.rbd_write(getPointer(), offset, length, data);
+                }
+            });
+        }
         if (r < 0) {
-            throw new RbdException("Failed writing " + length + " bytes starting at offset " + offset, r);
+            throw new RbdException("Failed writing " + length + " bytes starting at offset " + offset, (int) r);
         }
     }
 
@@ -275,8 +352,105 @@ public class RbdImage {
      * @return int
      *          The amount of bytes read
      */
-    public int read(long offset, byte[] buffer, int length) {
-        return rbd.rbd_read(this.getPointer(), offset, length, buffer);
+    public int read(final long offset, final byte[] buffer, final int length) {
+        final ExecutionMode mode = this.executionMode;
+        try {
+            if (mode.isAio() || this.timeoutNanos > 0) {
+                if (length < 1) {
+                    return 0;
+                }
+                final Memory buf = new Memory(length);
+                final long r = awaitAio(buf, new AioCall() {
+                    @Override
+                    public int submit(Pointer completion) {
+                        return rbd.rbd_aio_read(getPointer(), offset, length, buf, completion);
+                    }
+                });
+                if (r > 0) {
+                    buf.read(0, buffer, 0, (int) r);
+                }
+                return (int) r;
+            }
+            return (int) callBlocking(mode, new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return rbd.rbd_read(getPointer(), offset, length, buffer);
+                }
+            });
+        } catch (RbdException e) {
+            return e.getReturnValue();
+        }
+    }
+
+    /**
+     * A rbd_aio_* call
+     */
+    interface AioCall {
+        int submit(Pointer completion);
+    }
+
+    /**
+     * Submit an asynchronous operation and wait for its completion
+     *
+     * The calling thread waits on a latch, so a virtual thread parks instead of
+     * pinning its carrier.
+     *
+     * @param buf the native buffer which has to stay valid until the operation completes
+     * @param call the operation to submit
+     * @return the return value of the operation, ETIMEDOUT if the operation
+     *         timeout passed before it completed
+     * @throws RbdException if interrupted while waiting
+     */
+    long awaitAio(Pointer buf, AioCall call) throws RbdException {
+        final long timeout = this.timeoutNanos;
+        final AioWaiter waiter = new AioWaiter(buf);
+        final Pointer completion = RbdCompletion.create(waiter);
+        final int r = call.submit(completion);
+        if (r < 0) {
+            RbdCompletion.abort(completion);
+            return r;
+        }
+        try {
+            if (timeout == 0) {
+                waiter.done.await();
+            } else if (!waiter.done.await(timeout, TimeUnit.NANOSECONDS)) {
+                // the waiter stays registered and keeps the buffer alive until librbd is done
+                return ErrorCode.ETIMEDOUT.getErrorCode();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RbdException("Interrupted while waiting for the RBD image", ErrorCode.EINTR.getErrorCode());
+        }
+        return waiter.returnValue;
+    }
+
+    private static final class AioWaiter implements RbdCompletion.Handler {
+        final CountDownLatch done = new CountDownLatch(1);
+        // keeps the native buffer reachable until librbd is done with it
+        final Pointer buf;
+        volatile long returnValue;
+
+        AioWaiter(Pointer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public void onComplete(long returnValue) {
+            this.returnValue = returnValue;
+            done.countDown();
+        }
+    }
+
+    private static long callBlocking(ExecutionMode mode, Callable<Integer> callable) throws RbdException {
+        try {
+            return mode.wrap(callable).call();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RbdException("Interrupted while waiting for the RBD image", ErrorCode.EINTR.getErrorCode());
+        } catch (Exception e) {
+            throw new RbdException("Unknown exception: " + e.getClass().getSimpleName() + ": " + e.getMessage(),
+                                   ErrorCode.EIO.getErrorCode());
+        }
     }
 
     /**
@@ -18,6 +18,7 @@
 
 package com.ceph.rbd.jna;
 
+import com.sun.jna.Callback;
 import com.sun.jna.Library;
 import com.sun.jna.Native;
 import com.sun.jna.Pointer;
@@ -29,6 +30,10 @@ public interface Rbd extends Library {
 
     Rbd INSTANCE = (Rbd) Native.loadLibrary("rbd", Rbd.class);
 
+    interface rbd_callback_t extends Callback {
+        void callback(Pointer completion, Pointer arg);
+    }
+
     void rbd_version(IntByReference major, IntByReference minor, IntByReference extra);
     int rbd_create(Pointer io, String name, long size, IntByReference order);
     int rbd_create2(Pointer io, String name, long size, long features, IntByReference order);
@@ -60,4 +65,12 @@ public interface Rbd extends Library {
     int rbd_flatten(Pointer image);
     int rbd_snap_set(Pointer image, String snapname);
     long rbd_list_children(Pointer image, byte[] pools, LongByReference pools_len, byte[] images, LongByReference images_len);
+
+    //	asynchronous I/O
+    int rbd_aio_create_completion(Pointer cb_arg, rbd_callback_t complete_cb, PointerByReference c);
+    void rbd_aio_release(Pointer c);
+    long rbd_aio_get_return_value(Pointer c);
+    int rbd_aio_write(Pointer image, long offset, long len, Pointer buf, Pointer c);
+    int rbd_aio_read(Pointer image, long offset, long len, Pointer buf, Pointer c);
+    int rbd_aio_flush(Pointer image, Pointer c);
 }
@@ -0,0 +1,33 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class AlignedAppenderTest {
+
+    @Test
+    public void testBufferSize() {
+        assertEquals(4 << 20, AlignedAppender.bufferSize(1));
+        assertEquals(4 << 20, AlignedAppender.bufferSize(4096));
+        // k=3 with a 4 KiB stripe unit
+        assertEquals(341 * 12288, AlignedAppender.bufferSize(12288));
+        assertEquals(16 << 20, AlignedAppender.bufferSize(16 << 20));
+    }
+}
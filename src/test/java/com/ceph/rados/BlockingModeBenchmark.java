@@ -0,0 +1,114 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the execution modes of IoCTX with many concurrent tasks.
+ *
+ * On Java 21 and later every task runs on its own virtual thread, on older
+ * runtimes a cached platform thread pool is used instead. This is not part of
+ * the unit tests, run it against a test cluster with e.g.:
+ *
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=com.ceph.rados.BlockingModeBenchmark -Dexec.args="10000 4096"
+ *
+ * The same environment variables as for TestRados are honored.
+ */
+public final class BlockingModeBenchmark {
+
+    private static String ENV_CONFIG_FILE = System.getenv("RADOS_JAVA_CONFIG_FILE");
+    private static String ENV_ID = System.getenv("RADOS_JAVA_ID");
+    private static String ENV_POOL = System.getenv("RADOS_JAVA_POOL");
+
+    private static final String CONFIG_FILE = ENV_CONFIG_FILE == null ? "/etc/ceph/ceph.conf" : ENV_CONFIG_FILE;
+    private static final String ID = ENV_ID == null ? "admin" : ENV_ID;
+    private static final String POOL = ENV_POOL == null ? "data" : ENV_POOL;
+
+    private BlockingModeBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        final int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        final int size = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+
+        Rados rados = new Rados(ID);
+        rados.confReadFile(new File(CONFIG_FILE));
+        rados.connect();
+        IoCTX ioctx = rados.ioCtxCreate(POOL);
+        try {
+            ExecutionMode offload = ExecutionMode.offload(64);
+            run(ioctx, ExecutionMode.DIRECT, tasks, size);
+            run(ioctx, ExecutionMode.AIO, tasks, size);
+            run(ioctx, offload, tasks, size);
+            offload.shutdown();
+
+            for (int i = 0; i < tasks; i++) {
+                ioctx.aioRemove("rados-java_bench_" + i);
+            }
+            ioctx.aioFlush();
+        } finally {
+            rados.ioCtxDestroy(ioctx);
+            rados.shutDown();
+        }
+    }
+
+    private static void run(final IoCTX ioctx, ExecutionMode mode, int tasks, int size) throws Exception {
+        ioctx.setExecutionMode(mode);
+        final byte[] data = new byte[size];
+        final CountDownLatch done = new CountDownLatch(tasks);
+        final AtomicLong failures = new AtomicLong();
+        final ExecutorService executor = newTaskExecutor();
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < tasks; i++) {
+            final String oid = "rados-java_bench_" + i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ioctx.writeFull(oid, data, data.length);
+                        ioctx.read(oid, data.length, 0, new byte[data.length]);
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        final long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        System.out.println(String.format("%-8s %d tasks, %d bytes: %.0f ops/s, %d failures", mode, tasks, size,
+                                         2.0 * tasks / (elapsed / 1e9), failures.get()));
+    }
+
+    private static ExecutorService newTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
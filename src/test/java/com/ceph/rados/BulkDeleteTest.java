@@ -0,0 +1,86 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class BulkDeleteTest {
+
+    @Test
+    public void testFilters() {
+        BulkDelete.Filter prefix = BulkDelete.prefix("tmp/");
+        assertTrue(prefix.accept("", "tmp/a"));
+        assertTrue(prefix.accept("ns", "tmp/"));
+        assertFalse(prefix.accept("", "data/tmp/a"));
+
+        BulkDelete.Filter regex = BulkDelete.regex("log-\\d+");
+        assertTrue(regex.accept("", "log-42"));
+        assertFalse(regex.accept("", "log-42.bak"));
+        assertFalse(regex.accept("", "old-log-42"));
+    }
+
+    @Test
+    public void testFileCheckpoint() throws Exception {
+        File file = File.createTempFile("rados-java", ".checkpoint");
+        try {
+            BulkDelete.FileCheckpoint checkpoint = new BulkDelete.FileCheckpoint(file);
+            checkpoint.completed(8, 3);
+            checkpoint.completed(8, 5);
+            checkpoint.completed(16, 7);
+
+            // a line torn by a crash
+            OutputStream out = new FileOutputStream(file, true);
+            out.write("8 6".getBytes("US-ASCII"));
+            out.close();
+
+            Set<Integer> pgs = new BulkDelete.FileCheckpoint(file).load(8);
+            assertEquals(2, pgs.size());
+            assertTrue(pgs.contains(3));
+            assertTrue(pgs.contains(5));
+            assertEquals(1, checkpoint.load(16).size());
+            assertTrue(checkpoint.load(32).isEmpty());
+        } finally {
+            file.delete();
+        }
+        assertTrue(new BulkDelete.FileCheckpoint(file).load(8).isEmpty());
+    }
+
+    @Test
+    public void testPacer() {
+        Pacer pacer = new Pacer(1000);
+        long interval = TimeUnit.MILLISECONDS.toNanos(1);
+        assertEquals(0, pacer.reserve(0, 1));
+        assertEquals(interval, pacer.reserve(0, 1));
+        assertEquals(2 * interval, pacer.reserve(0, 1));
+        assertEquals(interval, pacer.reserve(2 * interval, 1));
+
+        // idle time does not build up a burst
+        assertEquals(0, pacer.reserve(100 * interval, 1));
+        assertEquals(interval, pacer.reserve(100 * interval, 4));
+        assertEquals(5 * interval, pacer.reserve(100 * interval, 1));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class ChecksummedIoCTXTest {
+
+    @Test
+    public void testEncodeDecode() {
+        byte[] data = new byte[2500];
+        new Random(2).nextBytes(data);
+        ChecksummedIoCTX.Checksums sums = ChecksummedIoCTX.Checksums.compute(data, data.length, 1000);
+        assertEquals(3, sums.crcs.length);
+        assertEquals(Crc32c.compute(data, 2000, 500), sums.crcs[2]);
+
+        ChecksummedIoCTX.Checksums decoded = ChecksummedIoCTX.Checksums.decode(sums.encode());
+        assertEquals(1000, decoded.chunkSize);
+        assertEquals(2500, decoded.length);
+        assertTrue(Arrays.equals(sums.crcs, decoded.crcs));
+
+        assertEquals(0, ChecksummedIoCTX.Checksums.decode(
+                ChecksummedIoCTX.Checksums.compute(data, 0, 1000).encode()).crcs.length);
+        assertNull(ChecksummedIoCTX.Checksums.decode(new byte[5]));
+        assertNull(ChecksummedIoCTX.Checksums.decode(Arrays.copyOf(sums.encode(), 20)));
+    }
+
+    @Test
+    public void testVerify() {
+        byte[] data = new byte[2500];
+        new Random(3).nextBytes(data);
+        ChecksummedIoCTX.Checksums sums = ChecksummedIoCTX.Checksums.compute(data, data.length, 1000);
+        assertEquals(-1, sums.verify(data, 0, 0, data.length));
+        assertEquals(-1, sums.verify(Arrays.copyOfRange(data, 1000, 2500), 0, 1000, 1500));
+
+        data[2100] ^= 1;
+        assertEquals(-1, sums.verify(data, 0, 0, 2000));
+        assertEquals(2000, sums.verify(data, 0, 0, data.length));
+        assertEquals(2000, sums.verify(data, 1000, 1000, 1500));
+    }
+
+    /**
+     * The OSD checksums of an unaligned object come from one chunked sub-operation
+     * over the whole chunks and one over the tail
+     */
+    @Test
+    public void testCompareOsdUnaligned() {
+        byte[] data = new byte[10000];
+        new Random(4).nextBytes(data);
+        ChecksummedIoCTX.Checksums sums = ChecksummedIoCTX.Checksums.compute(data, data.length, 4096);
+        assertEquals(8192, sums.alignedLength());
+
+        long[] chunks = {osd(data, 0, 4096), osd(data, 4096, 4096)};
+        long tail = osd(data, 8192, 10000 - 8192);
+        assertEquals(-1, sums.compareOsd(chunks, tail));
+        assertEquals(2, sums.compareOsd(chunks, tail ^ 1));
+        assertEquals(1, sums.compareOsd(new long[]{chunks[0], chunks[1] ^ 1}, tail));
+        assertEquals(1, sums.compareOsd(new long[]{chunks[0]}, tail));
+
+        ChecksummedIoCTX.Checksums aligned = ChecksummedIoCTX.Checksums.compute(data, 8192, 4096);
+        assertEquals(8192, aligned.alignedLength());
+        assertEquals(-1, aligned.compareOsd(chunks, 0));
+    }
+
+    /**
+     * @return the checksum as computed by the OSD, seeded with -1 and without a final complement
+     */
+    private static long osd(byte[] data, int off, int len) {
+        return ~Crc32c.compute(data, off, len) & 0xffffffffL;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.ErrorCode;
+import com.ceph.rados.exceptions.RadosException;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class CompressedIoCTXTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    @Test
+    public void testDecode() throws Exception {
+        DeflateCodec codec = new DeflateCodec();
+        CompressedIoCTX compressed = new CompressedIoCTX(null, codec, 0);
+        byte[] data = new byte[4096];
+        byte[] stored = new byte[codec.maxCompressedLength(data.length)];
+        int n = codec.compress(data, data.length, stored);
+
+        byte[] meta = (codec.getName() + " " + data.length).getBytes(ASCII);
+        assertTrue(Arrays.equals(data, compressed.decode("oid", meta, stored, n)));
+        assertEquals(3, compressed.decode("oid", "raw 3".getBytes(ASCII), stored, 3).length);
+        assertEquals(3, compressed.decode("oid", null, stored, 3).length);
+    }
+
+    @Test
+    public void testDecodeRejectsInvalidLength() throws Exception {
+        DeflateCodec codec = new DeflateCodec();
+        CompressedIoCTX compressed = new CompressedIoCTX(null, codec, 0);
+        compressed.setMaxLength(1 << 20);
+        byte[] stored = new byte[16];
+
+        String[] invalid = {
+            codec.getName() + " -1",
+            codec.getName() + " " + ((1 << 20) + 1),
+            codec.getName() + " " + Long.MAX_VALUE,
+            codec.getName() + " 99999999999999999999",
+            codec.getName(),
+        };
+        for (String meta : invalid) {
+            try {
+                compressed.decode("oid", meta.getBytes(ASCII), stored, stored.length);
+                fail("The codec attribute '" + meta + "' should be rejected");
+            } catch (RadosException e) {
+                assertEquals(ErrorCode.EIO.getErrorCode(), e.getReturnValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class Crc32cTest {
+
+    @Test
+    public void testKnownValues() throws Exception {
+        assertEquals(0xe3069283L, Crc32c.compute("123456789".getBytes("US-ASCII"), 0, 9));
+        assertEquals(0L, Crc32c.compute(new byte[0], 0, 0));
+        // RFC 3720, B.4
+        assertEquals(0x8a9136aaL, Crc32c.compute(new byte[32], 0, 32));
+        byte[] ones = new byte[32];
+        java.util.Arrays.fill(ones, (byte) 0xff);
+        assertEquals(0x62a8ab43L, Crc32c.compute(ones, 0, 32));
+    }
+
+    @Test
+    public void testIncremental() {
+        byte[] data = new byte[1000];
+        new Random(11).nextBytes(data);
+        long expected = Crc32c.compute(data, 0, data.length);
+
+        Crc32c crc = new Crc32c();
+        crc.update(data, 0, 3);
+        crc.update(data, 3, 500);
+        for (int i = 503; i < 990; i++) {
+            crc.update(data[i]);
+        }
+        crc.update(data, 990, 10);
+        assertEquals(expected, crc.getValue());
+
+        crc.reset();
+        crc.update(data, 0, data.length);
+        assertEquals(expected, crc.getValue());
+    }
+
+    @Test
+    public void testFallbackMatchesJdk() {
+        byte[] data = new byte[4099];
+        new Random(13).nextBytes(data);
+        for (int len : new int[]{0, 1, 7, 8, 9, 100, 4099}) {
+            Crc32c fallback = new Crc32c(false);
+            fallback.update(data, 0, len);
+            assertEquals(Crc32c.compute(data, 0, len), fallback.getValue());
+        }
+        Crc32c fallback = new Crc32c(false);
+        fallback.update("123456789".getBytes(java.nio.charset.Charset.forName("US-ASCII")), 0, 9);
+        assertEquals(0xe3069283L, fallback.getValue());
+    }
+}
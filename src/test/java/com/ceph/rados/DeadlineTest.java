@@ -0,0 +1,57 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.RadosTimeoutException;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class DeadlineTest {
+
+    @Test
+    public void testRemaining() throws Exception {
+        Deadline deadline = Deadline.after(1, TimeUnit.HOURS);
+        assertFalse(deadline.isExpired());
+        assertTrue(deadline.remaining(TimeUnit.MINUTES) >= 59);
+
+        Deadline expired = Deadline.after(0, TimeUnit.SECONDS);
+        Thread.sleep(1);
+        assertTrue(expired.isExpired());
+        assertEquals(0, expired.remaining(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testAwaitDeadline() throws Exception {
+        RadosFuture<Integer> pending = new RadosFuture<Integer>();
+        long start = System.nanoTime();
+        try {
+            pending.await(Deadline.after(20, TimeUnit.MILLISECONDS));
+            fail("The future should not have completed");
+        } catch (RadosTimeoutException e) {
+            assertEquals(-110, e.getReturnValue());
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+
+        assertEquals(5, (int) RadosFuture.completed(5).await(Deadline.after(0, TimeUnit.SECONDS)));
+    }
+}
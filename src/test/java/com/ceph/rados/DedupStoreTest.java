@@ -0,0 +1,54 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class DedupStoreTest {
+
+    @Test
+    public void testManifestEncoding() {
+        final List<byte[]> hashes = new ArrayList<byte[]>();
+        hashes.add(DedupStore.sha256("a".getBytes()));
+        hashes.add(DedupStore.sha256("b".getBytes()));
+        final byte[] encoded = new DedupStore.Manifest(hashes, new int[]{1, 70000}).encode();
+
+        final DedupStore.Manifest decoded = DedupStore.Manifest.decode(encoded, encoded.length);
+        assertEquals(2, decoded.hashes.size());
+        assertTrue(Arrays.equals(hashes.get(1), decoded.hashes.get(1)));
+        assertEquals(70001, decoded.getSize());
+
+        assertNull(DedupStore.Manifest.decode(encoded, encoded.length - 1));
+        encoded[0] = 0;
+        assertNull(DedupStore.Manifest.decode(encoded, encoded.length));
+    }
+
+    @Test
+    public void testSha256() {
+        final byte[] hash = DedupStore.sha256("abc".getBytes());
+        assertEquals(0xba, hash[0] & 0xff);
+        assertEquals(0xad, hash[31] & 0xff);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class DeflateCodecTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        DeflateCodec codec = new DeflateCodec();
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            json.append("{\"id\":").append(i).append(",\"name\":\"object\",\"tags\":[\"a\",\"b\"]},");
+        }
+        byte[] data = json.toString().getBytes("UTF-8");
+        byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+        int n = codec.compress(data, data.length, compressed);
+        assertTrue(n * 5 < data.length);
+
+        // the pooled deflaters and inflaters give the same result again
+        for (int i = 0; i < 2; i++) {
+            byte[] again = new byte[compressed.length];
+            assertEquals(n, codec.compress(data, data.length, again));
+            byte[] result = new byte[data.length];
+            codec.decompress(again, n, result, result.length);
+            assertTrue(Arrays.equals(data, result));
+        }
+    }
+
+    @Test
+    public void testIncompressible() throws Exception {
+        DeflateCodec codec = new DeflateCodec(9);
+        byte[] data = new byte[100000];
+        new Random(1).nextBytes(data);
+        byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+        int n = codec.compress(data, data.length, compressed);
+        assertTrue(n <= compressed.length);
+        byte[] result = new byte[data.length];
+        codec.decompress(compressed, n, result, result.length);
+        assertTrue(Arrays.equals(data, result));
+
+        n = codec.compress(new byte[0], 0, compressed);
+        codec.decompress(compressed, n, new byte[0], 0);
+    }
+
+    @Test
+    public void testCorrupt() throws Exception {
+        DeflateCodec codec = new DeflateCodec();
+        byte[] data = new byte[4096];
+        byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+        int n = codec.compress(data, data.length, compressed);
+
+        try {
+            codec.decompress(compressed, n - 6, new byte[data.length], data.length);
+            fail("Truncated data should not decompress");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            codec.decompress(compressed, n, new byte[data.length - 1], data.length - 1);
+            fail("Data longer than expected should not decompress");
+        } catch (IOException e) {
+            // expected
+        }
+        compressed[n - 1] ^= 1;
+        try {
+            codec.decompress(compressed, n, new byte[data.length], data.length);
+            fail("A wrong checksum should be detected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
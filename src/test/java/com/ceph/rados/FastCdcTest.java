@@ -0,0 +1,82 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class FastCdcTest {
+
+    private static List<String> chunks(FastCdc cdc, byte[] data) {
+        final List<String> chunks = new ArrayList<String>();
+        for (int off = 0; off < data.length; ) {
+            final int len = cdc.cut(data, off, data.length - off);
+            chunks.add(Arrays.toString(Arrays.copyOfRange(data, off, off + len)));
+            off += len;
+        }
+        return chunks;
+    }
+
+    @Test
+    public void testChunkSizes() {
+        final FastCdc cdc = new FastCdc(1024, 4096, 16384);
+        final byte[] data = new byte[1 << 20];
+        new Random(11).nextBytes(data);
+        int off = 0;
+        int count = 0;
+        while (off < data.length) {
+            final int len = cdc.cut(data, off, data.length - off);
+            assertTrue(len <= 16384);
+            assertTrue(len >= 1024 || off + len == data.length);
+            off += len;
+            count++;
+        }
+        // close to the average size
+        assertTrue(count > data.length / 8192 && count < data.length / 2048);
+        assertEquals(16384, cdc.cut(new byte[20000], 0, 20000));
+        assertEquals(500, cdc.cut(data, 0, 500));
+    }
+
+    @Test
+    public void testBoundariesSurviveInsertion() {
+        final FastCdc cdc = new FastCdc(1024, 4096, 16384);
+        final byte[] data = new byte[256 << 10];
+        new Random(12).nextBytes(data);
+        final byte[] shifted = new byte[data.length + 100];
+        System.arraycopy(data, 0, shifted, 0, 5000);
+        System.arraycopy(data, 5000, shifted, 5100, data.length - 5000);
+
+        final List<String> before = chunks(cdc, data);
+        final Set<String> after = new HashSet<String>(chunks(cdc, shifted));
+        int shared = 0;
+        for (String chunk : before) {
+            if (after.contains(chunk)) {
+                shared++;
+            }
+        }
+        assertTrue(shared >= before.size() - 3);
+    }
+}
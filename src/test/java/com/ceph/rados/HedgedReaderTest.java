@@ -0,0 +1,47 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class HedgedReaderTest {
+
+    @Test
+    public void testDelayFollowsPercentile() {
+        HedgedReader reader = new HedgedReader(null, 0.9, 1, 50, TimeUnit.MILLISECONDS);
+        try {
+            assertEquals(50000, reader.getHedgeDelayMicros());
+            for (int i = 1; i <= 64; i++) {
+                reader.recordLatency(i * 100);
+            }
+            // the 58th of 64 latencies
+            assertEquals(5800, reader.getHedgeDelayMicros());
+
+            for (int i = 0; i < 1024; i++) {
+                reader.recordLatency(10);
+            }
+            // clamped to the minimum delay
+            assertEquals(1000, reader.getHedgeDelayMicros());
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import com.ceph.rados.JsonStreamReader.Token;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class JsonStreamReaderTest {
+
+    private static JsonStreamReader reader(String json) {
+        return new JsonStreamReader(ByteBuffer.wrap(json.getBytes(Charset.forName("UTF-8"))));
+    }
+
+    @Test
+    public void testNestedDocument() {
+        JsonStreamReader r = reader("{\"epoch\": 42, \"osds\": [{\"osd\": 0, \"up\": true}, {\"osd\": 1, \"up\": false}],"
+                                    + " \"ratio\": -0.5e1, \"name\": null}");
+        assertEquals(Token.BEGIN_OBJECT, r.next());
+        assertEquals(Token.NAME, r.next());
+        assertTrue(r.nameEquals("epoch"));
+        assertEquals(Token.NUMBER, r.next());
+        assertEquals(42, r.getLong());
+
+        assertEquals(Token.NAME, r.next());
+        assertEquals("osds", r.getString());
+        assertEquals(Token.BEGIN_ARRAY, r.next());
+        for (int i = 0; i < 2; i++) {
+            assertEquals(Token.BEGIN_OBJECT, r.next());
+            assertEquals(3, r.getDepth());
+            assertEquals(Token.NAME, r.next());
+            assertEquals(Token.NUMBER, r.next());
+            assertEquals(i, r.getLong());
+            assertEquals(Token.NAME, r.next());
+            assertEquals(Token.BOOLEAN, r.next());
+            assertEquals(i == 0, r.getBoolean());
+            assertEquals(Token.END_OBJECT, r.next());
+        }
+        assertEquals(Token.END_ARRAY, r.next());
+
+        assertEquals(Token.NAME, r.next());
+        assertEquals(Token.NUMBER, r.next());
+        assertEquals(-5.0, r.getDouble(), 0.0);
+        assertEquals(-5, r.getLong());
+        assertEquals(Token.NAME, r.next());
+        assertEquals(Token.NULL, r.next());
+        assertEquals(Token.END_OBJECT, r.next());
+        assertEquals(Token.END_DOCUMENT, r.next());
+    }
+
+    @Test
+    public void testStringValuesAreNotNames() {
+        JsonStreamReader r = reader("{\"a\": \"b\", \"c\": [\"d\"]}");
+        r.next();
+        assertEquals(Token.NAME, r.next());
+        assertEquals(Token.STRING, r.next());
+        assertTrue(r.nameEquals("b"));
+        assertFalse(r.nameEquals("bb"));
+        assertEquals(Token.NAME, r.next());
+        assertEquals(Token.BEGIN_ARRAY, r.next());
+        assertEquals(Token.STRING, r.next());
+        assertEquals("d", r.getString());
+    }
+
+    @Test
+    public void testEscapes() {
+        JsonStreamReader r = reader("[\"a\\\"b\\\\c\\n\\u00e9\\ud83d\\ude00\"]");
+        r.next();
+        assertEquals(Token.STRING, r.next());
+        assertEquals("a\"b\\c\n\u00e9\ud83d\ude00", r.getString());
+    }
+
+    @Test
+    public void testSkipValue() {
+        JsonStreamReader r = reader("{\"skip\": {\"x\": [1, {\"y\": [2, 3]}]}, \"keep\": 7}");
+        r.next();
+        r.next();
+        r.skipValue();
+        assertEquals(Token.NAME, r.next());
+        assertTrue(r.nameEquals("keep"));
+        assertEquals(Token.NUMBER, r.next());
+        assertEquals(7, r.getLong());
+    }
+
+    @Test
+    public void testMalformed() {
+        String[] inputs = {"{\"a\": 1", "[1}", "{1: 2}", "[tru]", "[\"abc"};
+        for (String input : inputs) {
+            JsonStreamReader r = reader(input);
+            try {
+                while (r.next() != Token.END_DOCUMENT) {
+                    // consume
+                }
+                fail("Expected malformed input: " + input);
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+
+public class ObjectIdTest {
+
+    @Test
+    public void testEncoding() {
+        ObjectId id = new ObjectId("rados-java_object");
+        assertEquals("rados-java_object", id.getPointer().getString(0));
+        assertEquals("rados-java_object", id.getName());
+        assertEquals("", new ObjectId("").getPointer().getString(0));
+    }
+
+    @Test
+    public void testIntern() {
+        ObjectId first = ObjectId.intern("hot");
+        assertSame(first, ObjectId.intern("hot"));
+
+        ObjectId other = new ObjectId("hot");
+        assertNotSame(first, other);
+        assertEquals(first, other);
+        assertEquals(first.hashCode(), other.hashCode());
+    }
+
+    @Test
+    public void testInternConcurrently() throws Exception {
+        final int names = 64;
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<ObjectId[]>> results = new ArrayList<Future<ObjectId[]>>();
+            for (int t = 0; t < 8; t++) {
+                results.add(pool.submit(new Callable<ObjectId[]>() {
+                    @Override
+                    public ObjectId[] call() {
+                        ObjectId[] ids = new ObjectId[names];
+                        for (int i = 0; i < names; i++) {
+                            ids[i] = ObjectId.intern("concurrent-" + i);
+                        }
+                        return ids;
+                    }
+                }));
+            }
+            ObjectId[] first = results.get(0).get();
+            for (Future<ObjectId[]> result : results) {
+                ObjectId[] ids = result.get();
+                for (int i = 0; i < names; i++) {
+                    assertSame(first[i], ids[i]);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
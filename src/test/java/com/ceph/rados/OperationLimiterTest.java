@@ -0,0 +1,147 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import com.ceph.rados.exceptions.RadosException;
+import com.ceph.rados.exceptions.RadosTimeoutException;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class OperationLimiterTest {
+
+    @Test
+    public void testFailFastRejectsOverLimit() throws Exception {
+        OperationLimiter limiter = new OperationLimiter(2, 1024, OperationLimiter.Mode.FAIL_FAST);
+        OperationLimiter.Permit first = limiter.acquire(10);
+        limiter.acquire(10);
+
+        try {
+            limiter.acquire(10);
+            fail("The third operation should have been rejected");
+        } catch (RadosException e) {
+            assertEquals(-11, e.getReturnValue());
+        }
+        assertEquals(1, limiter.getRejectedCount());
+
+        first.release();
+        first.release();
+        assertEquals(1, limiter.getInFlightOps());
+        assertEquals(10, limiter.getInFlightBytes());
+        limiter.acquire(10);
+    }
+
+    @Test
+    public void testByteLimit() throws Exception {
+        OperationLimiter limiter = new OperationLimiter(10, 100, OperationLimiter.Mode.FAIL_FAST);
+        // a single operation larger than the byte limit is admitted when nothing is in flight
+        OperationLimiter.Permit large = limiter.acquire(500);
+        try {
+            limiter.acquire(1);
+            fail("The byte limit should have been exceeded");
+        } catch (RadosException e) {
+            assertEquals(-11, e.getReturnValue());
+        }
+        large.release();
+        limiter.acquire(60);
+        limiter.acquire(40);
+        assertEquals(100, limiter.getInFlightBytes());
+    }
+
+    @Test
+    public void testAsyncWaitersAreGrantedInOrder() throws Exception {
+        OperationLimiter limiter = new OperationLimiter(1, 1024, OperationLimiter.Mode.ASYNC);
+        RadosFuture<OperationLimiter.Permit> first = limiter.acquireAsync(1);
+        RadosFuture<OperationLimiter.Permit> second = limiter.acquireAsync(2);
+        RadosFuture<OperationLimiter.Permit> third = limiter.acquireAsync(3);
+
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(2, limiter.getQueueDepth());
+
+        first.await().release();
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+        assertEquals(2, second.await().getBytes());
+
+        second.await().release();
+        assertEquals(3, third.await().getBytes());
+        assertEquals(0, limiter.getQueueDepth());
+    }
+
+    @Test
+    public void testBlockingAcquireWaitsForRelease() throws Exception {
+        final OperationLimiter limiter = new OperationLimiter(1, 1024, OperationLimiter.Mode.BLOCK);
+        final OperationLimiter.Permit held = limiter.acquire(1);
+
+        Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (limiter.getQueueDepth() == 0) {
+                        Thread.sleep(1);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                held.release();
+            }
+        });
+        releaser.start();
+
+        OperationLimiter.Permit permit = limiter.acquire(1);
+        releaser.join();
+        assertEquals(1, limiter.getInFlightOps());
+        assertEquals(1, limiter.getCompletedCount());
+        permit.release();
+    }
+
+    @Test
+    public void testBlockingAcquireHonorsDeadline() throws Exception {
+        OperationLimiter limiter = new OperationLimiter(1, 1024, OperationLimiter.Mode.BLOCK);
+        OperationLimiter.Permit held = limiter.acquire(1);
+        long start = System.nanoTime();
+        try {
+            limiter.acquire(1, Deadline.after(20, TimeUnit.MILLISECONDS));
+            fail("No capacity should have become available");
+        } catch (RadosTimeoutException e) {
+            assertEquals(-110, e.getReturnValue());
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(0, limiter.getQueueDepth());
+        held.release();
+        limiter.acquire(1, Deadline.after(20, TimeUnit.MILLISECONDS)).release();
+    }
+
+    @Test
+    public void testAdaptiveLimitShrinksOnSlowOperations() throws Exception {
+        OperationLimiter limiter = new OperationLimiter(100, 1 << 20, OperationLimiter.Mode.FAIL_FAST);
+        limiter.setAdaptive(1, TimeUnit.NANOSECONDS, 10);
+
+        for (int i = 0; i < 100; i++) {
+            OperationLimiter.Permit permit = limiter.acquire(1);
+            Thread.sleep(0, 1000);
+            permit.release();
+        }
+        assertEquals(10, limiter.getLimit());
+    }
+}
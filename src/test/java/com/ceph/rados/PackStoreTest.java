@@ -0,0 +1,43 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class PackStoreTest {
+
+    @Test
+    public void testLocationEncoding() {
+        final PackStore.Location location = new PackStore.Location("store.pack.1a2b.0000ff00", 1L << 33, 4000);
+        final PackStore.Location decoded = PackStore.Location.decode(location.encode());
+        assertEquals(location.pack, decoded.pack);
+        assertEquals(location.offset, decoded.offset);
+        assertEquals(location.length, decoded.length);
+    }
+
+    @Test
+    public void testMalformedLocation() {
+        assertNull(PackStore.Location.decode(null));
+        assertNull(PackStore.Location.decode(new byte[12]));
+        final byte[] negative = new PackStore.Location("pack", 0, 10).encode();
+        negative[8] = (byte) 0x80;
+        assertNull(PackStore.Location.decode(negative));
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class PlacementMapTest {
+
+    @Test
+    public void testRjenkinsHash() {
+        // "ceph osd map data foo" reports the raw placement seed 7fc1f406
+        assertEquals(0x7fc1f406, PlacementMap.hashRjenkins("foo".getBytes()));
+    }
+
+    @Test
+    public void testStableMod() {
+        // with 12 PGs the mask is 15, seeds 12 to 15 fold onto 4 to 7
+        assertEquals(3, PlacementMap.stableMod(3, 12, 15));
+        assertEquals(11, PlacementMap.stableMod(11, 12, 15));
+        assertEquals(5, PlacementMap.stableMod(13, 12, 15));
+        assertEquals(5, PlacementMap.stableMod(29, 12, 15));
+    }
+
+    @Test
+    public void testPlacement() {
+        int[] primaries = new int[64];
+        for (int i = 0; i < primaries.length; i++) {
+            primaries[i] = i % 3;
+        }
+        PlacementMap map = new PlacementMap(1, 10, 64, 2, primaries);
+        assertEquals("1.6", map.getPgId(null, "foo"));
+        assertEquals(0, map.getPrimary("", "foo"));
+
+        PlacementMap single = new PlacementMap(1, 10, 1, 2, new int[] {4});
+        assertEquals(0, single.getPlacementGroup("ns", "foo"));
+        assertEquals(4, single.getPrimary(null, "bar"));
+
+        int seed = map.getPlacementGroup("ns", "foo");
+        assertTrue(seed >= 0 && seed < 64);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import com.ceph.rados.PoolMetricsSampler.Metric;
+import com.ceph.rados.PoolMetricsSampler.Sample;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class PoolMetricsSamplerTest {
+
+    private static long[] sample(long readOps, long writeBytes) {
+        long[] values = new long[Metric.values().length];
+        values[Metric.READ_OPS.ordinal()] = readOps;
+        values[Metric.WRITE_BYTES.ordinal()] = writeBytes;
+        return values;
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void testRates() {
+        PoolMetricsSampler.Series series = new PoolMetricsSampler.Series(4);
+        assertNull(series.latest());
+
+        series.add(1000, millis(1000), sample(100, 0));
+        Sample first = series.latest();
+        assertEquals(0, first.getElapsedMillis());
+        assertEquals(0.0, first.getRate(Metric.READ_OPS), 0.0);
+
+        series.add(3000, millis(3000), sample(300, 4096));
+        Sample second = series.latest();
+        assertEquals(2000, second.getElapsedMillis());
+        assertEquals(200, second.getDelta(Metric.READ_OPS));
+        assertEquals(100.0, second.getRate(Metric.READ_OPS), 0.0);
+        assertEquals(2048.0, second.getRate(Metric.WRITE_BYTES), 0.0);
+    }
+
+    @Test
+    public void testRatesIgnoreWallClockSteps() {
+        PoolMetricsSampler.Series series = new PoolMetricsSampler.Series(4);
+        series.add(10000, millis(1000), sample(100, 0));
+        // the wall clock was set back by a minute in between
+        series.add(-50000, millis(2000), sample(200, 0));
+        Sample latest = series.latest();
+        assertEquals(-50000, latest.getTimeMillis());
+        assertEquals(1000, latest.getElapsedMillis());
+        assertEquals(100.0, latest.getRate(Metric.READ_OPS), 0.0);
+    }
+
+    @Test
+    public void testRingBuffer() {
+        PoolMetricsSampler.Series series = new PoolMetricsSampler.Series(3);
+        for (int i = 1; i <= 5; i++) {
+            series.add(i * 1000, millis(i * 1000), sample(i, 0));
+        }
+        assertEquals(3, series.size());
+        assertTrue(Arrays.equals(new long[] {3, 4, 5}, series.history(Metric.READ_OPS)));
+        assertTrue(Arrays.equals(new long[] {3000, 4000, 5000}, series.times()));
+        assertEquals(5, series.latest().getValue(Metric.READ_OPS));
+    }
+}
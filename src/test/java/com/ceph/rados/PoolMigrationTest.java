@@ -0,0 +1,45 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class PoolMigrationTest {
+
+    /**
+     * Chunks written to an erasure coded pool without overwrites are whole stripes
+     */
+    @Test
+    public void testAlignedChunkSize() {
+        PoolMigration migration = new PoolMigration(null, null, 8);
+        assertEquals(4 << 20, migration.alignedChunkSize(false, 1));
+        // k=3 with 4 KiB stripe units does not divide 4 MiB
+        int chunk = migration.alignedChunkSize(true, 12288);
+        assertEquals(0, chunk % 12288);
+        assertEquals(341 * 12288, chunk);
+        assertEquals(4 << 20, migration.alignedChunkSize(true, 8192));
+
+        migration.setChunkSize(100000);
+        assertEquals(8 * 12288, migration.alignedChunkSize(true, 12288));
+        assertEquals(100000, migration.alignedChunkSize(false, 1));
+        // never below a single stripe
+        migration.setChunkSize(1000);
+        assertEquals(12288, migration.alignedChunkSize(true, 12288));
+    }
+}
@@ -27,14 +27,31 @@ import com.ceph.rados.jna.RadosPoolInfo;
 import com.ceph.rados.IoCTX;
 import com.ceph.rados.ReadOp;
 import com.ceph.rados.exceptions.ErrorCode;
+import com.ceph.rados.fs.RadosFileSystemProvider;
 import com.ceph.rados.exceptions.RadosException;
+import com.ceph.rados.exceptions.RadosTimeoutException;
 import com.ceph.rados.jna.RadosClusterInfo;
+import com.ceph.rados.jna.RadosListEntry;
+import com.ceph.rados.jna.RadosLockInfo;
 import com.ceph.rados.jna.RadosObjectInfo;
 import com.ceph.rados.jna.RadosPoolInfo;
 
 import java.io.File;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
@@ -315,6 +332,7 @@ public final class TestRados {
         ioctx.snapRemove(snapname);
 
         assertTrue("There should at least be one snapshot", snaps.length >= 1);
+        assertTrue("The snapshot should be listed by its ID", Arrays.asList(snaps).contains(snapid));
         assertEquals("The snapshot names didn't match", snapname, snapnamebuf);
 
         long now = System.currentTimeMillis() / 1000;
@@ -471,6 +489,945 @@ public final class TestRados {
         }
     }
 
+    /**
+     * Writes a few objects asynchronously through a limiter which allows only
+     * one operation at a time and reads them back asynchronously.
+     */
+    @Test
+    public void testIoCtxAioWithLimiter() throws Exception {
+        final String oid = "rados-java_aio_";
+        final byte[] content = "junit wrote this asynchronously".getBytes();
+        final OperationLimiter limiter = new OperationLimiter(1, 1024, OperationLimiter.Mode.ASYNC);
+        ioctx.setOperationLimiter(limiter);
+        try {
+            List<RadosFuture<Integer>> writes = new ArrayList<RadosFuture<Integer>>();
+            for (int i = 0; i < 10; i++) {
+                writes.add(ioctx.aioWriteFull(oid + i, content, content.length));
+            }
+            for (RadosFuture<Integer> write : writes) {
+                write.await();
+            }
+            assertEquals(0, limiter.getInFlightOps());
+            assertEquals(10, limiter.getCompletedCount());
+
+            for (int i = 0; i < 10; i++) {
+                byte[] buf = new byte[content.length];
+                assertEquals(content.length, (int) ioctx.aioRead(oid + i, buf.length, 0, buf).await());
+                assertTrue(Arrays.equals(content, buf));
+            }
+        } finally {
+            ioctx.setOperationLimiter(null);
+            for (int i = 0; i < 10; i++) {
+                cleanupObject(rados, ioctx, oid + i);
+            }
+        }
+    }
+
+
+    /**
+     * Writes and reads an object in every execution mode
+     */
+    @Test
+    public void testIoCtxExecutionModes() throws Exception {
+        final String oid = "rados-java_modes";
+        final byte[] content = "junit wrote this".getBytes();
+        final ExecutionMode offload = ExecutionMode.offload(2);
+        try {
+            for (ExecutionMode mode : new ExecutionMode[] {ExecutionMode.AIO, offload, ExecutionMode.DIRECT}) {
+                ioctx.setExecutionMode(mode);
+                ioctx.writeFull(oid, content, content.length);
+                verifyDocument(oid, content);
+                ioctx.remove(oid);
+            }
+        } finally {
+            ioctx.setExecutionMode(ExecutionMode.DIRECT);
+            offload.shutdown();
+        }
+    }
+
+
+    /**
+     * Writes the same object name into two namespaces and lists them
+     */
+    @Test
+    public void testIoCtxNamespaces() throws Exception {
+        final String oid = "rados-java_namespaced";
+        final byte[] content = "junit wrote this".getBytes();
+        final IoCTX tenantA = ioctx.withNamespace("rados-java-a");
+        final IoCTX tenantB = ioctx.withNamespace("rados-java-b");
+        try {
+            assertTrue("Deriving a namespace twice should return the cached context",
+                       tenantA == ioctx.withNamespace("rados-java-a"));
+            assertEquals("rados-java-a", tenantA.getNamespace());
+            assertEquals("", ioctx.getNamespace());
+            assertEquals("", ioctx.withNamespace(null).getNamespace());
+
+            char[] name = new char[300];
+            Arrays.fill(name, 'n');
+            assertEquals(new String(name), ioctx.withNamespace(new String(name)).getNamespace());
+
+            tenantA.writeFull(oid, content, content.length);
+            tenantB.writeFull(oid, content, 4);
+            assertEquals(content.length, tenantA.stat(oid).getSize());
+            assertEquals(4, tenantB.stat(oid).getSize());
+
+            RadosListEntry[] entries = tenantA.listObjectEntries();
+            assertEquals(1, entries.length);
+            assertEquals("rados-java-a", entries[0].getNamespace());
+            assertEquals(oid, entries[0].getOid());
+
+            IoCTX all = ioctx.withNamespace(IoCTX.ALL_NAMESPACES);
+            int found = 0;
+            for (RadosListEntry entry : all.listObjectEntries()) {
+                if (entry.getOid().equals(oid)) {
+                    found++;
+                }
+            }
+            assertEquals(2, found);
+        } finally {
+            cleanupObject(rados, tenantA, oid);
+            cleanupObject(rados, tenantB, oid);
+        }
+    }
+
+
+    /**
+     * Sets a binary attribute larger than the probe buffer and fetches all
+     * attributes of the object at once.
+     */
+    @Test
+    public void testIoCtxBinaryXattrs() throws Exception {
+        String oid = "rados-java_xattrs";
+        byte[] large = new byte[10000];
+        new Random(42).nextBytes(large);
+        byte[] small = "small".getBytes();
+        try {
+            ioctx.setXattr(oid, "large", large);
+            ioctx.setXattr(oid, "small", java.nio.ByteBuffer.wrap(small));
+
+            assertTrue(Arrays.equals(large, ioctx.getXattr(oid, "large")));
+
+            java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocateDirect(16);
+            assertEquals(small.length, ioctx.getXattr(oid, "small", buf));
+            assertEquals(small.length, buf.position());
+
+            Map<String, byte[]> xattrs = ioctx.getXattrs(oid);
+            assertEquals(2, xattrs.size());
+            assertTrue(Arrays.equals(large, xattrs.get("large")));
+            assertTrue(Arrays.equals(small, xattrs.get("small")));
+        } finally {
+            cleanupObject(rados, ioctx, oid);
+        }
+    }
+
+
+    /**
+     * Reads data, size and metadata of an object with a single ReadOp
+     */
+    @Test
+    public void testReadOpCompound() throws Exception {
+        final String oid = "rados-java_readop";
+        final byte[] content = "The quick brown fox jumped over the lazy dog.".getBytes();
+        try {
+            ioctx.writeFull(oid, content, content.length);
+            ioctx.setXattr(oid, "color", "brown".getBytes());
+
+            ReadOp rop = ioctx.readOpCreate();
+            try {
+                rop.queueAssertExists();
+                rop.queueCmpXattr("color", ComparisonOperator.EQ, "brown".getBytes());
+                ReadResult data = rop.queueRead(0, content.length);
+                ReadOp.StatResult stat = rop.queueStat();
+                ReadOp.XattrResult color = rop.queueGetXattr("color");
+                ReadOp.OmapResult omap = rop.queueOmapGetVals(null, null, 10);
+                assertEquals(0, rop.operate(oid, 0));
+
+                byte[] buf = new byte[(int) data.getBytesRead()];
+                data.getBuffer().get(buf);
+                assertTrue(Arrays.equals(content, buf));
+                assertEquals(content.length, stat.getSize());
+                assertTrue(Arrays.equals("brown".getBytes(), color.getValue()));
+                assertTrue(omap.getEntries().isEmpty());
+            } finally {
+                ioctx.readOpRelease(rop);
+            }
+
+            rop = ioctx.readOpCreate();
+            try {
+                rop.queueCmpXattr("color", ComparisonOperator.EQ, "red".getBytes());
+                rop.queueRead(0, content.length);
+                assertEquals(ErrorCode.ECANCELED.getErrorCode(), rop.operate(oid, 0));
+            } finally {
+                ioctx.readOpRelease(rop);
+            }
+        } finally {
+            cleanupObject(rados, ioctx, oid);
+        }
+    }
+
+
+    /**
+     * Executes a reused ReadOp asynchronously several times
+     */
+    @Test
+    public void testReadOpAsyncReuse() throws Exception {
+        final String oid = "rados-java_readop_async";
+        final byte[] content = "The quick brown fox jumped over the lazy dog.".getBytes();
+        try {
+            ioctx.writeFull(oid, content, content.length);
+
+            ReadOp rop = ioctx.readOpCreate();
+            ReadResult result = new ReadResult(java.nio.ByteBuffer.allocateDirect(5));
+            ReadOp.StatResult stat = new ReadOp.StatResult();
+            try {
+                for (int offset = 0; offset < 20; offset += 5) {
+                    rop.reset();
+                    rop.queueRead(offset, result);
+                    rop.queueStat(stat);
+                    assertEquals(0, (int) rop.operateAsync(oid, 0).await());
+
+                    byte[] buf = new byte[(int) result.getBytesRead()];
+                    result.getBuffer().get(buf);
+                    assertEquals(new String(content, offset, 5), new String(buf));
+                    assertEquals(content.length, stat.getSize());
+                }
+            } finally {
+                ioctx.readOpRelease(rop);
+            }
+        } finally {
+            cleanupObject(rados, ioctx, oid);
+        }
+    }
+
+
+    /**
+     * Takes an exclusive lock which is renewed in the background and verifies
+     * that a second lock attempt times out while it is held.
+     */
+    @Test
+    public void testObjectLocker() throws Exception {
+        final String oid = "rados-java_lock";
+        ObjectLocker locker = new ObjectLocker(ioctx, 200, java.util.concurrent.TimeUnit.MILLISECONDS);
+        try {
+            ObjectLocker.Lock lock = locker.lockExclusive(oid, "junit", 1, java.util.concurrent.TimeUnit.SECONDS);
+            Thread.sleep(500);
+            assertTrue("The lease should have been renewed", lock.isValid());
+            assertTrue(locker.getRenewalCount() > 0);
+
+            RadosLockInfo info = ioctx.listLockers(oid, "junit");
+            assertTrue(info.isExclusive());
+            assertEquals(1, info.getLockers().size());
+            assertEquals(lock.getCookie(), info.getLockers().get(0).getCookie());
+
+            try {
+                locker.lockExclusive(oid, "junit", 50, java.util.concurrent.TimeUnit.MILLISECONDS);
+                fail("The lock should still be held");
+            } catch (RadosTimeoutException e) {
+                assertEquals(1, locker.getTimeoutCount());
+            }
+
+            lock.release();
+            assertEquals(0, ioctx.listLockers(oid, "junit").getLockers().size());
+        } finally {
+            locker.close();
+            cleanupObject(rados, ioctx, oid);
+        }
+    }
+
+
+    /**
+     * Runs "osd dump" on the monitors and walks the JSON output in place
+     */
+    @Test
+    public void testMonCommand() throws Exception {
+        CommandResult result = rados.monCommand("{\"prefix\": \"osd dump\", \"format\": \"json\"}");
+        try {
+            assertTrue(result.getLength() > 0);
+            JsonStreamReader reader = result.getJsonReader();
+            assertEquals(JsonStreamReader.Token.BEGIN_OBJECT, reader.next());
+            long epoch = -1;
+            while (reader.next() == JsonStreamReader.Token.NAME) {
+                if (reader.nameEquals("epoch")) {
+                    reader.next();
+                    epoch = reader.getLong();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            assertTrue("The OSD map should have an epoch", epoch > 0);
+        } finally {
+            result.close();
+        }
+
+        try {
+            rados.monCommand("{\"prefix\": \"no such command\"}");
+            fail("An unknown command should fail");
+        } catch (RadosException e) {
+            assertTrue(e.getReturnValue() < 0);
+        }
+    }
+
+
+    /**
+     * Rewrites objects through the placement scheduler and verifies that all
+     * tasks ran and the concurrency per OSD was respected.
+     */
+    @Test
+    public void testPlacementScheduler() throws Exception {
+        final int objects = 50;
+        final byte[] data = "placement".getBytes();
+        PlacementMap map = PlacementMap.load(rados, ioctx);
+        assertTrue(map.getPgNum() > 0);
+
+        java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(8);
+        final PlacementScheduler scheduler = new PlacementScheduler(ioctx, map, 2, executor);
+        final java.util.concurrent.atomic.AtomicBoolean exceeded = new java.util.concurrent.atomic.AtomicBoolean();
+        try {
+            List<RadosFuture<Void>> futures = new ArrayList<RadosFuture<Void>>();
+            for (int i = 0; i < objects; i++) {
+                final String oid = "rados-java_placement_" + i;
+                final int osd = map.getPrimary("", oid);
+                futures.add(scheduler.submit(oid, new PlacementScheduler.Task() {
+                    @Override
+                    public void run(IoCTX io, String oid) throws RadosException {
+                        if (scheduler.getRunning(osd) > 2) {
+                            exceeded.set(true);
+                        }
+                        io.writeFull(oid, data, data.length);
+                    }
+                }));
+            }
+            for (RadosFuture<Void> future : futures) {
+                future.await();
+            }
+            assertFalse("The concurrency per OSD should be limited", exceeded.get());
+
+            long completed = 0;
+            for (long count : scheduler.getCompletedCounts().values()) {
+                completed += count;
+            }
+            assertEquals(objects, completed);
+        } finally {
+            executor.shutdown();
+            for (int i = 0; i < objects; i++) {
+                ioctx.remove("rados-java_placement_" + i);
+            }
+        }
+    }
+
+
+    /**
+     * Writes, stats, reads and removes an object by its pre-encoded name
+     */
+    @Test
+    public void testObjectId() throws Exception {
+        final ObjectId oid = ObjectId.intern("rados-java_object_id");
+        final byte[] data = "pre-encoded".getBytes();
+        try {
+            ioctx.writeFull(oid, data, data.length);
+            assertEquals(data.length, ioctx.stat(oid).getSize());
+
+            byte[] buf = new byte[data.length];
+            assertEquals(data.length, ioctx.read(oid, buf.length, 0, buf));
+            assertTrue(Arrays.equals(data, buf));
+
+            ReadOp op = ioctx.readOpCreate();
+            ReadOp.StatResult stat = op.queueStat();
+            assertEquals(0, op.operate(oid, 0));
+            assertEquals(data.length, stat.getSize());
+            ioctx.readOpRelease(op);
+
+            assertEquals(data.length, (int) ioctx.aioRead(oid, buf.length, 0, buf).await());
+        } finally {
+            ioctx.remove(oid);
+        }
+    }
+
+
+    /**
+     * Takes a self-managed snapshot, overwrites the object and reads the old
+     * content back through the snapshot. Runs in its own pool, as a pool can
+     * not mix self-managed and pool snapshots.
+     */
+    @Test
+    public void testSelfManagedSnapshots() throws Exception {
+        final String pool = "rados-java_selfmanaged";
+        final String oid = "rados-java_snap";
+        rados.poolCreate(pool);
+        IoCTX io = rados.ioCtxCreate(pool);
+        try {
+            io.write(oid, "before");
+
+            long snapId = io.selfManagedSnapCreate();
+            io.selfManagedSnapSetWriteCtx(snapId, new long[] {snapId});
+            io.writeFull(oid, "after!".getBytes(), 6);
+
+            byte[] buf = new byte[6];
+            io.snapSetRead(snapId);
+            io.read(oid, buf.length, 0, buf);
+            assertEquals("before", new String(buf));
+
+            io.snapSetRead(IoCTX.SNAP_HEAD);
+            io.read(oid, buf.length, 0, buf);
+            assertEquals("after!", new String(buf));
+
+            io.selfManagedSnapRollback(oid, snapId);
+            io.read(oid, buf.length, 0, buf);
+            assertEquals("before", new String(buf));
+
+            io.selfManagedSnapRemove(snapId);
+        } finally {
+            rados.ioCtxDestroy(io);
+            rados.poolDelete(pool);
+        }
+    }
+
+
+    /**
+     * Updates an object with compare-and-swap on its version and verifies
+     * that a stale version and a mismatching extent are rejected.
+     */
+    @Test
+    public void testConditionalWrites() throws Exception {
+        final String oid = "rados-java_versioned";
+        try {
+            ioctx.writeFull(oid, "v1".getBytes(), 2);
+
+            ReadOp read = ioctx.readOpCreate();
+            read.queueCmpExt(0, "v1".getBytes());
+            ReadOp.ReadResult content = read.queueRead(0, 2);
+            assertEquals(0, (int) read.operateAsync(oid, 0).await());
+            long version = read.getVersion();
+            assertTrue(version > 0);
+            assertEquals(2, content.getBytesRead());
+            assertEquals('1', (char) content.getBuffer().get(1));
+            ioctx.readOpRelease(read);
+
+            long next = ioctx.writeFullIfVersion(oid, version, "v2".getBytes());
+            assertTrue(next > version);
+
+            try {
+                ioctx.writeFullIfVersion(oid, version, "v3".getBytes());
+                fail("A stale version should be rejected");
+            } catch (RadosException e) {
+                assertEquals(-34, e.getReturnValue());
+            }
+
+            WriteOp write = ioctx.writeOpCreate();
+            write.queueCmpExt(0, "v1".getBytes());
+            write.queueWriteFull("v4".getBytes());
+            assertTrue("The extent should not match", write.operate(oid, 0) < 0);
+            ioctx.writeOpRelease(write);
+
+            byte[] buf = new byte[2];
+            ioctx.read(oid, 2, 0, buf);
+            assertEquals("v2", new String(buf));
+            assertEquals(next, ioctx.getLastVersion());
+        } finally {
+            cleanupObject(rados, ioctx, oid);
+        }
+    }
+
+
+    /**
+     * Samples the test pool while writing to it and verifies the write rate
+     * through the listener and the MBean.
+     */
+    @Test
+    public void testPoolMetricsSampler() throws Exception {
+        final java.util.concurrent.CountDownLatch samples = new java.util.concurrent.CountDownLatch(2);
+        PoolMetricsSampler sampler = new PoolMetricsSampler(rados, 100, java.util.concurrent.TimeUnit.MILLISECONDS, 16);
+        try {
+            sampler.addPool(POOL);
+            sampler.registerMBeans();
+            sampler.addListener(new PoolMetricsSampler.Listener() {
+                @Override
+                public void onSample(String pool, PoolMetricsSampler.Sample sample) {
+                    samples.countDown();
+                }
+            });
+            ioctx.write("rados-java_metrics", "metrics");
+            assertTrue(samples.await(10, java.util.concurrent.TimeUnit.SECONDS));
+
+            PoolMetricsSampler.Sample latest = sampler.getLatest(POOL);
+            assertTrue(latest.getValue(PoolMetricsSampler.Metric.WRITE_OPS) > 0);
+            assertTrue(sampler.getHistory(POOL, PoolMetricsSampler.Metric.OBJECTS).length >= 2);
+
+            Object objects = java.lang.management.ManagementFactory.getPlatformMBeanServer().getAttribute(
+                    new javax.management.ObjectName("com.ceph.rados:type=PoolMetrics,pool=" + javax.management.ObjectName.quote(POOL)),
+                    "Objects");
+            assertTrue((Long) objects > 0);
+        } finally {
+            sampler.close();
+            cleanupObject(rados, ioctx, "rados-java_metrics");
+        }
+    }
+
+
+    /**
+     * Runs blocking calls with a context timeout and per-call deadlines
+     */
+    @Test
+    public void testOperationTimeouts() throws Exception {
+        final String oid = "rados-java_deadline";
+        final byte[] data = "deadline".getBytes();
+        ioctx.setOperationTimeout(30, java.util.concurrent.TimeUnit.SECONDS);
+        try {
+            ioctx.writeFull(oid, data, data.length);
+            byte[] buf = new byte[data.length];
+            assertEquals(data.length, ioctx.read(oid, buf.length, 0, buf));
+            assertTrue(Arrays.equals(data, buf));
+
+            Deadline deadline = Deadline.after(30, java.util.concurrent.TimeUnit.SECONDS);
+            ioctx.append(oid, data, data.length, deadline);
+            assertEquals(2 * data.length, ioctx.stat(oid).getSize());
+
+            Thread.sleep(1);
+            try {
+                ioctx.read(oid, buf.length, 0, buf, Deadline.after(0, java.util.concurrent.TimeUnit.SECONDS));
+                fail("An expired deadline should time out");
+            } catch (RadosTimeoutException e) {
+                assertEquals(-110, e.getReturnValue());
+            }
+        } finally {
+            ioctx.setOperationTimeout(0, java.util.concurrent.TimeUnit.SECONDS);
+            cleanupObject(rados, ioctx, oid);
+        }
+    }
+
+
+    /**
+     * Reads through a hedged reader whose hedge fires immediately, so every
+     * read races a balanced read against the primary.
+     */
+    @Test
+    public void testHedgedReads() throws Exception {
+        final String oid = "rados-java_hedged";
+        final byte[] data = "hedged read".getBytes();
+        HedgedReader reader = new HedgedReader(ioctx, 0.5, 0, 0, java.util.concurrent.TimeUnit.MILLISECONDS);
+        try {
+            ioctx.writeFull(oid, data, data.length);
+            for (int i = 0; i < 10; i++) {
+                byte[] buf = new byte[data.length];
+                assertEquals(data.length, (int) reader.read(oid, buf.length, 0, buf).await());
+                assertTrue(Arrays.equals(data, buf));
+            }
+            assertEquals(10, reader.getReadCount());
+            assertTrue(reader.getHedgeWinCount() <= reader.getHedgeCount());
+
+            try {
+                reader.read("rados-java_hedged_missing", 1, 0, new byte[1]).await();
+                fail("Reading a missing object should fail");
+            } catch (RadosException e) {
+                assertEquals(-2, e.getReturnValue());
+            }
+        } finally {
+            reader.close();
+            cleanupObject(rados, ioctx, oid);
+        }
+    }
+
+
+    @Test
+    public void testBulkDelete() throws Exception {
+        final int count = 20;
+        final byte[] data = "bulk".getBytes();
+        for (int i = 0; i < count; i++) {
+            ioctx.writeFull("rados-java_bulk-" + i, data, data.length);
+        }
+        ioctx.writeFull("rados-java_keep", data, data.length);
+        java.io.File file = java.io.File.createTempFile("rados-java", ".checkpoint");
+        try {
+            BulkDelete dryRun = ioctx.bulkDelete(rados, BulkDelete.prefix("rados-java_bulk-"));
+            dryRun.setDryRun(true);
+            dryRun.run();
+            assertEquals(count, dryRun.getMatchedCount());
+            assertEquals(0, dryRun.getRemovedCount());
+            assertEquals(dryRun.getPgNum(), dryRun.getCompletedPgCount());
+            assertEquals(data.length, ioctx.stat("rados-java_bulk-0").getSize());
+
+            BulkDelete delete = ioctx.bulkDelete(rados, BulkDelete.regex("rados-java_bulk-\\d+"));
+            delete.setConcurrency(2);
+            delete.setMaxInFlight(4);
+            delete.setRateLimit(1000);
+            delete.setCheckpoint(new BulkDelete.FileCheckpoint(file));
+            delete.run();
+            assertEquals(count, delete.getRemovedCount());
+            assertEquals(0, delete.getFailedCount());
+            assertEquals(delete.getPgNum(), new BulkDelete.FileCheckpoint(file).load(delete.getPgNum()).size());
+            assertEquals(data.length, ioctx.stat("rados-java_keep").getSize());
+            try {
+                ioctx.stat("rados-java_bulk-0");
+                fail("The object should have been removed");
+            } catch (RadosException e) {
+                assertEquals(-2, e.getReturnValue());
+            }
+
+            // every placement group is in the checkpoint, a resumed run lists nothing
+            delete.run();
+            assertEquals(0, delete.getListedCount());
+        } finally {
+            file.delete();
+            cleanupObject(rados, ioctx, "rados-java_keep");
+        }
+    }
+
+
+    @Test
+    public void testPoolMigration() throws Exception {
+        final IoCTX from = ioctx.withNamespace("rados-java-migrate-from");
+        final IoCTX to = ioctx.withNamespace("rados-java-migrate-to");
+        final byte[] data = new byte[10000];
+        new java.util.Random(7).nextBytes(data);
+        final String[] oids = {"rados-java_migrate-0", "rados-java_migrate-1", "rados-java_migrate-empty"};
+        try {
+            from.write(oids[0], data, 0);
+            from.setXattr(oids[0], "color", "blue".getBytes());
+            from.write(oids[1], "small".getBytes(), 0);
+            from.writeFull(oids[2], new byte[0], 0);
+            // an earlier copy with an attribute the source does not have
+            to.write(oids[1], "stale copy".getBytes(), 0);
+            to.setXattr(oids[1], "stale", "yes".getBytes());
+
+            PoolMigration migration = new PoolMigration(rados, from, to);
+            migration.setConcurrency(2);
+            migration.setChunkSize(4096);
+            migration.setBandwidthLimit(1 << 20);
+            migration.setDeleteSource(true);
+            migration.run();
+
+            assertEquals(3, migration.getCopiedCount());
+            assertEquals(data.length + 5, migration.getCopiedBytes());
+            assertEquals(0, migration.getMismatchCount());
+            assertEquals(0, migration.getFailedCount());
+            assertEquals(3, migration.getDeletedCount());
+            assertEquals(migration.getPgNum(), migration.getCompletedPgCount());
+
+            byte[] buf = new byte[data.length];
+            assertEquals(data.length, to.read(oids[0], buf.length, 0, buf));
+            assertTrue(Arrays.equals(data, buf));
+            assertTrue(Arrays.equals("blue".getBytes(), to.getXattr(oids[0], "color")));
+            assertEquals(0, to.stat(oids[2]).getSize());
+            assertEquals(0, to.getXattrs(oids[1]).size());
+            assertEquals(0, from.listObjectEntries().length);
+        } finally {
+            for (String oid : oids) {
+                for (IoCTX io : new IoCTX[] {from, to}) {
+                    try {
+                        io.remove(oid);
+                    } catch (RadosException e) {
+                        // already moved or never copied
+                    }
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testAlignedAppend() throws Exception {
+        final String oid = "rados-java_aligned";
+        final long alignment = ioctx.isAlignmentRequired() ? ioctx.getRequiredAlignment() : 0;
+        assertTrue(alignment >= 0);
+
+        final byte[] data = new byte[10000];
+        new java.util.Random(3).nextBytes(data);
+        try {
+            AlignedAppender appender = new AlignedAppender(ioctx, oid, 4096);
+            appender.append(data, 0, 5000);
+            appender.flush();
+            assertEquals(4096, appender.getAppendedBytes());
+            assertEquals(904, appender.getBufferedBytes());
+            assertEquals(4096, ioctx.stat(oid).getSize());
+
+            appender.append(data, 5000, 5000);
+            appender.setPadTail(true);
+            appender.close();
+            assertEquals(12288, appender.getAppendedBytes());
+            assertEquals(12288, ioctx.stat(oid).getSize());
+
+            byte[] buf = new byte[12288];
+            assertEquals(12288, ioctx.read(oid, buf.length, 0, buf));
+            assertTrue(Arrays.equals(data, Arrays.copyOf(buf, data.length)));
+            assertEquals(0, buf[buf.length - 1]);
+        } finally {
+            cleanupObject(rados, ioctx, oid);
+        }
+    }
+
+
+    @Test
+    public void testChunkedWrites() throws Exception {
+        final IoCTX io = ioctx.withNamespace("rados-java-chunked");
+        final String oid = "rados-java_chunked";
+        assertTrue(ioctx.getMaxWriteSize() > 0);
+        io.setMaxWriteSize(1 << 20);
+
+        final byte[] data = new byte[(7 << 19) + 123];
+        new java.util.Random(5).nextBytes(data);
+        try {
+            io.writeFull(oid, new byte[8 << 20], 8 << 20);
+            io.writeFull(oid, data, data.length);
+            assertEquals(data.length, io.stat(oid).getSize());
+            byte[] buf = new byte[data.length];
+            assertEquals(data.length, io.read(oid, buf.length, 0, buf));
+            assertTrue(Arrays.equals(data, buf));
+
+            io.write(oid, data, data.length);
+            assertEquals(2L * data.length, io.stat(oid).getSize());
+
+            io.writeFullChunked(oid, data, 1000, 300);
+            assertEquals(1000, io.stat(oid).getSize());
+        } finally {
+            cleanupObject(rados, io, oid);
+        }
+    }
+
+
+    @Test
+    public void testCompressedObjects() throws Exception {
+        final CompressedIoCTX compressed = new CompressedIoCTX(ioctx, new DeflateCodec(), 1024);
+        final String[] oids = {"rados-java_compressed", "rados-java_compressed-small", "rados-java_compressed-plain"};
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            json.append("{\"id\":").append(i).append(",\"state\":\"ok\"},");
+        }
+        final byte[] data = json.toString().getBytes();
+        try {
+            compressed.writeFull(oids[0], data);
+            assertTrue(ioctx.stat(oids[0]).getSize() * 3 < data.length);
+            assertEquals(data.length, compressed.getSize(oids[0]));
+            assertTrue(Arrays.equals(data, compressed.read(oids[0])));
+
+            compressed.writeFull(oids[1], "small".getBytes());
+            assertEquals(5, ioctx.stat(oids[1]).getSize());
+            assertEquals("small", new String(compressed.read(oids[1])));
+
+            // objects written without the codec layer are read as they are
+            ioctx.write(oids[2], "plain");
+            assertEquals("plain", new String(compressed.read(oids[2])));
+
+            assertEquals(data.length + 5, compressed.getRawBytes());
+            assertTrue(compressed.getStoredBytes() < compressed.getRawBytes());
+        } finally {
+            for (String oid : oids) {
+                cleanupObject(rados, ioctx, oid);
+            }
+        }
+    }
+
+
+    /**
+     * Checksummed objects detect data changed behind their back
+     */
+    @Test
+    public void testChecksummedObjects() throws Exception {
+        final ChecksummedIoCTX checked = new ChecksummedIoCTX(ioctx, 4096);
+        final String oid = "rados-java_checksummed";
+        final byte[] data = new byte[10000];
+        new Random(5).nextBytes(data);
+        try {
+            checked.writeFull(oid, data, data.length);
+            assertTrue(Arrays.equals(data, checked.read(oid)));
+            final byte[] buf = new byte[100];
+            assertEquals(100, checked.read(oid, 100, 5000, buf));
+            assertTrue(Arrays.equals(Arrays.copyOfRange(data, 5000, 5100), buf));
+            assertTrue(checked.verify(oid));
+            // only a partial chunk, checksummed without chunking
+            checked.writeFull(oid, data, 100);
+            assertTrue(checked.verify(oid));
+            checked.writeFull(oid, data, data.length);
+
+            ioctx.write(oid, new byte[]{(byte) ~data[9000]}, 9000);
+            assertEquals(100, checked.read(oid, 100, 0, buf));
+            try {
+                checked.read(oid, 100, 8500, buf);
+                fail("The corrupted chunk should not be returned");
+            } catch (RadosException e) {
+                assertEquals(-5, e.getReturnValue());
+            }
+            assertFalse(checked.verify(oid));
+            assertEquals(2, checked.getMismatchCount());
+        } finally {
+            cleanupObject(rados, ioctx, oid);
+        }
+    }
+
+
+    /**
+     * Small blobs share pack objects and sparse packs are compacted
+     */
+    @Test
+    public void testPackStore() throws Exception {
+        final String name = "rados-java_packs";
+        final PackStore store = new PackStore(ioctx, name, 4096);
+        final Map<String, byte[]> blobs = new HashMap<String, byte[]>();
+        final Random random = new Random(7);
+        for (int i = 0; i < 100; i++) {
+            final byte[] blob = new byte[100 + random.nextInt(200)];
+            random.nextBytes(blob);
+            blobs.put("key-" + i, blob);
+        }
+        try {
+            store.putAll(blobs);
+            store.put("empty", new byte[0]);
+            final Map<String, byte[]> read = store.getAll(blobs.keySet());
+            assertEquals(blobs.size(), read.size());
+            for (Map.Entry<String, byte[]> e : blobs.entrySet()) {
+                assertTrue(Arrays.equals(e.getValue(), read.get(e.getKey())));
+            }
+            assertEquals(0, store.get("empty").length);
+            assertEquals(null, store.get("missing"));
+
+            store.put("key-0", "replaced".getBytes());
+            assertEquals("replaced", new String(store.get("key-0")));
+            final List<String> deleted = new ArrayList<String>();
+            for (int i = 1; i < 90; i++) {
+                deleted.add("key-" + i);
+            }
+            store.deleteAll(deleted);
+            assertEquals(null, store.get("key-1"));
+
+            assertTrue(store.compact(0.5) > 0);
+            assertTrue(store.getCompactedPacks() > 0);
+            assertEquals("replaced", new String(store.get("key-0")));
+            for (int i = 90; i < 100; i++) {
+                assertTrue(Arrays.equals(blobs.get("key-" + i), store.get("key-" + i)));
+            }
+        } finally {
+            store.close();
+            for (String oid : ioctx.listObjects()) {
+                if (oid.startsWith(name)) {
+                    cleanupObject(rados, ioctx, oid);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Similar blobs share their chunks, which are removed with the last blob
+     */
+    @Test
+    public void testDedupStore() throws Exception {
+        final String prefix = "rados-java_dedup";
+        final DedupStore store = new DedupStore(ioctx, prefix, new FastCdc(1024, 4096, 16384), 4);
+        final byte[] data = new byte[200000];
+        new Random(13).nextBytes(data);
+        final byte[] edited = Arrays.copyOf(data, data.length + 10);
+        System.arraycopy(data, 100000, edited, 100010, data.length - 100000);
+        try {
+            assertEquals(data.length, store.put("first", new java.io.ByteArrayInputStream(data)));
+            final long stored = store.getStoredBytes();
+            assertEquals(data.length, stored);
+            store.put("second", new java.io.ByteArrayInputStream(edited));
+            assertTrue(store.getStoredBytes() - stored < 40000);
+            assertTrue(store.getDedupedBytes() > 160000);
+
+            final java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            store.get("second", out);
+            assertTrue(Arrays.equals(edited, out.toByteArray()));
+            assertEquals(data.length, store.getSize("first"));
+
+            assertTrue(store.delete("first"));
+            assertFalse(store.delete("first"));
+            out.reset();
+            store.get("second", out);
+            assertTrue(Arrays.equals(edited, out.toByteArray()));
+            assertTrue(store.delete("second"));
+            for (String oid : ioctx.listObjects()) {
+                assertFalse(oid.startsWith(prefix));
+            }
+        } finally {
+            store.close();
+            for (String oid : ioctx.listObjects()) {
+                if (oid.startsWith(prefix)) {
+                    cleanupObject(rados, ioctx, oid);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Objects can be used through java.nio.file
+     */
+    @Test
+    public void testFileSystemProvider() throws Exception {
+        final Map<String, Object> env = new HashMap<String, Object>();
+        env.put(RadosFileSystemProvider.ENV_RADOS, rados);
+        env.put(RadosFileSystemProvider.ENV_BUFFER_SIZE, 65536);
+        final FileSystem fs = FileSystems.newFileSystem(new URI("rados://" + POOL + "/rados-java_fs/"), env);
+        final byte[] data = new byte[300000];
+        new Random(17).nextBytes(data);
+        try {
+            final Path file = fs.getPath("/dir/sub/data.bin");
+            Files.write(file, data);
+            assertTrue(Arrays.equals(data, Files.readAllBytes(file)));
+            assertEquals(data.length, Files.size(file));
+            assertTrue(Files.isDirectory(fs.getPath("/dir")));
+            assertEquals(fs.getPath("/dir/sub/data.bin"), fs.provider().getPath(file.toUri()));
+
+            Files.copy(file, fs.getPath("/dir/copy.bin"));
+            assertTrue(Arrays.equals(data, Files.readAllBytes(fs.getPath("/dir/copy.bin"))));
+            Files.createDirectory(fs.getPath("/empty"));
+
+            final List<String> children = new ArrayList<String>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(fs.getPath("/dir"))) {
+                for (Path child : stream) {
+                    children.add(child.getFileName().toString());
+                }
+            }
+            assertEquals(Arrays.asList("copy.bin", "sub"), children);
+
+            final UserDefinedFileAttributeView view =
+                    Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+            view.write("owner", ByteBuffer.wrap("ceph".getBytes()));
+            assertEquals("ceph", new String((byte[]) Files.getAttribute(file, "user:owner")));
+            try {
+                Files.setAttribute(file, "user:owner", 42);
+                fail("Only byte[] and ByteBuffer values should be accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+
+            // the copy replaces the content and the attributes of the target in place
+            final Path copy = fs.getPath("/dir/copy.bin");
+            Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            assertEquals("ceph", new String((byte[]) Files.getAttribute(copy, "user:owner")));
+            final Path small = fs.getPath("/small.bin");
+            Files.write(small, "small".getBytes());
+            Files.copy(small, copy, StandardCopyOption.REPLACE_EXISTING);
+            assertEquals("small", new String(Files.readAllBytes(copy)));
+            assertTrue(Files.readAttributes(copy, "user:*").isEmpty());
+            Files.delete(small);
+
+            try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+                final ByteBuffer buf = ByteBuffer.allocate(10);
+                channel.position(200000).read(buf);
+                assertTrue(Arrays.equals(Arrays.copyOfRange(data, 200000, 200010), buf.array()));
+            }
+
+            try {
+                Files.delete(fs.getPath("/dir"));
+                fail("A directory with objects should not be deleted");
+            } catch (DirectoryNotEmptyException e) {
+                // expected
+            }
+            Files.delete(file);
+            Files.delete(fs.getPath("/dir/copy.bin"));
+            Files.delete(fs.getPath("/empty"));
+            assertFalse(Files.exists(fs.getPath("/dir")));
+        } finally {
+            final IoCTX io = ioctx.withNamespace("rados-java_fs");
+            for (RadosListEntry entry : io.listObjectEntries()) {
+                cleanupObject(rados, io, entry.getOid());
+            }
+            fs.close();
+        }
+    }
+
+
     static class RadosFinalizeTest extends Rados {
 
         public RadosFinalizeTest(String id) {
@@ -0,0 +1,34 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados.fs;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class RadosFileSystemTest {
+
+    @Test
+    public void testFirstWithPrefix() {
+        final String[] names = {"a", "a/", "a/b", "a/c/d", "ab", "b/x"};
+        assertEquals(1, RadosFileSystem.firstWithPrefix(names, "a/"));
+        assertEquals(3, RadosFileSystem.firstWithPrefix(names, "a/c/"));
+        assertEquals(5, RadosFileSystem.firstWithPrefix(names, "b/"));
+        assertEquals(6, RadosFileSystem.firstWithPrefix(names, "c/"));
+        assertEquals(0, RadosFileSystem.firstWithPrefix(new String[0], "a/"));
+    }
+}
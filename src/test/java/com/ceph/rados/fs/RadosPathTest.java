@@ -0,0 +1,84 @@
+/*
+ * RADOS Java - Java bindings for librados
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.ceph.rados.fs;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class RadosPathTest {
+
+    private final RadosFileSystem fs = new RadosFileSystem(null, "data/ns", null, false, null, "data", "ns", 4096, 0);
+
+    @Test
+    public void testPathOperations() {
+        final Path path = fs.getPath("/logs//2024/", "app.log");
+        assertEquals("/logs/2024/app.log", path.toString());
+        assertEquals("logs/2024/app.log", ((RadosPath) path).oid());
+        assertEquals(3, path.getNameCount());
+        assertEquals("app.log", path.getFileName().toString());
+        assertEquals("/logs/2024", path.getParent().toString());
+        assertEquals("/", path.getParent().getParent().getParent().toString());
+        assertNull(path.getRoot().getParent());
+        assertEquals("2024/app.log", path.subpath(1, 3).toString());
+        assertTrue(path.startsWith("/logs"));
+        assertFalse(path.startsWith("/log"));
+        assertTrue(path.endsWith("2024/app.log"));
+
+        assertEquals("/a/c", fs.getPath("/a/./b/../c").normalize().toString());
+        assertEquals("/c", fs.getPath("/../c").normalize().toString());
+        assertEquals("../c", fs.getPath("../c").normalize().toString());
+        assertEquals("/a/b/c", fs.getPath("/a/b").resolve("c").toString());
+        assertEquals("/x", fs.getPath("/a/b").resolve("/x").toString());
+        assertEquals("/a/x", fs.getPath("/a/b").resolveSibling("x").toString());
+        assertEquals("../c/d", fs.getPath("/a/b").relativize(fs.getPath("/a/c/d")).toString());
+        assertEquals("a/b", ((RadosPath) fs.getPath("a/b")).oid());
+    }
+
+    @Test
+    public void testUri() {
+        assertEquals("rados://data/ns/a/b%20c", fs.getPath("/a/b c").toUri().toString());
+        final RadosFileSystem defaultNamespace =
+                new RadosFileSystem(null, "data/", null, false, null, "data", "", 4096, 0);
+        assertEquals("rados://data//a", defaultNamespace.getPath("a").toUri().toString());
+    }
+
+    @Test
+    public void testChildren() {
+        final String[] names = {"a", "a-b", "a/", "a/c", "a/d/e", "a/d/f", "b", "ab/x"};
+        Arrays.sort(names);
+        assertEquals(Arrays.asList("a", "a-b", "ab", "b"), Arrays.asList(RadosDirectoryStream.children("", names)));
+        assertEquals(Arrays.asList("c", "d"), Arrays.asList(RadosDirectoryStream.children("a", names)));
+        assertEquals(Arrays.asList("e", "f"), Arrays.asList(RadosDirectoryStream.children("a/d", names)));
+        assertEquals(0, RadosDirectoryStream.children("b", names).length);
+    }
+
+    @Test
+    public void testGlob() {
+        assertTrue(fs.getPathMatcher("glob:*.log").matches(fs.getPath("app.log")));
+        assertFalse(fs.getPathMatcher("glob:*.log").matches(fs.getPath("x/app.log")));
+        assertTrue(fs.getPathMatcher("glob:**/*.{log,txt}").matches(fs.getPath("x/y/app.txt")));
+        assertTrue(fs.getPathMatcher("glob:file[0-9]?").matches(fs.getPath("file1a")));
+        assertTrue(fs.getPathMatcher("regex:a.*").matches(fs.getPath("abc")));
+    }
+}
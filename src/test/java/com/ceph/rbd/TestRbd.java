@@ -25,8 +25,11 @@ import com.ceph.rados.exceptions.RadosException;
 import com.ceph.rados.IoCTX;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import junit.framework.*;
 
@@ -593,4 +596,58 @@ public final class TestRbd extends TestCase {
 			fail(e.getMessage() + ": " + e.getReturnValue());
 		}
 	}
+
+    public void testFileChannel() throws Exception {
+        String imageName = "imageforchanneltest";
+        long imageSize = 10485760;
+
+        Rados r = new Rados(this.id);
+        r.confReadFile(new File(this.configFile));
+        r.connect();
+        IoCTX io = r.ioCtxCreate(this.pool);
+
+        Rbd rbd = new Rbd(io);
+        rbd.create(imageName, imageSize, (1<<0), 0);
+        RbdImage image = rbd.open(imageName);
+        try {
+            RbdFileChannel channel = new RbdFileChannel(image);
+            assertEquals(imageSize, channel.size());
+
+            // concurrent positional writes of different blocks
+            List<Future<Integer>> writes = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 16; i++) {
+                ByteBuffer block = ByteBuffer.allocateDirect(4096);
+                while (block.hasRemaining()) {
+                    block.put((byte) i);
+                }
+                block.flip();
+                writes.add(channel.write(block, i * 4096L));
+            }
+            for (Future<Integer> write : writes) {
+                assertEquals(4096, (int) write.get());
+            }
+            channel.force(true);
+
+            // gathering write and scattering read
+            ByteBuffer[] srcs = {ByteBuffer.wrap("ce".getBytes()), ByteBuffer.wrap("ph".getBytes())};
+            assertEquals(4L, (long) channel.write(srcs, 100000).get());
+            ByteBuffer[] dsts = {ByteBuffer.allocate(1), ByteBuffer.allocate(3)};
+            assertEquals(4L, (long) channel.read(dsts, 100000).get());
+            assertEquals("ceph", new String(dsts[0].array()) + new String(dsts[1].array()));
+
+            ByteBuffer block = ByteBuffer.allocate(4096);
+            assertEquals(4096, (int) channel.read(block, 5 * 4096L).get());
+            assertEquals(5, block.get(4095));
+            assertEquals(-1, (int) channel.read(ByteBuffer.allocate(10), imageSize).get());
+
+            channel.truncate(65536);
+            assertEquals(65536, channel.size());
+            channel.close();
+            assertFalse(channel.isOpen());
+        } finally {
+            rbd.close(image);
+            rbd.remove(imageName);
+            r.ioCtxDestroy(io);
+        }
+    }
 }